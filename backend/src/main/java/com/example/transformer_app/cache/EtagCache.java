@@ -0,0 +1,180 @@
+package com.example.transformer_app.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Server-side ETag store for the polled GET endpoints.
+ *
+ * The ETag of the last body served for a resource is remembered under a key, so an
+ * If-None-Match that still matches can be answered with 304 without calling Supabase.
+ * Every write path in the services evicts the keys it touches. Entries also expire after
+ * a TTL, which bounds staleness when rows are changed outside this instance, and at most
+ * max-entries keys are kept, the least recently used going first.
+ *
+ * A GET that read the row before a concurrent write must not store its ETag after the write's
+ * eviction, or clients would get 304 for the old body until the TTL ran out. So every eviction
+ * bumps a generation counter for the key, readers take generation(key) before reading upstream
+ * and withEtag only stores the entry if it hasn't moved since. The counters are striped by key
+ * hash, which keeps them bounded; a collision only means an ETag isn't stored this time.
+ */
+@Component
+public class EtagCache {
+
+    @Value("${etag.cache.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    @Value("${etag.cache.max-entries:10000}")
+    private int maxEntries;
+
+    private static final int GENERATION_STRIPES = 4096;
+
+    private record Entry(String etag, long expiresAtMillis) {
+    }
+
+    // Guarded by entries, like the counters below
+    private final long[] generations = new long[GENERATION_STRIPES];
+    // Bumped by evictPrefix, which can cover keys that have no entry yet
+    private long prefixGeneration;
+
+    // Guarded by itself; access-ordered, so the least recently matched key is dropped first
+    private final Map<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    public static String inspectionKey(Object iid) {
+        return "inspection:" + normalizeId(iid);
+    }
+
+    public static String anomaliesKey(Object iid) {
+        return "inspection:" + normalizeId(iid) + ":anomalies";
+    }
+
+    public static String maintenanceKey(Object mid) {
+        return "maintenance:" + normalizeId(mid);
+    }
+
+    // Path variables arrive as raw strings ("012", " 12") while the services evict by Long,
+    // so numeric ids are keyed by their canonical form
+    static String normalizeId(Object id) {
+        if (id instanceof String text) {
+            try {
+                return String.valueOf(Long.parseLong(text.trim()));
+            } catch (NumberFormatException e) {
+                return text;
+            }
+        }
+        return String.valueOf(id);
+    }
+
+    // True when the client's If-None-Match still names the ETag we last served for this key
+    public boolean matches(String key, String ifNoneMatch) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return false;
+        }
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                return false;
+            }
+            if (entry.expiresAtMillis() < System.currentTimeMillis()) {
+                entries.remove(key);
+                return false;
+            }
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(entry.etag())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public ResponseEntity<String> notModified(String key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .cacheControl(CacheControl.noCache());
+        if (entry != null) {
+            builder.eTag(entry.etag());
+        }
+        return builder.build();
+    }
+
+    // Taken before the upstream read whose body is later passed to withEtag
+    public long generation(String key) {
+        synchronized (entries) {
+            return generations[stripe(key)] + prefixGeneration;
+        }
+    }
+
+    /**
+     * Hash a successful body and return the response with the ETag attached. The ETag is only
+     * remembered if nothing evicted the key since generation was taken.
+     */
+    public ResponseEntity<String> withEtag(String key, long generation, ResponseEntity<String> response) {
+        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+            return response;
+        }
+        String etag = "\"" + DigestUtils.md5DigestAsHex(response.getBody().getBytes(StandardCharsets.UTF_8)) + "\"";
+        synchronized (entries) {
+            if (generations[stripe(key)] + prefixGeneration == generation) {
+                entries.put(key, new Entry(etag, System.currentTimeMillis() + ttlSeconds * 1000));
+            }
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(response.getHeaders());
+        headers.setETag(etag);
+        headers.setCacheControl(CacheControl.noCache());
+        return new ResponseEntity<>(response.getBody(), headers, response.getStatusCode());
+    }
+
+    public void evict(String key) {
+        synchronized (entries) {
+            entries.remove(key);
+            generations[stripe(key)]++;
+        }
+    }
+
+    public void evictInspection(Object iid) {
+        synchronized (entries) {
+            for (String key : new String[]{inspectionKey(iid), anomaliesKey(iid)}) {
+                entries.remove(key);
+                generations[stripe(key)]++;
+            }
+        }
+    }
+
+    // Used when a change can affect many cached bodies, e.g. a transformer's baseline image
+    // which is embedded in every inspection detail response
+    public void evictPrefix(String prefix) {
+        synchronized (entries) {
+            entries.keySet().removeIf(key -> key.startsWith(prefix));
+            prefixGeneration++;
+        }
+    }
+
+    private static int stripe(String key) {
+        return Math.floorMod(key.hashCode(), GENERATION_STRIPES);
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.transformer_app.config;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class JacksonConfig {
+
+    // Spring Boot registers every Module bean on the application ObjectMapper, which is then
+    // shared by the MVC message converters, the RestTemplate and JsonCodecs.
+    // Blackbird swaps reflective getters/setters for LambdaMetafactory-generated accessors.
+    @Bean
+    public Module blackbirdModule() {
+        return new BlackbirdModule();
+    }
+}
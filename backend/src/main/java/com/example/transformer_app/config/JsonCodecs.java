@@ -0,0 +1,213 @@
+package com.example.transformer_app.config;
+
+import com.example.transformer_app.dto.AnomalyLogEntry;
+import com.example.transformer_app.dto.Detection;
+import com.example.transformer_app.dto.ImageAnalysisResult;
+import com.example.transformer_app.dto.InspectionWithBaseline;
+import com.example.transformer_app.dto.LambdaInferenceResponse;
+import com.example.transformer_app.dto.MaintenanceExtras;
+import com.example.transformer_app.dto.TransformerWithInspections;
+import com.example.transformer_app.dto.UpdateMaintenanceRequest;
+import com.example.transformer_app.dto.VoltageCurrentReadings;
+import com.example.transformer_app.model.Inspection;
+import com.example.transformer_app.model.Maintenance;
+import com.example.transformer_app.model.Transformer;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Shared JSON readers and writers built once from the application ObjectMapper.
+ * ObjectReader/ObjectWriter are immutable and thread-safe, and keep their root
+ * (de)serializer resolved, so the hot paths skip the per-call type lookup.
+ * Each read/write is timed under json.codec so our own JSON work shows up next to upstream latency.
+ */
+@Component
+public class JsonCodecs {
+
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry registry;
+
+    private final ObjectReader inspectionListReader;
+    private final ObjectReader transformerListReader;
+    private final ObjectReader maintenanceListReader;
+    private final ObjectReader transformerReader;
+    private final ObjectReader lambdaResponseReader;
+    private final ObjectReader anomalyLogReader;
+    private final ObjectReader detectionListReader;
+    private final ObjectReader readingsReader;
+
+    private final ObjectWriter inspectionWriter;
+    private final ObjectWriter inspectionWithBaselineWriter;
+    private final ObjectWriter maintenanceWriter;
+    private final ObjectWriter detectionListWriter;
+    private final ObjectWriter anomalyLogWriter;
+
+    private final ObjectWriter writer;
+    private final ObjectWriter prettyWriter;
+
+    public JsonCodecs(ObjectMapper objectMapper, MeterRegistry registry) {
+        this.objectMapper = objectMapper;
+        this.registry = registry;
+        this.inspectionListReader = objectMapper.readerFor(new TypeReference<List<Inspection>>() {});
+        this.transformerListReader = objectMapper.readerFor(new TypeReference<List<Transformer>>() {});
+        this.maintenanceListReader = objectMapper.readerFor(new TypeReference<List<Maintenance>>() {});
+        this.transformerReader = objectMapper.readerFor(Transformer.class);
+        this.lambdaResponseReader = objectMapper.readerFor(LambdaInferenceResponse.class);
+        this.anomalyLogReader = objectMapper.readerFor(new TypeReference<List<AnomalyLogEntry>>() {});
+        this.detectionListReader = objectMapper.readerFor(new TypeReference<List<Detection>>() {});
+        this.readingsReader = objectMapper.readerFor(VoltageCurrentReadings.class);
+        this.inspectionWriter = objectMapper.writerFor(Inspection.class);
+        this.inspectionWithBaselineWriter = objectMapper.writerFor(InspectionWithBaseline.class);
+        this.maintenanceWriter = objectMapper.writerFor(Maintenance.class);
+        this.detectionListWriter = objectMapper.writerFor(new TypeReference<List<Detection>>() {});
+        this.anomalyLogWriter = objectMapper.writerFor(new TypeReference<List<AnomalyLogEntry>>() {});
+        this.writer = objectMapper.writer();
+        this.prettyWriter = objectMapper.writerWithDefaultPrettyPrinter();
+    }
+
+    // Serialize one empty instance of each hot type so the serializer cache is populated
+    // before the first real request instead of during it
+    @PostConstruct
+    void warmUp() throws IOException {
+        Object[] samples = {
+                new Detection(), new AnomalyLogEntry(), new ImageAnalysisResult(), new LambdaInferenceResponse(),
+                new Inspection(), new Transformer(), new Maintenance(),
+                new InspectionWithBaseline(), new TransformerWithInspections(),
+                new UpdateMaintenanceRequest(), new MaintenanceExtras()
+        };
+        for (Object sample : samples) {
+            writer.writeValueAsBytes(sample);
+        }
+        inspectionWriter.writeValueAsBytes(new Inspection());
+        inspectionWithBaselineWriter.writeValueAsBytes(new InspectionWithBaseline());
+        maintenanceWriter.writeValueAsBytes(new Maintenance());
+        detectionListWriter.writeValueAsBytes(List.of(new Detection()));
+        anomalyLogWriter.writeValueAsBytes(List.of(new AnomalyLogEntry()));
+        objectMapper.readerFor(Detection.class).readValue("{}");
+        objectMapper.readerFor(AnomalyLogEntry.class).readValue("{}");
+        objectMapper.readerFor(UpdateMaintenanceRequest.class).readValue("{}");
+        inspectionListReader.readValue("[]");
+        transformerListReader.readValue("[]");
+        maintenanceListReader.readValue("[]");
+    }
+
+    public ObjectMapper mapper() {
+        return objectMapper;
+    }
+
+    public List<Inspection> readInspections(String json) throws IOException {
+        return timed("read-inspections", () -> inspectionListReader.readValue(json));
+    }
+
+    public List<Transformer> readTransformers(String json) throws IOException {
+        return timed("read-transformers", () -> transformerListReader.readValue(json));
+    }
+
+    public List<Maintenance> readMaintenance(String json) throws IOException {
+        return timed("read-maintenance", () -> maintenanceListReader.readValue(json));
+    }
+
+    public Transformer readTransformer(InputStream in) throws IOException {
+        return transformerReader.readValue(in);
+    }
+
+    public Transformer readTransformer(String json) throws IOException {
+        return transformerReader.readValue(json);
+    }
+
+    public LambdaInferenceResponse readLambdaResponse(String json) throws IOException {
+        return timed("read-lambda-response", () -> lambdaResponseReader.readValue(json));
+    }
+
+    public List<AnomalyLogEntry> readAnomalyLog(InputStream in) throws IOException {
+        return timed("read-anomaly-log", () -> anomalyLogReader.readValue(in));
+    }
+
+    public List<AnomalyLogEntry> readAnomalyLog(JsonNode node) throws IOException {
+        return anomalyLogReader.readValue(node);
+    }
+
+    public List<Detection> readDetections(JsonNode node) throws IOException {
+        return detectionListReader.readValue(node);
+    }
+
+    // Maintenance details keep readings as an object, or as a JSON string when written by older UI versions
+    public VoltageCurrentReadings readReadings(Object value) throws IOException {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof String json) {
+            return json.isBlank() ? null : readingsReader.readValue(json);
+        }
+        return readingsReader.readValue((JsonNode) objectMapper.valueToTree(value));
+    }
+
+    public JsonNode readTree(String json) throws IOException {
+        return objectMapper.readTree(json);
+    }
+
+    public String writeInspection(Inspection inspection) throws IOException {
+        return timed("write-inspection", () -> inspectionWriter.writeValueAsString(inspection));
+    }
+
+    public String writeInspectionWithBaseline(InspectionWithBaseline inspection) throws IOException {
+        return timed("write-inspection-with-baseline", () -> inspectionWithBaselineWriter.writeValueAsString(inspection));
+    }
+
+    public String writeMaintenance(Maintenance maintenance) throws IOException {
+        return timed("write-maintenance", () -> maintenanceWriter.writeValueAsString(maintenance));
+    }
+
+    public String writeDetections(List<Detection> detections) throws IOException {
+        return timed("write-detections", () -> detectionListWriter.writeValueAsString(detections));
+    }
+
+    public void writeAnomalyLog(OutputStream out, List<AnomalyLogEntry> entries) throws IOException {
+        timed("write-anomaly-log", () -> {
+            anomalyLogWriter.writeValue(out, entries);
+            return null;
+        });
+    }
+
+    // Untyped fallback for maps, JSON trees and one-off payloads
+    public String write(Object value) throws IOException {
+        return timed("write", () -> writer.writeValueAsString(value));
+    }
+
+    public void write(OutputStream out, Object value) throws IOException {
+        timed("write-stream", () -> {
+            writer.writeValue(out, value);
+            return null;
+        });
+    }
+
+    public String writePretty(Object value) throws IOException {
+        return prettyWriter.writeValueAsString(value);
+    }
+
+    @FunctionalInterface
+    private interface JsonCall<T> {
+        T call() throws IOException;
+    }
+
+    private <T> T timed(String operation, JsonCall<T> call) throws IOException {
+        Timer.Sample sample = Timer.start(registry);
+        try {
+            return call.call();
+        } finally {
+            sample.stop(registry.timer("json.codec", "operation", operation));
+        }
+    }
+}
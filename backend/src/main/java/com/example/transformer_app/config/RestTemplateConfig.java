@@ -2,8 +2,15 @@
 package com.example.transformer_app.config;
 
 // Make sure you have these exact import statements
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
@@ -12,13 +19,41 @@ import org.springframework.web.client.RestTemplate;
 @Configuration
 public class RestTemplateConfig {
 
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager upstreamConnectionManager(
+            @Value("${upstream.pool.max-total:50}") int maxTotal,
+            @Value("${upstream.pool.max-per-route:20}") int maxPerRoute) {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxTotal)
+                .setMaxConnPerRoute(maxPerRoute)
+                .build();
+    }
+
+    // Exposes httpcomponents.httpclient.pool.* gauges (leased, available, pending, max)
+    @Bean
+    public MeterBinder upstreamConnectionPoolMetrics(PoolingHttpClientConnectionManager upstreamConnectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(upstreamConnectionManager, "upstream");
+    }
+
     @Bean
-    public RestTemplate restTemplate() {
+    public RestTemplate restTemplate(RestTemplateBuilder builder,
+                                     PoolingHttpClientConnectionManager upstreamConnectionManager,
+                                     UpstreamMetrics upstreamMetrics) {
         // This is a more robust way to create the RestTemplate for PATCH support.
         // It explicitly creates an Apache HttpClient and injects it into Spring's factory.
-        CloseableHttpClient httpClient = HttpClients.createDefault();
+        // The builder supplies the message converters, so request bodies are written
+        // with the shared application ObjectMapper.
+        // Content compression is kept on: the client sends Accept-Encoding (gzip, deflate,
+        // and br when org.brotli:dec is on the classpath) and decodes Supabase responses
+        // as a stream while they are read.
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .useSystemProperties()
+                .setConnectionManager(upstreamConnectionManager)
+                .build();
         HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
 
-        return new RestTemplate(requestFactory);
+        return builder.requestFactory(() -> requestFactory)
+                .additionalInterceptors(upstreamMetrics)
+                .build();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,10 @@
+package com.example.transformer_app.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+// Background jobs (@Scheduled) run on Spring's single scheduler thread; keep them short or hand off
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
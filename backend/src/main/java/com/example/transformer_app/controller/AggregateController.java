@@ -0,0 +1,45 @@
+package com.example.transformer_app.controller;
+
+import com.example.transformer_app.service.FleetAggregateService;
+import com.example.transformer_app.service.RebuildRunningException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+// Fleet-wide anomaly rollups for the dashboards, kept up to date by FleetAggregateService
+@RestController
+@RequestMapping("/api/aggregates")
+@CrossOrigin(origins = "*")
+public class AggregateController {
+
+    private static final Logger log = LoggerFactory.getLogger(AggregateController.class);
+
+    @Autowired
+    private FleetAggregateService fleetAggregateService;
+
+    // Counts by region, type and class plus max AI confidence per transformer
+    @GetMapping("/anomalies")
+    public Map<String, Object> anomalies() {
+        return fleetAggregateService.snapshot();
+    }
+
+    // Recompute from Supabase, e.g. after rows were changed outside this backend
+    @PostMapping("/anomalies/rebuild")
+    public ResponseEntity<?> rebuild() {
+        try {
+            return ResponseEntity.ok(fleetAggregateService.rebuild());
+        } catch (RebuildRunningException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (Exception e) {
+            log.error("Failed to rebuild fleet aggregates: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"Failed to rebuild fleet aggregates: " + e.getMessage() + "\"}");
+        }
+    }
+}
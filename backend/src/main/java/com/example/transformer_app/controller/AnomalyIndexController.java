@@ -0,0 +1,62 @@
+package com.example.transformer_app.controller;
+
+import com.example.transformer_app.service.AnomalyQueryIndex;
+import com.example.transformer_app.service.RebuildRunningException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+// Fleet-wide inspection lookups by anomaly class, origin and confidence, served from AnomalyQueryIndex
+@RestController
+@RequestMapping("/api/anomaly-index")
+@CrossOrigin(origins = "*")
+public class AnomalyIndexController {
+
+    private static final Logger log = LoggerFactory.getLogger(AnomalyIndexController.class);
+
+    @Autowired
+    private AnomalyQueryIndex anomalyQueryIndex;
+
+    // e.g. ?class=Loose Joint (Faulty)&madeBy=AI&minConfidence=0.8&region=Colombo&unconfirmed=true; page on with after=next
+    @GetMapping("/query")
+    public ResponseEntity<?> query(@RequestParam(name = "class", required = false) String className,
+                                   @RequestParam(required = false) String madeBy,
+                                   @RequestParam(required = false) Double minConfidence,
+                                   @RequestParam(required = false) String region,
+                                   @RequestParam(required = false) String transformerNumber,
+                                   @RequestParam(defaultValue = "false") boolean unconfirmed,
+                                   @RequestParam(required = false) Long after,
+                                   @RequestParam(defaultValue = "100") int limit) {
+        try {
+            return ResponseEntity.ok(anomalyQueryIndex.query(className, madeBy, minConfidence, region, transformerNumber,
+                    unconfirmed, after, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("{\"error\":\"" + e.getMessage() + "\"}");
+        }
+    }
+
+    @GetMapping("/stats")
+    public Map<String, Object> stats() {
+        return anomalyQueryIndex.stats();
+    }
+
+    // Reload from Supabase, e.g. after rows were changed outside this backend
+    @PostMapping("/rebuild")
+    public ResponseEntity<?> rebuild() {
+        try {
+            return ResponseEntity.ok(anomalyQueryIndex.rebuild());
+        } catch (RebuildRunningException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (Exception e) {
+            log.error("Failed to rebuild anomaly index: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"Failed to rebuild anomaly index: " + e.getMessage() + "\"}");
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.transformer_app.controller;
+
+import com.example.transformer_app.service.ImageCache;
+import com.example.transformer_app.service.ImageVariantService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.util.UriUtils;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+// Storage images served through the local disk cache, and their thumbnail/medium variants
+@RestController
+@RequestMapping("/api/images")
+@CrossOrigin(origins = "*")
+public class ImageController {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageController.class);
+
+    private static final String OBJECT_PREFIX = "/api/images/object/";
+    // Ranges larger than this are mapped a window at a time
+    private static final long MAX_MAPPING = 64L * 1024 * 1024;
+
+    @Autowired
+    private ImageVariantService imageVariantService;
+
+    @Autowired
+    private ImageCache imageCache;
+
+    /**
+     * A bucket object, e.g. /api/images/object/refImages/{uuid}_photo.png, served from the disk cache.
+     * Supports a single byte range, If-Range, If-None-Match and If-Modified-Since. Content-addressed
+     * names (uploadImage's uuid-prefixed ones) are sent as immutable; others are revalidated. The
+     * requested range is memory-mapped from the file held open by a cache lease, so eviction can't
+     * delete it mid-response, and written from the mapping without reads into a heap buffer.
+     */
+    @GetMapping("/object/**")
+    public void object(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String path = UriUtils.decode(request.getRequestURI().substring(request.getContextPath().length() + OBJECT_PREFIX.length()),
+                StandardCharsets.UTF_8);
+        ImageCache.Lease lease;
+        try {
+            lease = imageCache.open(path);
+        } catch (IllegalArgumentException e) {
+            writeError(response, HttpStatus.BAD_REQUEST, e.getMessage());
+            return;
+        } catch (IOException | RuntimeException e) {
+            if (e.getMessage() != null && e.getMessage().contains("not found")) {
+                writeError(response, HttpStatus.NOT_FOUND, e.getMessage());
+                return;
+            }
+            log.error("Failed to serve image {}: {}", path, e.getMessage(), e);
+            writeError(response, HttpStatus.INTERNAL_SERVER_ERROR, "Failed to fetch image: " + e.getMessage());
+            return;
+        }
+
+        try (lease) {
+            ImageCache.CachedImage image = lease.image();
+            response.setHeader(HttpHeaders.CACHE_CONTROL, image.immutable() ? "public, max-age=31536000, immutable" : "public, no-cache");
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            // Answers 304 itself and sets ETag/Last-Modified either way
+            if (new ServletWebRequest(request, response).checkNotModified(image.etag(), image.fetchedAt())) {
+                return;
+            }
+
+            long length = image.length();
+            long start = 0;
+            long end = length - 1;
+            String range = request.getHeader(HttpHeaders.RANGE);
+            String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+            // A stale If-Range validator means the client's partial copy is of other bytes: send it all
+            if (range != null && (ifRange == null || ifRange.equals(image.etag()))) {
+                List<HttpRange> ranges;
+                try {
+                    ranges = HttpRange.parseRanges(range);
+                } catch (IllegalArgumentException e) {
+                    ranges = List.of();
+                }
+                // Image viewers ask for one range; several would need multipart/byteranges, so they get the whole file
+                if (ranges.size() == 1) {
+                    start = ranges.get(0).getRangeStart(length);
+                    end = ranges.get(0).getRangeEnd(length);
+                    if (start >= length || start > end) {
+                        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                        response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                        return;
+                    }
+                    response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+                }
+            }
+            response.setContentType(image.contentType().toString());
+            response.setContentLengthLong(end - start + 1);
+            if ("HEAD".equals(request.getMethod()) || length == 0) {
+                return;
+            }
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            for (long position = start; position <= end; ) {
+                long size = Math.min(MAX_MAPPING, end + 1 - position);
+                MappedByteBuffer mapped = lease.channel().map(FileChannel.MapMode.READ_ONLY, position, size);
+                while (mapped.hasRemaining()) {
+                    out.write(mapped);
+                }
+                position += size;
+            }
+        }
+    }
+
+    @GetMapping("/cache/stats")
+    public Map<String, Object> cacheStats() {
+        return imageCache.stats();
+    }
+
+    // Queue depth and outcome counts since startup
+    @GetMapping("/variants/stats")
+    public Map<String, Object> stats() {
+        return imageVariantService.stats();
+    }
+
+    // Generate the variants of every image that has none, e.g. uploads from before variants existed
+    @PostMapping("/variants/backfill")
+    public ResponseEntity<?> backfill() {
+        try {
+            return ResponseEntity.ok(imageVariantService.backfill());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (Exception e) {
+            log.error("Failed to backfill image variants: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"Failed to backfill image variants: " + e.getMessage() + "\"}");
+        }
+    }
+
+    private static void writeError(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write("{\"error\":\"" + message + "\"}");
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.transformer_app.controller;
+
+import com.example.transformer_app.inference.InferenceBackends;
+import com.example.transformer_app.inference.InferenceBenchmark;
+import com.example.transformer_app.inference.OnnxInferenceBackend;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Which detector backend uploads use, and a head-to-head benchmark of the backends
+@RestController
+@RequestMapping("/api/inference")
+@CrossOrigin(origins = "*")
+public class InferenceController {
+
+    private static final Logger log = LoggerFactory.getLogger(InferenceController.class);
+
+    @Autowired
+    private InferenceBackends inferenceBackends;
+
+    @Autowired
+    private OnnxInferenceBackend localBackend;
+
+    @Autowired
+    private InferenceBenchmark inferenceBenchmark;
+
+    @Value("${lambda.threshold:0.1}")
+    private double defaultThreshold;
+
+    @Value("${lambda.iouThreshold:0.2}")
+    private double defaultIouThreshold;
+
+    @GetMapping("/backends")
+    public Map<String, Object> backends() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("active", inferenceBackends.active().name());
+        result.put("available", inferenceBackends.names());
+        result.put("local", localBackend.stats());
+        return result;
+    }
+
+    // e.g. -F image=@frame.jpg -F backends=lambda,local -F runs=20 -F concurrency=4
+    @PostMapping(path = "/benchmark", consumes = {"multipart/form-data"})
+    public ResponseEntity<?> benchmark(@RequestParam("image") MultipartFile image,
+                                       @RequestParam(required = false) List<String> backends,
+                                       @RequestParam(defaultValue = "20") int runs,
+                                       @RequestParam(defaultValue = "2") int warmup,
+                                       @RequestParam(defaultValue = "1") int concurrency,
+                                       @RequestParam(required = false) Double threshold,
+                                       @RequestParam(required = false) Double iouThreshold) {
+        if (!inferenceBenchmark.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body("{\"error\":\"The inference benchmark is disabled (inference.benchmark.enabled)\"}");
+        }
+        if (image == null || image.isEmpty()) {
+            return ResponseEntity.badRequest().body("{\"error\":\"image is required\"}");
+        }
+        try {
+            return ResponseEntity.ok(inferenceBenchmark.run(image.getBytes(), backends, runs, warmup, concurrency,
+                    threshold != null ? threshold : defaultThreshold,
+                    iouThreshold != null ? iouThreshold : defaultIouThreshold));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (Exception e) {
+            log.error("Inference benchmark failed: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"Inference benchmark failed: " + e.getMessage() + "\"}");
+        }
+    }
+}
@@ -1,14 +1,24 @@
 package com.example.transformer_app.controller;
 
+import com.example.transformer_app.cache.EtagCache;
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.dto.AnomalyOperation;
+import com.example.transformer_app.dto.Detection;
+import com.example.transformer_app.dto.InspectionWithBaseline;
+import com.example.transformer_app.model.Inspection;
+import com.example.transformer_app.model.Transformer;
+import com.example.transformer_app.service.AnomalyLogArchiveService;
 import com.example.transformer_app.service.InspectionService;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.type.TypeReference;
 import java.util.*;
 import java.io.IOException;
 
@@ -17,6 +27,8 @@ import java.io.IOException;
 @CrossOrigin(origins = "*")
 public class InspectionController {
 
+    private static final Logger log = LoggerFactory.getLogger(InspectionController.class);
+
     @Value("${supabase.url}")
     private String supabaseUrl;
 
@@ -26,49 +38,77 @@ public class InspectionController {
     @Autowired
     private InspectionService inspectionService;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    @Autowired
+    private AnomalyLogArchiveService anomalyLogArchiveService;
+
+    @Autowired
+    private JsonCodecs jsonCodecs;
+
+    @Autowired
+    private EtagCache etagCache;
+
+    // Shared pooled client from RestTemplateConfig (compressed transfers, PATCH support)
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private UpstreamMetrics upstreamMetrics;
 
     @GetMapping
     public ResponseEntity<String> getAll() {
         HttpHeaders headers = getHeaders();
         String url = supabaseUrl + "/rest/v1/inspections?select=*";
-        return restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        return upstreamMetrics.record("list-inspections", () -> restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), String.class));
     }
 
     @GetMapping("/{iid}")
-    public ResponseEntity<?> getInspectionWithBaselineImage(@PathVariable String iid) {
+    public ResponseEntity<String> getInspectionWithBaselineImage(
+            @PathVariable String iid,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        // Unchanged since the last poll: answer 304 without touching Supabase
+        String etagKey = EtagCache.inspectionKey(iid);
+        if (etagCache.matches(etagKey, ifNoneMatch)) {
+            return etagCache.notModified(etagKey);
+        }
+        long generation = etagCache.generation(etagKey);
+
         HttpHeaders headers = getHeaders();
         String inspectionUrl = supabaseUrl + "/rest/v1/inspections?iid=eq." + iid + "&select=*";
-        ResponseEntity<String> inspectionResponse = restTemplate.exchange(inspectionUrl, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        ResponseEntity<String> inspectionResponse = upstreamMetrics.record("fetch-inspection", () -> restTemplate.exchange(inspectionUrl, HttpMethod.GET, new HttpEntity<>(headers), String.class));
 
-        ObjectMapper mapper = new ObjectMapper();
-        List<Map<String, Object>> inspectionList;
+        List<Inspection> inspectionList;
         try {
-            inspectionList = mapper.readValue(inspectionResponse.getBody(), new TypeReference<List<Map<String, Object>>>() {});
+            inspectionList = jsonCodecs.readInspections(inspectionResponse.getBody());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error parsing inspection data.");
         }
         if (inspectionList.isEmpty()) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Inspection not found.");
         }
-        Map<String, Object> inspection = inspectionList.get(0);
+        Inspection inspection = inspectionList.get(0);
 
-        String transformerNumber = (String) inspection.get("transformerNumber");
-        String transformerUrl = supabaseUrl + "/rest/v1/transformers?transformerNumber=eq." + transformerNumber + "&select=baselineImage";
-        ResponseEntity<String> transformerResponse = restTemplate.exchange(transformerUrl, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        String transformerNumber = inspection.getTransformerNumber();
+        // select=* so the baseline variant columns come along once db/005_image_variants.sql is applied
+        String transformerUrl = supabaseUrl + "/rest/v1/transformers?transformerNumber=eq." + transformerNumber + "&select=*";
+        ResponseEntity<String> transformerResponse = upstreamMetrics.record("fetch-transformer-baseline", () -> restTemplate.exchange(transformerUrl, HttpMethod.GET, new HttpEntity<>(headers), String.class));
 
-        List<Map<String, Object>> transformerList;
+        List<Transformer> transformerList;
         try {
-            transformerList = mapper.readValue(transformerResponse.getBody(), new TypeReference<List<Map<String, Object>>>() {});
+            transformerList = jsonCodecs.readTransformers(transformerResponse.getBody());
         } catch (Exception e) {
             transformerList = new ArrayList<>();
         }
-        String baselineImage = transformerList.isEmpty() ? null : (String) transformerList.get(0).get("baselineImage");
-
-        Map<String, Object> result = new HashMap<>(inspection);
-        result.put("baselineImage", baselineImage);
+        Transformer transformer = transformerList.isEmpty() ? new Transformer() : transformerList.get(0);
 
-        return ResponseEntity.ok(result);
+        String body;
+        try {
+            body = jsonCodecs.writeInspectionWithBaseline(new InspectionWithBaseline(inspection, transformer.getBaselineImage(),
+                    transformer.getBaselineImageThumb(), transformer.getBaselineImageMedium()));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error serializing inspection data.");
+        }
+        return etagCache.withEtag(etagKey, generation, ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body));
     }
 
     @GetMapping("/by-number/{inspectionNumber}")
@@ -76,7 +116,7 @@ public class InspectionController {
         try {
             return inspectionService.getInspectionByNumber(inspectionNumber);
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("Failed to fetch inspection: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\":\"Failed to fetch inspection: " + e.getMessage() + "\"}");
         }
@@ -87,7 +127,7 @@ public class InspectionController {
         try {
             return inspectionService.getInspectionsByTransformerNumber(transformerNumber);
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("Failed to fetch inspections: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\":\"Failed to fetch inspections: " + e.getMessage() + "\"}");
         }
@@ -113,7 +153,7 @@ public class InspectionController {
             // Pass inspectionNumber and inspector to service (can be null, service will auto-generate inspectionNumber)
             return inspectionService.createInspection(transformerNumber, inspectionNumber, inspectionDate, maintainanceDate, status, inspector, refImage);
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("Failed to upload image: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\":\"Failed to upload image: " + e.getMessage() + "\"}");
         }
@@ -136,7 +176,7 @@ public class InspectionController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\":\"" + e.getMessage() + "\"}");
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("Failed to update image: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\":\"Failed to update image: " + e.getMessage() + "\"}");
         }
@@ -144,29 +184,83 @@ public class InspectionController {
 
     // New endpoints for anomalies CRUD
     @GetMapping("/{iid}/anomalies")
-    public ResponseEntity<String> getAnomalies(@PathVariable Long iid) {
+    public ResponseEntity<String> getAnomalies(
+            @PathVariable Long iid,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        String etagKey = EtagCache.anomaliesKey(iid);
+        if (etagCache.matches(etagKey, ifNoneMatch)) {
+            return etagCache.notModified(etagKey);
+        }
+        long generation = etagCache.generation(etagKey);
         try {
-            return inspectionService.getAnomalies(iid);
+            return etagCache.withEtag(etagKey, generation, inspectionService.getAnomalies(iid));
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("Failed to fetch anomalies: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\":\"Failed to fetch anomalies: " + e.getMessage() + "\"}");
         }
     }
 
     @PostMapping(path = "/{iid}/anomalies", consumes = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<String> addAnomaly(@PathVariable Long iid, @RequestBody Map<String, Object> anomaly) {
+    public ResponseEntity<String> addAnomaly(@PathVariable Long iid, @RequestBody Detection anomaly) {
         try {
             return inspectionService.addAnomaly(iid, anomaly);
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("Failed to add anomaly: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\":\"Failed to add anomaly: " + e.getMessage() + "\"}");
         }
     }
 
+    // Several add/edit/delete steps in one request: applied in order to one copy, written with one PATCH
+    @PostMapping(path = "/{iid}/anomalies/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> applyAnomalyOperations(@PathVariable Long iid, @RequestBody List<AnomalyOperation> operations) {
+        try {
+            return inspectionService.applyAnomalyOperations(iid, operations);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (RuntimeException e) {
+            if (e.getMessage() != null && e.getMessage().contains("not found")) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body("{\"error\":\"" + e.getMessage() + "\"}");
+            }
+            log.error("Failed to apply anomaly operations: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (IOException e) {
+            log.error("Failed to apply anomaly operations: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"Failed to apply anomaly operations: " + e.getMessage() + "\"}");
+        }
+    }
+
+    // RFC 6902 JSON Patch with paths keyed by anomaly id, e.g. [{"op":"replace","path":"/{anomalyId}/box","value":[...]}]
+    @PatchMapping(path = "/{iid}/anomalies", consumes = {"application/json-patch+json", MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<String> patchAnomalies(@PathVariable Long iid, @RequestBody JsonNode patch) {
+        try {
+            return inspectionService.applyAnomalyPatch(iid, patch);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (RuntimeException e) {
+            if (e.getMessage() != null && e.getMessage().contains("not found")) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body("{\"error\":\"" + e.getMessage() + "\"}");
+            }
+            log.error("Failed to patch anomalies: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (IOException e) {
+            log.error("Failed to patch anomalies: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"Failed to patch anomalies: " + e.getMessage() + "\"}");
+        }
+    }
+
     @PutMapping(path = "/{iid}/anomalies/{anomalyId}", consumes = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<String> updateAnomaly(@PathVariable Long iid, @PathVariable String anomalyId, @RequestBody Map<String, Object> anomaly) {
+    public ResponseEntity<String> updateAnomaly(@PathVariable Long iid, @PathVariable String anomalyId, @RequestBody Detection anomaly) {
         try {
             return inspectionService.updateAnomaly(iid, anomalyId, anomaly);
         } catch (RuntimeException e) {
@@ -177,7 +271,7 @@ public class InspectionController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\":\"" + e.getMessage() + "\"}");
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("Failed to update anomaly: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\":\"Failed to update anomaly: " + e.getMessage() + "\"}");
         }
@@ -195,12 +289,56 @@ public class InspectionController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\":\"" + e.getMessage() + "\"}");
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("Failed to delete anomaly: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\":\"Failed to delete anomaly: " + e.getMessage() + "\"}");
         }
     }
 
+    // Full audit history of an inspection's anomalies, including entries moved to the cold archive
+    @GetMapping("/{iid}/anomalies-log/history")
+    public ResponseEntity<?> getAnomalyLogHistory(@PathVariable Long iid) {
+        try {
+            return ResponseEntity.ok(anomalyLogArchiveService.history(iid));
+        } catch (RuntimeException e) {
+            if (e.getMessage() != null && e.getMessage().contains("not found")) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body("{\"error\":\"" + e.getMessage() + "\"}");
+            }
+            log.error("Failed to load anomaly log history: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (IOException e) {
+            log.error("Failed to load anomaly log history: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"Failed to load anomaly log history: " + e.getMessage() + "\"}");
+        }
+    }
+
+    // Compact now instead of waiting for the scheduled pass
+    @PostMapping("/{iid}/anomalies-log/compact")
+    public ResponseEntity<?> compactAnomalyLog(@PathVariable Long iid) {
+        try {
+            return ResponseEntity.ok(anomalyLogArchiveService.compact(iid));
+        } catch (RuntimeException e) {
+            if (e.getMessage() != null && e.getMessage().contains("not found")) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body("{\"error\":\"" + e.getMessage() + "\"}");
+            }
+            if (e.getMessage() != null && e.getMessage().contains("changed during compaction")) {
+                return ResponseEntity.status(HttpStatus.CONFLICT)
+                        .body("{\"error\":\"" + e.getMessage() + "\"}");
+            }
+            log.error("Failed to compact anomaly log: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (IOException e) {
+            log.error("Failed to compact anomaly log: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"Failed to compact anomaly log: " + e.getMessage() + "\"}");
+        }
+    }
+
     private HttpHeaders getHeaders() {
         HttpHeaders headers = new HttpHeaders();
         headers.set("apikey", supabaseApiKey);
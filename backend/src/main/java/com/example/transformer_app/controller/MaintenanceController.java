@@ -1,9 +1,13 @@
 package com.example.transformer_app.controller;
 
+import com.example.transformer_app.cache.EtagCache;
 import com.example.transformer_app.dto.UpdateMaintenanceRequest;
 import com.example.transformer_app.service.MaintenanceService;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -16,11 +20,15 @@ import java.util.Map;
 @CrossOrigin(origins = "*")
 public class MaintenanceController {
 
+    private static final Logger log = LoggerFactory.getLogger(MaintenanceController.class);
+
     private final MaintenanceService maintenanceService;
+    private final EtagCache etagCache;
 
     @Autowired
-    public MaintenanceController(MaintenanceService maintenanceService) {
+    public MaintenanceController(MaintenanceService maintenanceService, EtagCache etagCache) {
         this.maintenanceService = maintenanceService;
+        this.etagCache = etagCache;
     }
 
     /**
@@ -54,8 +62,7 @@ public class MaintenanceController {
                     additionalRemarks
             );
         } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Error creating maintenance: " + e.getMessage());
+            log.error("Error creating maintenance: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\": \"" + e.getMessage() + "\"}");
         }
@@ -70,8 +77,7 @@ public class MaintenanceController {
         try {
             return maintenanceService.getAllMaintenance();
         } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Error fetching maintenance records: " + e.getMessage());
+            log.error("Error fetching maintenance records: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\": \"" + e.getMessage() + "\"}");
         }
@@ -80,14 +86,22 @@ public class MaintenanceController {
     /**
      * Get maintenance record by ID
      * GET /api/maintenance/{mid}
+     * Responds 304 when If-None-Match still matches the record's ETag.
      */
     @GetMapping("/{mid}")
-    public ResponseEntity<String> getMaintenanceById(@PathVariable Long mid) {
+    public ResponseEntity<String> getMaintenanceById(
+            @PathVariable Long mid,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        String etagKey = EtagCache.maintenanceKey(mid);
+        if (etagCache.matches(etagKey, ifNoneMatch)) {
+            return etagCache.notModified(etagKey);
+        }
+        long generation = etagCache.generation(etagKey);
         try {
-            return maintenanceService.getMaintenanceById(mid);
+            return etagCache.withEtag(etagKey, generation, maintenanceService.getMaintenanceById(mid));
         } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Error fetching maintenance by ID: " + e.getMessage());
+            log.error("Error fetching maintenance by ID: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\": \"" + e.getMessage() + "\"}");
         }
@@ -102,8 +116,7 @@ public class MaintenanceController {
         try {
             return maintenanceService.getMaintenanceByInspectionNumber(inspectionNumber);
         } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Error fetching maintenance by inspection number: " + e.getMessage());
+            log.error("Error fetching maintenance by inspection number: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\": \"" + e.getMessage() + "\"}");
         }
@@ -124,9 +137,16 @@ public class MaintenanceController {
     public ResponseEntity<String> updateMaintenance(@PathVariable Long mid, @RequestBody UpdateMaintenanceRequest request) {
         try {
             return maintenanceService.updateMaintenance(mid, request);
+        } catch (RuntimeException e) {
+            if (e.getMessage() != null && e.getMessage().contains("not found")) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body("{\"error\": \"" + e.getMessage() + "\"}");
+            }
+            log.error("Error updating maintenance: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\": \"" + e.getMessage() + "\"}");
         } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Error updating maintenance: " + e.getMessage());
+            log.error("Error updating maintenance: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\": \"" + e.getMessage() + "\"}");
         }
@@ -146,9 +166,16 @@ public class MaintenanceController {
     public ResponseEntity<String> deleteMaintenance(@PathVariable Long mid) {
         try {
             return maintenanceService.deleteMaintenance(mid);
+        } catch (RuntimeException e) {
+            if (e.getMessage() != null && e.getMessage().contains("not found")) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body("{\"error\": \"" + e.getMessage() + "\"}");
+            }
+            log.error("Error deleting maintenance: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\": \"" + e.getMessage() + "\"}");
         } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Error deleting maintenance: " + e.getMessage());
+            log.error("Error deleting maintenance: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\": \"" + e.getMessage() + "\"}");
         }
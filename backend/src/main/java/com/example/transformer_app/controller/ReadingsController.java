@@ -0,0 +1,82 @@
+package com.example.transformer_app.controller;
+
+import com.example.transformer_app.service.PhaseReadingsStore;
+import com.example.transformer_app.service.RebuildRunningException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+
+// Phase voltage/current trends served from PhaseReadingsStore; from/to are ISO instants or yyyy-MM-dd (UTC)
+@RestController
+@RequestMapping("/api/readings")
+@CrossOrigin(origins = "*")
+public class ReadingsController {
+
+    private static final Logger log = LoggerFactory.getLogger(ReadingsController.class);
+
+    @Autowired
+    private PhaseReadingsStore phaseReadingsStore;
+
+    @GetMapping("/{transformerNumber}")
+    public ResponseEntity<?> range(@PathVariable String transformerNumber,
+                                   @RequestParam(required = false) String from,
+                                   @RequestParam(required = false) String to) {
+        try {
+            return ResponseEntity.ok(phaseReadingsStore.range(transformerNumber, parseInstant(from, false), parseInstant(to, true)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("{\"error\":\"" + e.getMessage() + "\"}");
+        }
+    }
+
+    // Mean/min/max per time bucket, for charts over long ranges
+    @GetMapping("/{transformerNumber}/downsample")
+    public ResponseEntity<?> downsample(@PathVariable String transformerNumber,
+                                        @RequestParam(required = false) String from,
+                                        @RequestParam(required = false) String to,
+                                        @RequestParam(defaultValue = "500") int points) {
+        try {
+            return ResponseEntity.ok(phaseReadingsStore.downsample(transformerNumber, parseInstant(from, false), parseInstant(to, true), points));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("{\"error\":\"" + e.getMessage() + "\"}");
+        }
+    }
+
+    // Rebuild the store from the maintenance table
+    @PostMapping("/backfill")
+    public ResponseEntity<?> backfill() {
+        try {
+            return ResponseEntity.ok(phaseReadingsStore.rebuild());
+        } catch (RebuildRunningException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (Exception e) {
+            log.error("Failed to backfill phase readings: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"Failed to backfill phase readings: " + e.getMessage() + "\"}");
+        }
+    }
+
+    // A bare date as the upper bound covers that whole day
+    private static Instant parseInstant(String value, boolean endOfDay) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            if (value.length() == 10) {
+                LocalDate date = LocalDate.parse(value);
+                return (endOfDay ? date.plusDays(1) : date).atStartOfDay(ZoneOffset.UTC).toInstant().minusMillis(endOfDay ? 1 : 0);
+            }
+            return Instant.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date or instant: " + value);
+        }
+    }
+}
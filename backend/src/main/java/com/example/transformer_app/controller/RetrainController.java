@@ -1,32 +1,142 @@
 package com.example.transformer_app.controller;
 
-import com.example.transformer_app.service.InspectionService;
+import com.example.transformer_app.dto.RetrainJob;
+import com.example.transformer_app.service.CorrectionTracker;
+import com.example.transformer_app.service.RetrainDatasetService;
+import com.example.transformer_app.service.RetrainScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api")
 @CrossOrigin(origins = "*")
 public class RetrainController {
 
+    private static final Logger log = LoggerFactory.getLogger(RetrainController.class);
+
+    @Autowired
+    private RetrainScheduler retrainScheduler;
+
     @Autowired
-    private InspectionService inspectionService;
+    private RetrainDatasetService retrainDatasetService;
 
+    @Autowired
+    private CorrectionTracker correctionTracker;
+
+    // Triggers within the coalescing window, or while a run is in flight, join the same job
     @PostMapping("/retrain")
-    public ResponseEntity<String> retrain() {
+    public ResponseEntity<?> retrain() {
         try {
-            inspectionService.triggerRetraining();
-            return ResponseEntity.ok("{\"message\":\"Retraining triggered\"}");
+            RetrainJob job = retrainScheduler.trigger("manual");
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("message", job.getTriggers() > 1 ? "Retraining already scheduled" : "Retraining triggered");
+            body.put("job", job);
+            return ResponseEntity.ok(body);
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Error triggering retrain: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\":\"" + e.getMessage() + "\"}");
         }
     }
-}
 
+    @GetMapping("/retrain/latest")
+    public ResponseEntity<?> latestRetrainJob() {
+        RetrainJob job = retrainScheduler.latest();
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body("{\"error\":\"No retrain job has been triggered yet\"}");
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    // Corrections counted since the last retrain job and the thresholds that trigger the next one
+    @GetMapping("/retrain/corrections")
+    public ResponseEntity<?> corrections() {
+        return ResponseEntity.ok(correctionTracker.snapshot());
+    }
+
+    @GetMapping("/retrain/{jobId}")
+    public ResponseEntity<?> retrainJob(@PathVariable String jobId) {
+        try {
+            return ResponseEntity.ok(retrainScheduler.job(jobId));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        }
+    }
+
+    // Corrected annotations as a YOLO zip, streamed page by page. since=last continues from the
+    // last acknowledged export, an ISO-8601 instant from that point, no since exports everything.
+    @GetMapping("/retrain/dataset")
+    public ResponseEntity<StreamingResponseBody> exportDataset(@RequestParam(required = false) String since) {
+        Instant from;
+        try {
+            from = retrainDatasetService.resolveSince(since);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON)
+                    .body(text("{\"error\":\"" + e.getMessage() + "\"}"));
+        } catch (IOException e) {
+            log.error("Failed to read the dataset watermark: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).contentType(MediaType.APPLICATION_JSON)
+                    .body(text("{\"error\":\"Failed to read the dataset watermark: " + e.getMessage() + "\"}"));
+        }
+        // Errors after this point can only cut the zip short; the missing manifest.json tells the client
+        StreamingResponseBody body = out -> {
+            try {
+                retrainDatasetService.export(from, out);
+            } catch (IOException | RuntimeException e) {
+                log.error("Retrain dataset export failed: {}", e.getMessage(), e);
+                throw e;
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"retrain-dataset.zip\"")
+                .body(body);
+    }
+
+    // Called by the trainer once it has used an export: {"watermark": "<manifest.json watermark>"}
+    @PostMapping("/retrain/dataset/ack")
+    public ResponseEntity<String> acknowledgeDataset(@RequestBody Map<String, Object> request) {
+        Object watermark = request.get("watermark");
+        if (!(watermark instanceof String value)) {
+            return ResponseEntity.badRequest().body("{\"error\":\"watermark is required\"}");
+        }
+        try {
+            Instant stored = retrainDatasetService.acknowledge(Instant.parse(value));
+            return ResponseEntity.ok("{\"watermark\":\"" + stored + "\"}");
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body("{\"error\":\"watermark must be an ISO-8601 instant: " + value + "\"}");
+        } catch (IOException e) {
+            log.error("Failed to store the dataset watermark: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"Failed to store the dataset watermark: " + e.getMessage() + "\"}");
+        }
+    }
+
+    // The streaming handler only takes ResponseEntity<StreamingResponseBody>, so error bodies go through it too
+    private static StreamingResponseBody text(String body) {
+        return out -> out.write(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
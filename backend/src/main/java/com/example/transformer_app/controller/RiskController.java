@@ -0,0 +1,58 @@
+package com.example.transformer_app.controller;
+
+import com.example.transformer_app.service.RebuildRunningException;
+import com.example.transformer_app.service.TransformerRiskService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+// Transformer risk scores, kept up to date by TransformerRiskService
+@RestController
+@RequestMapping("/api/risk")
+@CrossOrigin(origins = "*")
+public class RiskController {
+
+    private static final Logger log = LoggerFactory.getLogger(RiskController.class);
+
+    @Autowired
+    private TransformerRiskService transformerRiskService;
+
+    // Riskiest transformers first, in one region or across the fleet
+    @GetMapping("/top")
+    public ResponseEntity<?> top(@RequestParam(required = false) String region,
+                                 @RequestParam(defaultValue = "10") int limit) {
+        try {
+            return ResponseEntity.ok(transformerRiskService.top(region, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("{\"error\":\"" + e.getMessage() + "\"}");
+        }
+    }
+
+    @GetMapping("/transformers/{transformerNumber}")
+    public ResponseEntity<?> risk(@PathVariable String transformerNumber) {
+        try {
+            return ResponseEntity.ok(transformerRiskService.risk(transformerNumber));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        }
+    }
+
+    // Reload all inputs and rescore the fleet, e.g. after rows were changed outside this backend
+    @PostMapping("/recompute")
+    public ResponseEntity<?> recompute() {
+        try {
+            return ResponseEntity.ok(transformerRiskService.rebuild());
+        } catch (RebuildRunningException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (Exception e) {
+            log.error("Failed to recompute transformer risk: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"Failed to recompute transformer risk: " + e.getMessage() + "\"}");
+        }
+    }
+}
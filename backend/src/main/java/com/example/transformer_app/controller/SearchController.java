@@ -0,0 +1,58 @@
+package com.example.transformer_app.controller;
+
+import com.example.transformer_app.service.RebuildRunningException;
+import com.example.transformer_app.service.SearchService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+// Typeahead over transformers, inspections and maintenance records, served from SearchService's index
+@RestController
+@RequestMapping("/api/search")
+@CrossOrigin(origins = "*")
+public class SearchController {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchController.class);
+
+    @Autowired
+    private SearchService searchService;
+
+    // kind is transformer, inspection or maintenance; region and type only match transformers
+    @GetMapping
+    public ResponseEntity<?> search(@RequestParam String q,
+                                    @RequestParam(required = false) String kind,
+                                    @RequestParam(required = false) String region,
+                                    @RequestParam(required = false) String type,
+                                    @RequestParam(defaultValue = "10") int limit) {
+        try {
+            return ResponseEntity.ok(searchService.search(q, kind, region, type, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("{\"error\":\"" + e.getMessage() + "\"}");
+        }
+    }
+
+    @GetMapping("/stats")
+    public Map<String, Object> stats() {
+        return searchService.stats();
+    }
+
+    // Reload everything, e.g. after rows were changed outside this backend
+    @PostMapping("/rebuild")
+    public ResponseEntity<?> rebuild() {
+        try {
+            return ResponseEntity.ok(searchService.rebuild());
+        } catch (RebuildRunningException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (Exception e) {
+            log.error("Failed to rebuild search index: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"Failed to rebuild search index: " + e.getMessage() + "\"}");
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.transformer_app.controller;
+
+import com.example.transformer_app.service.ThermalDiffService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+// Baseline-vs-reference hot regions per inspection, and inspections ordered by them for review
+@RestController
+@RequestMapping("/api")
+@CrossOrigin(origins = "*")
+public class ThermalDiffController {
+
+    private static final Logger log = LoggerFactory.getLogger(ThermalDiffController.class);
+
+    @Autowired
+    private ThermalDiffService thermalDiffService;
+
+    @GetMapping("/inspections/{iid}/thermal-diff")
+    public ResponseEntity<?> diff(@PathVariable Long iid) {
+        try {
+            return ResponseEntity.ok(thermalDiffService.diff(iid));
+        } catch (Exception e) {
+            return error(iid, e);
+        }
+    }
+
+    // Overlay for the ref image: same frame, work-size resolution, to be stretched over it
+    @GetMapping("/inspections/{iid}/thermal-diff/map")
+    public ResponseEntity<?> map(@PathVariable Long iid) {
+        try {
+            return ResponseEntity.ok().contentType(MediaType.IMAGE_PNG).body(thermalDiffService.deltaMap(iid));
+        } catch (Exception e) {
+            return error(iid, e);
+        }
+    }
+
+    // Diffed inspections, largest temperature rise first; ?transformerNumber= narrows it to one transformer
+    @GetMapping("/thermal-diff/review-queue")
+    public ResponseEntity<String> reviewQueue(@RequestParam(required = false) String transformerNumber,
+                                              @RequestParam(defaultValue = "50") int limit) {
+        return thermalDiffService.reviewQueue(transformerNumber, limit);
+    }
+
+    @GetMapping("/thermal-diff/stats")
+    public Map<String, Object> stats() {
+        return thermalDiffService.stats();
+    }
+
+    private static ResponseEntity<String> error(Long iid, Exception e) {
+        if (e instanceof IllegalArgumentException) {
+            return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        }
+        if (e.getMessage() != null && e.getMessage().contains("not found")) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).contentType(MediaType.APPLICATION_JSON)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        }
+        log.error("Failed to diff inspection {}: {}", iid, e.getMessage(), e);
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).contentType(MediaType.APPLICATION_JSON)
+                .body("{\"error\":\"Failed to diff inspection: " + e.getMessage() + "\"}");
+    }
+}
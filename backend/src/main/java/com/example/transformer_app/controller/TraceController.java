@@ -0,0 +1,35 @@
+package com.example.transformer_app.controller;
+
+import com.example.transformer_app.tracing.LocalSpanExporter;
+import com.example.transformer_app.tracing.RecordedSpan;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+// Read-only view over the spans kept in memory by the local exporter
+@RestController
+@RequestMapping("/api/traces")
+@CrossOrigin(origins = "*")
+public class TraceController {
+
+    @Autowired
+    private LocalSpanExporter spanExporter;
+
+    // Root spans of the most recent traces, newest first
+    @GetMapping
+    public List<RecordedSpan> recent(@RequestParam(defaultValue = "20") int limit) {
+        return spanExporter.recentRoots(Math.max(1, Math.min(limit, 500)));
+    }
+
+    // All spans of one trace, ordered by start time
+    @GetMapping("/{traceId}")
+    public ResponseEntity<List<RecordedSpan>> getTrace(@PathVariable String traceId) {
+        List<RecordedSpan> spans = spanExporter.trace(traceId);
+        if (spans.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(spans);
+    }
+}
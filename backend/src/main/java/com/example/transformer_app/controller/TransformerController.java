@@ -1,9 +1,16 @@
 // src/main/java/com/example/transformer_app/controller/TransformerController.java
 package com.example.transformer_app.controller;
 
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.dto.TransformerImportReport;
+import com.example.transformer_app.dto.TransformerWithInspections;
+import com.example.transformer_app.model.Inspection;
+import com.example.transformer_app.model.Transformer;
+import com.example.transformer_app.service.TransformerImportService;
 import com.example.transformer_app.service.TransformerService;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
@@ -16,15 +23,15 @@ import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 @RestController
 @RequestMapping("/api/transformers")
 @CrossOrigin(origins = "*")
 public class TransformerController {
 
+    private static final Logger log = LoggerFactory.getLogger(TransformerController.class);
+
     @Value("${supabase.url}")
     private String supabaseUrl;
 
@@ -34,14 +41,25 @@ public class TransformerController {
     @Autowired
     public TransformerService transformerService;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    @Autowired
+    private TransformerImportService transformerImportService;
+
+    @Autowired
+    private JsonCodecs jsonCodecs;
+
+    // Shared pooled client from RestTemplateConfig (compressed transfers, PATCH support)
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private UpstreamMetrics upstreamMetrics;
 
     // Get all transformers
     @GetMapping
     public ResponseEntity<String> getAll() {
         HttpHeaders headers = getHeaders();
         String url = supabaseUrl + "/rest/v1/transformers?select=*";
-        return restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        return upstreamMetrics.record("list-transformers", () -> restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), String.class));
     }
 
     // New: get transformers by transformerNumber (dedicated endpoint, like inspections/by-transformer)
@@ -50,9 +68,9 @@ public class TransformerController {
         try {
             HttpHeaders headers = getHeaders();
             String url = supabaseUrl + "/rest/v1/transformers?transformerNumber=eq." + transformerNumber + "&select=*";
-            return restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+            return upstreamMetrics.record("fetch-transformer-by-number", () -> restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), String.class));
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Failed to fetch transformer: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\":\"Failed to fetch transformer: " + e.getMessage() + "\"}");
         }
@@ -81,17 +99,15 @@ public class TransformerController {
                 String contentType = request.getContentType();
                 if (contentType != null && contentType.contains("application/json")) {
                     // Read JSON body
-                    ObjectMapper mapper = new ObjectMapper();
-                    Map<String, Object> jsonBody = mapper.readValue(request.getInputStream(), new TypeReference<Map<String, Object>>() {});
-                    poleNumber = (String) jsonBody.get("poleNumber");
-                    region = (String) jsonBody.get("region");
-                    type = (String) jsonBody.get("type");
-                    locationDetails = (String) jsonBody.get("locationDetails");
-
-                    // Handle capacity which can be Integer or Double from JSON
-                    Object capacityObj = jsonBody.get("capacity");
-                    if (capacityObj instanceof Number) {
-                        capacity = ((Number) capacityObj).doubleValue();
+                    Transformer jsonBody = jsonCodecs.readTransformer(request.getInputStream());
+                    poleNumber = jsonBody.getPoleNumber();
+                    region = jsonBody.getRegion();
+                    type = jsonBody.getType();
+                    locationDetails = jsonBody.getLocationDetails();
+
+                    // Capacity can arrive as Integer or Double from JSON; it's bound as Integer
+                    if (jsonBody.getCapacity() != null) {
+                        capacity = jsonBody.getCapacity().doubleValue();
                     }
                 }
             }
@@ -104,12 +120,37 @@ public class TransformerController {
             // Pass null for transformerNumber so the service will generate a unique T-XXXXXX
             return transformerService.createTransformer(null, poleNumber, region, type, locationDetails, capacity, baselineImage);
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("Failed to create transformer: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\":\"Failed to create transformer: " + e.getMessage() + "\"}");
         }
     }
 
+    // Bulk import: raw CSV (text/csv, with a header row) or NDJSON body, streamed and inserted in batches.
+    // Resend the same file with resumeAfter=<lastCommittedRow> to continue a partially failed import.
+    @PostMapping("/import")
+    public ResponseEntity<?> importTransformers(
+            HttpServletRequest request,
+            @RequestParam(value = "batchSize", required = false) Integer batchSize,
+            @RequestParam(value = "resumeAfter", defaultValue = "0") long resumeAfter
+    ) {
+        String contentType = request.getContentType();
+        boolean csv = contentType != null && contentType.contains("csv");
+        try {
+            TransformerImportReport report = transformerImportService.importTransformers(request.getInputStream(), csv, batchSize, resumeAfter);
+            // A batch insert failed: the report says which rows and where to resume
+            HttpStatus status = report.isComplete() ? HttpStatus.OK : HttpStatus.BAD_GATEWAY;
+            return ResponseEntity.status(status).body(report);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (Exception e) {
+            log.error("Failed to import transformers: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"error\":\"Failed to import transformers: " + e.getMessage() + "\"}");
+        }
+    }
+
     // Update baseline image for an existing transformer
     @PostMapping("/{id}/baselineImage")
     public ResponseEntity<String> updateBaselineImage(
@@ -120,7 +161,7 @@ public class TransformerController {
             // Delegate all logic to the service layer
             return transformerService.updateTransformerBaselineImage(id, baselineImage);
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("Failed to update image: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"error\":\"Failed to update image: " + e.getMessage() + "\"}");
         }
@@ -129,44 +170,40 @@ public class TransformerController {
 
     // Get transformer by numeric ID, and include its inspections
     @GetMapping("/{id}")
-    public ResponseEntity<Map<String, Object>> getById(@PathVariable Long id) {
+    public ResponseEntity<TransformerWithInspections> getById(@PathVariable Long id) {
         HttpHeaders headers = getHeaders();
 
         // 1. Get transformer by ID
         String transformerUrl = supabaseUrl + "/rest/v1/transformers?id=eq." + id + "&select=*";
-        ResponseEntity<String> transformerResponse = restTemplate.exchange(transformerUrl, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        ResponseEntity<String> transformerResponse = upstreamMetrics.record("fetch-transformer", () -> restTemplate.exchange(transformerUrl, HttpMethod.GET, new HttpEntity<>(headers), String.class));
 
         // Parse transformer JSON (assume single result)
         String transformerJson = transformerResponse.getBody();
-        ObjectMapper mapper = new ObjectMapper();
-        List<Map<String, Object>> transformerList;
+        List<Transformer> transformerList;
         try {
-            transformerList = mapper.readValue(transformerJson, new TypeReference<List<Map<String, Object>>>() {});
+            transformerList = jsonCodecs.readTransformers(transformerJson);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
         }
         if (transformerList.isEmpty()) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
         }
-        Map<String, Object> transformer = transformerList.get(0);
+        Transformer transformer = transformerList.get(0);
 
         // 2. Get inspections by transformerNumber
-        String transformerNumber = (String) transformer.get("transformerNumber");
+        String transformerNumber = transformer.getTransformerNumber();
         String inspectionsUrl = supabaseUrl + "/rest/v1/inspections?transformerNumber=eq." + transformerNumber + "&select=*";
-        ResponseEntity<String> inspectionsResponse = restTemplate.exchange(inspectionsUrl, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        ResponseEntity<String> inspectionsResponse = upstreamMetrics.record("list-inspections-by-transformer", () -> restTemplate.exchange(inspectionsUrl, HttpMethod.GET, new HttpEntity<>(headers), String.class));
 
-        List<Map<String, Object>> inspectionsList;
+        List<Inspection> inspectionsList;
         try {
-            inspectionsList = mapper.readValue(inspectionsResponse.getBody(), new TypeReference<List<Map<String, Object>>>() {});
+            inspectionsList = jsonCodecs.readInspections(inspectionsResponse.getBody());
         } catch (Exception e) {
             inspectionsList = new ArrayList<>();
         }
 
         // 3. Combine and return
-        Map<String, Object> result = new HashMap<>(transformer);
-        result.put("inspections", inspectionsList);
-
-        return ResponseEntity.ok(result);
+        return ResponseEntity.ok(new TransformerWithInspections(transformer, inspectionsList));
     }
 
     private HttpHeaders getHeaders() {
@@ -0,0 +1,69 @@
+package com.example.transformer_app.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.util.List;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonPropertyOrder({"id", "box", "confidence", "class", "timestamp", "madeBy", "action"})
+public class AnomalyLogEntry {
+    // Synthetic entry written by log compaction: state of one anomaly at the point the log was cut
+    public static final String CHECKPOINT = "checkpoint";
+    // Synthetic entry written by log compaction in the same write as the checkpoint: id is the Storage
+    // path of the segment that now holds the cut-off head, so only committed segments are referenced;
+    // madeBy is "User" when that head held corrections
+    public static final String SEGMENT = "segment";
+
+    private String id;
+    private List<Double> box;
+    private double confidence;
+
+    @JsonProperty("class")
+    private String className;
+
+    private String timestamp; // ISO-8601 string
+    private String madeBy;    // "AI" or "User"
+    private String action;    // "add", "edit", "delete", "checkpoint" or "segment"
+
+    public AnomalyLogEntry() {
+    }
+
+    public AnomalyLogEntry(String id, List<Double> box, double confidence, String className,
+                           String timestamp, String madeBy, String action) {
+        this.id = id;
+        this.box = box;
+        this.confidence = confidence;
+        this.className = className;
+        this.timestamp = timestamp;
+        this.madeBy = madeBy;
+        this.action = action;
+    }
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public List<Double> getBox() { return box; }
+    public void setBox(List<Double> box) { this.box = box; }
+
+    public double getConfidence() { return confidence; }
+    public void setConfidence(double confidence) { this.confidence = confidence; }
+
+    public String getClassName() { return className; }
+    public void setClassName(String className) { this.className = className; }
+
+    public String getTimestamp() { return timestamp; }
+    public void setTimestamp(String timestamp) { this.timestamp = timestamp; }
+
+    public String getMadeBy() { return madeBy; }
+    public void setMadeBy(String madeBy) { this.madeBy = madeBy; }
+
+    public String getAction() { return action; }
+    public void setAction(String action) { this.action = action; }
+
+    @Override
+    public String toString() {
+        return "AnomalyLogEntry{id=" + id + ", class=" + className + ", madeBy=" + madeBy + ", action=" + action + "}";
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.transformer_app.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One step of a batch anomaly edit: {"op":"add","anomaly":{...}}, {"op":"edit","id":"...","anomaly":{...}},
+ * {"op":"merge","id":"...","fields":{"box":[...]}} or {"op":"delete","id":"..."}.
+ * Steps are applied in order against the same copy of the inspection. The same shape is sent to the
+ * apply_anomaly_ops RPC, so only the changed data travels upstream.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AnomalyOperation {
+    public static final String ADD = "add";
+    public static final String EDIT = "edit";
+    public static final String MERGE = "merge";
+    public static final String DELETE = "delete";
+
+    // Fields a merge may set, by their stored JSON names
+    public static final Set<String> MERGE_FIELDS = Set.of("box", "class", "confidence");
+
+    private String op;
+    private String id;
+    private Detection anomaly;
+    private Map<String, Object> fields; // merge only: box, class and/or confidence
+
+    public AnomalyOperation() {
+    }
+
+    public AnomalyOperation(String op, String id, Detection anomaly) {
+        this.op = op;
+        this.id = id;
+        this.anomaly = anomaly;
+    }
+
+    public String getOp() { return op; }
+    public void setOp(String op) { this.op = op; }
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public Detection getAnomaly() { return anomaly; }
+    public void setAnomaly(Detection anomaly) { this.anomaly = anomaly; }
+
+    public Map<String, Object> getFields() { return fields; }
+    public void setFields(Map<String, Object> fields) { this.fields = fields; }
+}
@@ -1,16 +1,22 @@
 package com.example.transformer_app.dto;
 
+import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.List;
 
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class Detection {
     private String id; // Unique identifier for this detection
     private List<Double> box;
 
     @JsonProperty("class")
+    @JsonAlias("className")
     private String className;
 
-    private double confidence;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Double confidence; // null for user-drawn boxes
 
     private String madeBy; // "AI" or "User" - tracks how this anomaly was created
 
@@ -46,11 +52,11 @@ public class Detection {
         this.className = className;
     }
 
-    public double getConfidence() {
+    public Double getConfidence() {
         return confidence;
     }
 
-    public void setConfidence(double confidence) {
+    public void setConfidence(Double confidence) {
         this.confidence = confidence;
     }
 }
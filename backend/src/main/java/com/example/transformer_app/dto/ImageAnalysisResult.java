@@ -1,12 +1,11 @@
 package com.example.transformer_app.dto;
 
 import java.util.List;
-import java.util.Map;
 
 public class ImageAnalysisResult {
     private String imageUrl;
     private List<Detection> detections;
-    private List<Map<String, Object>> anomaliesLog;
+    private List<AnomalyLogEntry> anomaliesLog;
 
     public ImageAnalysisResult() {
     }
@@ -16,7 +15,7 @@ public class ImageAnalysisResult {
         this.detections = detections;
     }
 
-    public ImageAnalysisResult(String imageUrl, List<Detection> detections, List<Map<String, Object>> anomaliesLog) {
+    public ImageAnalysisResult(String imageUrl, List<Detection> detections, List<AnomalyLogEntry> anomaliesLog) {
         this.imageUrl = imageUrl;
         this.detections = detections;
         this.anomaliesLog = anomaliesLog;
@@ -30,7 +29,7 @@ public class ImageAnalysisResult {
         return detections;
     }
 
-    public List<Map<String, Object>> getAnomaliesLog() {
+    public List<AnomalyLogEntry> getAnomaliesLog() {
         return anomaliesLog;
     }
 
@@ -42,7 +41,7 @@ public class ImageAnalysisResult {
         this.detections = detections;
     }
 
-    public void setAnomaliesLog(List<Map<String, Object>> anomaliesLog) {
+    public void setAnomaliesLog(List<AnomalyLogEntry> anomaliesLog) {
         this.anomaliesLog = anomaliesLog;
     }
 }
@@ -0,0 +1,39 @@
+package com.example.transformer_app.dto;
+
+import com.example.transformer_app.model.Inspection;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+
+// Inspection row flattened together with its transformer's baseline image URLs
+public class InspectionWithBaseline {
+    @JsonUnwrapped
+    private Inspection inspection;
+    private String baselineImage;
+    private String baselineImageThumb;
+    private String baselineImageMedium;
+
+    public InspectionWithBaseline() {
+    }
+
+    public InspectionWithBaseline(Inspection inspection, String baselineImage) {
+        this.inspection = inspection;
+        this.baselineImage = baselineImage;
+    }
+
+    public InspectionWithBaseline(Inspection inspection, String baselineImage, String baselineImageThumb, String baselineImageMedium) {
+        this(inspection, baselineImage);
+        this.baselineImageThumb = baselineImageThumb;
+        this.baselineImageMedium = baselineImageMedium;
+    }
+
+    public Inspection getInspection() { return inspection; }
+    public void setInspection(Inspection inspection) { this.inspection = inspection; }
+
+    public String getBaselineImage() { return baselineImage; }
+    public void setBaselineImage(String baselineImage) { this.baselineImage = baselineImage; }
+
+    public String getBaselineImageThumb() { return baselineImageThumb; }
+    public void setBaselineImageThumb(String baselineImageThumb) { this.baselineImageThumb = baselineImageThumb; }
+
+    public String getBaselineImageMedium() { return baselineImageMedium; }
+    public void setBaselineImageMedium(String baselineImageMedium) { this.baselineImageMedium = baselineImageMedium; }
+}
@@ -0,0 +1,16 @@
+package com.example.transformer_app.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import java.util.List;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class LambdaInferenceResponse {
+    private String imageUrl;
+    private List<Detection> detections;
+
+    public String getImageUrl() { return imageUrl; }
+    public void setImageUrl(String imageUrl) { this.imageUrl = imageUrl; }
+
+    public List<Detection> getDetections() { return detections; }
+    public void setDetections(List<Detection> detections) { this.detections = detections; }
+}
@@ -0,0 +1,53 @@
+package com.example.transformer_app.dto;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.deser.ContextualDeserializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binds a JSON column that may come back from Supabase either as a real JSON array
+ * or as a JSON-encoded string (text column). Both are bound straight to the typed list.
+ */
+public class LenientJsonListDeserializer extends JsonDeserializer<List<?>> implements ContextualDeserializer {
+
+    private final JavaType listType;
+
+    public LenientJsonListDeserializer() {
+        this(null);
+    }
+
+    private LenientJsonListDeserializer(JavaType listType) {
+        this.listType = listType;
+    }
+
+    @Override
+    public JsonDeserializer<?> createContextual(DeserializationContext ctxt, BeanProperty property) {
+        return new LenientJsonListDeserializer(property.getType());
+    }
+
+    @Override
+    public List<?> deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (p.currentToken() != JsonToken.VALUE_STRING) {
+            return ctxt.readValue(p, listType);
+        }
+
+        String text = p.getText();
+        if (text == null || text.isBlank()) {
+            return new ArrayList<>();
+        }
+        try (JsonParser inner = p.getCodec().getFactory().createParser(text)) {
+            inner.setCodec(p.getCodec());
+            inner.nextToken();
+            List<?> result = ctxt.readValue(inner, listType);
+            return result != null ? result : new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.transformer_app.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * One retraining run as seen by the backend: created by the first trigger, joined by the triggers
+ * that arrive while it is pending, and finished once the training endpoint answered.
+ * Times are ISO-8601 strings; upstreamStatus is the HTTP status of the trigger call.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RetrainJob {
+
+    public static final String PENDING = "pending";
+    public static final String RUNNING = "running";
+    public static final String SUCCEEDED = "succeeded";
+    public static final String FAILED = "failed";
+
+    private String id;
+    private String status;
+    private String source;
+    private int triggers;
+    private String requestedAt;
+    private String startedAt;
+    private String finishedAt;
+    private Integer upstreamStatus;
+    private String upstreamJobId;
+    private String error;
+
+    public RetrainJob() {
+    }
+
+    public RetrainJob(RetrainJob other) {
+        this.id = other.id;
+        this.status = other.status;
+        this.source = other.source;
+        this.triggers = other.triggers;
+        this.requestedAt = other.requestedAt;
+        this.startedAt = other.startedAt;
+        this.finishedAt = other.finishedAt;
+        this.upstreamStatus = other.upstreamStatus;
+        this.upstreamJobId = other.upstreamJobId;
+        this.error = other.error;
+    }
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public String getSource() { return source; }
+    public void setSource(String source) { this.source = source; }
+
+    public int getTriggers() { return triggers; }
+    public void setTriggers(int triggers) { this.triggers = triggers; }
+
+    public String getRequestedAt() { return requestedAt; }
+    public void setRequestedAt(String requestedAt) { this.requestedAt = requestedAt; }
+
+    public String getStartedAt() { return startedAt; }
+    public void setStartedAt(String startedAt) { this.startedAt = startedAt; }
+
+    public String getFinishedAt() { return finishedAt; }
+    public void setFinishedAt(String finishedAt) { this.finishedAt = finishedAt; }
+
+    public Integer getUpstreamStatus() { return upstreamStatus; }
+    public void setUpstreamStatus(Integer upstreamStatus) { this.upstreamStatus = upstreamStatus; }
+
+    public String getUpstreamJobId() { return upstreamJobId; }
+    public void setUpstreamJobId(String upstreamJobId) { this.upstreamJobId = upstreamJobId; }
+
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+}
@@ -0,0 +1,85 @@
+package com.example.transformer_app.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of a bulk transformer import. Rows are numbered from 1 (the CSV header is not a row).
+ * Every batch is one INSERT, so it is written completely or not at all; when a batch fails the
+ * import stops and lastCommittedRow tells the client where to resume (?resumeAfter=...).
+ */
+public class TransformerImportReport {
+
+    public static final String INSERTED = "inserted";
+    public static final String INVALID = "invalid";
+    public static final String FAILED = "failed";
+
+    private int inserted;
+    private int invalid;
+    private int failed;
+    private int skipped;
+    private long lastCommittedRow;
+    private boolean complete;
+    private List<RowResult> rows = new ArrayList<>();
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class RowResult {
+        private long row;
+        private String status;
+        private String transformerNumber;
+        private String error;
+
+        public RowResult() {
+        }
+
+        public RowResult(long row, String status, String transformerNumber, String error) {
+            this.row = row;
+            this.status = status;
+            this.transformerNumber = transformerNumber;
+            this.error = error;
+        }
+
+        public long getRow() { return row; }
+        public void setRow(long row) { this.row = row; }
+
+        public String getStatus() { return status; }
+        public void setStatus(String status) { this.status = status; }
+
+        public String getTransformerNumber() { return transformerNumber; }
+        public void setTransformerNumber(String transformerNumber) { this.transformerNumber = transformerNumber; }
+
+        public String getError() { return error; }
+        public void setError(String error) { this.error = error; }
+    }
+
+    public void add(RowResult result) {
+        rows.add(result);
+        switch (result.getStatus()) {
+            case INSERTED -> inserted++;
+            case INVALID -> invalid++;
+            case FAILED -> failed++;
+            default -> { }
+        }
+    }
+
+    // Rows at or before resumeAfter are only counted, not listed
+    public void addSkipped() {
+        skipped++;
+    }
+
+    public int getInserted() { return inserted; }
+    public int getInvalid() { return invalid; }
+    public int getFailed() { return failed; }
+    public int getSkipped() { return skipped; }
+
+    public long getLastCommittedRow() { return lastCommittedRow; }
+    public void setLastCommittedRow(long lastCommittedRow) { this.lastCommittedRow = lastCommittedRow; }
+
+    public boolean isComplete() { return complete; }
+    public void setComplete(boolean complete) { this.complete = complete; }
+
+    public List<RowResult> getRows() { return rows; }
+    public void setRows(List<RowResult> rows) { this.rows = rows; }
+}
@@ -0,0 +1,56 @@
+package com.example.transformer_app.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Risk score of one transformer (0-100, higher is riskier) with the components it was built from.
+ * Each component is in [0, 1]; the inputs that fed them are included so a score can be explained.
+ * Inputs that are unknown (no inspection, no readings, no capacity) are left out and score 0.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TransformerRisk {
+
+    private String transformerNumber;
+    private String region;
+    private double score;
+    private double anomalyComponent;
+    private double imbalanceComponent;
+    private double loadingComponent;
+    private Long inspectionIid;
+    private int anomalies;
+    private Long maintenanceMid;
+    private Double currentImbalance; // max deviation of a phase from the three-phase average, over the average
+    private Double voltageImbalance;
+    private Double loading;          // currentMonthKVA / capacity
+    private Double projectedLoading; // currentMonthKVA + (currentMonthKVA - lastMonthKVA), over capacity
+    private String computedAt;
+
+    public String getTransformerNumber() { return transformerNumber; }
+    public void setTransformerNumber(String transformerNumber) { this.transformerNumber = transformerNumber; }
+    public String getRegion() { return region; }
+    public void setRegion(String region) { this.region = region; }
+    public double getScore() { return score; }
+    public void setScore(double score) { this.score = score; }
+    public double getAnomalyComponent() { return anomalyComponent; }
+    public void setAnomalyComponent(double anomalyComponent) { this.anomalyComponent = anomalyComponent; }
+    public double getImbalanceComponent() { return imbalanceComponent; }
+    public void setImbalanceComponent(double imbalanceComponent) { this.imbalanceComponent = imbalanceComponent; }
+    public double getLoadingComponent() { return loadingComponent; }
+    public void setLoadingComponent(double loadingComponent) { this.loadingComponent = loadingComponent; }
+    public Long getInspectionIid() { return inspectionIid; }
+    public void setInspectionIid(Long inspectionIid) { this.inspectionIid = inspectionIid; }
+    public int getAnomalies() { return anomalies; }
+    public void setAnomalies(int anomalies) { this.anomalies = anomalies; }
+    public Long getMaintenanceMid() { return maintenanceMid; }
+    public void setMaintenanceMid(Long maintenanceMid) { this.maintenanceMid = maintenanceMid; }
+    public Double getCurrentImbalance() { return currentImbalance; }
+    public void setCurrentImbalance(Double currentImbalance) { this.currentImbalance = currentImbalance; }
+    public Double getVoltageImbalance() { return voltageImbalance; }
+    public void setVoltageImbalance(Double voltageImbalance) { this.voltageImbalance = voltageImbalance; }
+    public Double getLoading() { return loading; }
+    public void setLoading(Double loading) { this.loading = loading; }
+    public Double getProjectedLoading() { return projectedLoading; }
+    public void setProjectedLoading(Double projectedLoading) { this.projectedLoading = projectedLoading; }
+    public String getComputedAt() { return computedAt; }
+    public void setComputedAt(String computedAt) { this.computedAt = computedAt; }
+}
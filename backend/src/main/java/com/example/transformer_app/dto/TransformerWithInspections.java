@@ -0,0 +1,28 @@
+package com.example.transformer_app.dto;
+
+import com.example.transformer_app.model.Inspection;
+import com.example.transformer_app.model.Transformer;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+
+import java.util.List;
+
+// Transformer row flattened together with all of its inspections
+public class TransformerWithInspections {
+    @JsonUnwrapped
+    private Transformer transformer;
+    private List<Inspection> inspections;
+
+    public TransformerWithInspections() {
+    }
+
+    public TransformerWithInspections(Transformer transformer, List<Inspection> inspections) {
+        this.transformer = transformer;
+        this.inspections = inspections;
+    }
+
+    public Transformer getTransformer() { return transformer; }
+    public void setTransformer(Transformer transformer) { this.transformer = transformer; }
+
+    public List<Inspection> getInspections() { return inspections; }
+    public void setInspections(List<Inspection> inspections) { this.inspections = inspections; }
+}
@@ -0,0 +1,20 @@
+package com.example.transformer_app.event;
+
+import com.example.transformer_app.dto.Detection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Anomaly ops were applied to an inspection: the final state of the changed anomalies and the ids
+ * of the removed ones.
+ */
+public record AnomaliesChanged(Long iid, List<Detection> changed, Collection<String> removed) {
+
+    public AnomaliesChanged {
+        changed = changed != null ? Collections.unmodifiableList(new ArrayList<>(changed)) : List.of();
+        removed = removed != null ? Collections.unmodifiableList(new ArrayList<>(removed)) : List.of();
+    }
+}
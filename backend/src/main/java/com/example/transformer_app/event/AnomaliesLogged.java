@@ -0,0 +1,17 @@
+package com.example.transformer_app.event;
+
+import com.example.transformer_app.dto.AnomalyLogEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Entries that were just appended to an inspection's anomaliesLog.
+ */
+public record AnomaliesLogged(List<AnomalyLogEntry> entries) {
+
+    public AnomaliesLogged {
+        entries = entries != null ? Collections.unmodifiableList(new ArrayList<>(entries)) : List.of();
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.transformer_app.event;
+
+/**
+ * A transformer's baselineImage was uploaded or replaced.
+ */
+public record BaselineImageChanged(String transformerNumber, String imageUrl) {
+}
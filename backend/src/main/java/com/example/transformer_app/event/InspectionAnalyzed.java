@@ -0,0 +1,18 @@
+package com.example.transformer_app.event;
+
+import com.example.transformer_app.dto.Detection;
+import com.example.transformer_app.model.Inspection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An inspection was created, or re-analysed: anomalies replace all anomalies it had before.
+ */
+public record InspectionAnalyzed(Inspection inspection, List<Detection> anomalies) {
+
+    public InspectionAnalyzed {
+        anomalies = anomalies != null ? Collections.unmodifiableList(new ArrayList<>(anomalies)) : List.of();
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.transformer_app.event;
+
+/**
+ * A maintenance record was deleted.
+ */
+public record MaintenanceDeleted(Long mid) {
+}
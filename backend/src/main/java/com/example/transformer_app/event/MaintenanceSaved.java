@@ -0,0 +1,9 @@
+package com.example.transformer_app.event;
+
+import com.example.transformer_app.model.Maintenance;
+
+/**
+ * A maintenance record was created or updated; maintenance is the row as stored.
+ */
+public record MaintenanceSaved(Maintenance maintenance) {
+}
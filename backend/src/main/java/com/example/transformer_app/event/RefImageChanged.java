@@ -0,0 +1,7 @@
+package com.example.transformer_app.event;
+
+/**
+ * An inspection's refImage was uploaded or replaced.
+ */
+public record RefImageChanged(Long iid, String transformerNumber, String imageUrl) {
+}
@@ -0,0 +1,9 @@
+package com.example.transformer_app.event;
+
+import com.example.transformer_app.model.Transformer;
+
+/**
+ * A transformer was created or its details were updated (one event per row of an import).
+ */
+public record TransformerSaved(Transformer transformer) {
+}
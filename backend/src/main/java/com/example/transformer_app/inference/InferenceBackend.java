@@ -0,0 +1,29 @@
+package com.example.transformer_app.inference;
+
+import com.example.transformer_app.dto.Detection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the anomaly detector on an uploaded image. Boxes come back as [x1, y1, x2, y2] in the
+ * image's pixels with class and confidence set; ids, madeBy and the switch to centre format are
+ * left to the caller. Which implementation handles uploads is chosen by inference.backend.
+ */
+public interface InferenceBackend {
+
+    // The name inference.backend and the benchmark refer to it by
+    String name();
+
+    List<Detection> detect(byte[] image, double threshold, double iouThreshold) throws IOException;
+
+    // One list per image, in order; backends that can batch override this
+    default List<List<Detection>> detectAll(List<byte[]> images, double threshold, double iouThreshold) throws IOException {
+        List<List<Detection>> results = new ArrayList<>(images.size());
+        for (byte[] image : images) {
+            results.add(detect(image, threshold, iouThreshold));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.transformer_app.inference;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Every InferenceBackend by name, and the one inference.backend picks for uploads
+@Component
+public class InferenceBackends {
+
+    private final Map<String, InferenceBackend> byName = new LinkedHashMap<>();
+    private final InferenceBackend active;
+
+    public InferenceBackends(List<InferenceBackend> backends, @Value("${inference.backend:lambda}") String activeName) {
+        for (InferenceBackend backend : backends) {
+            byName.put(backend.name(), backend);
+        }
+        active = byName.get(activeName);
+        if (active == null) {
+            throw new IllegalStateException("Unknown inference.backend '" + activeName + "', expected one of " + byName.keySet());
+        }
+    }
+
+    public InferenceBackend active() {
+        return active;
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no backend of that name
+     */
+    public InferenceBackend get(String name) {
+        InferenceBackend backend = byName.get(name);
+        if (backend == null) {
+            throw new IllegalArgumentException("Unknown inference backend '" + name + "', expected one of " + byName.keySet());
+        }
+        return backend;
+    }
+
+    public Set<String> names() {
+        return byName.keySet();
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.transformer_app.inference;
+
+import com.example.transformer_app.dto.Detection;
+import com.example.transformer_app.tracing.Spans;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs one image through several inference backends the same number of times, at the same
+ * concurrency, and reports latency percentiles, throughput and what each one detected. Warm-up
+ * calls (Lambda cold start, session creation, JIT) are made first and left out of the figures.
+ */
+@Service
+public class InferenceBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(InferenceBenchmark.class);
+
+    // Off by default: the runs compete with uploads for the same backends
+    @Value("${inference.benchmark.enabled:false}")
+    private boolean enabled;
+
+    @Value("${inference.benchmark.max-runs:200}")
+    private int maxRuns;
+
+    @Value("${inference.benchmark.max-concurrency:16}")
+    private int maxConcurrency;
+
+    private final InferenceBackends backends;
+    private final Spans spans;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public InferenceBenchmark(InferenceBackends backends, Spans spans) {
+        this.backends = backends;
+        this.spans = spans;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param names backends to compare, all of them when null or empty
+     * @throws IllegalArgumentException if a backend is unknown or runs/concurrency are out of range
+     * @throws IllegalStateException    if a benchmark is already running
+     */
+    public Map<String, Object> run(byte[] image, List<String> names, int runs, int warmup, int concurrency,
+                                   double threshold, double iouThreshold) {
+        if (runs < 1 || runs > maxRuns) {
+            throw new IllegalArgumentException("runs must be between 1 and " + maxRuns);
+        }
+        if (concurrency < 1 || concurrency > maxConcurrency) {
+            throw new IllegalArgumentException("concurrency must be between 1 and " + maxConcurrency);
+        }
+        if (warmup < 0 || warmup > maxRuns) {
+            throw new IllegalArgumentException("warmup must be between 0 and " + maxRuns);
+        }
+        List<InferenceBackend> selected = new ArrayList<>();
+        for (String name : names == null || names.isEmpty() ? backends.names() : names) {
+            selected.add(backends.get(name.trim()));
+        }
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("An inference benchmark is already running");
+        }
+        try {
+            return spans.inSpan("inference-benchmark", () -> {
+                long started = System.nanoTime();
+                Map<String, Object> results = new LinkedHashMap<>();
+                for (InferenceBackend backend : selected) {
+                    results.put(backend.name(), measure(backend, image, runs, warmup, concurrency, threshold, iouThreshold));
+                }
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("imageBytes", image.length);
+                result.put("runs", runs);
+                result.put("warmup", warmup);
+                result.put("concurrency", concurrency);
+                result.put("backends", results);
+                result.put("millis", (System.nanoTime() - started) / 1_000_000);
+                log.info("Inference benchmark finished: {}", result);
+                return result;
+            });
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private Map<String, Object> measure(InferenceBackend backend, byte[] image, int runs, int warmup, int concurrency,
+                                        double threshold, double iouThreshold) {
+        AtomicInteger errors = new AtomicInteger();
+        AtomicReference<String> firstError = new AtomicReference<>();
+        AtomicReference<List<Detection>> detected = new AtomicReference<>();
+        for (int i = 0; i < warmup; i++) {
+            try {
+                detected.compareAndSet(null, backend.detect(image, threshold, iouThreshold));
+            } catch (IOException | RuntimeException e) {
+                firstError.compareAndSet(null, e.getMessage());
+            }
+        }
+
+        long[] nanos = new long[runs];
+        Arrays.fill(nanos, -1);
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "inference-benchmark");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long wallStarted = System.nanoTime();
+        try {
+            List<Future<?>> calls = new ArrayList<>(runs);
+            for (int i = 0; i < runs; i++) {
+                int run = i;
+                calls.add(pool.submit(() -> {
+                    long callStarted = System.nanoTime();
+                    try {
+                        List<Detection> found = backend.detect(image, threshold, iouThreshold);
+                        nanos[run] = System.nanoTime() - callStarted;
+                        detected.compareAndSet(null, found);
+                    } catch (IOException | RuntimeException e) {
+                        errors.incrementAndGet();
+                        firstError.compareAndSet(null, e.getMessage());
+                    }
+                }));
+            }
+            for (Future<?> call : calls) {
+                call.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while benchmarking " + backend.name(), e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        double wallSeconds = (System.nanoTime() - wallStarted) / 1e9;
+
+        long[] succeeded = Arrays.stream(nanos).filter(n -> n >= 0).sorted().toArray();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("succeeded", succeeded.length);
+        result.put("errors", errors.get());
+        if (firstError.get() != null) {
+            result.put("firstError", firstError.get());
+        }
+        if (succeeded.length > 0) {
+            Map<String, Object> latency = new LinkedHashMap<>();
+            latency.put("min", millis(succeeded[0]));
+            latency.put("mean", millis((long) Arrays.stream(succeeded).average().orElse(0)));
+            latency.put("p50", millis(percentile(succeeded, 0.50)));
+            latency.put("p95", millis(percentile(succeeded, 0.95)));
+            latency.put("max", millis(succeeded[succeeded.length - 1]));
+            result.put("latencyMillis", latency);
+            result.put("imagesPerSecond", Math.round(succeeded.length / wallSeconds * 10) / 10.0);
+        }
+        if (detected.get() != null) {
+            Map<String, Integer> byClass = new TreeMap<>();
+            for (Detection detection : detected.get()) {
+                byClass.merge(String.valueOf(detection.getClassName()), 1, Integer::sum);
+            }
+            result.put("detections", detected.get().size());
+            result.put("detectionsByClass", byClass);
+        }
+        return result;
+    }
+
+    // Nearest-rank percentile of sorted values
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.max(0, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 100_000.0) / 10.0;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.transformer_app.inference;
+
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.dto.Detection;
+import com.example.transformer_app.dto.LambdaInferenceResponse;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The detector deployed behind API Gateway: the image goes over as Base64 JSON on every call
+@Component
+public class LambdaInferenceBackend implements InferenceBackend {
+
+    private static final Logger log = LoggerFactory.getLogger(LambdaInferenceBackend.class);
+
+    @Value("${lambda.url:https://zbpuxumseg.execute-api.ap-southeast-1.amazonaws.com/prod/}")
+    private String lambdaUrl;
+
+    private final RestTemplate restTemplate;
+    private final JsonCodecs jsonCodecs;
+    private final UpstreamMetrics upstreamMetrics;
+
+    public LambdaInferenceBackend(RestTemplate restTemplate, JsonCodecs jsonCodecs, UpstreamMetrics upstreamMetrics) {
+        this.restTemplate = restTemplate;
+        this.jsonCodecs = jsonCodecs;
+        this.upstreamMetrics = upstreamMetrics;
+    }
+
+    @Override
+    public String name() {
+        return "lambda";
+    }
+
+    @Override
+    public List<Detection> detect(byte[] image, double threshold, double iouThreshold) throws IOException {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("image", Base64.getEncoder().encodeToString(image));
+        payload.put("threshold", threshold);
+        payload.put("iou_threshold", iouThreshold);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<Map<String, Object>> request = new HttpEntity<>(payload, headers);
+
+        ResponseEntity<String> response = upstreamMetrics.record("infer", () -> restTemplate.postForEntity(lambdaUrl, request, String.class));
+        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+            return Collections.emptyList();
+        }
+        log.debug("Lambda response: {}", response.getBody());
+
+        // Bind the response straight onto the typed DTO
+        LambdaInferenceResponse result = jsonCodecs.readLambdaResponse(response.getBody());
+        return result.getDetections() != null ? result.getDetections() : Collections.emptyList();
+    }
+}
@@ -0,0 +1,478 @@
+package com.example.transformer_app.inference;
+
+import ai.onnxruntime.NodeInfo;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OnnxValue;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+import com.example.transformer_app.dto.Detection;
+import com.example.transformer_app.tracing.Spans;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the exported YOLO detector (the same best.onnx the Lambda loads) in-process on CPU with ONNX
+ * Runtime, with the Lambda's pre- and post-processing: a plain resize to the model's input size, RGB
+ * scaled to 0..1, the best class per anchor above the threshold, boxes scaled back to the image and a
+ * class-agnostic NMS.
+ * <p>
+ * A fixed pool of sessions is created on first use; if that fails, the failure is kept and rethrown
+ * to every later call instead of loading the model again. Callers decode and resize their own image, then
+ * queue it; once a session is idle the dispatcher gathers whatever is queued (up to max-batch, waiting
+ * at most batch-window for more) and runs it as one [n, 3, size, size] tensor. So a burst of
+ * uploads, or a detectAll(), shares model runs, while a lone request only waits for the window.
+ * Shutting down fails whatever is still queued, gathered or waiting on a runner, so no caller is left
+ * waiting on a batch that will never run.
+ */
+@Component
+public class OnnxInferenceBackend implements InferenceBackend {
+
+    private static final Logger log = LoggerFactory.getLogger(OnnxInferenceBackend.class);
+
+    // Path of the exported model; empty leaves this backend unavailable
+    @Value("${inference.local.model-path:}")
+    private String modelPath;
+
+    @Value("${inference.local.sessions:2}")
+    private int sessionCount;
+
+    // Threads per session; 0 splits the cores between the sessions
+    @Value("${inference.local.intra-op-threads:0}")
+    private int intraOpThreads;
+
+    @Value("${inference.local.max-batch:4}")
+    private int maxBatch;
+
+    @Value("${inference.local.batch-window:PT0.005S}")
+    private Duration batchWindow;
+
+    // How long a caller waits for its image, queueing included
+    @Value("${inference.local.timeout:PT60S}")
+    private Duration timeout;
+
+    // Used when the model's input height and width are dynamic
+    @Value("${inference.local.input-size:640}")
+    private int defaultInputSize;
+
+    @Value("${inference.local.classes:Full wire overload,Loose Joint - Faulty,Loose Joint - Potential,Point Overload - Faulty,Normal}")
+    private List<String> classes;
+
+    @Value("${inference.backend:lambda}")
+    private String activeBackend;
+
+    private final Spans spans;
+    private final MeterRegistry registry;
+
+    private record Pending(float[] pixels, int width, int height, double threshold, double iouThreshold,
+                           CompletableFuture<List<Detection>> result) {
+    }
+
+    // Set once by load(), guarded by this until then
+    private volatile boolean loaded;
+    private volatile boolean closed;
+    private volatile IllegalStateException loadFailure;
+    private OrtEnvironment environment;
+    private final List<OrtSession> sessions = new ArrayList<>();
+    private BlockingQueue<OrtSession> idle;
+    private String inputName;
+    private int inputSize;
+    private ExecutorService runners;
+    private Thread dispatcher;
+    private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder images = new LongAdder();
+
+    public OnnxInferenceBackend(Spans spans, MeterRegistry registry) {
+        this.spans = spans;
+        this.registry = registry;
+    }
+
+    @Override
+    public String name() {
+        return "local";
+    }
+
+    // Load the model before the first upload when it is the active backend, rather than during it
+    @EventListener(ApplicationReadyEvent.class)
+    void warmUp() {
+        if (name().equals(activeBackend)) {
+            try {
+                load();
+            } catch (RuntimeException e) {
+                log.error("Could not load the local detector: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public List<Detection> detect(byte[] image, double threshold, double iouThreshold) throws IOException {
+        return detectAll(List.of(image), threshold, iouThreshold).get(0);
+    }
+
+    @Override
+    public List<List<Detection>> detectAll(List<byte[]> images, double threshold, double iouThreshold) throws IOException {
+        load();
+        return spans.inSpan("infer-local", () -> {
+            List<Pending> queued = new ArrayList<>(images.size());
+            for (byte[] image : images) {
+                queued.add(preprocess(image, threshold, iouThreshold));
+            }
+            pending.addAll(queued);
+            if (closed) {
+                // Queued after shutdown() drained the queue
+                failPending();
+            }
+            List<List<Detection>> results = new ArrayList<>(queued.size());
+            for (Pending item : queued) {
+                results.add(await(item));
+            }
+            return results;
+        });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("modelPath", modelPath);
+        stats.put("loaded", loaded);
+        if (loadFailure != null) {
+            stats.put("loadFailure", loadFailure.getMessage());
+        }
+        if (loaded) {
+            stats.put("inputSize", inputSize);
+            stats.put("sessions", sessions.size());
+            stats.put("idleSessions", idle.size());
+        }
+        stats.put("queued", pending.size());
+        stats.put("batches", batches.sum());
+        stats.put("images", images.sum());
+        stats.put("meanBatchSize", batches.sum() > 0 ? (double) images.sum() / batches.sum() : 0);
+        return stats;
+    }
+
+    /**
+     * Creates the sessions and starts the dispatcher, once. A failed load is not retried until restart.
+     *
+     * @throws IllegalStateException if no model is configured or it can't be loaded
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        if (loadFailure != null) {
+            throw loadFailure;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            if (loadFailure != null) {
+                throw loadFailure;
+            }
+            try {
+                createSessions();
+            } catch (IllegalStateException e) {
+                loadFailure = e;
+                throw e;
+            } catch (RuntimeException | LinkageError e) {
+                // e.g. the native runtime missing for this platform
+                closeSessions();
+                loadFailure = new IllegalStateException("Could not load local model " + modelPath + ": " + e, e);
+                throw loadFailure;
+            }
+        }
+    }
+
+    // Called under the lock by load()
+    private void createSessions() {
+        if (modelPath == null || modelPath.isBlank() || !Files.isRegularFile(Paths.get(modelPath))) {
+            throw new IllegalStateException("No local model at inference.local.model-path '" + modelPath + "'");
+        }
+        long started = System.nanoTime();
+        int threads = intraOpThreads > 0 ? intraOpThreads : Math.max(1, Runtime.getRuntime().availableProcessors() / sessionCount);
+        try {
+            environment = OrtEnvironment.getEnvironment();
+            for (int i = 0; i < sessionCount; i++) {
+                try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+                    options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+                    options.setIntraOpNumThreads(threads);
+                    sessions.add(environment.createSession(modelPath, options));
+                }
+            }
+        } catch (OrtException e) {
+            closeSessions();
+            throw new IllegalStateException("Could not load local model " + modelPath + ": " + e.getMessage(), e);
+        }
+        Map.Entry<String, NodeInfo> input;
+        try {
+            input = sessions.get(0).getInputInfo().entrySet().iterator().next();
+        } catch (OrtException e) {
+            closeSessions();
+            throw new IllegalStateException("Could not read the inputs of " + modelPath, e);
+        }
+        inputName = input.getKey();
+        long[] shape = input.getValue().getInfo() instanceof TensorInfo tensor ? tensor.getShape() : new long[0];
+        inputSize = shape.length == 4 && shape[2] > 0 ? (int) shape[2] : defaultInputSize;
+
+        idle = new ArrayBlockingQueue<>(sessions.size(), false, sessions);
+        runners = Executors.newFixedThreadPool(sessions.size(), runnable -> {
+            Thread thread = new Thread(runnable, "inference-local");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher = new Thread(this::dispatch, "inference-local-batcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        loaded = true;
+        log.info("Local detector {} loaded: {} sessions x {} threads, input {} {}x{}, in {} ms", modelPath, sessions.size(), threads,
+                inputName, inputSize, inputSize, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    @PreDestroy
+    synchronized void shutdown() {
+        closed = true;
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+        }
+        if (runners != null) {
+            for (Runnable task : runners.shutdownNow()) {
+                if (task instanceof BatchRun run) {
+                    fail(run.batch(), shuttingDown());
+                }
+            }
+        }
+        failPending();
+        closeSessions();
+    }
+
+    private void failPending() {
+        List<Pending> drained = new ArrayList<>();
+        pending.drainTo(drained);
+        fail(drained, shuttingDown());
+    }
+
+    private static void fail(List<Pending> batch, Throwable cause) {
+        for (Pending item : batch) {
+            item.result().completeExceptionally(cause);
+        }
+    }
+
+    private static IllegalStateException shuttingDown() {
+        return new IllegalStateException("The local detector is shutting down");
+    }
+
+    private void closeSessions() {
+        for (OrtSession session : sessions) {
+            try {
+                session.close();
+            } catch (OrtException e) {
+                log.debug("Could not close session: {}", e.getMessage());
+            }
+        }
+        sessions.clear();
+    }
+
+    // A batch handed to the runners, so shutdown() can fail the ones that never started
+    private record BatchRun(OnnxInferenceBackend backend, OrtSession session, List<Pending> batch) implements Runnable {
+        @Override
+        public void run() {
+            try {
+                backend.run(session, batch);
+            } finally {
+                backend.idle.add(session);
+            }
+        }
+    }
+
+    // While every session is busy the queue keeps filling, so the next batch picks up everything that waited
+    private void dispatch() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch = new ArrayList<>(maxBatch);
+                batch.add(pending.take());
+                OrtSession session = idle.take();
+                long deadline = System.nanoTime() + batchWindow.toNanos();
+                while (batch.size() < maxBatch) {
+                    Pending next = pending.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                try {
+                    runners.execute(new BatchRun(this, session, batch));
+                } catch (RuntimeException e) {
+                    // Rejected, e.g. while shutting down: fail this batch, not every later one
+                    idle.add(session);
+                    fail(batch, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Shut down while gathering: what was taken off the queue will not run. A batch handed to the
+            // runners was replaced before the next take, so it is left to them (or to shutdown())
+            fail(batch, shuttingDown());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(OrtSession session, List<Pending> batch) {
+        int n = batch.size();
+        int plane = 3 * inputSize * inputSize;
+        FloatBuffer input = FloatBuffer.allocate(n * plane);
+        for (Pending item : batch) {
+            input.put(item.pixels());
+        }
+        input.flip();
+        Timer.Sample sample = Timer.start(registry);
+        try (OnnxTensor tensor = OnnxTensor.createTensor(environment, input, new long[]{n, 3, inputSize, inputSize});
+             OrtSession.Result result = session.run(Map.of(inputName, tensor))) {
+            OnnxValue output = result.get(0);
+            long[] shape = ((TensorInfo) output.getInfo()).getShape();
+            FloatBuffer values = ((OnnxTensor) output).getFloatBuffer();
+            int channels = (int) shape[1];
+            int anchors = (int) shape[2];
+            float[] scores = new float[channels * anchors];
+            for (Pending item : batch) {
+                values.get(scores);
+                item.result().complete(postprocess(scores, channels, anchors, item.width(), item.height(),
+                        item.threshold(), item.iouThreshold()));
+            }
+        } catch (OrtException | RuntimeException e) {
+            fail(batch, e);
+        } finally {
+            sample.stop(Timer.builder("inference.local")
+                    .description("In-process detector runs, one per batch")
+                    .tag("batch", String.valueOf(n))
+                    .register(registry));
+            DistributionSummary.builder("inference.local.batch.size").register(registry).record(n);
+            batches.increment();
+            images.add(n);
+        }
+    }
+
+    // The Lambda's cv2.resize to the input size, BGR to RGB and /255, laid out channel by channel
+    private Pending preprocess(byte[] image, double threshold, double iouThreshold) throws IOException {
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(image));
+        if (decoded == null) {
+            throw new IOException("Could not decode image for local inference");
+        }
+        BufferedImage resized = new BufferedImage(inputSize, inputSize, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = resized.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(decoded, 0, 0, inputSize, inputSize, null);
+        } finally {
+            g.dispose();
+        }
+        int area = inputSize * inputSize;
+        int[] rgb = resized.getRGB(0, 0, inputSize, inputSize, null, 0, inputSize);
+        float[] pixels = new float[3 * area];
+        for (int i = 0; i < area; i++) {
+            int p = rgb[i];
+            pixels[i] = (p >> 16 & 0xff) / 255f;
+            pixels[area + i] = (p >> 8 & 0xff) / 255f;
+            pixels[2 * area + i] = (p & 0xff) / 255f;
+        }
+        return new Pending(pixels, decoded.getWidth(), decoded.getHeight(), threshold, iouThreshold, new CompletableFuture<>());
+    }
+
+    // output is [channels][anchors]: cx, cy, w, h in input pixels, then one score per class
+    List<Detection> postprocess(float[] output, int channels, int anchors, int width, int height,
+                                double threshold, double iouThreshold) {
+        double sx = (double) width / inputSize;
+        double sy = (double) height / inputSize;
+        List<double[]> candidates = new ArrayList<>();
+        for (int a = 0; a < anchors; a++) {
+            int bestClass = 0;
+            float best = output[4 * anchors + a];
+            for (int c = 1; c < channels - 4; c++) {
+                float score = output[(4 + c) * anchors + a];
+                if (score > best) {
+                    best = score;
+                    bestClass = c;
+                }
+            }
+            if (best <= threshold) {
+                continue;
+            }
+            double cx = output[a] * sx, cy = output[anchors + a] * sy;
+            double w = output[2 * anchors + a] * sx, h = output[3 * anchors + a] * sy;
+            candidates.add(new double[]{cx - w / 2, cy - h / 2, cx + w / 2, cy + h / 2, bestClass, best});
+        }
+        candidates.sort(Comparator.comparingDouble((double[] c) -> c[5]).reversed());
+
+        List<Detection> detections = new ArrayList<>();
+        List<double[]> kept = new ArrayList<>();
+        for (double[] candidate : candidates) {
+            boolean overlaps = false;
+            for (double[] other : kept) {
+                if (iou(candidate, other) >= iouThreshold) {
+                    overlaps = true;
+                    break;
+                }
+            }
+            if (overlaps) {
+                continue;
+            }
+            kept.add(candidate);
+            int classId = (int) candidate[4];
+            Detection detection = new Detection();
+            detection.setBox(Arrays.asList(candidate[0], candidate[1], candidate[2], candidate[3]));
+            detection.setClassName(classId < classes.size() ? classes.get(classId) : "class " + classId);
+            detection.setConfidence(candidate[5]);
+            detections.add(detection);
+        }
+        return detections;
+    }
+
+    private static double iou(double[] a, double[] b) {
+        double w = Math.max(0, Math.min(a[2], b[2]) - Math.max(a[0], b[0]));
+        double h = Math.max(0, Math.min(a[3], b[3]) - Math.max(a[1], b[1]));
+        double intersection = w * h;
+        double union = (a[2] - a[0]) * (a[3] - a[1]) + (b[2] - b[0]) * (b[3] - b[1]) - intersection;
+        return union > 0 ? intersection / union : 0;
+    }
+
+    private List<Detection> await(Pending item) throws IOException {
+        try {
+            return item.result().get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Don't spend a session on it if it is still queued
+            pending.remove(item);
+            throw new IOException("Local inference did not finish within " + timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for local inference", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException("Local inference failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
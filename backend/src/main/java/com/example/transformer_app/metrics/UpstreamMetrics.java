@@ -0,0 +1,128 @@
+package com.example.transformer_app.metrics;
+
+import com.example.transformer_app.tracing.Spans;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * Latency, error and payload-size metrics for every outbound call (Supabase REST, Supabase
+ * Storage, Lambda inference, retrain trigger), tagged by a low-cardinality operation name.
+ *
+ * Callers wrap each RestTemplate call in {@link #record}. The same bean is registered as a
+ * RestTemplate interceptor, where it sees the serialized request body and records its size
+ * under the operation that is currently running on the thread. Each call also runs in its own
+ * span, so the HTTP client span created by RestTemplate nests under the operation name.
+ */
+@Component
+public class UpstreamMetrics implements ClientHttpRequestInterceptor {
+
+    private static final ThreadLocal<String> CURRENT_OPERATION = new ThreadLocal<>();
+
+    private final MeterRegistry registry;
+    private final Spans spans;
+
+    public UpstreamMetrics(MeterRegistry registry, Spans spans) {
+        this.registry = registry;
+        this.spans = spans;
+    }
+
+    public <T> ResponseEntity<T> record(String operation, Supplier<ResponseEntity<T>> call) {
+        return spans.inSpan("upstream " + operation, () -> timed(operation, call));
+    }
+
+    private <T> ResponseEntity<T> timed(String operation, Supplier<ResponseEntity<T>> call) {
+        String previous = CURRENT_OPERATION.get();
+        CURRENT_OPERATION.set(operation);
+        Timer.Sample sample = Timer.start(registry);
+        String outcome = "SUCCESS";
+        String status = "none";
+        try {
+            ResponseEntity<T> response = call.get();
+            status = String.valueOf(response.getStatusCode().value());
+            recordResponseSize(operation, response.getBody());
+            return response;
+        } catch (HttpStatusCodeException e) {
+            status = String.valueOf(e.getStatusCode().value());
+            outcome = e.getStatusCode().is4xxClientError() ? "CLIENT_ERROR" : "SERVER_ERROR";
+            throw e;
+        } catch (RuntimeException e) {
+            outcome = "ERROR";
+            throw e;
+        } finally {
+            spans.tag("http.status", status);
+            sample.stop(Timer.builder("upstream.requests")
+                    .description("Outbound calls to Supabase, Lambda and the retrain trigger")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .tag("status", status)
+                    .publishPercentileHistogram()
+                    .register(registry));
+            if (!"SUCCESS".equals(outcome)) {
+                registry.counter("upstream.errors", "operation", operation, "outcome", outcome).increment();
+            }
+            if (previous != null) {
+                CURRENT_OPERATION.set(previous);
+            } else {
+                CURRENT_OPERATION.remove();
+            }
+        }
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        String operation = CURRENT_OPERATION.get();
+        summary("upstream.request.size", operation != null ? operation : "untracked").record(body.length);
+        return execution.execute(request, body);
+    }
+
+    private void recordResponseSize(String operation, Object body) {
+        long size;
+        if (body instanceof String text) {
+            size = utf8Length(text);
+        } else if (body instanceof byte[] bytes) {
+            size = bytes.length;
+        } else {
+            return;
+        }
+        summary("upstream.response.size", operation).record(size);
+    }
+
+    // Encoded size of the body as it came over the wire (the JSON bodies are UTF-8),
+    // counted without copying the string into a byte array
+    static long utf8Length(String text) {
+        long bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    private DistributionSummary summary(String name, String operation) {
+        return DistributionSummary.builder(name)
+                .baseUnit("bytes")
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
@@ -1,11 +1,19 @@
 package com.example.transformer_app.model;
 
+import com.example.transformer_app.dto.AnomalyLogEntry;
 import com.example.transformer_app.dto.Detection;
+import com.example.transformer_app.dto.LenientJsonListDeserializer;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import java.util.List;
 import java.util.Map;
 
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class Inspection {
-    private String iid;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long iid; // Generated by the database
     private String transformerNumber;
     private String inspectionNumber;
     private String inspectionDate;
@@ -13,12 +21,30 @@ public class Inspection {
     private String status;
     private String inspector;
     private String refImage; // URL to image in Supabase Storage
+
+    // Downscaled copies of refImage, filled in by ImageVariantService after the upload
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String refImageThumb;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String refImageMedium;
+
+    @JsonDeserialize(using = LenientJsonListDeserializer.class)
     private List<Detection> anomalies; // List of detected anomalies
-    private List<Map<String, Object>> anomaliesLog; // Log of anomaly detections with metadata
+
+    @JsonDeserialize(using = LenientJsonListDeserializer.class)
+    private List<AnomalyLogEntry> anomaliesLog; // Log of anomaly detections with metadata
+
+    // Hot regions against the transformer's baseline, filled in by ThermalDiffService
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Map<String, Object> thermalDelta;
+
+    @JsonProperty("created_at")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String createdAt; // Set by the database
 
     // Getters & Setters
-    public String getIid() { return iid; }
-    public void setId(String iid) { this.iid = iid; }
+    public Long getIid() { return iid; }
+    public void setIid(Long iid) { this.iid = iid; }
 
     public String getTransformerNumber() { return transformerNumber; }
     public void setTransformerNumber(String transformerNumber) { this.transformerNumber = transformerNumber; }
@@ -41,9 +67,21 @@ public class Inspection {
     public String getRefImage() { return refImage; }
     public void setRefImage(String refImage) { this.refImage = refImage; }
 
+    public String getRefImageThumb() { return refImageThumb; }
+    public void setRefImageThumb(String refImageThumb) { this.refImageThumb = refImageThumb; }
+
+    public String getRefImageMedium() { return refImageMedium; }
+    public void setRefImageMedium(String refImageMedium) { this.refImageMedium = refImageMedium; }
+
     public List<Detection> getAnomalies() { return anomalies; }
     public void setAnomalies(List<Detection> anomalies) { this.anomalies = anomalies; }
 
-    public List<Map<String, Object>> getAnomaliesLog() { return anomaliesLog; }
-    public void setAnomaliesLog(List<Map<String, Object>> anomaliesLog) { this.anomaliesLog = anomaliesLog; }
-}
\ No newline at end of file
+    public List<AnomalyLogEntry> getAnomaliesLog() { return anomaliesLog; }
+    public void setAnomaliesLog(List<AnomalyLogEntry> anomaliesLog) { this.anomaliesLog = anomaliesLog; }
+
+    public Map<String, Object> getThermalDelta() { return thermalDelta; }
+    public void setThermalDelta(Map<String, Object> thermalDelta) { this.thermalDelta = thermalDelta; }
+
+    public String getCreatedAt() { return createdAt; }
+    public void setCreatedAt(String createdAt) { this.createdAt = createdAt; }
+}
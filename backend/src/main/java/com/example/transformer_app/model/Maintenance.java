@@ -1,9 +1,14 @@
 package com.example.transformer_app.model;
 
-import java.util.Date;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 import java.util.Map;
 
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class Maintenance {
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private Long mid;
     private String maintenanceNumber;
     private String inspectionNumber;
@@ -12,7 +17,9 @@ public class Maintenance {
     private Map<String, Object> electricalReadings;
     private String recommendedActions;
     private String additionalRemarks;
-    private Date createdAt;
+    @JsonProperty("created_at")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String createdAt; // Set by the database
     // Single JSON column to store extended maintenance information used by the new UI
     private Map<String, Object> details;
 
@@ -22,7 +29,7 @@ public class Maintenance {
 
     public Maintenance(Long mid, String maintenanceNumber, String inspectionNumber, String inspectorName,
                        String status, Map<String, Object> electricalReadings, String recommendedActions,
-                       String additionalRemarks, Date createdAt, Map<String, Object> details) {
+                       String additionalRemarks, String createdAt, Map<String, Object> details) {
         this.mid = mid;
         this.maintenanceNumber = maintenanceNumber;
         this.inspectionNumber = inspectionNumber;
@@ -100,11 +107,11 @@ public class Maintenance {
         this.additionalRemarks = additionalRemarks;
     }
 
-    public Date getCreatedAt() {
+    public String getCreatedAt() {
         return createdAt;
     }
 
-    public void setCreatedAt(Date createdAt) {
+    public void setCreatedAt(String createdAt) {
         this.createdAt = createdAt;
     }
 
@@ -1,12 +1,17 @@
 package com.example.transformer_app.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Document(collection = "transformers")
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class Transformer {
     @Id
-    private String id;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long id; // Generated by the database
 
     private String transformerNumber;
     private String poleNumber;
@@ -14,11 +19,21 @@ public class Transformer {
     private String type;
     private String locationDetails;
     private Integer capacity;  // Changed from Double to Integer to match database bigint type
-    private String baselineImage; // Base64 string
+    private String baselineImage; // URL to image in Supabase Storage
+
+    // Downscaled copies of baselineImage, filled in by ImageVariantService after the upload
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String baselineImageThumb;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String baselineImageMedium;
+
+    @JsonProperty("created_at")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String createdAt; // Set by the database
 
     // Getters & Setters
-    public String getId() { return id; }
-    public void setId(String id) { this.id = id; }
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
 
     public String getTransformerNumber() { return transformerNumber; }
     public void setTransformerNumber(String transformerNumber) { this.transformerNumber = transformerNumber; }
@@ -40,4 +55,13 @@ public class Transformer {
 
     public String getBaselineImage() { return baselineImage; }
     public void setBaselineImage(String baselineImage) { this.baselineImage = baselineImage; }
-}
\ No newline at end of file
+
+    public String getBaselineImageThumb() { return baselineImageThumb; }
+    public void setBaselineImageThumb(String baselineImageThumb) { this.baselineImageThumb = baselineImageThumb; }
+
+    public String getBaselineImageMedium() { return baselineImageMedium; }
+    public void setBaselineImageMedium(String baselineImageMedium) { this.baselineImageMedium = baselineImageMedium; }
+
+    public String getCreatedAt() { return createdAt; }
+    public void setCreatedAt(String createdAt) { this.createdAt = createdAt; }
+}
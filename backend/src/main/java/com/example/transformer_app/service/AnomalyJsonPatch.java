@@ -0,0 +1,86 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.dto.AnomalyOperation;
+import com.example.transformer_app.dto.Detection;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.*;
+
+/**
+ * Translates an RFC 6902 JSON Patch on an inspection's anomalies into anomaly operations.
+ * Anomalies are addressed by id, not array index, so concurrent edits can't shift each other:
+ * <pre>
+ *   add     /-                    append an anomaly
+ *   replace /{anomalyId}          replace an anomaly
+ *   add|replace /{anomalyId}/box  change one field (box, class, confidence)
+ *   remove  /{anomalyId}          delete an anomaly
+ * </pre>
+ * Other ops (move, copy, test) and paths are rejected with IllegalArgumentException.
+ */
+final class AnomalyJsonPatch {
+
+    private AnomalyJsonPatch() {
+    }
+
+    static List<AnomalyOperation> toOperations(JsonNode patch, ObjectMapper mapper) {
+        if (patch == null || !patch.isArray() || patch.isEmpty()) {
+            throw new IllegalArgumentException("JSON Patch must be a non-empty array");
+        }
+        List<AnomalyOperation> operations = new ArrayList<>();
+        for (int i = 0; i < patch.size(); i++) {
+            JsonNode step = patch.get(i);
+            String op = step.path("op").asText();
+            List<String> path = parsePointer(i, step.path("path").asText(null));
+            JsonNode value = step.get("value");
+
+            if (path.size() == 1 && "-".equals(path.get(0)) && "add".equals(op)) {
+                operations.add(new AnomalyOperation(AnomalyOperation.ADD, null, toDetection(i, value, mapper)));
+            } else if (path.size() == 1 && "replace".equals(op)) {
+                operations.add(new AnomalyOperation(AnomalyOperation.EDIT, path.get(0), toDetection(i, value, mapper)));
+            } else if (path.size() == 1 && "remove".equals(op)) {
+                operations.add(new AnomalyOperation(AnomalyOperation.DELETE, path.get(0), null));
+            } else if (path.size() == 2 && ("add".equals(op) || "replace".equals(op))) {
+                String field = "className".equals(path.get(1)) ? "class" : path.get(1);
+                if (!AnomalyOperation.MERGE_FIELDS.contains(field)) {
+                    throw new IllegalArgumentException("Patch step " + i + ": field " + path.get(1) + " can't be changed");
+                }
+                if (value == null) {
+                    throw new IllegalArgumentException("Patch step " + i + ": " + op + " needs a value");
+                }
+                AnomalyOperation merge = new AnomalyOperation(AnomalyOperation.MERGE, path.get(0), null);
+                Map<String, Object> fields = new LinkedHashMap<>();
+                fields.put(field, mapper.convertValue(value, Object.class));
+                merge.setFields(fields);
+                operations.add(merge);
+            } else {
+                throw new IllegalArgumentException("Patch step " + i + ": unsupported op " + op + " on path " + step.path("path").asText());
+            }
+        }
+        return operations;
+    }
+
+    // JSON Pointer segments with ~1 and ~0 unescaped
+    private static List<String> parsePointer(int step, String pointer) {
+        if (pointer == null || !pointer.startsWith("/") || pointer.length() == 1) {
+            throw new IllegalArgumentException("Patch step " + step + ": path must look like /{anomalyId}[/field] or /-");
+        }
+        List<String> segments = new ArrayList<>();
+        for (String segment : pointer.substring(1).split("/", -1)) {
+            segments.add(segment.replace("~1", "/").replace("~0", "~"));
+        }
+        return segments;
+    }
+
+    private static Detection toDetection(int step, JsonNode value, ObjectMapper mapper) {
+        if (value == null || !value.isObject()) {
+            throw new IllegalArgumentException("Patch step " + step + ": value must be an anomaly object");
+        }
+        try {
+            return mapper.treeToValue(value, Detection.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Patch step " + step + ": " + e.getOriginalMessage());
+        }
+    }
+}
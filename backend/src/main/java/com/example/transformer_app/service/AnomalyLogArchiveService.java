@@ -0,0 +1,412 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.cache.EtagCache;
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.dto.AnomalyLogEntry;
+import com.example.transformer_app.dto.Detection;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.model.Inspection;
+import com.example.transformer_app.tracing.Spans;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.*;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps inspections' anomaliesLog bounded. Once a log grows past max-entries, everything but the
+ * last tail-entries is written to a gzipped segment in Storage (anomalyLogArchive/{iid}/...) and
+ * replaced inline by checkpoint entries, one per anomaly that is still live or still referenced by
+ * the tail. Inspection reads then carry at most checkpoint + tail; the full audit history is
+ * assembled from the segments only when /anomalies-log/history is requested.
+ *
+ * The checkpoint starts with a "segment" entry naming the segment just uploaded, and it is written
+ * in the same update that cuts the head, so a segment is part of the history only once that
+ * update committed. The next compaction archives the marker with the head, which chains every
+ * segment to the one before it. A segment left behind by a crash or a failed swap is never
+ * referenced, and is deleted by the next compaction of that inspection.
+ */
+@Service
+public class AnomalyLogArchiveService {
+
+    private static final Logger log = LoggerFactory.getLogger(AnomalyLogArchiveService.class);
+
+    private static final String ARCHIVE_FOLDER = "anomalyLogArchive";
+
+    @Value("${supabase.url}")
+    private String supabaseUrl;
+
+    @Value("${supabase.apikey}")
+    private String supabaseApiKey;
+
+    @Value("${supabase.bucket.name}")
+    private String bucketName;
+
+    @Value("${anomalies-log.compaction.max-entries:500}")
+    private int maxEntries;
+
+    @Value("${anomalies-log.compaction.tail-entries:100}")
+    private int tailEntries;
+
+    // Uncommitted segments younger than this may still belong to a compaction in progress elsewhere
+    @Value("${anomalies-log.compaction.orphan-grace:PT1H}")
+    private Duration orphanGrace;
+
+    private final RestTemplate restTemplate;
+    private final JsonCodecs jsonCodecs;
+    private final EtagCache etagCache;
+    private final UpstreamMetrics upstreamMetrics;
+    private final InspectionService inspectionService;
+    private final Spans spans;
+
+    // Cleared the first time PostgREST reports compact_anomaly_log as missing
+    private volatile boolean compactionRpcAvailable = true;
+
+    public AnomalyLogArchiveService(RestTemplate restTemplate, JsonCodecs jsonCodecs, EtagCache etagCache,
+                                    UpstreamMetrics upstreamMetrics, InspectionService inspectionService, Spans spans) {
+        this.restTemplate = restTemplate;
+        this.jsonCodecs = jsonCodecs;
+        this.etagCache = etagCache;
+        this.upstreamMetrics = upstreamMetrics;
+        this.inspectionService = inspectionService;
+        this.spans = spans;
+    }
+
+    // Periodic pass over inspections whose log has outgrown max-entries
+    @Scheduled(initialDelayString = "${anomalies-log.compaction.initial-delay:PT10M}",
+            fixedDelayString = "${anomalies-log.compaction.interval:PT1H}")
+    public void compactLongLogs() {
+        try {
+            List<Long> iids = inspectionsWithLongLogs();
+            for (Long iid : iids) {
+                try {
+                    compact(iid);
+                } catch (Exception e) {
+                    log.warn("Compacting anomaly log of inspection {} failed: {}", iid, e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Anomaly log compaction pass skipped: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Compacts one inspection's log if it is longer than max-entries.
+     *
+     * @return {"archived": n, "inline": m, "segment": path} or {"archived": 0} when there was nothing to do
+     */
+    public Map<String, Object> compact(Long iid) throws IOException {
+        return spans.inSpan("compact-anomaly-log", () -> {
+            Inspection inspection = inspectionService.getInspectionById(iid);
+            if (inspection == null) {
+                throw new RuntimeException("Inspection with IID " + iid + " not found");
+            }
+            List<AnomalyLogEntry> entries = inspection.getAnomaliesLog() != null ? inspection.getAnomaliesLog() : List.of();
+            Map<String, Object> result = new LinkedHashMap<>();
+            if (entries.size() <= maxEntries) {
+                result.put("archived", 0);
+                return result;
+            }
+
+            int archivedCount = entries.size() - Math.min(tailEntries, maxEntries);
+            List<AnomalyLogEntry> archived = entries.subList(0, archivedCount);
+            List<AnomalyLogEntry> tail = entries.subList(archivedCount, entries.size());
+            List<AnomalyLogEntry> checkpoint = checkpoint(archived, tail, inspection.getAnomalies());
+
+            String committed = segmentOf(entries);
+            if (committed != null || !hasCheckpoint(entries)) {
+                deleteOrphanedSegments(iid, committed);
+            }
+            String segment = uploadSegment(iid, archived);
+            // Marked User when corrections were archived, so the retrain export still finds them
+            boolean corrected = archived.stream().anyMatch(RetrainDatasetService::isCorrection);
+            checkpoint.add(0, new AnomalyLogEntry(segment, List.of(), 0.0, "",
+                    archived.get(archived.size() - 1).getTimestamp(), corrected ? "User" : "", AnomalyLogEntry.SEGMENT));
+            int inline;
+            try {
+                inline = replaceHead(iid, archived, checkpoint, tail);
+            } catch (RuntimeException | IOException e) {
+                deleteSegment(segment);
+                throw e;
+            }
+            etagCache.evictInspection(iid);
+            log.info("Compacted anomaly log of inspection {}: {} entries archived to {}, {} inline", iid, archivedCount, segment, inline);
+
+            result.put("archived", archivedCount);
+            result.put("inline", inline);
+            result.put("segment", segment);
+            return result;
+        });
+    }
+
+    /**
+     * Full audit history: archived segments (oldest first) followed by the inline log, with the
+     * synthetic checkpoint and segment entries left out. Segments are found by following the segment
+     * entries back from the inline log; logs compacted before those entries existed end the chain at
+     * a checkpoint without one, and the segments older than that are taken from the folder listing.
+     */
+    public List<AnomalyLogEntry> history(Long iid) throws IOException {
+        Inspection inspection = inspectionService.getInspectionById(iid);
+        if (inspection == null) {
+            throw new RuntimeException("Inspection with IID " + iid + " not found");
+        }
+        List<AnomalyLogEntry> inline = inspection.getAnomaliesLog() != null ? inspection.getAnomaliesLog() : List.of();
+
+        Deque<List<AnomalyLogEntry>> chain = new ArrayDeque<>();
+        List<AnomalyLogEntry> newest = inline;
+        String oldestChained = null;
+        for (String segment = segmentOf(inline); segment != null; segment = segmentOf(newest)) {
+            newest = downloadSegment(segment);
+            chain.push(newest);
+            oldestChained = segment;
+        }
+        List<AnomalyLogEntry> history = new ArrayList<>();
+        if (hasCheckpoint(newest)) {
+            for (String segment : listSegments(iid)) {
+                if (oldestChained == null || segment.compareTo(oldestChained) < 0) {
+                    addWithoutSyntheticEntries(history, downloadSegment(segment));
+                }
+            }
+        }
+        for (List<AnomalyLogEntry> segment : chain) {
+            addWithoutSyntheticEntries(history, segment);
+        }
+        addWithoutSyntheticEntries(history, inline);
+        return history;
+    }
+
+    // State of each anomaly at the cut, for anomalies that are still live or that the tail refers to
+    private List<AnomalyLogEntry> checkpoint(List<AnomalyLogEntry> archived, List<AnomalyLogEntry> tail, List<Detection> anomalies) {
+        Map<String, AnomalyLogEntry> state = new LinkedHashMap<>();
+        for (AnomalyLogEntry entry : archived) {
+            if (AnomalyLogEntry.SEGMENT.equals(entry.getAction())) {
+                continue;
+            }
+            if ("delete".equals(entry.getAction())) {
+                state.remove(entry.getId());
+            } else {
+                state.put(entry.getId(), entry);
+            }
+        }
+        Set<String> relevant = new HashSet<>();
+        if (anomalies != null) {
+            for (Detection anomaly : anomalies) {
+                relevant.add(anomaly.getId());
+            }
+        }
+        for (AnomalyLogEntry entry : tail) {
+            relevant.add(entry.getId());
+        }
+
+        String cutAt = archived.get(archived.size() - 1).getTimestamp();
+        List<AnomalyLogEntry> checkpoint = new ArrayList<>();
+        for (AnomalyLogEntry entry : state.values()) {
+            if (relevant.contains(entry.getId())) {
+                checkpoint.add(new AnomalyLogEntry(entry.getId(), entry.getBox(), entry.getConfidence(), entry.getClassName(),
+                        cutAt, entry.getMadeBy(), AnomalyLogEntry.CHECKPOINT));
+            }
+        }
+        return checkpoint;
+    }
+
+    // Swaps the archived head for the checkpoint; returns the number of entries left inline
+    private int replaceHead(Long iid, List<AnomalyLogEntry> archived, List<AnomalyLogEntry> checkpoint, List<AnomalyLogEntry> tail) throws IOException {
+        if (compactionRpcAvailable) {
+            HttpHeaders headers = getHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            Map<String, Object> body = new HashMap<>();
+            body.put("p_iid", iid);
+            body.put("p_archived", archived.size());
+            body.put("p_last_archived", archived.get(archived.size() - 1));
+            body.put("p_checkpoint", checkpoint);
+            String url = supabaseUrl + "/rest/v1/rpc/compact_anomaly_log";
+            try {
+                ResponseEntity<String> response = upstreamMetrics.record("compact-anomaly-log",
+                        () -> restTemplate.exchange(url, HttpMethod.POST, new HttpEntity<>(body, headers), String.class));
+                return jsonCodecs.readTree(response.getBody()).asInt();
+            } catch (HttpClientErrorException e) {
+                String error = e.getResponseBodyAsString();
+                if (!error.contains("PGRST202")) {
+                    // PT404 / PT409 raised by the function
+                    throw new RuntimeException(jsonCodecs.readTree(error).path("message").asText(e.getMessage()));
+                }
+                log.warn("compact_anomaly_log RPC is not installed; compaction falls back to fetch + PATCH");
+                compactionRpcAvailable = false;
+            }
+        }
+
+        // Fallback: same check as the RPC, under the lock the local anomaly edits use. Edits on other
+        // instances (or through apply_anomaly_ops) don't take that lock, so the PATCH only matches the
+        // row while its log still ends with the entry read here; otherwise nothing is written and the
+        // next pass retries
+        synchronized (inspectionService.inspectionLock(iid)) {
+            Inspection current = inspectionService.getInspectionById(iid);
+            List<AnomalyLogEntry> entries = current != null && current.getAnomaliesLog() != null ? current.getAnomaliesLog() : List.of();
+            AnomalyLogEntry lastArchived = archived.get(archived.size() - 1);
+            if (entries.size() < archived.size() || !sameEntry(entries.get(archived.size() - 1), lastArchived)) {
+                throw new RuntimeException("Anomaly log of inspection " + iid + " changed during compaction");
+            }
+            List<AnomalyLogEntry> compacted = new ArrayList<>(checkpoint);
+            compacted.addAll(entries.subList(archived.size(), entries.size()));
+
+            HttpHeaders headers = getHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            headers.set("Prefer", "return=representation");
+            AnomalyLogEntry last = entries.get(entries.size() - 1);
+            String url = supabaseUrl + "/rest/v1/inspections?iid=eq." + iid
+                    + "&anomaliesLog->" + entries.size() + "=is.null"
+                    + "&anomaliesLog->" + (entries.size() - 1) + "->>timestamp=eq." + last.getTimestamp()
+                    + "&select=iid";
+            HttpEntity<Map<String, Object>> request = new HttpEntity<>(Map.of("anomaliesLog", compacted), headers);
+            ResponseEntity<String> response = upstreamMetrics.record("patch-anomalies-log",
+                    () -> restTemplate.exchange(url, HttpMethod.PATCH, request, String.class));
+            if (jsonCodecs.readTree(response.getBody()).isEmpty()) {
+                throw new RuntimeException("Anomaly log of inspection " + iid + " changed during compaction");
+            }
+            return compacted.size();
+        }
+    }
+
+    // Segments under this inspection's folder that no committed log refers to: uploads whose swap
+    // failed or never happened. Only those newer than the last committed one can be told apart
+    private void deleteOrphanedSegments(Long iid, String committed) throws IOException {
+        long uploadedBefore = System.currentTimeMillis() - orphanGrace.toMillis();
+        for (String segment : listSegments(iid)) {
+            if ((committed == null || segment.compareTo(committed) > 0) && uploadedAt(segment) < uploadedBefore) {
+                log.info("Removing anomaly log segment {} that was never committed", segment);
+                deleteSegment(segment);
+            }
+        }
+    }
+
+    private List<Long> inspectionsWithLongLogs() throws IOException {
+        HttpHeaders headers = getHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        String url = supabaseUrl + "/rest/v1/rpc/inspections_with_long_anomaly_log";
+        ResponseEntity<String> response = upstreamMetrics.record("list-long-anomaly-logs",
+                () -> restTemplate.exchange(url, HttpMethod.POST, new HttpEntity<>(Map.of("p_max_entries", maxEntries), headers), String.class));
+        List<Long> iids = new ArrayList<>();
+        for (JsonNode iid : jsonCodecs.readTree(response.getBody())) {
+            iids.add(iid.asLong());
+        }
+        return iids;
+    }
+
+    private String uploadSegment(Long iid, List<AnomalyLogEntry> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            jsonCodecs.writeAnomalyLog(gzip, entries);
+        }
+        // Zero-padded millis so segment names sort in compaction order
+        String path = ARCHIVE_FOLDER + "/" + iid + "/" + String.format("%015d", System.currentTimeMillis()) + ".json.gz";
+
+        HttpHeaders headers = getHeaders();
+        headers.setContentType(MediaType.parseMediaType("application/gzip"));
+        String url = supabaseUrl + "/storage/v1/object/" + bucketName + "/" + path;
+        upstreamMetrics.record("upload-anomaly-log-segment",
+                () -> restTemplate.exchange(url, HttpMethod.POST, new HttpEntity<>(bytes.toByteArray(), headers), String.class));
+        return path;
+    }
+
+    private void deleteSegment(String path) {
+        try {
+            String url = supabaseUrl + "/storage/v1/object/" + bucketName + "/" + path;
+            upstreamMetrics.record("delete-anomaly-log-segment",
+                    () -> restTemplate.exchange(url, HttpMethod.DELETE, new HttpEntity<>(getHeaders()), String.class));
+        } catch (RuntimeException e) {
+            log.warn("Could not remove orphaned anomaly log segment {}: {}", path, e.getMessage());
+        }
+    }
+
+    private List<String> listSegments(Long iid) throws IOException {
+        HttpHeaders headers = getHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        Map<String, Object> body = new HashMap<>();
+        body.put("prefix", ARCHIVE_FOLDER + "/" + iid + "/");
+        body.put("limit", 10_000);
+        body.put("sortBy", Map.of("column", "name", "order", "asc"));
+        String url = supabaseUrl + "/storage/v1/object/list/" + bucketName;
+        ResponseEntity<String> response = upstreamMetrics.record("list-anomaly-log-segments",
+                () -> restTemplate.exchange(url, HttpMethod.POST, new HttpEntity<>(body, headers), String.class));
+
+        List<String> segments = new ArrayList<>();
+        for (JsonNode object : jsonCodecs.readTree(response.getBody())) {
+            String name = object.path("name").asText();
+            if (name.endsWith(".json.gz")) {
+                segments.add(ARCHIVE_FOLDER + "/" + iid + "/" + name);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private List<AnomalyLogEntry> downloadSegment(String path) throws IOException {
+        String url = supabaseUrl + "/storage/v1/object/" + bucketName + "/" + path;
+        ResponseEntity<byte[]> response = upstreamMetrics.record("download-anomaly-log-segment",
+                () -> restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(getHeaders()), byte[].class));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(response.getBody()))) {
+            return jsonCodecs.readAnomalyLog(in);
+        }
+    }
+
+    private static void addWithoutSyntheticEntries(List<AnomalyLogEntry> target, List<AnomalyLogEntry> entries) {
+        for (AnomalyLogEntry entry : entries) {
+            if (!AnomalyLogEntry.CHECKPOINT.equals(entry.getAction()) && !AnomalyLogEntry.SEGMENT.equals(entry.getAction())) {
+                target.add(entry);
+            }
+        }
+    }
+
+    private static long uploadedAt(String segment) {
+        String name = segment.substring(segment.lastIndexOf('/') + 1);
+        try {
+            return Long.parseLong(name.substring(0, name.indexOf('.')));
+        } catch (RuntimeException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    // Path of the segment a (compacted) log continues from, or null
+    private static String segmentOf(List<AnomalyLogEntry> entries) {
+        for (AnomalyLogEntry entry : entries) {
+            if (AnomalyLogEntry.SEGMENT.equals(entry.getAction())) {
+                return entry.getId();
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasCheckpoint(List<AnomalyLogEntry> entries) {
+        for (AnomalyLogEntry entry : entries) {
+            if (AnomalyLogEntry.CHECKPOINT.equals(entry.getAction())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean sameEntry(AnomalyLogEntry a, AnomalyLogEntry b) {
+        return Objects.equals(a.getId(), b.getId())
+                && Objects.equals(a.getTimestamp(), b.getTimestamp())
+                && Objects.equals(a.getAction(), b.getAction());
+    }
+
+    private HttpHeaders getHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("apikey", supabaseApiKey);
+        headers.set("Authorization", "Bearer " + supabaseApiKey);
+        return headers;
+    }
+}
@@ -0,0 +1,385 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.dto.Detection;
+import com.example.transformer_app.event.AnomaliesChanged;
+import com.example.transformer_app.event.InspectionAnalyzed;
+import com.example.transformer_app.event.TransformerSaved;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.model.Inspection;
+import com.example.transformer_app.model.Transformer;
+import com.example.transformer_app.tracing.Spans;
+import org.roaringbitmap.longlong.PeekableLongIterator;
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.*;
+
+/**
+ * Secondary index over the anomalies of every inspection: for each (class, madeBy, confidence
+ * bucket) the set of inspections holding at least one such anomaly, plus the inspections of each
+ * region and transformer. The sets are Roaring bitmaps, so a query is a handful of unions and
+ * intersections of compressed iid sets rather than a read of every inspection's anomalies JSON.
+ * What each inspection contributes is kept, so an anomaly add/edit/delete or a new analysis only
+ * moves the postings it touched. A rebuild reloads everything from the transformers and inspections.
+ */
+@Service
+public class AnomalyQueryIndex extends RebuildableIndex {
+
+    // Bucket of anomalies without a confidence (user-drawn boxes)
+    private static final int NO_CONFIDENCE = -1;
+
+    @Value("${anomaly-index.confidence-buckets:10}")
+    private int confidenceBuckets;
+
+    @Value("${anomaly-index.max-limit:1000}")
+    private int maxLimit;
+
+    @Value("${anomaly-index.rebuild.on-startup:true}")
+    private boolean rebuildOnStartup;
+
+    private record Key(String className, String madeBy, int bucket) {
+    }
+
+    private record AnomalyState(Key key, Double confidence) {
+    }
+
+    private static final class InspectionState {
+        final String transformerNumber;
+        // Resolved once, so the inspection is always added to and removed from the same region set
+        String region;
+        final Map<String, AnomalyState> anomalies = new HashMap<>();
+        // Anomalies per key; the inspection leaves a key's postings when its count drops to zero
+        final Map<Key, Integer> keys = new HashMap<>();
+
+        InspectionState(String transformerNumber) {
+            this.transformerNumber = transformerNumber;
+        }
+    }
+
+    /**
+     * The index proper. The live one is guarded by this; a rebuild fills a fresh one outside the
+     * lock and swaps it in.
+     */
+    private final class Postings {
+        final Map<String, String> regions = new HashMap<>();
+        final Map<Long, InspectionState> inspections = new HashMap<>();
+        final Map<Key, Roaring64Bitmap> postings = new HashMap<>();
+        final Map<String, Roaring64Bitmap> byRegion = new HashMap<>();
+        final Map<String, Roaring64Bitmap> byTransformer = new HashMap<>();
+
+        // A transformer moving region takes its inspections along
+        void putTransformer(String transformerNumber, String region) {
+            String previous = regions.put(transformerNumber, region);
+            previous = previous != null ? previous : UNKNOWN;
+            Roaring64Bitmap iids = byTransformer.get(transformerNumber);
+            if (previous.equals(region) || iids == null) {
+                return;
+            }
+            iids.forEach(iid -> inspections.get(iid).region = region);
+            Roaring64Bitmap old = byRegion.get(previous);
+            if (old != null) {
+                old.andNot(iids);
+                if (old.isEmpty()) {
+                    byRegion.remove(previous);
+                }
+            }
+            byRegion.computeIfAbsent(region, r -> new Roaring64Bitmap()).or(iids);
+        }
+
+        void putInspection(long iid, String transformerNumber, List<Detection> anomalies) {
+            removeInspection(iid);
+            InspectionState state = new InspectionState(transformerNumber);
+            state.region = transformerNumber != null ? regions.getOrDefault(transformerNumber, UNKNOWN) : UNKNOWN;
+            inspections.put(iid, state);
+            byRegion.computeIfAbsent(state.region, r -> new Roaring64Bitmap()).addLong(iid);
+            if (transformerNumber != null) {
+                byTransformer.computeIfAbsent(transformerNumber, t -> new Roaring64Bitmap()).addLong(iid);
+            }
+            anomalies.forEach(anomaly -> putAnomaly(iid, state, anomaly));
+        }
+
+        void removeInspection(long iid) {
+            InspectionState state = inspections.remove(iid);
+            if (state == null) {
+                return;
+            }
+            state.keys.keySet().forEach(key -> removeFrom(postings, key, iid));
+            removeFrom(byRegion, state.region, iid);
+            if (state.transformerNumber != null) {
+                removeFrom(byTransformer, state.transformerNumber, iid);
+            }
+        }
+
+        void putAnomaly(long iid, InspectionState state, Detection anomaly) {
+            if (anomaly == null || anomaly.getId() == null) {
+                return;
+            }
+            AnomalyState next = new AnomalyState(keyOf(anomaly), anomaly.getConfidence());
+            AnomalyState old = state.anomalies.put(anomaly.getId(), next);
+            if (old != null) {
+                unpost(iid, state, old.key());
+            }
+            if (state.keys.merge(next.key(), 1, Integer::sum) == 1) {
+                postings.computeIfAbsent(next.key(), k -> new Roaring64Bitmap()).addLong(iid);
+            }
+        }
+
+        void unpost(long iid, InspectionState state, Key key) {
+            if (state.keys.merge(key, -1, (a, b) -> a + b == 0 ? null : a + b) == null) {
+                removeFrom(postings, key, iid);
+            }
+        }
+    }
+
+    private Postings live = new Postings();
+
+    public AnomalyQueryIndex(RestTemplate restTemplate, JsonCodecs jsonCodecs, UpstreamMetrics upstreamMetrics, Spans spans) {
+        super("anomaly index", restTemplate, jsonCodecs, upstreamMetrics, spans);
+    }
+
+    // ---- incremental updates; each one is a final-state write, so replaying it is harmless ----
+
+    @EventListener
+    public void onTransformer(TransformerSaved event) {
+        onTransformer(event.transformer().getTransformerNumber(), event.transformer().getRegion());
+    }
+
+    private void onTransformer(String transformerNumber, String region) {
+        if (transformerNumber == null) {
+            return;
+        }
+        String next = orUnknown(region);
+        apply(() -> live.putTransformer(transformerNumber, next));
+    }
+
+    // A new analysis replaced all anomalies of an inspection (or created it)
+    @EventListener
+    public void onInspection(InspectionAnalyzed event) {
+        Long iid = event.inspection().getIid();
+        String transformerNumber = event.inspection().getTransformerNumber();
+        if (iid == null) {
+            return;
+        }
+        ensureTransformerKnown(transformerNumber);
+        apply(() -> live.putInspection(iid, transformerNumber, event.anomalies()));
+    }
+
+    // Applies an anomaly-ops delta; inspections the index hasn't seen yet are left to the next rebuild
+    @EventListener
+    public void onAnomaliesChanged(AnomaliesChanged event) {
+        Long iid = event.iid();
+        apply(() -> {
+            InspectionState state = live.inspections.get(iid);
+            if (state == null) {
+                return;
+            }
+            for (String id : event.removed()) {
+                AnomalyState old = state.anomalies.remove(id);
+                if (old != null) {
+                    live.unpost(iid, state, old.key());
+                }
+            }
+            event.changed().forEach(anomaly -> live.putAnomaly(iid, state, anomaly));
+        });
+    }
+
+    private static <K> void removeFrom(Map<K, Roaring64Bitmap> sets, K key, long iid) {
+        Roaring64Bitmap set = sets.get(key);
+        if (set != null) {
+            set.removeLong(iid);
+            if (set.isEmpty()) {
+                sets.remove(key);
+            }
+        }
+    }
+
+    private Key keyOf(Detection anomaly) {
+        return new Key(orUnknown(anomaly.getClassName()), orUnknown(anomaly.getMadeBy()), bucketOf(anomaly.getConfidence()));
+    }
+
+    private int bucketOf(Double confidence) {
+        if (confidence == null || confidence.isNaN()) {
+            return NO_CONFIDENCE;
+        }
+        return (int) Math.max(0, Math.min(confidenceBuckets - 1, Math.floor(confidence * confidenceBuckets)));
+    }
+
+    /**
+     * Inspections holding an anomaly of the given class and origin with at least minConfidence,
+     * in iid order, limited to a region and/or transformer. Any criterion left null matches all.
+     * Buckets wholly above minConfidence are taken as they are; only the inspections of the bucket
+     * minConfidence falls in are checked anomaly by anomaly. unconfirmed drops inspections that also
+     * hold a user-made anomaly of the class, i.e. where an engineer has drawn or kept one by hand.
+     * after is the last iid of the previous page.
+     */
+    public synchronized Map<String, Object> query(String className, String madeBy, Double minConfidence, String region,
+                                                  String transformerNumber, boolean unconfirmed, Long after, int limit) {
+        if (limit < 1 || limit > maxLimit) {
+            throw new IllegalArgumentException("limit must be between 1 and " + maxLimit);
+        }
+        if (minConfidence != null && !(minConfidence >= 0 && minConfidence <= 1)) {
+            throw new IllegalArgumentException("minConfidence must be between 0 and 1");
+        }
+        int threshold = minConfidence != null ? bucketOf(minConfidence) : NO_CONFIDENCE;
+        Roaring64Bitmap matched = new Roaring64Bitmap();
+        Roaring64Bitmap edge = new Roaring64Bitmap();
+        Roaring64Bitmap confirmed = new Roaring64Bitmap();
+        for (Map.Entry<Key, Roaring64Bitmap> entry : live.postings.entrySet()) {
+            Key key = entry.getKey();
+            if (className != null && !key.className().equalsIgnoreCase(className)) {
+                continue;
+            }
+            if (unconfirmed && "User".equals(key.madeBy())) {
+                confirmed.or(entry.getValue());
+            }
+            if (madeBy != null && !key.madeBy().equalsIgnoreCase(madeBy)) {
+                continue;
+            }
+            if (minConfidence != null && key.bucket() <= threshold) {
+                if (key.bucket() == threshold) {
+                    edge.or(entry.getValue());
+                }
+                continue;
+            }
+            matched.or(entry.getValue());
+        }
+        edge.andNot(matched);
+        edge.forEach(iid -> {
+            for (AnomalyState anomaly : live.inspections.get(iid).anomalies.values()) {
+                Key key = anomaly.key();
+                if (key.bucket() == threshold && anomaly.confidence() >= minConfidence
+                        && (className == null || key.className().equalsIgnoreCase(className))
+                        && (madeBy == null || key.madeBy().equalsIgnoreCase(madeBy))) {
+                    matched.addLong(iid);
+                    return;
+                }
+            }
+        });
+        if (region != null) {
+            matched.and(live.byRegion.getOrDefault(region, new Roaring64Bitmap()));
+        }
+        if (transformerNumber != null) {
+            matched.and(live.byTransformer.getOrDefault(transformerNumber, new Roaring64Bitmap()));
+        }
+        matched.andNot(confirmed);
+
+        List<Map<String, Object>> page = new ArrayList<>();
+        PeekableLongIterator iids = matched.getLongIterator();
+        if (after != null) {
+            iids.advanceIfNeeded(after + 1);
+        }
+        while (iids.hasNext() && page.size() < limit) {
+            long iid = iids.next();
+            InspectionState state = live.inspections.get(iid);
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("iid", iid);
+            row.put("transformerNumber", state.transformerNumber);
+            row.put("region", state.region);
+            page.add(row);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("total", matched.getLongCardinality());
+        result.put("inspections", page);
+        result.put("next", iids.hasNext() ? page.get(page.size() - 1).get("iid") : null);
+        return result;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        long bytes = 0;
+        for (Roaring64Bitmap set : live.postings.values()) {
+            bytes += set.getLongSizeInBytes();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("builtAt", builtAt());
+        stats.put("rebuilding", isRebuilding());
+        stats.put("inspections", live.inspections.size());
+        stats.put("keys", live.postings.size());
+        stats.put("regions", live.byRegion.size());
+        stats.put("transformers", live.byTransformer.size());
+        stats.put("postingBytes", bytes);
+        stats.put("confidenceBuckets", confidenceBuckets);
+        return stats;
+    }
+
+    // ---- rebuild ----
+
+    @Override
+    Map<Table, List<String>> columns() {
+        return Map.of(
+                Table.TRANSFORMERS, List.of("transformerNumber", "region"),
+                Table.INSPECTIONS, List.of("transformerNumber", "anomalies"));
+    }
+
+    @Override
+    boolean buildOnStartup() {
+        return rebuildOnStartup;
+    }
+
+    // Inspections are placed once all regions are known, so the tables can arrive in any order; the
+    // postings are built in complete(), outside the lock, and install() only swaps them in
+    @Override
+    Build newBuild(Map<Table, List<String>> read) {
+        Postings fresh = new Postings();
+        List<Inspection> freshInspections = new ArrayList<>();
+        return new Build() {
+            @Override
+            public void transformers(List<Transformer> page) {
+                for (Transformer transformer : page) {
+                    if (transformer.getTransformerNumber() != null) {
+                        fresh.regions.put(transformer.getTransformerNumber(), orUnknown(transformer.getRegion()));
+                    }
+                }
+            }
+
+            @Override
+            public void inspections(List<Inspection> page) {
+                freshInspections.addAll(page);
+            }
+
+            @Override
+            public void complete() {
+                for (Inspection inspection : freshInspections) {
+                    fresh.putInspection(inspection.getIid(), inspection.getTransformerNumber(),
+                            inspection.getAnomalies() != null ? inspection.getAnomalies() : List.of());
+                }
+                fresh.postings.values().forEach(Roaring64Bitmap::runOptimize);
+                fresh.byRegion.values().forEach(Roaring64Bitmap::runOptimize);
+                fresh.byTransformer.values().forEach(Roaring64Bitmap::runOptimize);
+            }
+
+            @Override
+            public void install() {
+                live = fresh;
+            }
+        };
+    }
+
+    @Override
+    Map<String, Object> summary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("inspections", live.inspections.size());
+        summary.put("keys", live.postings.size());
+        return summary;
+    }
+
+    // A transformer created since the last rebuild: look it up once so its inspections land in the right region
+    private void ensureTransformerKnown(String transformerNumber) {
+        if (transformerNumber == null) {
+            return;
+        }
+        synchronized (this) {
+            if (live.regions.containsKey(transformerNumber)) {
+                return;
+            }
+        }
+        Transformer transformer = lookUpTransformer(transformerNumber, "transformerNumber,region");
+        if (transformer != null) {
+            onTransformer(transformer.getTransformerNumber(), transformer.getRegion());
+        }
+    }
+}
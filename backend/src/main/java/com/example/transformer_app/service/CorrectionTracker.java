@@ -0,0 +1,206 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.dto.AnomalyLogEntry;
+import com.example.transformer_app.event.AnomaliesLogged;
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts human corrections since the last retraining run from the anomaly log entries as they are
+ * written, and triggers retraining once corrected-boxes corrections have piled up, or once users have
+ * edited or deleted disagreement-percent of the AI boxes produced since the last run. Each entry is
+ * a counter increment and each check a couple of comparisons; no inspection is ever scanned.
+ * A box edited several times is one correction: edits and deletes are counted once per anomaly id
+ * (ids are UUIDs, unique across inspections). Counters reset whenever a new retrain job is created,
+ * whatever triggered it, and no further trigger is sent while the job this tracker triggered (or
+ * joined) is pending or running.
+ */
+@Service
+public class CorrectionTracker {
+
+    private static final Logger log = LoggerFactory.getLogger(CorrectionTracker.class);
+
+    @Value("${retrain.auto.enabled:true}")
+    private boolean enabled;
+
+    // 0 disables the count threshold
+    @Value("${retrain.auto.corrected-boxes:200}")
+    private long correctedBoxesThreshold;
+
+    // 0 disables the disagreement threshold
+    @Value("${retrain.auto.disagreement-percent:20}")
+    private double disagreementPercent;
+
+    // Fewer AI boxes than this and the disagreement ratio is too noisy to act on
+    @Value("${retrain.auto.min-ai-boxes:100}")
+    private long minAiBoxes;
+
+    @Value("${retrain.auto.state-file:exports/correction-counters.json}")
+    private String stateFile;
+
+    private final RetrainScheduler retrainScheduler;
+    private final JsonCodecs jsonCodecs;
+
+    private final AtomicLong aiBoxes = new AtomicLong();        // boxes added by the model
+    private final AtomicLong aiCorrected = new AtomicLong();    // AI boxes edited or deleted by a user
+    private final AtomicLong userAdded = new AtomicLong();      // boxes drawn by a user
+    private final AtomicLong userChanged = new AtomicLong();    // user boxes edited or deleted again
+    private final Set<String> aiCorrectedIds = ConcurrentHashMap.newKeySet();
+    private final Set<String> userChangedIds = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    // Guarded by this: the job the last automatic trigger created or joined
+    private String triggeredJobId;
+
+    public CorrectionTracker(RetrainScheduler retrainScheduler, JsonCodecs jsonCodecs) {
+        this.retrainScheduler = retrainScheduler;
+        this.jsonCodecs = jsonCodecs;
+        retrainScheduler.onNewJob(this::reset);
+    }
+
+    @EventListener
+    public void onAnomaliesLogged(AnomaliesLogged event) {
+        record(event.entries());
+    }
+
+    /**
+     * Counts log entries that were just written. Never throws: a counting problem must not fail
+     * the edit that produced the entries.
+     */
+    public void record(List<AnomalyLogEntry> entries) {
+        if (entries == null || entries.isEmpty()) {
+            return;
+        }
+        for (AnomalyLogEntry entry : entries) {
+            boolean ai = "AI".equals(entry.getMadeBy());
+            switch (entry.getAction() != null ? entry.getAction() : "") {
+                case "add" -> (ai ? aiBoxes : userAdded).incrementAndGet();
+                case "edit", "delete" -> {
+                    if ((ai ? aiCorrectedIds : userChangedIds).add(entry.getId() != null ? entry.getId() : "")) {
+                        (ai ? aiCorrected : userChanged).incrementAndGet();
+                    }
+                }
+                default -> {
+                    // checkpoints and unknown actions are not corrections
+                }
+            }
+        }
+        dirty.set(true);
+        try {
+            checkThresholds();
+        } catch (RuntimeException e) {
+            log.error("Automatic retrain trigger failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private synchronized void checkThresholds() {
+        if (!enabled) {
+            return;
+        }
+        long corrected = aiCorrected.get() + userAdded.get();
+        long produced = aiBoxes.get();
+        String reason = null;
+        if (correctedBoxesThreshold > 0 && corrected >= correctedBoxesThreshold) {
+            reason = corrected + " corrected boxes";
+        } else if (disagreementPercent > 0 && produced >= Math.max(1, minAiBoxes)
+                && aiCorrected.get() * 100.0 >= disagreementPercent * produced) {
+            reason = String.format("%.1f%% of %d AI boxes corrected", aiCorrected.get() * 100.0 / produced, produced);
+        }
+        if (reason == null || (triggeredJobId != null && retrainScheduler.isActive(triggeredJobId))) {
+            return;
+        }
+        log.info("Correction threshold crossed ({}), triggering retraining", reason);
+        // Creating a job resets the counters through onNewJob; joining a pending one does not, so
+        // the job id keeps later edits from triggering again until it has run
+        triggeredJobId = retrainScheduler.trigger("auto").getId();
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> counters = new LinkedHashMap<>();
+        counters.put("aiBoxes", aiBoxes.get());
+        counters.put("aiCorrected", aiCorrected.get());
+        counters.put("userAdded", userAdded.get());
+        counters.put("userChanged", userChanged.get());
+        long produced = aiBoxes.get();
+        counters.put("disagreementPercent", produced > 0 ? aiCorrected.get() * 100.0 / produced : 0.0);
+        counters.put("autoRetrain", enabled);
+        counters.put("correctedBoxesThreshold", correctedBoxesThreshold);
+        counters.put("disagreementPercentThreshold", disagreementPercent);
+        return counters;
+    }
+
+    private void reset() {
+        aiBoxes.set(0);
+        aiCorrected.set(0);
+        userAdded.set(0);
+        userChanged.set(0);
+        aiCorrectedIds.clear();
+        userChangedIds.clear();
+        dirty.set(true);
+    }
+
+    // Counters survive restarts through a small state file, written at most once per flush interval
+    @PostConstruct
+    void load() {
+        Path path = Paths.get(stateFile);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            JsonNode state = jsonCodecs.readTree(Files.readString(path, StandardCharsets.UTF_8));
+            aiBoxes.set(state.path("aiBoxes").asLong());
+            aiCorrected.set(state.path("aiCorrected").asLong());
+            userAdded.set(state.path("userAdded").asLong());
+            userChanged.set(state.path("userChanged").asLong());
+            state.path("aiCorrectedIds").forEach(id -> aiCorrectedIds.add(id.asText()));
+            state.path("userChangedIds").forEach(id -> userChangedIds.add(id.asText()));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not read correction counters from {}: {}", stateFile, e.getMessage());
+        }
+    }
+
+    @Scheduled(initialDelayString = "${retrain.auto.flush-interval:PT1M}", fixedDelayString = "${retrain.auto.flush-interval:PT1M}")
+    @PreDestroy
+    public void flush() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        try {
+            Path path = Paths.get(stateFile);
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            Map<String, Object> state = snapshot();
+            state.put("aiCorrectedIds", List.copyOf(aiCorrectedIds));
+            state.put("userChangedIds", List.copyOf(userChangedIds));
+            Files.writeString(tmp, jsonCodecs.write(state), StandardCharsets.UTF_8);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            dirty.set(true);
+            log.warn("Could not write correction counters to {}: {}", stateFile, e.getMessage());
+        }
+    }
+}
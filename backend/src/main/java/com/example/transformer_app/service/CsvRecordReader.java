@@ -0,0 +1,67 @@
+package com.example.transformer_app.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal streaming CSV reader (RFC 4180: comma separated, double-quoted fields, "" escapes,
+ * line breaks inside quotes). Reads one record at a time so large files never sit in memory.
+ */
+class CsvRecordReader {
+
+    private final BufferedReader reader;
+
+    CsvRecordReader(BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    // Next record, or null at end of input. Blank lines are skipped.
+    List<String> next() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+        } while (line.isBlank());
+
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString().trim());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            if (!quoted) {
+                break;
+            }
+            // Quoted field continues on the next physical line
+            line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Unterminated quoted field at end of input");
+            }
+            field.append('\n');
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+}
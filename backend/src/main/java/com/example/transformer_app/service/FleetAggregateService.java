@@ -0,0 +1,319 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.dto.Detection;
+import com.example.transformer_app.event.AnomaliesChanged;
+import com.example.transformer_app.event.InspectionAnalyzed;
+import com.example.transformer_app.event.TransformerSaved;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.model.Inspection;
+import com.example.transformer_app.model.Transformer;
+import com.example.transformer_app.tracing.Spans;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.*;
+
+/**
+ * Fleet-wide anomaly rollups for the dashboards: anomaly counts per (region, transformer type,
+ * anomaly class) and the highest AI confidence per transformer. The service keeps what each
+ * inspection contributes, so an anomaly add/edit/delete or a new analysis only moves the counts of
+ * the anomalies it touched, and a read walks the groups, not the inspections. A rebuild recomputes
+ * everything from the transformers and inspections.
+ */
+@Service
+public class FleetAggregateService extends RebuildableIndex {
+
+    @Value("${aggregates.rebuild.on-startup:true}")
+    private boolean rebuildOnStartup;
+
+    private record TransformerGroup(String region, String type) {
+    }
+
+    private record AnomalyState(String className, Double confidence) {
+    }
+
+    private record GroupKey(String region, String type, String className) {
+    }
+
+    private static final class InspectionState {
+        final String transformerNumber;
+        // Anomalies are counted in this group; it only changes through regroup(), which moves them all
+        TransformerGroup group;
+        final Map<String, AnomalyState> anomalies = new HashMap<>();
+
+        InspectionState(String transformerNumber) {
+            this.transformerNumber = transformerNumber;
+        }
+    }
+
+    /**
+     * The aggregates proper. The live ones are guarded by this; a rebuild counts fresh ones outside
+     * the lock and swaps them in.
+     */
+    private static final class Counts {
+        final Map<String, TransformerGroup> transformers = new HashMap<>();
+        final Map<Long, InspectionState> inspections = new HashMap<>();
+        final Map<String, Set<Long>> inspectionsByTransformer = new HashMap<>();
+        final Map<GroupKey, Long> counts = new HashMap<>();
+        // Multiset of AI confidences per transformer, so the max survives deletes
+        final Map<String, TreeMap<Double, Integer>> confidences = new HashMap<>();
+
+        void regroup(String transformerNumber, TransformerGroup group) {
+            for (Long iid : inspectionsByTransformer.getOrDefault(transformerNumber, Set.of())) {
+                InspectionState state = inspections.get(iid);
+                if (state == null || state.group.equals(group)) {
+                    continue;
+                }
+                state.anomalies.values().forEach(a -> count(state, a, -1));
+                state.group = group;
+                state.anomalies.values().forEach(a -> count(state, a, 1));
+            }
+        }
+
+        void put(Long iid, InspectionState state) {
+            inspections.put(iid, state);
+            if (state.transformerNumber != null) {
+                inspectionsByTransformer.computeIfAbsent(state.transformerNumber, t -> new HashSet<>()).add(iid);
+            }
+        }
+
+        void unindex(Long iid, String transformerNumber) {
+            Set<Long> iids = transformerNumber != null ? inspectionsByTransformer.get(transformerNumber) : null;
+            if (iids != null && iids.remove(iid) && iids.isEmpty()) {
+                inspectionsByTransformer.remove(transformerNumber);
+            }
+        }
+
+        void putAnomaly(InspectionState state, Detection anomaly) {
+            if (anomaly == null || anomaly.getId() == null) {
+                return;
+            }
+            AnomalyState next = new AnomalyState(orUnknown(anomaly.getClassName()),
+                    "AI".equals(anomaly.getMadeBy()) ? anomaly.getConfidence() : null);
+            AnomalyState old = state.anomalies.put(anomaly.getId(), next);
+            if (old != null) {
+                count(state, old, -1);
+            }
+            count(state, next, 1);
+        }
+
+        TransformerGroup groupOf(String transformerNumber) {
+            TransformerGroup group = transformerNumber != null ? transformers.get(transformerNumber) : null;
+            return group != null ? group : new TransformerGroup(UNKNOWN, UNKNOWN);
+        }
+
+        void count(InspectionState state, AnomalyState anomaly, int delta) {
+            String transformerNumber = state.transformerNumber;
+            GroupKey key = new GroupKey(state.group.region(), state.group.type(), anomaly.className());
+            counts.merge(key, (long) delta, (a, b) -> a + b == 0 ? null : a + b);
+            if (anomaly.confidence() != null && transformerNumber != null) {
+                TreeMap<Double, Integer> values = confidences.computeIfAbsent(transformerNumber, t -> new TreeMap<>());
+                values.merge(anomaly.confidence(), delta, (a, b) -> a + b == 0 ? null : a + b);
+                if (values.isEmpty()) {
+                    confidences.remove(transformerNumber);
+                }
+            }
+        }
+    }
+
+    private Counts live = new Counts();
+
+    public FleetAggregateService(RestTemplate restTemplate, JsonCodecs jsonCodecs, UpstreamMetrics upstreamMetrics, Spans spans) {
+        super("fleet aggregates", restTemplate, jsonCodecs, upstreamMetrics, spans);
+    }
+
+    /**
+     * A transformer was created or its region/type changed: its inspections' anomalies move to the
+     * new group. Also replayed after a rebuild, since the rebuild may have read the transformer
+     * before the change.
+     */
+    @EventListener
+    public void onTransformer(TransformerSaved event) {
+        Transformer transformer = event.transformer();
+        onTransformer(transformer.getTransformerNumber(), transformer.getRegion(), transformer.getType());
+    }
+
+    private void onTransformer(String transformerNumber, String region, String type) {
+        if (transformerNumber == null) {
+            return;
+        }
+        TransformerGroup group = new TransformerGroup(orUnknown(region), orUnknown(type));
+        apply(() -> {
+            live.transformers.put(transformerNumber, group);
+            live.regroup(transformerNumber, group);
+        });
+    }
+
+    // A new analysis replaced all anomalies of an inspection (or created it)
+    @EventListener
+    public void onInspection(InspectionAnalyzed event) {
+        Long iid = event.inspection().getIid();
+        String transformerNumber = event.inspection().getTransformerNumber();
+        if (iid == null) {
+            return;
+        }
+        ensureTransformerKnown(transformerNumber);
+        apply(() -> {
+            Counts counts = live;
+            InspectionState previous = counts.inspections.remove(iid);
+            if (previous != null) {
+                previous.anomalies.values().forEach(a -> counts.count(previous, a, -1));
+                counts.unindex(iid, previous.transformerNumber);
+            }
+            InspectionState state = new InspectionState(transformerNumber);
+            state.group = counts.groupOf(transformerNumber);
+            counts.put(iid, state);
+            event.anomalies().forEach(anomaly -> counts.putAnomaly(state, anomaly));
+        });
+    }
+
+    // Applies an anomaly-ops delta; inspections the service hasn't seen yet are left to the next rebuild
+    @EventListener
+    public void onAnomaliesChanged(AnomaliesChanged event) {
+        apply(() -> {
+            Counts counts = live;
+            InspectionState state = counts.inspections.get(event.iid());
+            if (state == null) {
+                return;
+            }
+            for (String id : event.removed()) {
+                AnomalyState old = state.anomalies.remove(id);
+                if (old != null) {
+                    counts.count(state, old, -1);
+                }
+            }
+            event.changed().forEach(anomaly -> counts.putAnomaly(state, anomaly));
+        });
+    }
+
+    // A transformer created since the last rebuild: look it up once so its anomalies land in the right group
+    private void ensureTransformerKnown(String transformerNumber) {
+        if (transformerNumber == null) {
+            return;
+        }
+        synchronized (this) {
+            if (live.transformers.containsKey(transformerNumber)) {
+                return;
+            }
+        }
+        Transformer transformer = lookUpTransformer(transformerNumber, "transformerNumber,region,type");
+        if (transformer != null) {
+            onTransformer(transformer.getTransformerNumber(), transformer.getRegion(), transformer.getType());
+        }
+    }
+
+    /**
+     * Counts per group and max confidence per transformer. Cost is proportional to the number of
+     * groups and transformers with AI boxes.
+     */
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Long> byRegion = new TreeMap<>();
+        Map<String, Long> byType = new TreeMap<>();
+        Map<String, Long> byClass = new TreeMap<>();
+        List<Map<String, Object>> groups = new ArrayList<>(live.counts.size());
+        long total = 0;
+        for (Map.Entry<GroupKey, Long> entry : live.counts.entrySet()) {
+            GroupKey key = entry.getKey();
+            long count = entry.getValue();
+            byRegion.merge(key.region(), count, Long::sum);
+            byType.merge(key.type(), count, Long::sum);
+            byClass.merge(key.className(), count, Long::sum);
+            Map<String, Object> group = new LinkedHashMap<>();
+            group.put("region", key.region());
+            group.put("type", key.type());
+            group.put("class", key.className());
+            group.put("count", count);
+            groups.add(group);
+            total += count;
+        }
+        Map<String, Double> maxConfidence = new TreeMap<>();
+        live.confidences.forEach((transformerNumber, values) -> maxConfidence.put(transformerNumber, values.lastKey()));
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("builtAt", builtAt());
+        snapshot.put("rebuilding", isRebuilding());
+        snapshot.put("inspections", live.inspections.size());
+        snapshot.put("anomalies", total);
+        snapshot.put("byRegion", byRegion);
+        snapshot.put("byType", byType);
+        snapshot.put("byClass", byClass);
+        snapshot.put("groups", groups);
+        snapshot.put("maxConfidenceByTransformer", maxConfidence);
+        return snapshot;
+    }
+
+    // ---- rebuild ----
+
+    @Override
+    Map<Table, List<String>> columns() {
+        return Map.of(
+                Table.TRANSFORMERS, List.of("transformerNumber", "region", "type"),
+                Table.INSPECTIONS, List.of("transformerNumber", "anomalies"));
+    }
+
+    @Override
+    boolean buildOnStartup() {
+        return rebuildOnStartup;
+    }
+
+    // Anomalies are counted in complete(), once every group is known, so the tables can arrive in any
+    // order and the counting runs outside the lock; install() only swaps the counts in
+    @Override
+    Build newBuild(Map<Table, List<String>> read) {
+        Counts fresh = new Counts();
+        Map<Long, InspectionState> freshInspections = new HashMap<>();
+        return new Build() {
+            @Override
+            public void transformers(List<Transformer> page) {
+                for (Transformer transformer : page) {
+                    if (transformer.getTransformerNumber() != null) {
+                        fresh.transformers.put(transformer.getTransformerNumber(),
+                                new TransformerGroup(orUnknown(transformer.getRegion()), orUnknown(transformer.getType())));
+                    }
+                }
+            }
+
+            @Override
+            public void inspections(List<Inspection> page) {
+                for (Inspection inspection : page) {
+                    InspectionState state = new InspectionState(inspection.getTransformerNumber());
+                    if (inspection.getAnomalies() != null) {
+                        for (Detection anomaly : inspection.getAnomalies()) {
+                            if (anomaly != null && anomaly.getId() != null) {
+                                state.anomalies.put(anomaly.getId(), new AnomalyState(orUnknown(anomaly.getClassName()),
+                                        "AI".equals(anomaly.getMadeBy()) ? anomaly.getConfidence() : null));
+                            }
+                        }
+                    }
+                    freshInspections.put(inspection.getIid(), state);
+                }
+            }
+
+            @Override
+            public void complete() {
+                freshInspections.forEach((iid, state) -> {
+                    state.group = fresh.groupOf(state.transformerNumber);
+                    fresh.put(iid, state);
+                    state.anomalies.values().forEach(a -> fresh.count(state, a, 1));
+                });
+            }
+
+            @Override
+            public void install() {
+                live = fresh;
+            }
+        };
+    }
+
+    @Override
+    Map<String, Object> summary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("inspections", live.inspections.size());
+        summary.put("transformers", live.transformers.size());
+        summary.put("groups", live.counts.size());
+        return summary;
+    }
+}
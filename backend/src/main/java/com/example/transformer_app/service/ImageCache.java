@@ -0,0 +1,344 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Disk cache of storage-bucket images for the image proxy. A miss streams the object from the
+ * public bucket URL into a file named by the hash of its path; later reads are served from that
+ * file. Files are tracked in least-recently-used order and the oldest are deleted once the cache
+ * holds more than max-bytes. Concurrent misses for the same image share one download. The index
+ * is rebuilt from the directory at startup, so a restart doesn't empty the cache. Readers hold a
+ * {@link Lease} while they read a file; a leased file that is evicted leaves the index at once but
+ * is only deleted when its last lease is closed.
+ */
+@Service
+public class ImageCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageCache.class);
+
+    // uploadImage names objects <uuid>_<name>, and variants append to that name, so their bytes never change
+    private static final Pattern CONTENT_ADDRESSED = Pattern.compile(
+            "(^|/)[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}_[^/]+$");
+    private static final Pattern SAFE_PATH = Pattern.compile("[A-Za-z0-9._\\-]+(/[A-Za-z0-9._\\-]+)*");
+
+    @Value("${supabase.url}")
+    private String supabaseUrl;
+
+    @Value("${supabase.bucket.name}")
+    private String bucketName;
+
+    @Value("${image-cache.dir:cache/images}")
+    private String directory;
+
+    @Value("${image-cache.max-bytes:2147483648}")
+    private long maxBytes;
+
+    // How long an object whose name is not content-addressed is served before it is fetched again
+    @Value("${image-cache.mutable-ttl:PT1H}")
+    private Duration mutableTtl;
+
+    private final RestTemplate restTemplate;
+    private final UpstreamMetrics upstreamMetrics;
+
+    public record CachedImage(Path file, long length, String etag, MediaType contentType, long fetchedAt, boolean immutable) {
+    }
+
+    private Path root;
+    // Guarded by this; access-ordered, so iteration starts at the least recently used file
+    private final LinkedHashMap<String, CachedImage> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+    // Guarded by this: open leases per file, and the leased files evicted meanwhile
+    private final Map<Path, Integer> leases = new HashMap<>();
+    private final Set<Path> evictedWhileLeased = new HashSet<>();
+    private final Map<String, CompletableFuture<CachedImage>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ImageCache(RestTemplate restTemplate, UpstreamMetrics upstreamMetrics) {
+        this.restTemplate = restTemplate;
+        this.upstreamMetrics = upstreamMetrics;
+    }
+
+    // Files from before a restart come back oldest-written first; partial downloads are dropped
+    @PostConstruct
+    void load() throws IOException {
+        root = Paths.get(directory);
+        Files.createDirectories(root);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(root)) {
+            files = listing.filter(Files::isRegularFile).toList();
+        }
+        List<Map.Entry<Path, BasicFileAttributes>> found = new ArrayList<>();
+        for (Path file : files) {
+            if (file.getFileName().toString().endsWith(".tmp")) {
+                Files.deleteIfExists(file);
+                continue;
+            }
+            found.add(Map.entry(file, Files.readAttributes(file, BasicFileAttributes.class)));
+        }
+        found.sort(Comparator.comparing(e -> e.getValue().lastModifiedTime()));
+        synchronized (this) {
+            for (Map.Entry<Path, BasicFileAttributes> e : found) {
+                String key = e.getKey().getFileName().toString();
+                long length = e.getValue().size();
+                long fetchedAt = e.getValue().lastModifiedTime().toMillis();
+                // Whether the name was content-addressed is not recoverable from the hash; revalidating is the safe side
+                entries.put(key, new CachedImage(e.getKey(), length, etagOf(key, length, fetchedAt, false),
+                        contentTypeOf(key), fetchedAt, false));
+                totalBytes += length;
+            }
+            evictOver(null);
+        }
+        log.info("Image cache at {}: {} files, {} bytes", root.toAbsolutePath(), entries.size(), totalBytes);
+    }
+
+    /**
+     * The cached copy of bucket object path, downloading it on a miss.
+     *
+     * @throws IllegalArgumentException if path is not a plain relative object path
+     * @throws RuntimeException         ("... not found") if the bucket has no such object
+     */
+    public CachedImage get(String path) throws IOException {
+        if (path == null || !SAFE_PATH.matcher(path).matches() || Arrays.asList(path.split("/")).contains("..")) {
+            throw new IllegalArgumentException("Invalid image path: " + path);
+        }
+        String key = keyOf(path);
+        boolean immutable = CONTENT_ADDRESSED.matcher(path).find();
+        synchronized (this) {
+            CachedImage cached = entries.get(key);
+            if (cached != null && (immutable || System.currentTimeMillis() - cached.fetchedAt() < mutableTtl.toMillis())) {
+                hits.increment();
+                return immutable && !cached.immutable() ? withImmutable(key, cached) : cached;
+            }
+        }
+        misses.increment();
+        CompletableFuture<CachedImage> mine = new CompletableFuture<>();
+        CompletableFuture<CachedImage> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException io) {
+                    throw io.getCause();
+                }
+                throw e.getCause() instanceof RuntimeException runtime ? runtime : e;
+            }
+        }
+        try {
+            CachedImage fetched = fetch(path, key, immutable);
+            mine.complete(fetched);
+            return fetched;
+        } catch (IOException e) {
+            mine.completeExceptionally(new UncheckedIOException(e));
+            throw e;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Like get(path), but with the file opened, and kept on disk until the lease is closed.
+     *
+     * @throws IllegalArgumentException if path is not a plain relative object path
+     * @throws RuntimeException         ("... not found") if the bucket has no such object
+     */
+    public Lease open(String path) throws IOException {
+        while (true) {
+            get(path);
+            synchronized (this) {
+                // Evicted since get returned: fetch it again. Re-fetched meanwhile: the index's file is the one read
+                CachedImage current = entries.get(keyOf(path));
+                if (current != null) {
+                    FileChannel channel = FileChannel.open(current.file(), StandardOpenOption.READ);
+                    leases.merge(current.file(), 1, Integer::sum);
+                    return new Lease(current, channel);
+                }
+            }
+        }
+    }
+
+    /** An open cached file; closing it lets the cache delete the file again. */
+    public final class Lease implements Closeable {
+
+        private final CachedImage image;
+        private final FileChannel channel;
+        private boolean closed;
+
+        private Lease(CachedImage image, FileChannel channel) {
+            this.image = image;
+            this.channel = channel;
+        }
+
+        public CachedImage image() {
+            return image;
+        }
+
+        public FileChannel channel() {
+            return channel;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                release(this);
+            }
+        }
+    }
+
+    private synchronized void release(Lease lease) {
+        if (lease.closed) {
+            return;
+        }
+        lease.closed = true;
+        Path file = lease.image.file();
+        if (leases.merge(file, -1, Integer::sum) <= 0) {
+            leases.remove(file);
+            if (evictedWhileLeased.remove(file)) {
+                delete(file);
+            }
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("files", entries.size());
+        stats.put("bytes", totalBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("evictions", evictions.sum());
+        stats.put("leased", leases.size());
+        return stats;
+    }
+
+    // Written to a temp file and moved into place, so a reader never sees half an image
+    private CachedImage fetch(String path, String key, boolean immutable) throws IOException {
+        String url = supabaseUrl + "/storage/v1/object/public/" + bucketName + "/" + path;
+        Path tmp = Files.createTempFile(root, key, ".tmp");
+        try {
+            upstreamMetrics.record("fetch-image-for-cache", () -> ResponseEntity.ok(restTemplate.execute(url, HttpMethod.GET, null, response -> {
+                try (InputStream body = response.getBody()) {
+                    return Files.copy(body, tmp, StandardCopyOption.REPLACE_EXISTING);
+                }
+            })));
+            Path file = root.resolve(key);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            long length = Files.size(file);
+            long fetchedAt = System.currentTimeMillis();
+            CachedImage image = new CachedImage(file, length, etagOf(key, length, fetchedAt, immutable),
+                    contentTypeOf(key), fetchedAt, immutable);
+            synchronized (this) {
+                // A leased reader of the replaced file keeps its open channel; the new file is not to be deleted
+                evictedWhileLeased.remove(file);
+                CachedImage old = entries.put(key, image);
+                if (old != null) {
+                    totalBytes -= old.length();
+                }
+                totalBytes += length;
+                evictOver(key);
+            }
+            return image;
+        } catch (HttpClientErrorException.NotFound e) {
+            throw new RuntimeException("Image " + path + " not found");
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // Drops least recently used files until the cache fits, never the one just added. Leased files
+    // stop counting at once and are deleted when their last lease closes
+    private void evictOver(String keep) {
+        Iterator<Map.Entry<String, CachedImage>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, CachedImage> entry = eldest.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            eldest.remove();
+            totalBytes -= entry.getValue().length();
+            evictions.increment();
+            Path file = entry.getValue().file();
+            if (leases.containsKey(file)) {
+                evictedWhileLeased.add(file);
+            } else {
+                delete(file);
+            }
+        }
+    }
+
+    private void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.debug("Could not delete evicted image {}: {}", file, e.getMessage());
+        }
+    }
+
+    // A file loaded at startup turns out to be content-addressed on its first hit
+    private CachedImage withImmutable(String key, CachedImage cached) {
+        CachedImage image = new CachedImage(cached.file(), cached.length(), etagOf(key, cached.length(), cached.fetchedAt(), true),
+                cached.contentType(), cached.fetchedAt(), true);
+        entries.put(key, image);
+        return image;
+    }
+
+    // Immutable objects keep their ETag across re-downloads; others change it with every fetch
+    private static String etagOf(String key, long length, long fetchedAt, boolean immutable) {
+        String tag = key.substring(0, 16) + "-" + Long.toHexString(length);
+        return "\"" + (immutable ? tag : tag + "-" + Long.toHexString(fetchedAt)) + "\"";
+    }
+
+    // SHA-256 of the path plus its extension, which is all the content type is derived from
+    private static String keyOf(String path) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(path.getBytes(StandardCharsets.UTF_8));
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            int dot = name.lastIndexOf('.');
+            String extension = dot >= 0 ? name.substring(dot).toLowerCase(Locale.ROOT) : "";
+            return HexFormat.of().formatHex(digest) + (extension.length() <= 6 ? extension : "");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MediaType contentTypeOf(String key) {
+        return MediaTypeFactory.getMediaType(key).orElse(MediaType.APPLICATION_OCTET_STREAM);
+    }
+}
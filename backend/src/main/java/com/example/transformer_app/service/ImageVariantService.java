@@ -0,0 +1,357 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.cache.EtagCache;
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.event.BaselineImageChanged;
+import com.example.transformer_app.event.RefImageChanged;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.tracing.Spans;
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.*;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thumbnail and medium-size JPEG copies of uploaded ref and baseline images, so listing pages don't
+ * pull the full-size originals. After an upload the row is queued on a small bounded pool: the
+ * original is read back from Storage, downscaled, written next to it (&lt;original&gt;.thumb.jpg and
+ * .medium.jpg) and both URLs are PATCHed onto the row (db/005_image_variants.sql), but only while the
+ * row still points at that original. When the queue is full the job is dropped and left to
+ * backfill(), which pages through every row without variants on a bounded number of workers.
+ */
+@Service
+public class ImageVariantService {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageVariantService.class);
+
+    @Value("${supabase.url}")
+    private String supabaseUrl;
+
+    @Value("${supabase.apikey}")
+    private String supabaseApiKey;
+
+    @Value("${supabase.bucket.name}")
+    private String bucketName;
+
+    @Value("${image-variants.thumb-size:256}")
+    private int thumbSize;
+
+    @Value("${image-variants.medium-size:1024}")
+    private int mediumSize;
+
+    @Value("${image-variants.jpeg-quality:0.8}")
+    private float jpegQuality;
+
+    @Value("${image-variants.backfill.parallelism:4}")
+    private int backfillParallelism;
+
+    @Value("${image-variants.backfill.page-size:200}")
+    private int backfillPageSize;
+
+    // Where an image column lives and which column a backfill pages by
+    private enum Kind {
+        REF_IMAGE("inspections", "iid", "iid", "refImage"),
+        BASELINE_IMAGE("transformers", "id", "transformerNumber", "baselineImage");
+
+        final String table;
+        final String pageColumn;
+        final String keyColumn;
+        final String imageColumn;
+
+        Kind(String table, String pageColumn, String keyColumn, String imageColumn) {
+            this.table = table;
+            this.pageColumn = pageColumn;
+            this.keyColumn = keyColumn;
+            this.imageColumn = imageColumn;
+        }
+    }
+
+    enum Outcome { GENERATED, SKIPPED, FAILED }
+
+    private final RestTemplate restTemplate;
+    private final JsonCodecs jsonCodecs;
+    private final EtagCache etagCache;
+    private final UpstreamMetrics upstreamMetrics;
+    private final Spans spans;
+    private final ThreadPoolExecutor executor;
+
+    private final Map<Outcome, LongAdder> outcomes = new EnumMap<>(Outcome.class);
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicBoolean backfilling = new AtomicBoolean();
+
+    public ImageVariantService(RestTemplate restTemplate, JsonCodecs jsonCodecs, EtagCache etagCache, UpstreamMetrics upstreamMetrics,
+                               Spans spans, @Value("${image-variants.workers:2}") int workers,
+                               @Value("${image-variants.queue-capacity:200}") int queueCapacity) {
+        this.restTemplate = restTemplate;
+        this.jsonCodecs = jsonCodecs;
+        this.etagCache = etagCache;
+        this.upstreamMetrics = upstreamMetrics;
+        this.spans = spans;
+        this.executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "image-variants");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, new LongAdder());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @EventListener
+    public void onRefImage(RefImageChanged event) {
+        if (event.iid() != null) {
+            submit(Kind.REF_IMAGE, String.valueOf(event.iid()), event.imageUrl());
+        }
+    }
+
+    @EventListener
+    public void onBaselineImage(BaselineImageChanged event) {
+        if (event.transformerNumber() != null) {
+            submit(Kind.BASELINE_IMAGE, event.transformerNumber(), event.imageUrl());
+        }
+    }
+
+    private void submit(Kind kind, String key, String imageUrl) {
+        if (imageUrl == null || imageUrl.isBlank()) {
+            return;
+        }
+        try {
+            executor.execute(() -> outcomes.get(generate(kind, key, imageUrl)).increment());
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+            log.warn("Image variant queue is full; {} {} is left for the backfill", kind.table, key);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queued", executor.getQueue().size());
+        stats.put("running", executor.getActiveCount());
+        outcomes.forEach((outcome, count) -> stats.put(outcome.name().toLowerCase(Locale.ROOT), count.sum()));
+        stats.put("dropped", dropped.sum());
+        stats.put("backfilling", backfilling.get());
+        return stats;
+    }
+
+    /**
+     * Generates the variants of every inspection and transformer image that has none yet. Rows are
+     * read a page at a time and each page is processed by backfill.parallelism workers before the
+     * next one is read, so memory stays bounded however many images are missing.
+     *
+     * @throws IllegalStateException if a backfill is already running
+     */
+    public Map<String, Object> backfill() throws IOException {
+        if (!backfilling.compareAndSet(false, true)) {
+            throw new IllegalStateException("An image variant backfill is already running");
+        }
+        try {
+            return spans.inSpan("backfill-image-variants", () -> {
+                long started = System.nanoTime();
+                Map<Outcome, LongAdder> counts = new EnumMap<>(Outcome.class);
+                for (Outcome outcome : Outcome.values()) {
+                    counts.put(outcome, new LongAdder());
+                }
+                ExecutorService pool = Executors.newFixedThreadPool(backfillParallelism, runnable -> {
+                    Thread thread = new Thread(runnable, "image-variants-backfill");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                Map<String, Object> result = new LinkedHashMap<>();
+                try {
+                    result.put("inspections", backfill(Kind.REF_IMAGE, pool, counts));
+                    result.put("transformers", backfill(Kind.BASELINE_IMAGE, pool, counts));
+                } finally {
+                    pool.shutdownNow();
+                }
+                counts.forEach((outcome, count) -> {
+                    result.put(outcome.name().toLowerCase(Locale.ROOT), count.sum());
+                    outcomes.get(outcome).add(count.sum());
+                });
+                result.put("millis", (System.nanoTime() - started) / 1_000_000);
+                log.info("Image variant backfill finished: {}", result);
+                return result;
+            });
+        } finally {
+            backfilling.set(false);
+        }
+    }
+
+    // Rows of one table with an image but no variants, paged by pageColumn; returns how many were processed
+    private int backfill(Kind kind, ExecutorService pool, Map<Outcome, LongAdder> counts) throws IOException {
+        String select = kind.pageColumn.equals(kind.keyColumn)
+                ? kind.keyColumn + "," + kind.imageColumn
+                : kind.pageColumn + "," + kind.keyColumn + "," + kind.imageColumn;
+        int processed = 0;
+        long after = 0;
+        JsonNode page;
+        do {
+            String url = UriComponentsBuilder.fromUriString(supabaseUrl)
+                    .path("/rest/v1/" + kind.table)
+                    .queryParam("select", select)
+                    .queryParam(kind.imageColumn, "neq.")
+                    .queryParam(kind.imageColumn + "Thumb", "is.null")
+                    .queryParam(kind.pageColumn, "gt." + after)
+                    .queryParam("order", kind.pageColumn + ".asc")
+                    .queryParam("limit", backfillPageSize)
+                    .toUriString();
+            ResponseEntity<String> response = upstreamMetrics.record("list-images-without-variants",
+                    () -> restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(getHeaders()), String.class));
+            page = jsonCodecs.readTree(response.getBody());
+            List<CompletableFuture<Void>> jobs = new ArrayList<>(page.size());
+            for (JsonNode row : page) {
+                after = row.path(kind.pageColumn).asLong();
+                String key = row.path(kind.keyColumn).asText(null);
+                String imageUrl = row.path(kind.imageColumn).asText(null);
+                if (key == null || imageUrl == null || imageUrl.isBlank()) {
+                    continue;
+                }
+                jobs.add(CompletableFuture.runAsync(() -> counts.get(generate(kind, key, imageUrl)).increment(), pool));
+                processed++;
+            }
+            CompletableFuture.allOf(jobs.toArray(new CompletableFuture[0])).join();
+        } while (page.size() == backfillPageSize);
+        return processed;
+    }
+
+    private Outcome generate(Kind kind, String key, String imageUrl) {
+        String publicPrefix = publicPrefix();
+        if (!imageUrl.startsWith(publicPrefix)) {
+            // Not in our bucket (e.g. an external URL), so there is nowhere next to it to write
+            log.debug("Skipping variants of {} {}: {} is not in bucket {}", kind.table, key, imageUrl, bucketName);
+            return Outcome.SKIPPED;
+        }
+        String path = imageUrl.substring(publicPrefix.length());
+        try {
+            BufferedImage original = upstreamMetrics.record("fetch-image-original", () -> ResponseEntity.ok(restTemplate.execute(imageUrl, HttpMethod.GET,
+                    null, response -> ImageIO.read(response.getBody())))).getBody();
+            if (original == null) {
+                log.warn("Could not decode {} for variants", imageUrl);
+                return Outcome.FAILED;
+            }
+            BufferedImage medium = scaleToFit(original, mediumSize);
+            BufferedImage thumb = scaleToFit(medium, thumbSize);
+            String mediumUrl = upload(path + ".medium.jpg", encodeJpeg(medium));
+            String thumbUrl = upload(path + ".thumb.jpg", encodeJpeg(thumb));
+
+            Map<String, Object> fields = new HashMap<>();
+            fields.put(kind.imageColumn + "Thumb", thumbUrl);
+            fields.put(kind.imageColumn + "Medium", mediumUrl);
+            HttpHeaders headers = getHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            // Only while the row still holds this original, so a late job can't label a newer upload
+            String url = UriComponentsBuilder.fromUriString(supabaseUrl)
+                    .path("/rest/v1/" + kind.table)
+                    .queryParam(kind.keyColumn, "eq." + key)
+                    .queryParam(kind.imageColumn, "eq." + imageUrl)
+                    .toUriString();
+            upstreamMetrics.record("patch-image-variants",
+                    () -> restTemplate.exchange(url, HttpMethod.PATCH, new HttpEntity<>(fields, headers), String.class));
+            if (kind == Kind.REF_IMAGE) {
+                etagCache.evictInspection(key);
+            } else {
+                // Inspection detail responses embed the baseline image URLs
+                etagCache.evictPrefix("inspection:");
+            }
+            return Outcome.GENERATED;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to generate variants of {} {} ({}): {}", kind.table, key, imageUrl, e.getMessage());
+            return Outcome.FAILED;
+        }
+    }
+
+    private String upload(String path, byte[] jpeg) {
+        HttpHeaders headers = getHeaders();
+        headers.setContentType(MediaType.IMAGE_JPEG);
+        // Regenerating (e.g. a backfill after a half-finished job) overwrites the previous copy
+        headers.set("x-upsert", "true");
+        String url = supabaseUrl + "/storage/v1/object/" + bucketName + "/" + path;
+        upstreamMetrics.record("upload-image-variant", () -> restTemplate.exchange(url, HttpMethod.POST, new HttpEntity<>(jpeg, headers), String.class));
+        return publicPrefix() + path;
+    }
+
+    private String publicPrefix() {
+        return supabaseUrl + "/storage/v1/object/public/" + bucketName + "/";
+    }
+
+    /**
+     * Scales down so the longer side is at most maxSide, never up. Large reductions halve the image
+     * step by step before the final resize, since a single bilinear pass only samples a few source
+     * pixels per target pixel and would alias the hot-spot edges.
+     */
+    static BufferedImage scaleToFit(BufferedImage source, int maxSide) {
+        double scale = Math.min(1.0, (double) maxSide / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        BufferedImage current = source;
+        while (current.getWidth() / 2 >= width && current.getHeight() / 2 >= height) {
+            current = resize(current, current.getWidth() / 2, current.getHeight() / 2);
+        }
+        if (current.getWidth() != width || current.getHeight() != height || current.getType() != BufferedImage.TYPE_INT_RGB) {
+            current = resize(current, width, height);
+        }
+        return current;
+    }
+
+    // JPEG has no alpha, so transparent pixels are drawn onto white
+    static BufferedImage resize(BufferedImage source, int width, int height) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, width, height, Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private HttpHeaders getHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("apikey", supabaseApiKey);
+        headers.set("Authorization", "Bearer " + supabaseApiKey);
+        return headers;
+    }
+}
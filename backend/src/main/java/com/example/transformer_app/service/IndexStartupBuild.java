@@ -0,0 +1,42 @@
+package com.example.transformer_app.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Builds every {@link RebuildableIndex} whose on-startup flag is set from a single read of each table,
+ * in the background so startup doesn't wait on Supabase.
+ */
+@Component
+public class IndexStartupBuild {
+
+    private static final Logger log = LoggerFactory.getLogger(IndexStartupBuild.class);
+
+    private final List<RebuildableIndex> indexes;
+
+    public IndexStartupBuild(List<RebuildableIndex> indexes) {
+        this.indexes = indexes;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        List<RebuildableIndex> enabled = indexes.stream().filter(RebuildableIndex::buildOnStartup).toList();
+        if (enabled.isEmpty()) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                RebuildableIndex.rebuildTogether(enabled);
+            } catch (Exception e) {
+                log.warn("Initial index build failed: {}", e.getMessage());
+            }
+        }, "index-build");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
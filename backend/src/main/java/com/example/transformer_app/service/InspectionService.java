@@ -1,11 +1,27 @@
 package com.example.transformer_app.service;
 
+import com.example.transformer_app.cache.EtagCache;
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.inference.InferenceBackend;
+import com.example.transformer_app.inference.InferenceBackends;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.tracing.Spans;
+import com.example.transformer_app.dto.AnomalyLogEntry;
+import com.example.transformer_app.dto.AnomalyOperation;
 import com.example.transformer_app.dto.Detection;
 import com.example.transformer_app.dto.ImageAnalysisResult;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.transformer_app.event.AnomaliesChanged;
+import com.example.transformer_app.event.AnomaliesLogged;
+import com.example.transformer_app.event.InspectionAnalyzed;
+import com.example.transformer_app.event.RefImageChanged;
+import com.example.transformer_app.model.Inspection;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpClientErrorException;
@@ -14,11 +30,15 @@ import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 
 @Service
 public class InspectionService {
 
+    private static final Logger log = LoggerFactory.getLogger(InspectionService.class);
+
     @Value("${supabase.url}")
     private String supabaseUrl;
 
@@ -28,26 +48,44 @@ public class InspectionService {
     @Value("${supabase.bucket.name}")
     private String bucketName;
 
-    // Lambda config
-    @Value("${lambda.url:https://zbpuxumseg.execute-api.ap-southeast-1.amazonaws.com/prod/}")
-    private String lambdaUrl;
-
+    // Detector thresholds, whichever inference backend runs it
     @Value("${lambda.threshold:0.1}")
     private double lambdaThreshold;
 
     @Value("${lambda.iouThreshold:0.2}")
     private double lambdaIouThreshold;
 
-    // Retrain trigger URL (configurable, with default to the provided endpoint)
-    @Value("${retrain.url:https://8k5a01sha6.execute-api.ap-southeast-1.amazonaws.com/prod/trigger-training}")
-    private String retrainUrl;
-
     private final RestTemplate restTemplate;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonCodecs jsonCodecs;
+    private final EtagCache etagCache;
+    private final UpstreamMetrics upstreamMetrics;
+    private final NumberAllocator numberAllocator;
+    private final Spans spans;
+    private final InferenceBackends inferenceBackends;
+    private final ApplicationEventPublisher events;
+
+    // Serializes read-modify-write of an inspection's anomalies within this instance
+    private final Object[] inspectionLocks = new Object[64];
+
+    // How long anomaly edits use the fetch + PATCH fallback after PostgREST reported apply_anomaly_ops missing
+    @Value("${anomaly-ops.rpc-recheck:PT5M}")
+    private Duration anomalyOpsRpcRecheck;
+
+    // Epoch millis until which apply_anomaly_ops is treated as not installed; 0 while it is
+    private volatile long anomalyOpsRpcMissingUntil;
 
     @Autowired
-    public InspectionService(RestTemplate restTemplate) {
+    public InspectionService(RestTemplate restTemplate, JsonCodecs jsonCodecs, EtagCache etagCache, UpstreamMetrics upstreamMetrics, NumberAllocator numberAllocator, Spans spans,
+                             InferenceBackends inferenceBackends, ApplicationEventPublisher events) {
         this.restTemplate = restTemplate;
+        this.jsonCodecs = jsonCodecs;
+        this.etagCache = etagCache;
+        this.upstreamMetrics = upstreamMetrics;
+        this.numberAllocator = numberAllocator;
+        this.spans = spans;
+        this.inferenceBackends = inferenceBackends;
+        this.events = events;
+        Arrays.setAll(inspectionLocks, i -> new Object());
     }
 
     public ResponseEntity<String> createInspection(
@@ -62,12 +100,12 @@ public class InspectionService {
         // If the caller didn't provide an inspection number, generate one server-side
         // Check for null first, then check if empty after trimming
         if (inspectionNumber == null || inspectionNumber.isEmpty() || inspectionNumber.trim().isEmpty()) {
-            inspectionNumber = generateUniqueInspectionNumber();
+            inspectionNumber = numberAllocator.next(NumberAllocator.Kind.INSPECTION);
         }
 
         String imageUrl = "";
         List<Detection> detections = Collections.emptyList();
-        List<Map<String, Object>> anomaliesLog = new ArrayList<>();
+        List<AnomalyLogEntry> anomaliesLog = new ArrayList<>();
 
         if (refImage != null && !refImage.isEmpty()) {
             ImageAnalysisResult result = uploadImageAndAnalyze(refImage);
@@ -75,98 +113,62 @@ public class InspectionService {
             detections = result.getDetections();
             anomaliesLog = result.getAnomaliesLog(); // <-- Get anomaliesLog directly from result!
 
-            // Debug logging
-            System.out.println("=== DEBUG: Creating Inspection ===");
-            System.out.println("Number of detections: " + detections.size());
-            System.out.println("Number of log entries: " + anomaliesLog.size());
-            System.out.println("Detections array:");
-            System.out.println(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(detections));
-            System.out.println("AnomaliesLog array:");
-            System.out.println(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(anomaliesLog));
+            log.info("Creating inspection {}: detections={}, logEntries={}", inspectionNumber, detections.size(), anomaliesLog.size());
+            // Payload dumps are only formatted when debug is on
+            if (log.isDebugEnabled()) {
+                log.debug("Detections for {}: {}", inspectionNumber, jsonCodecs.writePretty(detections));
+                log.debug("AnomaliesLog for {}: {}", inspectionNumber, jsonCodecs.writePretty(anomaliesLog));
+            }
         }
 
         HttpHeaders dbHeaders = getHeaders();
         dbHeaders.setContentType(MediaType.APPLICATION_JSON);
         dbHeaders.set("Prefer", "return=representation");
 
-        Map<String, Object> body = new HashMap<>();
-        body.put("transformerNumber", transformerNumber);
-        body.put("inspectionNumber", inspectionNumber);
-        body.put("inspectionDate", inspectionDate);
-        body.put("maintainanceDate", maintainanceDate);
-        body.put("status", status);
-        body.put("inspector", inspector);
-        body.put("refImage", imageUrl);
-        body.put("anomalies", detections);
-        body.put("anomaliesLog", anomaliesLog);
+        Inspection body = new Inspection();
+        body.setTransformerNumber(transformerNumber);
+        body.setInspectionNumber(inspectionNumber);
+        body.setInspectionDate(inspectionDate);
+        body.setMaintainanceDate(maintainanceDate);
+        body.setStatus(status);
+        body.setInspector(inspector);
+        body.setRefImage(imageUrl);
+        body.setAnomalies(detections);
+        body.setAnomaliesLog(anomaliesLog);
 
-        // Debug: Print what we're sending to database
-        System.out.println("=== DEBUG: Request Body to Database ===");
-        System.out.println(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(body));
+        if (log.isDebugEnabled()) {
+            log.debug("Inspection insert body: {}", jsonCodecs.writePretty(body));
+        }
 
         String dbUrl = supabaseUrl + "/rest/v1/inspections";
-        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(body, dbHeaders);
+        HttpEntity<Inspection> requestEntity = new HttpEntity<>(body, dbHeaders);
 
-        ResponseEntity<String> response = restTemplate.exchange(dbUrl, HttpMethod.POST, requestEntity, String.class);
+        ResponseEntity<String> response = upstreamMetrics.record("insert-inspection", () -> restTemplate.exchange(dbUrl, HttpMethod.POST, requestEntity, String.class));
 
-        // Debug: Print the response from database
-        System.out.println("=== DEBUG: Database Response ===");
-        System.out.println(response.getBody());
+        log.debug("Inspection insert response: status={} body={}", response.getStatusCode(), response.getBody());
+        events.publishEvent(new AnomaliesLogged(anomaliesLog));
+        List<Inspection> created = jsonCodecs.readInspections(response.getBody());
+        if (!created.isEmpty()) {
+            events.publishEvent(new InspectionAnalyzed(created.get(0), detections));
+            events.publishEvent(new RefImageChanged(created.get(0).getIid(), transformerNumber, imageUrl));
+        }
 
         return response;
     }
 
-
     public ResponseEntity<String> updateInspectionRefImage(Long iid, MultipartFile refImage) throws IOException {
-        Map<String, Object> existingInspection = getInspectionById(iid);
-        if (existingInspection == null) {
-            throw new RuntimeException("Inspection with IID " + iid + " not found");
-        }
-
-        String imageUrl = "";
-        List<Detection> detections = Collections.emptyList();
-        List<Map<String, Object>> anomaliesLog = getAnomaliesLogList(iid);
-
-        if (refImage != null && !refImage.isEmpty()) {
-            ImageAnalysisResult result = uploadImageAndAnalyze(refImage);
-            imageUrl = result.getImageUrl();
-            detections = result.getDetections();
-
-            // Get the NEW anomalies log from result and ADD to existing log
-            List<Map<String, Object>> newAnomaliesLog = result.getAnomaliesLog();
-            if (newAnomaliesLog != null) {
-                anomaliesLog.addAll(newAnomaliesLog);
-            }
-        }
-
-        HttpHeaders dbHeaders = getHeaders();
-        dbHeaders.setContentType(MediaType.APPLICATION_JSON);
-        dbHeaders.set("Prefer", "return=representation");
-
-        // PATCH only the fields we're updating
-        Map<String, Object> updateFields = new HashMap<>();
-        updateFields.put("refImage", imageUrl);
-        updateFields.put("anomalies", detections);
-        updateFields.put("anomaliesLog", anomaliesLog);
-
-        String dbUrl = supabaseUrl + "/rest/v1/inspections?iid=eq." + iid;
-        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(updateFields, dbHeaders);
-
-        return restTemplate.exchange(dbUrl, HttpMethod.PATCH, requestEntity, String.class);
+        return updateInspectionRefImage(iid, refImage, null);
     }
 
     public ResponseEntity<String> updateInspectionRefImage(Long iid, MultipartFile refImage, Double threshold) throws IOException {
-        Map<String, Object> existingInspection = getInspectionById(iid);
+        Inspection existingInspection = getInspectionById(iid);
         if (existingInspection == null) {
             throw new RuntimeException("Inspection with IID " + iid + " not found");
         }
 
         String imageUrl = "";
         List<Detection> detections = Collections.emptyList();
-        List<Map<String, Object>> anomaliesLog = getAnomaliesLogList(iid);
-
-        System.out.println("=== DEBUG: updateInspectionRefImage called ===");
-        System.out.println("Existing anomaliesLog size: " + anomaliesLog.size());
+        List<AnomalyLogEntry> newAnomaliesLog = new ArrayList<>();
 
         // Validate threshold: must be between 0 and 1, else use default
         double usedThreshold = (threshold != null && threshold >= 0.0 && threshold <= 1.0) ? threshold : lambdaThreshold;
@@ -176,20 +178,39 @@ public class InspectionService {
             imageUrl = result.getImageUrl();
             detections = result.getDetections();
 
-            // Get the NEW anomalies log from result and ADD to existing log
-            List<Map<String, Object>> newAnomaliesLog = result.getAnomaliesLog();
-            if (newAnomaliesLog != null) {
-                anomaliesLog.addAll(newAnomaliesLog);
+            // The NEW anomalies log entries from the result, appended to the existing log below
+            if (result.getAnomaliesLog() != null) {
+                newAnomaliesLog.addAll(result.getAnomaliesLog());
             }
+        }
 
-            System.out.println("=== DEBUG: After uploadImageAndAnalyze in UPDATE ===");
-            System.out.println("Detections size: " + detections.size());
-            System.out.println("New anomalies log entries: " + (newAnomaliesLog != null ? newAnomaliesLog.size() : 0));
-            System.out.println("Total anomaliesLog size: " + anomaliesLog.size());
-            System.out.println("AnomaliesLog array:");
-            System.out.println(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(anomaliesLog));
+        // Upload and inference run unlocked; the log is re-read under the lock, so anomaly edits made
+        // meanwhile aren't overwritten by this full PATCH
+        ResponseEntity<String> response;
+        synchronized (inspectionLock(iid)) {
+            Inspection currentInspection = getInspectionById(iid);
+            if (currentInspection == null) {
+                throw new RuntimeException("Inspection with IID " + iid + " not found");
+            }
+            List<AnomalyLogEntry> anomaliesLog = anomaliesLogOf(currentInspection);
+            int existingLogEntries = anomaliesLog.size();
+            anomaliesLog.addAll(newAnomaliesLog);
+
+            log.info("Re-analysed inspection {}: detections={}, newLogEntries={}, totalLogEntries={}",
+                    iid, detections.size(), newAnomaliesLog.size(), anomaliesLog.size());
+            if (log.isDebugEnabled()) {
+                log.debug("AnomaliesLog for {}: {}", iid, jsonCodecs.writePretty(anomaliesLog));
+            }
+            response = patchRefImage(iid, imageUrl, detections, anomaliesLog);
+            events.publishEvent(new AnomaliesLogged(anomaliesLog.subList(existingLogEntries, anomaliesLog.size())));
         }
+        events.publishEvent(new InspectionAnalyzed(existingInspection, detections));
+        events.publishEvent(new RefImageChanged(iid, existingInspection.getTransformerNumber(), imageUrl));
+        return response;
+    }
 
+    // Helper: PATCH refImage with the new detections and the full log
+    private ResponseEntity<String> patchRefImage(Long iid, String imageUrl, List<Detection> detections, List<AnomalyLogEntry> anomaliesLog) throws IOException {
         HttpHeaders dbHeaders = getHeaders();
         dbHeaders.setContentType(MediaType.APPLICATION_JSON);
         dbHeaders.set("Prefer", "return=representation");
@@ -197,30 +218,35 @@ public class InspectionService {
         // Use PATCH instead of PUT to only update the fields we're changing
         Map<String, Object> updateFields = new HashMap<>();
         updateFields.put("refImage", imageUrl);
+        // The old variants are of the previous image; cleared in the same PATCH so a listing never
+        // shows them against the new one, until the variant job writes the new ones
+        updateFields.put("refImageThumb", null);
+        updateFields.put("refImageMedium", null);
         updateFields.put("anomalies", detections);
         updateFields.put("anomaliesLog", anomaliesLog);
 
-        System.out.println("=== DEBUG: Update Fields to Database (UPDATE) ===");
-        System.out.println(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(updateFields));
+        if (log.isDebugEnabled()) {
+            log.debug("Inspection {} update body: {}", iid, jsonCodecs.writePretty(updateFields));
+        }
 
         String dbUrl = supabaseUrl + "/rest/v1/inspections?iid=eq." + iid;
         HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(updateFields, dbHeaders);
 
-        ResponseEntity<String> response = restTemplate.exchange(dbUrl, HttpMethod.PATCH, requestEntity, String.class);
+        ResponseEntity<String> response = upstreamMetrics.record("patch-inspection-image", () -> restTemplate.exchange(dbUrl, HttpMethod.PATCH, requestEntity, String.class));
+        etagCache.evictInspection(iid);
 
-        System.out.println("=== DEBUG: Database Response (UPDATE) ===");
-        System.out.println(response.getBody());
+        log.debug("Inspection {} update response: status={} body={}", iid, response.getStatusCode(), response.getBody());
 
         return response;
     }
 
-    private Map<String, Object> getInspectionById(Long iid) throws IOException {
+    Inspection getInspectionById(Long iid) throws IOException {
         String url = supabaseUrl + "/rest/v1/inspections?iid=eq." + iid + "&select=*&limit=1";
         HttpHeaders headers = getHeaders();
         HttpEntity<String> entity = new HttpEntity<>(headers);
         try {
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
-            List<Map<String, Object>> inspectionList = objectMapper.readValue(response.getBody(), new TypeReference<List<Map<String, Object>>>() {});
+            ResponseEntity<String> response = upstreamMetrics.record("fetch-inspection", () -> restTemplate.exchange(url, HttpMethod.GET, entity, String.class));
+            List<Inspection> inspectionList = jsonCodecs.readInspections(response.getBody());
             return inspectionList.isEmpty() ? null : inspectionList.get(0);
         } catch (HttpClientErrorException.NotFound e) {
             return null;
@@ -244,93 +270,26 @@ public class InspectionService {
                 .pathSegment(bucketName, "refImages", fileName)
                 .toUriString();
 
-        restTemplate.exchange(storageUrl, HttpMethod.POST, storageRequestEntity, String.class);
+        upstreamMetrics.record("upload", () -> restTemplate.exchange(storageUrl, HttpMethod.POST, storageRequestEntity, String.class));
 
         return supabaseUrl + "/storage/v1/object/public/" + bucketName + "/refImages/" + fileName;
     }
 
-    // New method: uploads to Supabase, then sends Base64 image to Lambda and returns both URL and detections
+    // New method: uploads to Supabase, then runs the detector on the image and returns both URL and detections
     public ImageAnalysisResult uploadImageAndAnalyze(MultipartFile file) throws IOException {
-        String imageUrl = "";
-        List<Detection> detections = Collections.emptyList();
-        List<Map<String, Object>> anomaliesLog = new ArrayList<>();
-
-        if (file == null || file.isEmpty()) {
-            return new ImageAnalysisResult(imageUrl, detections, anomaliesLog);
-        }
-
-        // 1) Keep existing upload flow
-        imageUrl = uploadImage(file);
-
-        // 2) Prepare Lambda payload
-        String imgBase64 = Base64.getEncoder().encodeToString(file.getBytes());
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("image", imgBase64);
-        payload.put("threshold", lambdaThreshold);
-        payload.put("iou_threshold", lambdaIouThreshold);
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(payload, headers);
-
-        // 3) Invoke Lambda
-        try {
-            ResponseEntity<String> response = restTemplate.postForEntity(lambdaUrl, request, String.class);
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                System.out.println("Lambda response: " + response.getBody());
-
-                Map<String, Object> result = objectMapper.readValue(response.getBody(), new TypeReference<Map<String, Object>>() {});
-
-                Object imageUrlObj = result.get("imageUrl");
-                if (imageUrlObj instanceof String) {
-                    imageUrl = (String) imageUrlObj;
-                }
-
-                Object detectionsObj = result.get("detections");
-                if (detectionsObj != null) {
-                    String detectionsJson = objectMapper.writeValueAsString(detectionsObj);
-                    detections = objectMapper.readValue(detectionsJson, new TypeReference<List<Detection>>() {});
-
-                    // Convert coordinates and assign unique IDs, mark as AI-generated, and CREATE LOG ENTRIES
-                    for (Detection detection : detections) {
-                        // Convert box coordinates from [x1, y1, x2, y2] to [x_center, y_center, width, height]
-                        convertBoxCoordinates(detection);
-
-                        if (detection.getId() == null || detection.getId().isEmpty()) {
-                            detection.setId(UUID.randomUUID().toString());
-                        }
-                        detection.setMadeBy("AI");
-
-                        // Create anomaly log entry for this detection
-                        Map<String, Object> logEntry = createAnomalyLogEntry(
-                            detection.getId(),
-                            detection.getBox(),
-                            "AI",
-                            detection.getClassName(),
-                            detection.getConfidence(),
-                            "add"
-                        );
-                        anomaliesLog.add(logEntry);
-                    }
-                    System.out.println("Detections: " + objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(detections));
-                    System.out.println("AnomaliesLog created: " + objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(anomaliesLog));
-                }
-            }
-        } catch (Exception ex) {
-            System.err.println("Error during Lambda analysis: " + ex.getMessage());
-            ex.printStackTrace();
-            detections = Collections.emptyList();
-            anomaliesLog = new ArrayList<>();
-        }
-
-        return new ImageAnalysisResult(imageUrl, detections, anomaliesLog);
+        return uploadImageAndAnalyze(file, lambdaThreshold);
     }
 
     // Overloaded method to support threshold
     public ImageAnalysisResult uploadImageAndAnalyze(MultipartFile file, double threshold) throws IOException {
+        // Parent span for the upload + inference, so both show up under one node in the trace
+        return spans.inSpan("analyze-image", () -> analyzeImage(file, threshold));
+    }
+
+    private ImageAnalysisResult analyzeImage(MultipartFile file, double threshold) throws IOException {
         String imageUrl = "";
         List<Detection> detections = Collections.emptyList();
-        List<Map<String, Object>> anomaliesLog = new ArrayList<>();
+        List<AnomalyLogEntry> anomaliesLog = new ArrayList<>();
 
         if (file == null || file.isEmpty()) {
             return new ImageAnalysisResult(imageUrl, detections, anomaliesLog);
@@ -339,63 +298,31 @@ public class InspectionService {
         // 1) Keep existing upload flow
         imageUrl = uploadImage(file);
 
-        // 2) Prepare Lambda payload
-        String imgBase64 = Base64.getEncoder().encodeToString(file.getBytes());
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("image", imgBase64);
-        payload.put("threshold", threshold);
-        payload.put("iou_threshold", lambdaIouThreshold);
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(payload, headers);
-
-        // 3) Invoke Lambda
+        // 2) Run the detector on the configured backend (inference.backend)
+        InferenceBackend backend = inferenceBackends.active();
         try {
-            ResponseEntity<String> response = restTemplate.postForEntity(lambdaUrl, request, String.class);
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                System.out.println("Lambda response: " + response.getBody());
+            detections = backend.detect(file.getBytes(), threshold, lambdaIouThreshold);
+            spans.tag("detections", String.valueOf(detections.size()));
 
-                Map<String, Object> result = objectMapper.readValue(response.getBody(), new TypeReference<Map<String, Object>>() {});
+            // Convert coordinates and assign unique IDs, mark as AI-generated, and CREATE LOG ENTRIES
+            for (Detection detection : detections) {
+                // Convert box coordinates from [x1, y1, x2, y2] to [x_center, y_center, width, height]
+                convertBoxCoordinates(detection);
 
-                Object imageUrlObj = result.get("imageUrl");
-                if (imageUrlObj instanceof String) {
-                    imageUrl = (String) imageUrlObj;
+                if (detection.getId() == null || detection.getId().isEmpty()) {
+                    detection.setId(UUID.randomUUID().toString());
                 }
+                detection.setMadeBy("AI");
 
-                Object detectionsObj = result.get("detections");
-                if (detectionsObj != null) {
-                    String detectionsJson = objectMapper.writeValueAsString(detectionsObj);
-                    detections = objectMapper.readValue(detectionsJson, new TypeReference<List<Detection>>() {});
-
-                    // Convert coordinates and assign unique IDs, mark as AI-generated, and CREATE LOG ENTRIES
-                    for (Detection detection : detections) {
-                        // Convert box coordinates from [x1, y1, x2, y2] to [x_center, y_center, width, height]
-                        convertBoxCoordinates(detection);
-
-                        if (detection.getId() == null || detection.getId().isEmpty()) {
-                            detection.setId(UUID.randomUUID().toString());
-                        }
-                        detection.setMadeBy("AI");
-
-                        // Create anomaly log entry for this detection
-                        Map<String, Object> logEntry = createAnomalyLogEntry(
-                            detection.getId(),
-                            detection.getBox(),
-                            "AI",
-                            detection.getClassName(),
-                            detection.getConfidence(),
-                            "add"
-                        );
-                        anomaliesLog.add(logEntry);
-                    }
-                    System.out.println("Detections: " + objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(detections));
-                    System.out.println("AnomaliesLog created: " + objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(anomaliesLog));
-                }
+                // Create anomaly log entry for this detection
+                anomaliesLog.add(createAnomalyLogEntry(detection, "AI", "add"));
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Detections: {}", jsonCodecs.writePretty(detections));
+                log.debug("AnomaliesLog created: {}", jsonCodecs.writePretty(anomaliesLog));
             }
         } catch (Exception ex) {
-            System.err.println("Error during Lambda analysis: " + ex.getMessage());
-            ex.printStackTrace();
+            log.error("Error during {} inference: {}", backend.name(), ex.getMessage(), ex);
             detections = Collections.emptyList();
             anomaliesLog = new ArrayList<>();
         }
@@ -411,13 +338,12 @@ public class InspectionService {
 
     // Get anomalies from the inspections table (from the anomalies JSON column)
     public ResponseEntity<String> getAnomalies(Long iid) throws IOException {
-        Map<String, Object> inspection = getInspectionById(iid);
+        Inspection inspection = getInspectionById(iid);
         if (inspection == null) {
             throw new RuntimeException("Inspection with IID " + iid + " not found");
         }
 
-        Object anomaliesObj = inspection.get("anomalies");
-        String anomaliesJson = objectMapper.writeValueAsString(anomaliesObj != null ? anomaliesObj : Collections.emptyList());
+        String anomaliesJson = jsonCodecs.writeDetections(anomaliesOf(inspection));
 
         return ResponseEntity.ok()
                 .contentType(MediaType.APPLICATION_JSON)
@@ -425,78 +351,267 @@ public class InspectionService {
     }
 
     // Add a new anomaly to the anomalies list in the inspection
-    public ResponseEntity<String> addAnomaly(Long iid, Map<String, Object> anomaly) throws IOException {
-        Map<String, Object> inspection = getInspectionById(iid);
-        if (inspection == null) {
-            throw new RuntimeException("Inspection with IID " + iid + " not found");
-        }
+    public ResponseEntity<String> addAnomaly(Long iid, Detection anomaly) throws IOException {
+        return applyAnomalyOperations(iid, List.of(new AnomalyOperation(AnomalyOperation.ADD, null, anomaly)));
+    }
 
-        // Get existing anomalies and log
-        List<Map<String, Object>> anomalies = getAnomaliesList(iid);
-        List<Map<String, Object>> anomaliesLog = getAnomaliesLogList(iid);
+    // Update an existing anomaly in the anomalies list by its ID
+    public ResponseEntity<String> updateAnomaly(Long iid, String anomalyId, Detection updatedAnomaly) throws IOException {
+        return applyAnomalyOperations(iid, List.of(new AnomalyOperation(AnomalyOperation.EDIT, anomalyId, updatedAnomaly)));
+    }
 
-        // Assign a unique ID to the new anomaly if not present
-        if (!anomaly.containsKey("id") || anomaly.get("id") == null) {
-            anomaly.put("id", UUID.randomUUID().toString());
-        }
+    // Delete an anomaly from the anomalies list by its ID
+    public ResponseEntity<String> deleteAnomaly(Long iid, String anomalyId) throws IOException {
+        return applyAnomalyOperations(iid, List.of(new AnomalyOperation(AnomalyOperation.DELETE, anomalyId, null)));
+    }
 
-        // Mark manually added anomalies as "User"
-        if (!anomaly.containsKey("madeBy") || anomaly.get("madeBy") == null) {
-            anomaly.put("madeBy", "User");
-        }
+    // Final state of the anomalies an operation list touched, plus the updated row when the write already returned it
+    private record AppliedOperations(List<Detection> changed, Collection<String> removed, String row) {
+    }
 
-        // Add the new anomaly
-        anomalies.add(anomaly);
+    /**
+     * Applies an ordered list of add/edit/merge/delete operations to an inspection's anomalies and
+     * appends one log entry per operation. If any step fails (unknown anomaly id) nothing is written.
+     *
+     * @return the updated inspection row as PostgREST returns it ([{...}]), like the single PATCH did
+     * @throws IllegalArgumentException if an operation is malformed
+     */
+    public ResponseEntity<String> applyAnomalyOperations(Long iid, List<AnomalyOperation> operations) throws IOException {
+        AppliedOperations applied = applyOperations(iid, operations, true);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(applied.row() != null ? applied.row() : fetchInspectionRow(iid));
+    }
 
-        // Log the addition
-        Map<String, Object> logEntry = createAnomalyLogEntry(
-            (String) anomaly.get("id"),
-            anomaly.get("box"),
-            "User",
-            (String) anomaly.get("className"),
-            anomaly.get("confidence") instanceof Number ? ((Number) anomaly.get("confidence")).doubleValue() : null,
-            "add"
-        );
-        anomaliesLog.add(logEntry);
+    /**
+     * Applies an RFC 6902 JSON Patch addressed by anomaly id (see AnomalyJsonPatch).
+     *
+     * @return {"changed":[final state of touched anomalies], "removed":[ids]}, so the answer stays as small as the change
+     * @throws IllegalArgumentException if the patch is malformed
+     */
+    public ResponseEntity<String> applyAnomalyPatch(Long iid, JsonNode patch) throws IOException {
+        AppliedOperations applied = applyOperations(iid, AnomalyJsonPatch.toOperations(patch, jsonCodecs.mapper()), false);
+        Map<String, Object> delta = new LinkedHashMap<>();
+        delta.put("changed", applied.changed());
+        delta.put("removed", applied.removed());
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(jsonCodecs.write(delta));
+    }
 
-        // Update the inspection with the new anomalies list and log
+    /*
+     * Normally the operations go to the apply_anomaly_ops RPC (db/002_anomaly_ops.sql), which applies
+     * them under a row lock, so only the change travels upstream. Without the RPC the inspection is
+     * fetched once, edited here and written back with a single PATCH. Either way, writes to the same
+     * inspection are serialized within this instance, which also keeps the refImage update from
+     * overwriting a log entry appended in between.
+     */
+    private AppliedOperations applyOperations(Long iid, List<AnomalyOperation> operations, boolean wantRow) throws IOException {
+        validateOperations(operations);
+        for (AnomalyOperation operation : operations) {
+            if (AnomalyOperation.ADD.equals(operation.getOp())) {
+                prepareNewAnomaly(operation.getAnomaly());
+            }
+        }
+
+        synchronized (inspectionLock(iid)) {
+            if (System.currentTimeMillis() >= anomalyOpsRpcMissingUntil) {
+                AppliedOperations applied = applyAnomalyOperationsRemotely(iid, operations);
+                if (applied != null) {
+                    return applied;
+                }
+            }
+            return applyAnomalyOperationsLocally(iid, operations, wantRow);
+        }
+    }
+
+    // Returns null when the RPC isn't installed, so the caller can fall back to fetch + PATCH
+    private AppliedOperations applyAnomalyOperationsRemotely(Long iid, List<AnomalyOperation> operations) throws IOException {
         HttpHeaders headers = getHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("Prefer", "return=representation");
 
         Map<String, Object> body = new HashMap<>();
-        body.put("anomalies", anomalies);
-        body.put("anomaliesLog", anomaliesLog);
+        body.put("p_iid", iid);
+        body.put("p_ops", operations);
 
-        String url = supabaseUrl + "/rest/v1/inspections?iid=eq." + iid;
+        String url = supabaseUrl + "/rest/v1/rpc/apply_anomaly_ops";
         HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, headers);
-
-        return restTemplate.exchange(url, HttpMethod.PATCH, request, String.class);
+        try {
+            ResponseEntity<String> response = upstreamMetrics.record("apply-anomaly-ops", () -> restTemplate.exchange(url, HttpMethod.POST, request, String.class));
+            if (anomalyOpsRpcMissingUntil != 0) {
+                log.info("apply_anomaly_ops RPC is available again");
+                anomalyOpsRpcMissingUntil = 0;
+            }
+            etagCache.evictInspection(iid);
+            // Since db/007_anomaly_ops_logged.sql the function also returns the log entries it appended;
+            // they are counted here, not sent on
+            JsonNode delta = jsonCodecs.readTree(response.getBody());
+            List<String> removed = new ArrayList<>();
+            delta.path("removed").forEach(id -> removed.add(id.asText()));
+            List<Detection> changed = delta.has("changed") ? jsonCodecs.readDetections(delta.get("changed")) : List.of();
+            events.publishEvent(new AnomaliesChanged(iid, changed, removed));
+            if (delta.has("logged")) {
+                events.publishEvent(new AnomaliesLogged(jsonCodecs.readAnomalyLog(delta.get("logged"))));
+            }
+            return new AppliedOperations(changed, removed, null);
+        } catch (HttpClientErrorException.NotFound e) {
+            String error = e.getResponseBodyAsString();
+            if (error.contains("PGRST202")) {
+                // PostgREST: function not found in the schema cache. Checked again later, so installing
+                // the migration takes effect without a restart
+                log.warn("apply_anomaly_ops RPC is not installed; anomaly edits fall back to fetch + full PATCH for {}",
+                        anomalyOpsRpcRecheck);
+                anomalyOpsRpcMissingUntil = System.currentTimeMillis() + anomalyOpsRpcRecheck.toMillis();
+                return null;
+            }
+            // PT404 raised by the function: unknown inspection or anomaly id
+            throw new RuntimeException(jsonCodecs.readTree(error).path("message").asText("Inspection with IID " + iid + " not found"));
+        }
     }
 
-    // Update an existing anomaly in the anomalies list by its ID
-    public ResponseEntity<String> updateAnomaly(Long iid, String anomalyId, Map<String, Object> updatedAnomaly) throws IOException {
-        Map<String, Object> inspection = getInspectionById(iid);
+    // Caller holds inspectionLock(iid)
+    private AppliedOperations applyAnomalyOperationsLocally(Long iid, List<AnomalyOperation> operations, boolean wantRow) throws IOException {
+        Inspection inspection = getInspectionById(iid);
         if (inspection == null) {
             throw new RuntimeException("Inspection with IID " + iid + " not found");
         }
 
-        // Get existing anomalies and log
-        List<Map<String, Object>> anomalies = getAnomaliesList(iid);
-        List<Map<String, Object>> anomaliesLog = getAnomaliesLogList(iid);
+        // Get existing anomalies and log from the single fetched row
+        List<Detection> anomalies = anomaliesOf(inspection);
+        List<AnomalyLogEntry> anomaliesLog = anomaliesLogOf(inspection);
+        int existingLogEntries = anomaliesLog.size();
+
+        Set<String> touched = applyOperationsTo(iid, anomalies, anomaliesLog, operations);
+
+        // Update the inspection with the new anomalies list and log
+        String row = patchAnomalies(iid, anomalies, anomaliesLog, wantRow);
+        events.publishEvent(new AnomaliesLogged(anomaliesLog.subList(existingLogEntries, anomaliesLog.size())));
+
+        // Same result as the RPC
+        List<Detection> changed = new ArrayList<>();
+        for (Detection anomaly : anomalies) {
+            if (touched.remove(anomaly.getId())) {
+                changed.add(anomaly);
+            }
+        }
+        events.publishEvent(new AnomaliesChanged(iid, changed, touched));
+        return new AppliedOperations(changed, touched, row);
+    }
+
+    // Applies validated operations to in-memory copies of the anomalies and log; returns the touched ids in order
+    Set<String> applyOperationsTo(Long iid, List<Detection> anomalies, List<AnomalyLogEntry> anomaliesLog,
+                                  List<AnomalyOperation> operations) throws IOException {
+        Set<String> touched = new LinkedHashSet<>();
+        for (AnomalyOperation operation : operations) {
+            switch (operation.getOp()) {
+                case AnomalyOperation.ADD -> applyAdd(anomalies, anomaliesLog, operation.getAnomaly());
+                case AnomalyOperation.EDIT -> applyEdit(iid, anomalies, anomaliesLog, operation.getId(), operation.getAnomaly());
+                case AnomalyOperation.MERGE -> applyMerge(iid, anomalies, anomaliesLog, operation.getId(), operation.getFields());
+                case AnomalyOperation.DELETE -> applyDelete(iid, anomalies, anomaliesLog, operation.getId());
+                default -> throw new IllegalStateException("Unvalidated operation " + operation.getOp());
+            }
+            touched.add(AnomalyOperation.ADD.equals(operation.getOp()) ? operation.getAnomaly().getId() : operation.getId());
+        }
+        return touched;
+    }
+
+    // Also puts merge fields into their stored form (see mergeFields), so both paths write the same element
+    static void validateOperations(List<AnomalyOperation> operations) {
+        if (operations == null || operations.isEmpty()) {
+            throw new IllegalArgumentException("No anomaly operations given");
+        }
+        for (int i = 0; i < operations.size(); i++) {
+            AnomalyOperation operation = operations.get(i);
+            String op = operation != null ? operation.getOp() : null;
+            if (!AnomalyOperation.ADD.equals(op) && !AnomalyOperation.EDIT.equals(op)
+                    && !AnomalyOperation.MERGE.equals(op) && !AnomalyOperation.DELETE.equals(op)) {
+                throw new IllegalArgumentException("Operation " + i + ": op must be add, edit, merge or delete");
+            }
+            if (!AnomalyOperation.ADD.equals(op) && (operation.getId() == null || operation.getId().isEmpty())) {
+                throw new IllegalArgumentException("Operation " + i + ": " + op + " needs the anomaly id");
+            }
+            if ((AnomalyOperation.ADD.equals(op) || AnomalyOperation.EDIT.equals(op)) && operation.getAnomaly() == null) {
+                throw new IllegalArgumentException("Operation " + i + ": " + op + " needs an anomaly");
+            }
+            if (AnomalyOperation.MERGE.equals(op)) {
+                if (operation.getFields() == null || operation.getFields().isEmpty()) {
+                    throw new IllegalArgumentException("Operation " + i + ": merge needs fields");
+                }
+                operation.setFields(mergeFields(i, operation.getFields()));
+            }
+        }
+    }
+
+    /**
+     * Checks the fields of a merge against AnomalyOperation.MERGE_FIELDS and returns them under their
+     * stored names ("className" becomes "class") with numeric values as doubles. The RPC overlays these
+     * onto the stored element as they are, the local path binds them through Detection.
+     *
+     * @throws IllegalArgumentException for any other field, or a value of the wrong type
+     */
+    static Map<String, Object> mergeFields(int index, Map<String, Object> fields) {
+        Map<String, Object> merged = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            String name = "className".equals(field.getKey()) ? "class" : field.getKey();
+            Object value = field.getValue();
+            if (!AnomalyOperation.MERGE_FIELDS.contains(name)) {
+                throw new IllegalArgumentException("Operation " + index + ": field " + field.getKey()
+                        + " can't be merged, expected box, class or confidence");
+            }
+            switch (name) {
+                case "box" -> {
+                    if (!(value instanceof List<?> box) || box.size() != 4 || !box.stream().allMatch(Number.class::isInstance)) {
+                        throw new IllegalArgumentException("Operation " + index + ": box must be [x_center, y_center, width, height]");
+                    }
+                    merged.put(name, box.stream().map(n -> ((Number) n).doubleValue()).toList());
+                }
+                case "class" -> {
+                    if (!(value instanceof String)) {
+                        throw new IllegalArgumentException("Operation " + index + ": class must be a string");
+                    }
+                    merged.put(name, value);
+                }
+                default -> {
+                    if (value != null && !(value instanceof Number)) {
+                        throw new IllegalArgumentException("Operation " + index + ": confidence must be a number or null");
+                    }
+                    merged.put(name, value != null ? ((Number) value).doubleValue() : null);
+                }
+            }
+        }
+        return merged;
+    }
+
+    private void prepareNewAnomaly(Detection anomaly) {
+        // Assign a unique ID to the new anomaly if not present
+        if (anomaly.getId() == null) {
+            anomaly.setId(UUID.randomUUID().toString());
+        }
+
+        // Mark manually added anomalies as "User"
+        if (anomaly.getMadeBy() == null) {
+            anomaly.setMadeBy("User");
+        }
+    }
+
+    private void applyAdd(List<Detection> anomalies, List<AnomalyLogEntry> anomaliesLog, Detection anomaly) {
+        anomalies.add(anomaly);
+        anomaliesLog.add(createAnomalyLogEntry(anomaly, "User", "add"));
+    }
 
+    private void applyEdit(Long iid, List<Detection> anomalies, List<AnomalyLogEntry> anomaliesLog, String anomalyId, Detection updatedAnomaly) {
         // Find and update the anomaly with matching ID
         boolean found = false;
         String madeBy = "User";
         for (int i = 0; i < anomalies.size(); i++) {
-            Map<String, Object> anomaly = anomalies.get(i);
-            if (anomalyId.equals(anomaly.get("id"))) {
+            Detection anomaly = anomalies.get(i);
+            if (anomalyId.equals(anomaly.getId())) {
                 // Preserve the ID and madeBy
-                updatedAnomaly.put("id", anomalyId);
+                updatedAnomaly.setId(anomalyId);
                 // Preserve the original madeBy value - don't allow it to be changed
-                if (anomaly.containsKey("madeBy")) {
-                    madeBy = (String) anomaly.get("madeBy");
-                    updatedAnomaly.put("madeBy", madeBy);
+                if (anomaly.getMadeBy() != null) {
+                    madeBy = anomaly.getMadeBy();
+                    updatedAnomaly.setMadeBy(madeBy);
                 }
                 anomalies.set(i, updatedAnomaly);
                 found = true;
@@ -508,76 +623,56 @@ public class InspectionService {
             throw new RuntimeException("Anomaly with ID " + anomalyId + " not found in inspection " + iid);
         }
 
-        // Log the update
-        Map<String, Object> logEntry = createAnomalyLogEntry(
-            anomalyId,
-            updatedAnomaly.get("box"),
-            madeBy,
-            (String) updatedAnomaly.get("className"),
-            updatedAnomaly.get("confidence") instanceof Number ? ((Number) updatedAnomaly.get("confidence")).doubleValue() : null,
-            "edit"
-        );
-        anomaliesLog.add(logEntry);
-
-        // Update the inspection with the modified anomalies list and log
-        HttpHeaders headers = getHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("Prefer", "return=representation");
-
-        Map<String, Object> body = new HashMap<>();
-        body.put("anomalies", anomalies);
-        body.put("anomaliesLog", anomaliesLog);
-
-        String url = supabaseUrl + "/rest/v1/inspections?iid=eq." + iid;
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, headers);
-
-        return restTemplate.exchange(url, HttpMethod.PATCH, request, String.class);
+        anomaliesLog.add(createAnomalyLogEntry(updatedAnomaly, madeBy, "edit"));
     }
 
-    // Delete an anomaly from the anomalies list by its ID
-    public ResponseEntity<String> deleteAnomaly(Long iid, String anomalyId) throws IOException {
-        Map<String, Object> inspection = getInspectionById(iid);
-        if (inspection == null) {
-            throw new RuntimeException("Inspection with IID " + iid + " not found");
+    private void applyMerge(Long iid, List<Detection> anomalies, List<AnomalyLogEntry> anomaliesLog, String anomalyId, Map<String, Object> fields) throws IOException {
+        for (int i = 0; i < anomalies.size(); i++) {
+            Detection anomaly = anomalies.get(i);
+            if (anomalyId.equals(anomaly.getId())) {
+                // Overlay only the given fields; id and madeBy stay as they are
+                ObjectNode merged = jsonCodecs.mapper().valueToTree(anomaly);
+                merged.setAll((ObjectNode) jsonCodecs.mapper().valueToTree(fields));
+                Detection updated = jsonCodecs.mapper().treeToValue(merged, Detection.class);
+                updated.setId(anomaly.getId());
+                updated.setMadeBy(anomaly.getMadeBy());
+                anomalies.set(i, updated);
+                anomaliesLog.add(createAnomalyLogEntry(updated, anomaly.getMadeBy() != null ? anomaly.getMadeBy() : "User", "edit"));
+                return;
+            }
         }
+        throw new RuntimeException("Anomaly with ID " + anomalyId + " not found in inspection " + iid);
+    }
 
-        // Get existing anomalies and log
-        List<Map<String, Object>> anomalies = getAnomaliesList(iid);
-        List<Map<String, Object>> anomaliesLog = getAnomaliesLogList(iid);
-
-        // Find the anomaly to capture its data before deletion
-        Map<String, Object> deletedAnomaly = null;
-        for (Map<String, Object> anomaly : anomalies) {
-            if (anomalyId.equals(anomaly.get("id"))) {
+    private void applyDelete(Long iid, List<Detection> anomalies, List<AnomalyLogEntry> anomaliesLog, String anomalyId) {
+        // Find and remove the anomaly, capturing its data for the log
+        Detection deletedAnomaly = null;
+        for (Iterator<Detection> it = anomalies.iterator(); it.hasNext(); ) {
+            Detection anomaly = it.next();
+            if (anomalyId.equals(anomaly.getId())) {
                 deletedAnomaly = anomaly;
+                it.remove();
                 break;
             }
         }
 
-        // Remove the anomaly with matching ID
-        boolean removed = anomalies.removeIf(anomaly -> anomalyId.equals(anomaly.get("id")));
-
-        if (!removed) {
+        if (deletedAnomaly == null) {
             throw new RuntimeException("Anomaly with ID " + anomalyId + " not found in inspection " + iid);
         }
 
-        // Log the deletion
-        if (deletedAnomaly != null) {
-            Map<String, Object> logEntry = createAnomalyLogEntry(
-                anomalyId,
-                deletedAnomaly.get("box"),
-                (String) deletedAnomaly.get("madeBy"),
-                (String) deletedAnomaly.get("className"),
-                deletedAnomaly.get("confidence") instanceof Number ? ((Number) deletedAnomaly.get("confidence")).doubleValue() : null,
-                "delete"
-            );
-            anomaliesLog.add(logEntry);
-        }
+        anomaliesLog.add(createAnomalyLogEntry(deletedAnomaly, deletedAnomaly.getMadeBy(), "delete"));
+    }
 
-        // Update the inspection with the modified anomalies list and log
+    // Helper: lock shared by all anomaly mutations of one inspection (striped, so memory stays fixed)
+    Object inspectionLock(Long iid) {
+        return inspectionLocks[Math.floorMod(iid.hashCode(), inspectionLocks.length)];
+    }
+
+    // Helper: PATCH the anomalies and anomaliesLog columns of an inspection; returns the updated row when asked for
+    private String patchAnomalies(Long iid, List<Detection> anomalies, List<AnomalyLogEntry> anomaliesLog, boolean wantRow) {
         HttpHeaders headers = getHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("Prefer", "return=representation");
+        headers.set("Prefer", wantRow ? "return=representation" : "return=minimal");
 
         Map<String, Object> body = new HashMap<>();
         body.put("anomalies", anomalies);
@@ -586,138 +681,41 @@ public class InspectionService {
         String url = supabaseUrl + "/rest/v1/inspections?iid=eq." + iid;
         HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, headers);
 
-        return restTemplate.exchange(url, HttpMethod.PATCH, request, String.class);
+        ResponseEntity<String> response = upstreamMetrics.record("patch-anomalies", () -> restTemplate.exchange(url, HttpMethod.PATCH, request, String.class));
+        etagCache.evictInspection(iid);
+        return wantRow ? response.getBody() : null;
     }
 
-    // Helper: return anomalies list as parsed objects from the inspection
-    private List<Map<String, Object>> getAnomaliesList(Long iid) throws IOException {
-        Map<String, Object> inspection = getInspectionById(iid);
-        if (inspection == null) {
-            return Collections.emptyList();
-        }
-
-        Object anomaliesObj = inspection.get("anomalies");
-        if (anomaliesObj == null) {
-            return new ArrayList<>();
-        }
-
-        // Handle different types that anomaliesObj might be
-        if (anomaliesObj instanceof List) {
-            // If it's already a List, convert each item to Map
-            List<?> anomaliesList = (List<?>) anomaliesObj;
-            List<Map<String, Object>> result = new ArrayList<>();
-            for (Object item : anomaliesList) {
-                if (item instanceof Map) {
-                    result.add((Map<String, Object>) item);
-                } else {
-                    // Convert to Map via JSON serialization
-                    String itemJson = objectMapper.writeValueAsString(item);
-                    Map<String, Object> itemMap = objectMapper.readValue(itemJson, new TypeReference<Map<String, Object>>() {});
-                    result.add(itemMap);
-                }
-            }
-            return result;
-        } else if (anomaliesObj instanceof String) {
-            // If it's a String, parse it as JSON
-            String anomaliesJson = (String) anomaliesObj;
-            if (anomaliesJson.trim().isEmpty() || anomaliesJson.equals("[]")) {
-                return new ArrayList<>();
-            }
-            return objectMapper.readValue(anomaliesJson, new TypeReference<List<Map<String, Object>>>() {});
-        } else {
-            // For any other type, try to convert via JSON serialization
-            String anomaliesJson = objectMapper.writeValueAsString(anomaliesObj);
-            return objectMapper.readValue(anomaliesJson, new TypeReference<List<Map<String, Object>>>() {});
-        }
+    // Helper: the inspection row as PostgREST returns it ([{...}]), for answers that keep the full-row shape
+    private String fetchInspectionRow(Long iid) {
+        String url = supabaseUrl + "/rest/v1/inspections?iid=eq." + iid + "&select=*";
+        HttpEntity<String> entity = new HttpEntity<>(getHeaders());
+        return upstreamMetrics.record("fetch-inspection", () -> restTemplate.exchange(url, HttpMethod.GET, entity, String.class)).getBody();
     }
 
-    // Helper: return anomalies log list as parsed objects from the inspection
-    private List<Map<String, Object>> getAnomaliesLogList(Long iid) throws IOException {
-        Map<String, Object> inspection = getInspectionById(iid);
-        if (inspection == null) {
-            return Collections.emptyList();
-        }
-
-        Object anomaliesLogObj = inspection.get("anomaliesLog");
-        if (anomaliesLogObj == null) {
-            return new ArrayList<>();
-        }
-
-        // Handle different types that anomaliesLogObj might be
-        if (anomaliesLogObj instanceof List) {
-            // If it's already a List, convert each item to Map
-            List<?> anomaliesLogList = (List<?>) anomaliesLogObj;
-            List<Map<String, Object>> result = new ArrayList<>();
-            for (Object item : anomaliesLogList) {
-                if (item instanceof Map) {
-                    result.add((Map<String, Object>) item);
-                } else {
-                    // Convert to Map via JSON serialization
-                    String itemJson = objectMapper.writeValueAsString(item);
-                    Map<String, Object> itemMap = objectMapper.readValue(itemJson, new TypeReference<Map<String, Object>>() {});
-                    result.add(itemMap);
-                }
-            }
-            return result;
-        } else if (anomaliesLogObj instanceof String) {
-            // If it's a String, parse it as JSON
-            String anomaliesLogJson = (String) anomaliesLogObj;
-            if (anomaliesLogJson.trim().isEmpty() || anomaliesLogJson.equals("[]")) {
-                return new ArrayList<>();
-            }
-            return objectMapper.readValue(anomaliesLogJson, new TypeReference<List<Map<String, Object>>>() {});
-        } else {
-            // For any other type, try to convert via JSON serialization
-            String anomaliesLogJson = objectMapper.writeValueAsString(anomaliesLogObj);
-            return objectMapper.readValue(anomaliesLogJson, new TypeReference<List<Map<String, Object>>>() {});
-        }
-    }
-
-    // Helper: generate a unique inspection number
-    private String generateUniqueInspectionNumber() throws IOException {
-        String candidate;
-        int attempts = 0;
-        do {
-            int randomNumber = (int) (Math.random() * 1_000_000); // 0 .. 999999
-            candidate = String.format("I-%06d", randomNumber);
-            attempts++;
-            if (attempts > 10000) {
-                throw new RuntimeException("Unable to generate a unique inspection number after " + attempts + " attempts");
-            }
-        } while (existsInspectionNumber(candidate));
-
-        return candidate;
+    // Helper: mutable copy of the inspection's anomalies
+    private List<Detection> anomaliesOf(Inspection inspection) {
+        return inspection.getAnomalies() != null ? new ArrayList<>(inspection.getAnomalies()) : new ArrayList<>();
     }
 
-    /**
-     * Check whether an inspectionNumber already exists in the Supabase table.
-     */
-    private boolean existsInspectionNumber(String inspectionNumber) throws IOException {
-        String url = supabaseUrl + "/rest/v1/inspections?inspectionNumber=eq." + inspectionNumber + "&select=inspectionNumber&limit=1";
-        HttpHeaders headers = getHeaders();
-        HttpEntity<String> entity = new HttpEntity<>(headers);
-        try {
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
-            List<Map<String, Object>> list = objectMapper.readValue(response.getBody(), new TypeReference<List<Map<String, Object>>>() {});
-            return !list.isEmpty();
-        } catch (HttpClientErrorException.NotFound e) {
-            return false;
-        }
+    // Helper: mutable copy of the inspection's anomalies log
+    private List<AnomalyLogEntry> anomaliesLogOf(Inspection inspection) {
+        return inspection.getAnomaliesLog() != null ? new ArrayList<>(inspection.getAnomaliesLog()) : new ArrayList<>();
     }
 
     // Helper: create a log entry for an anomaly
-    private Map<String, Object> createAnomalyLogEntry(String id, Object box, String madeBy, String className, Double confidence, String action) {
-        Map<String, Object> logEntry = new LinkedHashMap<>(); // Use LinkedHashMap to preserve order
-        logEntry.put("id", id != null ? id : "");
-        logEntry.put("box", box != null ? box : new ArrayList<>());
-        logEntry.put("confidence", confidence != null ? confidence : 0.0);
-        logEntry.put("class", className != null ? className : ""); // Use "class" instead of "className"
-        logEntry.put("timestamp", new Date().toInstant().toString()); // Use ISO-8601 string format
-        logEntry.put("madeBy", madeBy != null ? madeBy : ""); // Use "madeBy" with capital B
-        logEntry.put("action", action != null ? action : ""); // Track if it was add/edit/delete
-
-        System.out.println("=== DEBUG: Created log entry ===");
-        System.out.println("Log entry: " + logEntry);
+    private AnomalyLogEntry createAnomalyLogEntry(Detection anomaly, String madeBy, String action) {
+        AnomalyLogEntry logEntry = new AnomalyLogEntry(
+                anomaly.getId() != null ? anomaly.getId() : "",
+                anomaly.getBox() != null ? anomaly.getBox() : new ArrayList<>(),
+                anomaly.getConfidence() != null ? anomaly.getConfidence() : 0.0,
+                anomaly.getClassName() != null ? anomaly.getClassName() : "",
+                Instant.now().toString(), // Use ISO-8601 string format
+                madeBy != null ? madeBy : "",
+                action != null ? action : "" // Track if it was add/edit/delete
+        );
+
+        log.trace("Created log entry: {}", logEntry);
 
         return logEntry;
     }
@@ -738,43 +736,20 @@ public class InspectionService {
         double x2 = box.get(2);
         double y2 = box.get(3);
 
-        System.out.println("=== DEBUG: Converting box coordinates ===");
-        System.out.println("Original format [x1, y1, x2, y2]: [" + x1 + ", " + y1 + ", " + x2 + ", " + y2 + "]");
-
         // Calculate center_x, center_y, width, height
         double centerX = (x1 + x2) / 2.0;
         double centerY = (y1 + y2) / 2.0;
         double width = Math.abs(x2 - x1);
         double height = Math.abs(y2 - y1);
 
-        System.out.println("Converted format [x_center, y_center, width, height]: [" + centerX + ", " + centerY + ", " + width + ", " + height + "]");
+        if (log.isTraceEnabled()) {
+            log.trace("Converted box [{}, {}, {}, {}] -> [{}, {}, {}, {}]", x1, y1, x2, y2, centerX, centerY, width, height);
+        }
 
         // Set the new box coordinates: [x_center, y_center, width, height]
         detection.setBox(Arrays.asList(centerX, centerY, width, height));
     }
 
-    // New method: trigger retraining asynchronously; do not wait for response
-    public void triggerRetraining() {
-        // Run in a background thread so the caller returns immediately
-        new Thread(() -> {
-            try {
-                HttpHeaders headers = new HttpHeaders();
-                headers.setContentType(MediaType.APPLICATION_JSON);
-                // send an empty JSON object as the body
-                HttpEntity<String> request = new HttpEntity<>("{}", headers);
-
-                // Fire-and-forget POST
-                restTemplate.postForEntity(retrainUrl, request, String.class);
-
-                System.out.println("Retrain trigger POST sent to: " + retrainUrl);
-            } catch (Exception ex) {
-                // Log but don't rethrow; this is fire-and-forget
-                System.err.println("Error triggering retrain: " + ex.getMessage());
-                ex.printStackTrace();
-            }
-        }).start();
-    }
-
     // New method: Get inspection by inspectionNumber
     public ResponseEntity<String> getInspectionByNumber(String inspectionNumber) throws IOException {
         if (inspectionNumber == null || inspectionNumber.trim().isEmpty()) {
@@ -794,11 +769,8 @@ public class InspectionService {
         HttpEntity<String> entity = new HttpEntity<>(headers);
 
         try {
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
-            List<Map<String, Object>> inspections = objectMapper.readValue(
-                    response.getBody(),
-                    new TypeReference<List<Map<String, Object>>>() {}
-            );
+            ResponseEntity<String> response = upstreamMetrics.record("fetch-inspection-by-number", () -> restTemplate.exchange(url, HttpMethod.GET, entity, String.class));
+            List<Inspection> inspections = jsonCodecs.readInspections(response.getBody());
 
             if (inspections.isEmpty()) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND)
@@ -806,7 +778,7 @@ public class InspectionService {
                         .body("{\"error\":\"Inspection not found with inspectionNumber: " + inspectionNumber + "\"}");
             }
 
-            String body = objectMapper.writeValueAsString(inspections.get(0));
+            String body = jsonCodecs.writeInspection(inspections.get(0));
             return ResponseEntity.ok()
                     .contentType(MediaType.APPLICATION_JSON)
                     .body(body);
@@ -836,7 +808,7 @@ public class InspectionService {
         HttpEntity<String> entity = new HttpEntity<>(headers);
 
         try {
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
+            ResponseEntity<String> response = upstreamMetrics.record("list-inspections-by-transformer", () -> restTemplate.exchange(url, HttpMethod.GET, entity, String.class));
             // Return the raw array of inspections (may be empty)
             return ResponseEntity.ok()
                     .contentType(MediaType.APPLICATION_JSON)
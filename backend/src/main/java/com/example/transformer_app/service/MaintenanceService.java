@@ -1,21 +1,32 @@
 package com.example.transformer_app.service;
 
+import com.example.transformer_app.cache.EtagCache;
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.metrics.UpstreamMetrics;
 import com.example.transformer_app.dto.UpdateMaintenanceRequest;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.transformer_app.event.MaintenanceDeleted;
+import com.example.transformer_app.event.MaintenanceSaved;
+import com.example.transformer_app.model.Maintenance;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.*;
 
 @Service
 public class MaintenanceService {
 
+    private static final Logger log = LoggerFactory.getLogger(MaintenanceService.class);
+
     @Value("${supabase.url}")
     private String supabaseUrl;
 
@@ -23,11 +34,27 @@ public class MaintenanceService {
     private String supabaseApiKey;
 
     private final RestTemplate restTemplate;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonCodecs jsonCodecs;
+    private final EtagCache etagCache;
+    private final UpstreamMetrics upstreamMetrics;
+    private final NumberAllocator numberAllocator;
+    private final ApplicationEventPublisher events;
+
+    @Value("${maintenance.merge.rpc-recheck:PT5M}")
+    private Duration mergeRpcRecheck;
+
+    // Epoch millis until which merge_maintenance is treated as not installed; 0 while it is
+    private volatile long mergeRpcMissingUntil;
 
     @Autowired
-    public MaintenanceService(RestTemplate restTemplate) {
+    public MaintenanceService(RestTemplate restTemplate, JsonCodecs jsonCodecs, EtagCache etagCache, UpstreamMetrics upstreamMetrics, NumberAllocator numberAllocator,
+                              ApplicationEventPublisher events) {
         this.restTemplate = restTemplate;
+        this.jsonCodecs = jsonCodecs;
+        this.etagCache = etagCache;
+        this.upstreamMetrics = upstreamMetrics;
+        this.numberAllocator = numberAllocator;
+        this.events = events;
     }
 
     // Create a new maintenance record
@@ -40,7 +67,7 @@ public class MaintenanceService {
             String additionalRemarks
     ) throws IOException {
         // Generate unique maintenance number
-        String maintenanceNumber = generateUniqueMaintenanceNumber();
+        String maintenanceNumber = numberAllocator.next(NumberAllocator.Kind.MAINTENANCE);
 
         HttpHeaders headers = getHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
@@ -59,7 +86,9 @@ public class MaintenanceService {
         String url = supabaseUrl + "/rest/v1/maintenance";
         HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(body, headers);
 
-        return restTemplate.exchange(url, HttpMethod.POST, requestEntity, String.class);
+        ResponseEntity<String> response = upstreamMetrics.record("insert-maintenance", () -> restTemplate.exchange(url, HttpMethod.POST, requestEntity, String.class));
+        trackWritten(response.getBody());
+        return response;
     }
 
     // Get all maintenance records
@@ -68,17 +97,17 @@ public class MaintenanceService {
         HttpHeaders headers = getHeaders();
         HttpEntity<String> entity = new HttpEntity<>(headers);
 
-        return restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
+        return upstreamMetrics.record("list-maintenance", () -> restTemplate.exchange(url, HttpMethod.GET, entity, String.class));
     }
 
     // Get maintenance record by ID
     public ResponseEntity<String> getMaintenanceById(Long mid) throws IOException {
-        Map<String, Object> maintenance = getMaintenanceByIdInternal(mid);
+        Maintenance maintenance = getMaintenanceByIdInternal(mid);
         if (maintenance == null) {
             throw new RuntimeException("Maintenance record with MID " + mid + " not found");
         }
 
-        String json = objectMapper.writeValueAsString(maintenance);
+        String json = jsonCodecs.writeMaintenance(maintenance);
         return ResponseEntity.ok()
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(json);
@@ -90,10 +119,10 @@ public class MaintenanceService {
         HttpHeaders headers = getHeaders();
         HttpEntity<String> entity = new HttpEntity<>(headers);
 
-        return restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
+        return upstreamMetrics.record("list-maintenance-by-inspection", () -> restTemplate.exchange(url, HttpMethod.GET, entity, String.class));
     }
 
-    // Update maintenance record
+    // Update maintenance record; one PATCH, an empty representation means no row had that MID
     public ResponseEntity<String> updateMaintenance(
             Long mid,
             String inspectorName,
@@ -102,15 +131,6 @@ public class MaintenanceService {
             String recommendedActions,
             String additionalRemarks
     ) throws IOException {
-        Map<String, Object> existingMaintenance = getMaintenanceByIdInternal(mid);
-        if (existingMaintenance == null) {
-            throw new RuntimeException("Maintenance record with MID " + mid + " not found");
-        }
-
-        HttpHeaders headers = getHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("Prefer", "return=representation");
-
         Map<String, Object> updateFields = new HashMap<>();
         if (inspectorName != null) updateFields.put("inspectorName", inspectorName);
         if (status != null) updateFields.put("status", status);
@@ -118,130 +138,181 @@ public class MaintenanceService {
         if (recommendedActions != null) updateFields.put("recommendedActions", recommendedActions);
         if (additionalRemarks != null) updateFields.put("additionalRemarks", additionalRemarks);
 
-        String url = supabaseUrl + "/rest/v1/maintenance?mid=eq." + mid;
-        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(updateFields, headers);
-
-        return restTemplate.exchange(url, HttpMethod.PATCH, requestEntity, String.class);
+        return patchMaintenance(mid, updateFields);
     }
 
+    /**
+     * Updates the top-level fields and merges the given details into the stored ones. With the
+     * merge_maintenance RPC (db/004_maintenance_merge.sql) this is one atomic UPDATE; without it
+     * the row is read, merged here and written back.
+     */
     public ResponseEntity<String> updateMaintenance(Long mid, UpdateMaintenanceRequest request) throws IOException {
-        Map<String, Object> existingMaintenance = getMaintenanceByIdInternal(mid);
-        if (existingMaintenance == null) {
-            throw new RuntimeException("Maintenance record with MID " + mid + " not found");
-        }
-
-        HttpHeaders headers = getHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("Prefer", "return=representation");
-
         Map<String, Object> updateFields = new HashMap<>();
         if (request.getInspectorName() != null) updateFields.put("inspectorName", request.getInspectorName());
         if (request.getStatus() != null) updateFields.put("status", request.getStatus());
         if (request.getRecommendedActions() != null) updateFields.put("recommendedActions", request.getRecommendedActions());
         if (request.getAdditionalRemarks() != null) updateFields.put("additionalRemarks", request.getAdditionalRemarks());
 
+        Map<String, Object> details = detailsOf(request);
+
+        if (System.currentTimeMillis() >= mergeRpcMissingUntil) {
+            ResponseEntity<String> response = mergeMaintenanceRemotely(mid, updateFields, details);
+            if (response != null) {
+                return response;
+            }
+        }
+
+        Maintenance existingMaintenance = getMaintenanceByIdInternal(mid);
+        if (existingMaintenance == null) {
+            throw new RuntimeException("Maintenance record with MID " + mid + " not found");
+        }
+
         // Merge existing details with incoming details payload
-        Object existingDetailsObj = existingMaintenance.get("details");
         Map<String, Object> mergedDetails = new HashMap<>();
-        if (existingDetailsObj instanceof Map) {
-            mergedDetails.putAll((Map<String, Object>) existingDetailsObj);
+        if (existingMaintenance.getDetails() != null) {
+            mergedDetails.putAll(existingMaintenance.getDetails());
         }
+        mergedDetails.putAll(details);
 
+        if (!mergedDetails.isEmpty()) {
+            updateFields.put("details", mergedDetails);
+        }
+        return patchMaintenance(mid, updateFields);
+    }
+
+    // The details to overlay on the stored ones
+    private Map<String, Object> detailsOf(UpdateMaintenanceRequest request) {
+        Map<String, Object> details = new HashMap<>();
         // If frontend sent a full `details` object, overlay it on top
         if (request.getDetails() != null) {
-            mergedDetails.putAll(request.getDetails());
+            details.putAll(request.getDetails());
         } else {
             // Fallback: support old style where fields are at the top level
-            if (request.getBranch() != null) mergedDetails.put("branch", request.getBranch());
-            if (request.getLocationDetails() != null) mergedDetails.put("locationDetails", request.getLocationDetails());
-            if (request.getInspectionDate() != null) mergedDetails.put("inspectionDate", request.getInspectionDate());
-            if (request.getInspectionTime() != null) mergedDetails.put("inspectionTime", request.getInspectionTime());
-            if (request.getBaseLineImagingNos() != null) mergedDetails.put("baseLineImagingNos", request.getBaseLineImagingNos());
-            if (request.getLastMonthKVA() != null) mergedDetails.put("lastMonthKVA", request.getLastMonthKVA());
-            if (request.getLastMonthDate() != null) mergedDetails.put("lastMonthDate", request.getLastMonthDate());
-            if (request.getLastMonthTime() != null) mergedDetails.put("lastMonthTime", request.getLastMonthTime());
-            if (request.getCurrentMonthKVA() != null) mergedDetails.put("currentMonthKVA", request.getCurrentMonthKVA());
-            if (request.getBaseLineCondition() != null) mergedDetails.put("baseLineCondition", request.getBaseLineCondition());
-            if (request.getTransformerType() != null) mergedDetails.put("transformerType", request.getTransformerType());
-            if (request.getMeterDetails() != null) mergedDetails.put("meterDetails", request.getMeterDetails());
-            if (request.getWorkContent() != null) mergedDetails.put("workContent", request.getWorkContent());
-            if (request.getFirstInspectionReadings() != null) mergedDetails.put("firstInspectionReadings", request.getFirstInspectionReadings());
-            if (request.getSecondInspectionReadings() != null) mergedDetails.put("secondInspectionReadings", request.getSecondInspectionReadings());
-            if (request.getAfterThermalDate() != null) mergedDetails.put("afterThermalDate", request.getAfterThermalDate());
-            if (request.getAfterThermalTime() != null) mergedDetails.put("afterThermalTime", request.getAfterThermalTime());
-            if (request.getFuseStatus() != null) mergedDetails.put("fuseStatus", request.getFuseStatus());
+            if (request.getBranch() != null) details.put("branch", request.getBranch());
+            if (request.getLocationDetails() != null) details.put("locationDetails", request.getLocationDetails());
+            if (request.getInspectionDate() != null) details.put("inspectionDate", request.getInspectionDate());
+            if (request.getInspectionTime() != null) details.put("inspectionTime", request.getInspectionTime());
+            if (request.getBaseLineImagingNos() != null) details.put("baseLineImagingNos", request.getBaseLineImagingNos());
+            if (request.getLastMonthKVA() != null) details.put("lastMonthKVA", request.getLastMonthKVA());
+            if (request.getLastMonthDate() != null) details.put("lastMonthDate", request.getLastMonthDate());
+            if (request.getLastMonthTime() != null) details.put("lastMonthTime", request.getLastMonthTime());
+            if (request.getCurrentMonthKVA() != null) details.put("currentMonthKVA", request.getCurrentMonthKVA());
+            if (request.getBaseLineCondition() != null) details.put("baseLineCondition", request.getBaseLineCondition());
+            if (request.getTransformerType() != null) details.put("transformerType", request.getTransformerType());
+            if (request.getMeterDetails() != null) details.put("meterDetails", request.getMeterDetails());
+            if (request.getWorkContent() != null) details.put("workContent", request.getWorkContent());
+            if (request.getFirstInspectionReadings() != null) details.put("firstInspectionReadings", request.getFirstInspectionReadings());
+            if (request.getSecondInspectionReadings() != null) details.put("secondInspectionReadings", request.getSecondInspectionReadings());
+            if (request.getAfterThermalDate() != null) details.put("afterThermalDate", request.getAfterThermalDate());
+            if (request.getAfterThermalTime() != null) details.put("afterThermalTime", request.getAfterThermalTime());
+            if (request.getFuseStatus() != null) details.put("fuseStatus", request.getFuseStatus());
         }
+        return details;
+    }
 
-        if (!mergedDetails.isEmpty()) {
-            updateFields.put("details", mergedDetails);
+    // Returns null when the RPC isn't installed, so the caller can fall back to fetch + PATCH
+    private ResponseEntity<String> mergeMaintenanceRemotely(Long mid, Map<String, Object> updateFields, Map<String, Object> details) throws IOException {
+        HttpHeaders headers = getHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("p_mid", mid);
+        body.put("p_fields", updateFields);
+        body.put("p_details", details);
+
+        String url = supabaseUrl + "/rest/v1/rpc/merge_maintenance";
+        HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, headers);
+        try {
+            ResponseEntity<String> response = upstreamMetrics.record("merge-maintenance", () -> restTemplate.exchange(url, HttpMethod.POST, request, String.class));
+            if (mergeRpcMissingUntil != 0) {
+                log.info("merge_maintenance RPC is available again");
+                mergeRpcMissingUntil = 0;
+            }
+            etagCache.evict(EtagCache.maintenanceKey(mid));
+            trackWritten(response.getBody());
+            return response;
+        } catch (HttpClientErrorException.NotFound e) {
+            String error = e.getResponseBodyAsString();
+            if (error.contains("PGRST202")) {
+                // PostgREST: function not found in the schema cache, e.g. mid-deploy before db/004 is
+                // applied. Checked again after rpc-recheck rather than given up on until restart
+                log.warn("merge_maintenance RPC is not installed; maintenance edits fall back to fetch + PATCH for {}",
+                        mergeRpcRecheck);
+                mergeRpcMissingUntil = System.currentTimeMillis() + mergeRpcRecheck.toMillis();
+                return null;
+            }
+            // PT404 raised by the function: no row with this MID
+            throw new RuntimeException(jsonCodecs.readTree(error).path("message").asText("Maintenance record with MID " + mid + " not found"));
         }
+    }
+
+    private ResponseEntity<String> patchMaintenance(Long mid, Map<String, Object> updateFields) throws IOException {
+        HttpHeaders headers = getHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("Prefer", "return=representation");
 
         String url = supabaseUrl + "/rest/v1/maintenance?mid=eq." + mid;
         HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(updateFields, headers);
 
-        return restTemplate.exchange(url, HttpMethod.PATCH, requestEntity, String.class);
+        ResponseEntity<String> response = upstreamMetrics.record("patch-maintenance", () -> restTemplate.exchange(url, HttpMethod.PATCH, requestEntity, String.class));
+        if (isEmptyArray(response.getBody())) {
+            throw new RuntimeException("Maintenance record with MID " + mid + " not found");
+        }
+        etagCache.evict(EtagCache.maintenanceKey(mid));
+        trackWritten(response.getBody());
+        return response;
     }
 
-    // Delete maintenance record
-    public ResponseEntity<String> deleteMaintenance(Long mid) throws IOException {
-        Map<String, Object> existingMaintenance = getMaintenanceByIdInternal(mid);
-        if (existingMaintenance == null) {
-            throw new RuntimeException("Maintenance record with MID " + mid + " not found");
+    // The written rows carry the merged details, so the readings and search text never need to be fetched again
+    private void trackWritten(String writtenRows) {
+        try {
+            for (Maintenance maintenance : jsonCodecs.readMaintenance(writtenRows)) {
+                events.publishEvent(new MaintenanceSaved(maintenance));
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not track a maintenance write: {}", e.getMessage());
         }
+    }
 
-        String url = supabaseUrl + "/rest/v1/maintenance?mid=eq." + mid;
+    // Delete maintenance record; the representation of the deleted rows tells whether the MID existed
+    public ResponseEntity<String> deleteMaintenance(Long mid) throws IOException {
+        String url = supabaseUrl + "/rest/v1/maintenance?mid=eq." + mid + "&select=mid";
         HttpHeaders headers = getHeaders();
+        headers.set("Prefer", "return=representation");
         HttpEntity<String> requestEntity = new HttpEntity<>(headers);
 
-        return restTemplate.exchange(url, HttpMethod.DELETE, requestEntity, String.class);
+        ResponseEntity<String> response = upstreamMetrics.record("delete-maintenance", () -> restTemplate.exchange(url, HttpMethod.DELETE, requestEntity, String.class));
+        if (isEmptyArray(response.getBody())) {
+            throw new RuntimeException("Maintenance record with MID " + mid + " not found");
+        }
+        etagCache.evict(EtagCache.maintenanceKey(mid));
+        events.publishEvent(new MaintenanceDeleted(mid));
+        return ResponseEntity.noContent().build();
+    }
+
+    private boolean isEmptyArray(String body) throws IOException {
+        if (body == null || body.isBlank()) {
+            return true;
+        }
+        JsonNode rows = jsonCodecs.readTree(body);
+        return rows.isArray() && rows.isEmpty();
     }
 
     // Helper method to get maintenance by ID internally
-    private Map<String, Object> getMaintenanceByIdInternal(Long mid) throws IOException {
+    private Maintenance getMaintenanceByIdInternal(Long mid) throws IOException {
         String url = supabaseUrl + "/rest/v1/maintenance?mid=eq." + mid + "&select=*&limit=1";
         HttpHeaders headers = getHeaders();
         HttpEntity<String> entity = new HttpEntity<>(headers);
 
         try {
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
-            List<Map<String, Object>> maintenanceList = objectMapper.readValue(response.getBody(), new TypeReference<List<Map<String, Object>>>() {});
+            ResponseEntity<String> response = upstreamMetrics.record("fetch-maintenance", () -> restTemplate.exchange(url, HttpMethod.GET, entity, String.class));
+            List<Maintenance> maintenanceList = jsonCodecs.readMaintenance(response.getBody());
             return maintenanceList.isEmpty() ? null : maintenanceList.get(0);
         } catch (HttpClientErrorException.NotFound e) {
             return null;
         }
     }
 
-    // Generate unique maintenance number
-    private String generateUniqueMaintenanceNumber() throws IOException {
-        String candidate;
-        int attempts = 0;
-        do {
-            int randomNumber = (int) (Math.random() * 1_000_000); // 0 .. 999999
-            candidate = String.format("M-%06d", randomNumber);
-            attempts++;
-            if (attempts > 10000) {
-                throw new RuntimeException("Unable to generate a unique maintenance number after " + attempts + " attempts");
-            }
-        } while (existsMaintenanceNumber(candidate));
-
-        return candidate;
-    }
-
-    // Check if maintenance number exists
-    private boolean existsMaintenanceNumber(String maintenanceNumber) throws IOException {
-        String url = supabaseUrl + "/rest/v1/maintenance?maintenanceNumber=eq." + maintenanceNumber + "&select=maintenanceNumber&limit=1";
-        HttpHeaders headers = getHeaders();
-        HttpEntity<String> entity = new HttpEntity<>(headers);
-
-        try {
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
-            List<Map<String, Object>> list = objectMapper.readValue(response.getBody(), new TypeReference<List<Map<String, Object>>>() {});
-            return !list.isEmpty();
-        } catch (HttpClientErrorException.NotFound e) {
-            return false;
-        }
-    }
-
     private HttpHeaders getHeaders() {
         HttpHeaders headers = new HttpHeaders();
         headers.set("apikey", supabaseApiKey);
@@ -0,0 +1,99 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.tracing.Spans;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Hands out T-/I-/M-XXXXXX numbers from blocks reserved through the reserve_number_block RPC
+ * (see db/001_number_blocks.sql). A block is kept in memory per kind, so a create only pays a
+ * round trip once every block; the shared DB sequence keeps blocks unique across instances.
+ */
+@Component
+public class NumberAllocator {
+
+    public enum Kind {
+        TRANSFORMER("transformer"),
+        INSPECTION("inspection"),
+        MAINTENANCE("maintenance");
+
+        private final String rpcName;
+
+        Kind(String rpcName) {
+            this.rpcName = rpcName;
+        }
+    }
+
+    @Value("${supabase.url}")
+    private String supabaseUrl;
+
+    @Value("${supabase.apikey}")
+    private String supabaseApiKey;
+
+    private final RestTemplate restTemplate;
+    private final JsonCodecs jsonCodecs;
+    private final UpstreamMetrics upstreamMetrics;
+    private final Spans spans;
+
+    // Unused numbers of the current block for each kind; each deque is guarded by its own lock
+    private final Map<Kind, ArrayDeque<String>> blocks = new EnumMap<>(Kind.class);
+
+    public NumberAllocator(RestTemplate restTemplate, JsonCodecs jsonCodecs, UpstreamMetrics upstreamMetrics, Spans spans) {
+        this.restTemplate = restTemplate;
+        this.jsonCodecs = jsonCodecs;
+        this.upstreamMetrics = upstreamMetrics;
+        this.spans = spans;
+        for (Kind kind : Kind.values()) {
+            blocks.put(kind, new ArrayDeque<>());
+        }
+    }
+
+    public String next(Kind kind) throws IOException {
+        ArrayDeque<String> block = blocks.get(kind);
+        synchronized (block) {
+            // A block can come back empty when every number in it was already used by an older row
+            while (block.isEmpty()) {
+                reserveBlock(kind, block);
+            }
+            return block.poll();
+        }
+    }
+
+    private void reserveBlock(Kind kind, ArrayDeque<String> block) throws IOException {
+        spans.inSpan("reserve-" + kind.rpcName + "-number-block", () -> {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set("apikey", supabaseApiKey);
+            headers.set("Authorization", "Bearer " + supabaseApiKey);
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            HttpEntity<String> entity = new HttpEntity<>("{\"kind\":\"" + kind.rpcName + "\"}", headers);
+            String url = supabaseUrl + "/rest/v1/rpc/reserve_number_block";
+
+            ResponseEntity<String> response;
+            try {
+                response = upstreamMetrics.record("reserve-number-block", () -> restTemplate.exchange(url, HttpMethod.POST, entity, String.class));
+            } catch (RuntimeException e) {
+                // The sequence has MAXVALUE 9999, so running past 999999 surfaces as an RPC error
+                throw new RuntimeException("Unable to reserve a block of " + kind.rpcName + " numbers: " + e.getMessage(), e);
+            }
+            for (JsonNode number : jsonCodecs.readTree(response.getBody())) {
+                block.add(number.asText());
+            }
+            spans.tag("numbers", String.valueOf(block.size()));
+            return null;
+        });
+    }
+}
@@ -0,0 +1,405 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.dto.PhaseReadings;
+import com.example.transformer_app.dto.VoltageCurrentReadings;
+import com.example.transformer_app.event.MaintenanceDeleted;
+import com.example.transformer_app.event.MaintenanceSaved;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.model.Inspection;
+import com.example.transformer_app.model.Maintenance;
+import com.example.transformer_app.tracing.Spans;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.time.*;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Time series of the R/Y/B voltage and current readings per transformer, held column-wise in
+ * {@link ReadingSeries} so trend queries never parse maintenance JSON. A maintenance record
+ * contributes up to three samples: details.firstInspectionReadings at inspectionDate/inspectionTime,
+ * details.secondInspectionReadings at afterThermalDate/afterThermalTime, and electricalReadings when
+ * it has the same voltage/current shape; a sample without its own date falls back to created_at.
+ * Maintenance writes replace that record's samples; a rebuild reloads everything from the inspections
+ * and maintenance tables.
+ */
+@Service
+public class PhaseReadingsStore extends RebuildableIndex {
+
+    // Zone of the dates and times typed into the maintenance form
+    @Value("${readings.time-zone:UTC}")
+    private ZoneId timeZone;
+
+    @Value("${readings.backfill.on-startup:true}")
+    private boolean backfillOnStartup;
+
+    @Value("${readings.downsample.max-points:5000}")
+    private int maxPoints;
+
+    private record Sample(long time, long mid, double[] values) {
+    }
+
+    // Everything below is guarded by this
+    private Map<String, ReadingSeries> series = new HashMap<>();
+    private Map<Long, String> midOwners = new HashMap<>();                 // mid -> transformerNumber
+    private Map<String, String> inspectionTransformers = new HashMap<>();  // inspectionNumber -> transformerNumber
+
+    public PhaseReadingsStore(RestTemplate restTemplate, JsonCodecs jsonCodecs, UpstreamMetrics upstreamMetrics, Spans spans) {
+        super("phase readings store", restTemplate, jsonCodecs, upstreamMetrics, spans);
+    }
+
+    // ---- incremental updates; each one replaces a record's samples, so replaying it is harmless ----
+
+    // A maintenance record was created or updated: its samples replace the ones it had before
+    @EventListener
+    public void onMaintenance(MaintenanceSaved event) {
+        Maintenance maintenance = event.maintenance();
+        if (maintenance == null || maintenance.getMid() == null) {
+            return;
+        }
+        List<Sample> samples = samplesOf(maintenance);
+        String transformerNumber = null;
+        if (!samples.isEmpty() && maintenance.getInspectionNumber() != null) {
+            synchronized (this) {
+                transformerNumber = inspectionTransformers.get(maintenance.getInspectionNumber());
+            }
+            if (transformerNumber == null) {
+                transformerNumber = lookUpTransformerOfInspection(maintenance.getInspectionNumber());
+            }
+        }
+        String owner = transformerNumber;
+        long mid = maintenance.getMid();
+        apply(() -> {
+            if (owner != null) {
+                inspectionTransformers.put(maintenance.getInspectionNumber(), owner);
+            }
+            replace(mid, owner, samples);
+        });
+    }
+
+    @EventListener
+    public void onMaintenanceDeleted(MaintenanceDeleted event) {
+        Long mid = event.mid();
+        if (mid != null) {
+            apply(() -> replace(mid, null, List.of()));
+        }
+    }
+
+    private void replace(long mid, String transformerNumber, List<Sample> samples) {
+        String previous = midOwners.remove(mid);
+        if (previous != null) {
+            ReadingSeries old = series.get(previous);
+            if (old != null && old.removeMid(mid) > 0 && old.size() == 0) {
+                series.remove(previous);
+            }
+        }
+        if (transformerNumber == null || samples.isEmpty()) {
+            return;
+        }
+        ReadingSeries target = series.computeIfAbsent(transformerNumber, t -> new ReadingSeries(samples.size()));
+        for (Sample sample : samples) {
+            target.add(sample.time(), sample.mid(), sample.values());
+        }
+        midOwners.put(mid, transformerNumber);
+    }
+
+    // ---- queries ----
+
+    /**
+     * Raw samples with from <= time <= to (either bound may be null), as parallel columns: times in
+     * epoch millis, the source mids, and one array per channel with null where a phase wasn't read.
+     */
+    public synchronized Map<String, Object> range(String transformerNumber, Instant from, Instant to) {
+        ReadingSeries readings = series.get(transformerNumber);
+        int lo = readings == null ? 0 : from == null ? 0 : readings.lowerBound(from.toEpochMilli());
+        int hi = readings == null ? 0 : to == null ? readings.size() : readings.upperBound(to.toEpochMilli());
+        hi = Math.max(lo, hi);
+
+        Map<String, Object> channels = new LinkedHashMap<>();
+        for (int c = 0; c < ReadingSeries.CHANNELS.length; c++) {
+            Double[] column = new Double[hi - lo];
+            for (int i = lo; i < hi; i++) {
+                double value = readings.value(c, i);
+                column[i - lo] = Double.isNaN(value) ? null : value;
+            }
+            channels.put(ReadingSeries.CHANNELS[c], column);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("transformerNumber", transformerNumber);
+        result.put("count", hi - lo);
+        result.put("times", readings == null ? new long[0] : readings.times(lo, hi));
+        result.put("mids", readings == null ? new long[0] : readings.mids(lo, hi));
+        result.put("channels", channels);
+        return result;
+    }
+
+    /**
+     * The samples in [from, to] grouped into at most points equal-width time buckets; per non-empty
+     * bucket the start time, the sample count and per channel the mean, min and max (null when no
+     * sample in the bucket had that phase). One pass over the primitive columns.
+     */
+    public synchronized Map<String, Object> downsample(String transformerNumber, Instant from, Instant to, int points) {
+        if (points < 1 || points > maxPoints) {
+            throw new IllegalArgumentException("points must be between 1 and " + maxPoints);
+        }
+        if (from != null && to != null && to.isBefore(from)) {
+            throw new IllegalArgumentException("to must not be before from");
+        }
+        ReadingSeries readings = series.get(transformerNumber);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("transformerNumber", transformerNumber);
+        long start = 0;
+        long end = -1;
+        if (readings != null && readings.size() > 0) {
+            start = from != null ? from.toEpochMilli() : readings.time(0);
+            end = to != null ? to.toEpochMilli() : readings.time(readings.size() - 1);
+        }
+        // No samples, or an open bound defaulted to the other side of the given one (from after the last sample)
+        if (end < start) {
+            result.put("bucketMillis", 0);
+            result.put("times", new long[0]);
+            result.put("counts", new int[0]);
+            result.put("channels", Map.of());
+            return result;
+        }
+        long width = Math.max(1, (end - start) / points + 1);
+        int buckets = (int) Math.min(points, (end - start) / width + 1);
+        int lo = readings.lowerBound(start);
+        int hi = readings.upperBound(end);
+
+        int channelCount = ReadingSeries.CHANNELS.length;
+        int[] counts = new int[buckets];
+        int[][] valueCounts = new int[channelCount][buckets];
+        double[][] sums = new double[channelCount][buckets];
+        double[][] mins = new double[channelCount][buckets];
+        double[][] maxs = new double[channelCount][buckets];
+        for (int c = 0; c < channelCount; c++) {
+            Arrays.fill(mins[c], Double.POSITIVE_INFINITY);
+            Arrays.fill(maxs[c], Double.NEGATIVE_INFINITY);
+        }
+        for (int i = lo; i < hi; i++) {
+            int bucket = (int) ((readings.time(i) - start) / width);
+            counts[bucket]++;
+            for (int c = 0; c < channelCount; c++) {
+                double value = readings.value(c, i);
+                if (!Double.isNaN(value)) {
+                    valueCounts[c][bucket]++;
+                    sums[c][bucket] += value;
+                    mins[c][bucket] = Math.min(mins[c][bucket], value);
+                    maxs[c][bucket] = Math.max(maxs[c][bucket], value);
+                }
+            }
+        }
+
+        int filled = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                filled++;
+            }
+        }
+        long[] times = new long[filled];
+        int[] sampleCounts = new int[filled];
+        Double[][] means = new Double[channelCount][filled];
+        Double[][] lows = new Double[channelCount][filled];
+        Double[][] highs = new Double[channelCount][filled];
+        int out = 0;
+        for (int b = 0; b < buckets; b++) {
+            if (counts[b] == 0) {
+                continue;
+            }
+            times[out] = start + b * width;
+            sampleCounts[out] = counts[b];
+            for (int c = 0; c < channelCount; c++) {
+                if (valueCounts[c][b] > 0) {
+                    means[c][out] = sums[c][b] / valueCounts[c][b];
+                    lows[c][out] = mins[c][b];
+                    highs[c][out] = maxs[c][b];
+                }
+            }
+            out++;
+        }
+
+        Map<String, Object> channels = new LinkedHashMap<>();
+        for (int c = 0; c < channelCount; c++) {
+            Map<String, Object> columns = new LinkedHashMap<>();
+            columns.put("mean", means[c]);
+            columns.put("min", lows[c]);
+            columns.put("max", highs[c]);
+            channels.put(ReadingSeries.CHANNELS[c], columns);
+        }
+        result.put("bucketMillis", width);
+        result.put("times", times);
+        result.put("counts", sampleCounts);
+        result.put("channels", channels);
+        return result;
+    }
+
+    // ---- rebuild ----
+
+    @Override
+    Map<Table, List<String>> columns() {
+        return Map.of(
+                Table.INSPECTIONS, List.of("inspectionNumber", "transformerNumber"),
+                Table.MAINTENANCE, List.of("inspectionNumber", "electricalReadings", "details", "created_at"));
+    }
+
+    @Override
+    boolean buildOnStartup() {
+        return backfillOnStartup;
+    }
+
+    /**
+     * The inspections map records to transformers; since they may arrive after the maintenance pages,
+     * samples are kept per inspection until the end, then each transformer's are sorted once and appended.
+     */
+    @Override
+    Build newBuild(Map<Table, List<String>> read) {
+        Map<String, String> freshInspectionTransformers = new HashMap<>();
+        Map<String, List<Sample>> byInspection = new HashMap<>();
+        Map<String, ReadingSeries> fresh = new HashMap<>();
+        Map<Long, String> freshOwners = new HashMap<>();
+        return new Build() {
+            @Override
+            public void inspections(List<Inspection> page) {
+                for (Inspection inspection : page) {
+                    if (inspection.getInspectionNumber() != null && inspection.getTransformerNumber() != null) {
+                        freshInspectionTransformers.put(inspection.getInspectionNumber(), inspection.getTransformerNumber());
+                    }
+                }
+            }
+
+            @Override
+            public void maintenance(List<Maintenance> page) {
+                for (Maintenance maintenance : page) {
+                    List<Sample> samples = maintenance.getInspectionNumber() != null ? samplesOf(maintenance) : List.of();
+                    if (!samples.isEmpty()) {
+                        byInspection.computeIfAbsent(maintenance.getInspectionNumber(), n -> new ArrayList<>()).addAll(samples);
+                    }
+                }
+            }
+
+            @Override
+            public void complete() {
+                Map<String, List<Sample>> byTransformer = new HashMap<>();
+                byInspection.forEach((inspectionNumber, samples) -> {
+                    String transformerNumber = freshInspectionTransformers.get(inspectionNumber);
+                    if (transformerNumber != null) {
+                        byTransformer.computeIfAbsent(transformerNumber, t -> new ArrayList<>()).addAll(samples);
+                        samples.forEach(sample -> freshOwners.put(sample.mid(), transformerNumber));
+                    }
+                });
+                byTransformer.forEach((transformerNumber, list) -> {
+                    list.sort(Comparator.comparingLong(Sample::time));
+                    ReadingSeries readings = new ReadingSeries(list.size());
+                    list.forEach(sample -> readings.add(sample.time(), sample.mid(), sample.values()));
+                    fresh.put(transformerNumber, readings);
+                });
+            }
+
+            @Override
+            public void install() {
+                series = fresh;
+                midOwners = freshOwners;
+                inspectionTransformers = freshInspectionTransformers;
+            }
+        };
+    }
+
+    @Override
+    Map<String, Object> summary() {
+        long samples = 0;
+        for (ReadingSeries readings : series.values()) {
+            samples += readings.size();
+        }
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("maintenanceRecords", midOwners.size());
+        summary.put("samples", samples);
+        summary.put("transformers", series.size());
+        return summary;
+    }
+
+    // ---- parsing ----
+
+    private List<Sample> samplesOf(Maintenance maintenance) {
+        if (maintenance.getMid() == null) {
+            return List.of();
+        }
+        Long created = parseCreatedAt(maintenance.getCreatedAt());
+        List<Sample> samples = new ArrayList<>(3);
+        Map<String, Object> details = maintenance.getDetails();
+        if (details != null) {
+            addSample(samples, maintenance.getMid(), details.get("firstInspectionReadings"),
+                    parseTime(details.get("inspectionDate"), details.get("inspectionTime"), created));
+            addSample(samples, maintenance.getMid(), details.get("secondInspectionReadings"),
+                    parseTime(details.get("afterThermalDate"), details.get("afterThermalTime"), created));
+        }
+        addSample(samples, maintenance.getMid(), maintenance.getElectricalReadings(), created);
+        return samples;
+    }
+
+    private void addSample(List<Sample> samples, long mid, Object raw, Long time) {
+        if (raw == null || time == null) {
+            return;
+        }
+        VoltageCurrentReadings readings;
+        try {
+            readings = jsonCodecs.readReadings(raw);
+        } catch (IOException | RuntimeException e) {
+            // electricalReadings is free-form on older records; anything else isn't a phase reading
+            return;
+        }
+        if (readings == null) {
+            return;
+        }
+        double[] values = new double[ReadingSeries.CHANNELS.length];
+        copyPhases(readings.getVoltage(), values, 0);
+        copyPhases(readings.getCurrent(), values, 3);
+        for (double value : values) {
+            if (!Double.isNaN(value)) {
+                samples.add(new Sample(time, mid, values));
+                return;
+            }
+        }
+    }
+
+    private static void copyPhases(PhaseReadings phases, double[] values, int offset) {
+        values[offset] = phases != null && phases.getR() != null ? phases.getR() : Double.NaN;
+        values[offset + 1] = phases != null && phases.getY() != null ? phases.getY() : Double.NaN;
+        values[offset + 2] = phases != null && phases.getB() != null ? phases.getB() : Double.NaN;
+    }
+
+    // Form dates are yyyy-MM-dd (sometimes a full ISO timestamp) and times HH:mm[:ss]
+    private Long parseTime(Object date, Object time, Long fallback) {
+        if (!(date instanceof String day) || day.isBlank()) {
+            return fallback;
+        }
+        try {
+            LocalDate localDate = LocalDate.parse(day.length() > 10 ? day.substring(0, 10) : day);
+            LocalTime localTime = time instanceof String clock && !clock.isBlank() ? LocalTime.parse(clock) : LocalTime.MIDNIGHT;
+            return ZonedDateTime.of(localDate, localTime, timeZone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return fallback;
+        }
+    }
+
+    // timestamptz comes with an offset; a plain timestamp column is read in the form's zone
+    private Long parseCreatedAt(String createdAt) {
+        if (createdAt == null || createdAt.isBlank()) {
+            return null;
+        }
+        try {
+            return OffsetDateTime.parse(createdAt).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            try {
+                return LocalDateTime.parse(createdAt).atZone(timeZone).toInstant().toEpochMilli();
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+}
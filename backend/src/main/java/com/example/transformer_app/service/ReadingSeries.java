@@ -0,0 +1,133 @@
+package com.example.transformer_app.service;
+
+import java.util.Arrays;
+
+/**
+ * Columnar phase readings of one transformer. Sample i was taken at times[i] (epoch millis), comes
+ * from maintenance record mids[i] and has one value per channel in values[channel][i], NaN where
+ * that phase wasn't read. Samples stay sorted by time, so a range is two binary searches over a
+ * long[] and the scans run over primitive arrays. Not thread-safe; PhaseReadingsStore guards it.
+ */
+final class ReadingSeries {
+
+    static final String[] CHANNELS = {"voltageR", "voltageY", "voltageB", "currentR", "currentY", "currentB"};
+
+    private long[] times;
+    private long[] mids;
+    private final double[][] values = new double[CHANNELS.length][];
+    private int size;
+
+    ReadingSeries(int capacity) {
+        int initial = Math.max(4, capacity);
+        times = new long[initial];
+        mids = new long[initial];
+        for (int c = 0; c < CHANNELS.length; c++) {
+            values[c] = new double[initial];
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    long time(int index) {
+        return times[index];
+    }
+
+    long mid(int index) {
+        return mids[index];
+    }
+
+    double value(int channel, int index) {
+        return values[channel][index];
+    }
+
+    // Appends are the common case (readings arrive roughly in time order) and cost no shifting
+    void add(long time, long mid, double[] sample) {
+        if (size == times.length) {
+            grow();
+        }
+        int at = upperBound(time);
+        if (at < size) {
+            System.arraycopy(times, at, times, at + 1, size - at);
+            System.arraycopy(mids, at, mids, at + 1, size - at);
+            for (double[] column : values) {
+                System.arraycopy(column, at, column, at + 1, size - at);
+            }
+        }
+        times[at] = time;
+        mids[at] = mid;
+        for (int c = 0; c < CHANNELS.length; c++) {
+            values[c][at] = sample[c];
+        }
+        size++;
+    }
+
+    // Drops every sample of one maintenance record, compacting the columns in place
+    int removeMid(long mid) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (mids[i] == mid) {
+                continue;
+            }
+            if (kept != i) {
+                times[kept] = times[i];
+                mids[kept] = mids[i];
+                for (double[] column : values) {
+                    column[kept] = column[i];
+                }
+            }
+            kept++;
+        }
+        int removed = size - kept;
+        size = kept;
+        return removed;
+    }
+
+    // First index with times[i] >= time
+    int lowerBound(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // First index with times[i] > time
+    int upperBound(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] <= time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    long[] times(int from, int to) {
+        return Arrays.copyOfRange(times, from, to);
+    }
+
+    long[] mids(int from, int to) {
+        return Arrays.copyOfRange(mids, from, to);
+    }
+
+    private void grow() {
+        int capacity = times.length * 2;
+        times = Arrays.copyOf(times, capacity);
+        mids = Arrays.copyOf(mids, capacity);
+        for (int c = 0; c < CHANNELS.length; c++) {
+            values[c] = Arrays.copyOf(values[c], capacity);
+        }
+    }
+}
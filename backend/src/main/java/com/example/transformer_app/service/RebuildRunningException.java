@@ -0,0 +1,12 @@
+package com.example.transformer_app.service;
+
+/**
+ * Thrown when a rebuild is asked for while the index is already rebuilding, so callers can answer it
+ * with a conflict without also catching the failures of the rebuild itself.
+ */
+public class RebuildRunningException extends RuntimeException {
+
+    public RebuildRunningException(String message) {
+        super(message);
+    }
+}
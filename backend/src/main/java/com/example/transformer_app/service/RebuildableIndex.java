@@ -0,0 +1,361 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.model.Inspection;
+import com.example.transformer_app.model.Maintenance;
+import com.example.transformer_app.model.Transformer;
+import com.example.transformer_app.tracing.Spans;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.*;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Base of the in-memory read models built from the transformers, inspections and maintenance tables
+ * (fleet aggregates, transformer risk, phase readings, search, anomaly index). Each one listens to the
+ * write events of com.example.transformer_app.event and can be rebuilt from Supabase; at startup
+ * {@link IndexStartupBuild} builds all of them from one read of each table.
+ * <p>
+ * A subclass names the columns it reads per table and supplies a {@link Build} that turns the pages
+ * into a fresh state. Live changes go through {@link #apply}, so the ones made while a rebuild is
+ * loading are replayed on top of the state it installs; each change must be a final-state write.
+ */
+public abstract class RebuildableIndex {
+
+    static final String UNKNOWN = "unknown";
+
+    enum Table {
+        TRANSFORMERS("transformers", "id"),
+        INSPECTIONS("inspections", "iid"),
+        MAINTENANCE("maintenance", "mid");
+
+        final String path;
+        final String key;
+
+        Table(String path, String key) {
+            this.path = path;
+            this.key = key;
+        }
+    }
+
+    /**
+     * A fresh state assembled from the pages of a rebuild. Calls are serialized, but pages of different
+     * tables, and of different inspection slices, arrive in no particular order. In a shared rebuild the
+     * rows are handed to every index, so they must not be modified.
+     */
+    interface Build {
+
+        default void transformers(List<Transformer> page) {
+        }
+
+        default void inspections(List<Inspection> page) {
+        }
+
+        default void maintenance(List<Maintenance> page) {
+        }
+
+        // After the last page, outside the index lock: follow-up reads and heavy computation
+        default void complete() throws IOException {
+        }
+
+        // Under the index lock: replaces the live state
+        void install();
+    }
+
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Value("${supabase.url}")
+    String supabaseUrl;
+
+    @Value("${supabase.apikey}")
+    String supabaseApiKey;
+
+    // PostgREST caps unpaged reads at its max-rows (1000 by default), so every table is paged by its key
+    @Value("${indexes.rebuild.page-size:1000}")
+    int pageSize;
+
+    @Value("${indexes.rebuild.inspection-slices:4}")
+    int inspectionSlices;
+
+    final RestTemplate restTemplate;
+    final JsonCodecs jsonCodecs;
+    final UpstreamMetrics upstreamMetrics;
+    final Spans spans;
+
+    // Used in log lines, errors and span names
+    private final String name;
+
+    // Guarded by this
+    private String builtAt;
+    // Changes seen while a rebuild is loading; replayed on top of the rebuilt state
+    private List<Runnable> pendingDuringRebuild;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    RebuildableIndex(String name, RestTemplate restTemplate, JsonCodecs jsonCodecs, UpstreamMetrics upstreamMetrics, Spans spans) {
+        this.name = name;
+        this.restTemplate = restTemplate;
+        this.jsonCodecs = jsonCodecs;
+        this.upstreamMetrics = upstreamMetrics;
+        this.spans = spans;
+    }
+
+    // Columns read per table, key column first; tables the index doesn't read are left out
+    abstract Map<Table, List<String>> columns();
+
+    abstract boolean buildOnStartup();
+
+    // read is what the rebuild selects: columns(), plus whatever the other indexes of a shared rebuild need
+    abstract Build newBuild(Map<Table, List<String>> read);
+
+    // Counts reported after a rebuild; called under the lock
+    abstract Map<String, Object> summary();
+
+    final synchronized void apply(Runnable change) {
+        change.run();
+        if (pendingDuringRebuild != null) {
+            pendingDuringRebuild.add(change);
+        }
+    }
+
+    final synchronized String builtAt() {
+        return builtAt;
+    }
+
+    final boolean isRebuilding() {
+        return rebuilding.get();
+    }
+
+    /**
+     * Reloads the index from Supabase. Reads keep using the old state until the new one replaces it
+     * in one step.
+     *
+     * @throws RebuildRunningException if a rebuild is already running
+     */
+    public Map<String, Object> rebuild() throws IOException {
+        return rebuildTogether(List.of(this)).get(0);
+    }
+
+    /**
+     * Rebuilds all of indexes from one read of each table: the tables are paged concurrently, the
+     * inspections in inspection-slices iid ranges, with the union of the columns the indexes need,
+     * and each page is parsed once and handed to every index that reads the table.
+     *
+     * @throws RebuildRunningException if one of them is already rebuilding
+     */
+    static List<Map<String, Object>> rebuildTogether(List<? extends RebuildableIndex> indexes) throws IOException {
+        List<RebuildableIndex> claimed = new ArrayList<>();
+        try {
+            for (RebuildableIndex index : indexes) {
+                if (!index.rebuilding.compareAndSet(false, true)) {
+                    throw new RebuildRunningException("A " + index.name + " rebuild is already running");
+                }
+                claimed.add(index);
+            }
+            RebuildableIndex first = indexes.get(0);
+            String span = indexes.size() == 1 ? "rebuild-" + first.name.replace(' ', '-') : "rebuild-indexes";
+            return first.spans.inSpan(span, () -> first.load(indexes));
+        } finally {
+            claimed.forEach(index -> index.rebuilding.set(false));
+        }
+    }
+
+    private List<Map<String, Object>> load(List<? extends RebuildableIndex> indexes) throws IOException {
+        long started = System.nanoTime();
+        Map<Table, List<String>> read = new EnumMap<>(Table.class);
+        for (RebuildableIndex index : indexes) {
+            index.columns().forEach((table, columns) -> {
+                List<String> union = read.computeIfAbsent(table, t -> new ArrayList<>(List.of(t.key)));
+                columns.stream().filter(column -> !union.contains(column)).forEach(union::add);
+            });
+        }
+        Map<RebuildableIndex, Build> builds = new LinkedHashMap<>();
+        for (RebuildableIndex index : indexes) {
+            synchronized (index) {
+                index.pendingDuringRebuild = new ArrayList<>();
+            }
+            builds.put(index, index.newBuild(read));
+        }
+
+        ExecutorService pool = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "index-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<CompletableFuture<Void>> reads = new ArrayList<>();
+            for (Map.Entry<Table, List<String>> entry : read.entrySet()) {
+                Table table = entry.getKey();
+                List<Build> readers = new ArrayList<>();
+                builds.forEach((index, build) -> {
+                    if (index.columns().containsKey(table)) {
+                        readers.add(build);
+                    }
+                });
+                String select = String.join(",", entry.getValue());
+                if (table == Table.INSPECTIONS && inspectionSlices > 1) {
+                    long maxIid = maxInspectionId();
+                    int slices = (int) Math.max(1, Math.min(inspectionSlices, maxIid));
+                    long sliceSize = (maxIid + slices - 1) / slices;
+                    for (int i = 0; i < slices; i++) {
+                        long from = i * sliceSize;
+                        long to = Math.min(maxIid, from + sliceSize);
+                        reads.add(read(pool, table, select, from, to, readers));
+                    }
+                } else {
+                    reads.add(read(pool, table, select, 0, null, readers));
+                }
+            }
+            for (CompletableFuture<Void> part : reads) {
+                part.join();
+            }
+            for (Build build : builds.values()) {
+                build.complete();
+            }
+            String now = Instant.now().toString();
+            builds.forEach((index, build) -> {
+                synchronized (index) {
+                    build.install();
+                    index.pendingDuringRebuild.forEach(Runnable::run);
+                    index.builtAt = now;
+                }
+            });
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e.getCause() instanceof RuntimeException runtime ? runtime : e;
+        } finally {
+            pool.shutdownNow();
+            for (RebuildableIndex index : indexes) {
+                synchronized (index) {
+                    index.pendingDuringRebuild = null;
+                }
+            }
+        }
+
+        long millis = (System.nanoTime() - started) / 1_000_000;
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (RebuildableIndex index : indexes) {
+            Map<String, Object> result;
+            synchronized (index) {
+                result = new LinkedHashMap<>(index.summary());
+                result.put("builtAt", index.builtAt);
+            }
+            result.put("millis", millis);
+            index.log.info("Rebuilt the {}: {}", index.name, result);
+            results.add(result);
+        }
+        return results;
+    }
+
+    // Rows with from < key <= to (to null: no upper bound), paged by key and handed to every reader
+    private CompletableFuture<Void> read(ExecutorService pool, Table table, String select, long from, Long to, List<Build> readers) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                Long after = from;
+                while (after != null) {
+                    String range = to == null
+                            ? table.key + "=gt." + after
+                            : "and=(" + table.key + ".gt." + after + "," + table.key + ".lte." + to + ")";
+                    String url = supabaseUrl + "/rest/v1/" + table.path + "?select=" + select + "&" + range
+                            + "&order=" + table.key + ".asc&limit=" + pageSize;
+                    ResponseEntity<String> response = upstreamMetrics.record("list-" + table.path + "-for-indexes",
+                            () -> restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers()), String.class));
+                    after = switch (table) {
+                        case TRANSFORMERS -> deliver(jsonCodecs.readTransformers(response.getBody()), Transformer::getId, readers, Build::transformers);
+                        case INSPECTIONS -> deliver(jsonCodecs.readInspections(response.getBody()), Inspection::getIid, readers, Build::inspections);
+                        case MAINTENANCE -> deliver(jsonCodecs.readMaintenance(response.getBody()), Maintenance::getMid, readers, Build::maintenance);
+                    };
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, pool);
+    }
+
+    // The key to page on from: the last row's when the page was full, null when the range is done
+    private <T> Long deliver(List<T> page, Function<T, Long> key, List<Build> readers, BiConsumer<Build, List<T>> to) {
+        List<T> rows = Collections.unmodifiableList(page);
+        for (Build build : readers) {
+            synchronized (build) {
+                to.accept(build, rows);
+            }
+        }
+        return page.size() == pageSize ? key.apply(page.get(page.size() - 1)) : null;
+    }
+
+    private long maxInspectionId() throws IOException {
+        String url = supabaseUrl + "/rest/v1/inspections?select=iid&order=iid.desc&limit=1";
+        ResponseEntity<String> response = upstreamMetrics.record("max-inspection-id",
+                () -> restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers()), String.class));
+        List<Inspection> rows = jsonCodecs.readInspections(response.getBody());
+        return rows.isEmpty() || rows.get(0).getIid() == null ? 0 : rows.get(0).getIid();
+    }
+
+    // ---- lookups for rows written elsewhere since the last rebuild ----
+
+    // The transformer's row with the given columns, or null if it can't be read
+    Transformer lookUpTransformer(String transformerNumber, String columns) {
+        try {
+            String url = UriComponentsBuilder.fromUriString(supabaseUrl)
+                    .path("/rest/v1/transformers")
+                    .queryParam("transformerNumber", "eq." + transformerNumber)
+                    .queryParam("select", columns)
+                    .queryParam("limit", "1")
+                    .toUriString();
+            ResponseEntity<String> response = upstreamMetrics.record("fetch-transformer-for-indexes",
+                    () -> restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers()), String.class));
+            List<Transformer> rows = jsonCodecs.readTransformers(response.getBody());
+            return rows.isEmpty() ? null : rows.get(0);
+        } catch (IOException | RuntimeException e) {
+            log.debug("Could not look up transformer {} for the {}: {}", transformerNumber, name, e.getMessage());
+            return null;
+        }
+    }
+
+    // The transformerNumber of an inspection, or null if it can't be read
+    String lookUpTransformerOfInspection(String inspectionNumber) {
+        try {
+            String url = UriComponentsBuilder.fromUriString(supabaseUrl)
+                    .path("/rest/v1/inspections")
+                    .queryParam("inspectionNumber", "eq." + inspectionNumber)
+                    .queryParam("select", "transformerNumber")
+                    .queryParam("limit", "1")
+                    .toUriString();
+            ResponseEntity<String> response = upstreamMetrics.record("fetch-inspection-transformer",
+                    () -> restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers()), String.class));
+            List<Inspection> rows = jsonCodecs.readInspections(response.getBody());
+            return rows.isEmpty() ? null : rows.get(0).getTransformerNumber();
+        } catch (IOException | RuntimeException e) {
+            log.debug("Could not look up inspection {} for the {}: {}", inspectionNumber, name, e.getMessage());
+            return null;
+        }
+    }
+
+    static String orUnknown(String value) {
+        return value == null || value.isBlank() ? UNKNOWN : value;
+    }
+
+    HttpHeaders headers() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("apikey", supabaseApiKey);
+        headers.set("Authorization", "Bearer " + supabaseApiKey);
+        return headers;
+    }
+}
@@ -0,0 +1,402 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.dto.AnomalyLogEntry;
+import com.example.transformer_app.dto.Detection;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.model.Inspection;
+import com.example.transformer_app.tracing.Spans;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.*;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams the human-corrected part of the inspection history as a YOLO dataset (zip of
+ * labels/*.txt plus data.yaml), so the trainer no longer scrapes every inspection itself.
+ * An inspection is exported when its anomaliesLog has a correction newer than the watermark:
+ * any User entry, or an edit/delete of an AI box. Its labels are the current anomalies, i.e. the
+ * boxes as the user left them. Inspections are read one keyset page at a time and each page is
+ * written to the zip before the next is fetched.
+ *
+ * The watermark handed out is the export's start time minus watermark-skew, since a correction
+ * can be committed after its timestamp was taken on another instance. It is only stored when the
+ * trainer acknowledges the export, so a zip that never made it into a training run is sent again.
+ */
+@Service
+public class RetrainDatasetService {
+
+    private static final Logger log = LoggerFactory.getLogger(RetrainDatasetService.class);
+
+    // Same order as the trainer's class map (batch-trainer/utils/download_corrections.py)
+    public static final List<String> CLASS_NAMES = List.of(
+            "Full wire overload", "Loose Joint - Faulty", "Loose Joint - Potential", "Point Overload - Faulty", "normal");
+
+    // The model writes "Normal" and the frontend "Loose Joint -Faulty", so names are matched
+    // ignoring case and whitespace
+    private static final Map<String, Integer> CLASS_INDEX = new HashMap<>();
+    static {
+        for (int i = 0; i < CLASS_NAMES.size(); i++) {
+            CLASS_INDEX.put(classKey(CLASS_NAMES.get(i)), i);
+        }
+    }
+
+    // Enough of the file for the JPEG/PNG headers that carry the dimensions
+    private static final String HEADER_RANGE = "bytes=0-65535";
+    private static final int MAX_CACHED_SIZES = 4096;
+
+    @Value("${supabase.url}")
+    private String supabaseUrl;
+
+    @Value("${supabase.apikey}")
+    private String supabaseApiKey;
+
+    @Value("${retrain.dataset.page-size:100}")
+    private int pageSize;
+
+    @Value("${retrain.dataset.watermark-file:exports/retrain-watermark.txt}")
+    private String watermarkFile;
+
+    @Value("${retrain.dataset.watermark-skew:PT5M}")
+    private Duration watermarkSkew;
+
+    private final RestTemplate restTemplate;
+    private final JsonCodecs jsonCodecs;
+    private final UpstreamMetrics upstreamMetrics;
+    private final Spans spans;
+
+    // Image URLs are unique per upload, so a size never goes stale
+    private final Map<String, int[]> imageSizes = Collections.synchronizedMap(
+            new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+                    return size() > MAX_CACHED_SIZES;
+                }
+            });
+
+    public RetrainDatasetService(RestTemplate restTemplate, JsonCodecs jsonCodecs, UpstreamMetrics upstreamMetrics, Spans spans) {
+        this.restTemplate = restTemplate;
+        this.jsonCodecs = jsonCodecs;
+        this.upstreamMetrics = upstreamMetrics;
+        this.spans = spans;
+    }
+
+    /**
+     * Parses a since parameter: null/blank for a full export, "last" for the watermark of the
+     * last completed export, otherwise an ISO-8601 instant.
+     *
+     * @throws IllegalArgumentException if the value is not an instant
+     */
+    public Instant resolveSince(String since) throws IOException {
+        if (since == null || since.isBlank()) {
+            return null;
+        }
+        if ("last".equalsIgnoreCase(since)) {
+            return lastWatermark();
+        }
+        try {
+            return Instant.parse(since);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("since must be an ISO-8601 instant or last: " + since);
+        }
+    }
+
+    // Watermark of the last acknowledged export, or null if there was none
+    public synchronized Instant lastWatermark() throws IOException {
+        Path path = Paths.get(watermarkFile);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        String value = Files.readString(path, StandardCharsets.UTF_8).trim();
+        return value.isEmpty() ? null : Instant.parse(value);
+    }
+
+    /**
+     * Stores the watermark of an export the trainer has used, so since=last continues from it.
+     * The stored watermark only moves forward.
+     *
+     * @return the stored watermark
+     */
+    public synchronized Instant acknowledge(Instant watermark) throws IOException {
+        Instant current = lastWatermark();
+        if (current != null && !watermark.isAfter(current)) {
+            return current;
+        }
+        saveWatermark(watermark);
+        log.info("Retrain dataset watermark moved to {}", watermark);
+        return watermark;
+    }
+
+    /**
+     * Writes the zip to out. manifest.json is the last entry and carries the watermark to
+     * acknowledge once the dataset is used; a zip without it was cut off.
+     */
+    public void export(Instant since, OutputStream out) throws IOException {
+        spans.inSpan("export-retrain-dataset", () -> {
+            Instant watermark = Instant.now().minus(watermarkSkew);
+            if (since != null && since.isAfter(watermark)) {
+                watermark = since;
+            }
+            ExportState state = new ExportState(since);
+            ZipOutputStream zip = new ZipOutputStream(out);
+            putText(zip, "data.yaml", dataYaml());
+            // One row per exported image: the trainer downloads url and saves it as file
+            StringBuilder images = new StringBuilder("file,url,width,height,iid\n");
+
+            Long afterIid = null;
+            List<Inspection> page;
+            do {
+                page = fetchPage(afterIid);
+                for (Inspection inspection : page) {
+                    afterIid = inspection.getIid();
+                    writeInspection(zip, inspection, state, images);
+                }
+                zip.flush();
+            } while (page.size() == pageSize);
+
+            putText(zip, "images.csv", images.toString());
+            Map<String, Object> manifest = new LinkedHashMap<>();
+            manifest.put("format", "yolo");
+            manifest.put("since", since != null ? since.toString() : null);
+            manifest.put("watermark", watermark.toString());
+            manifest.put("inspectionsScanned", state.scanned);
+            manifest.put("images", state.images);
+            manifest.put("labels", state.labels);
+            manifest.put("skippedImages", state.skippedImages);
+            manifest.put("skippedLabels", state.skippedLabels);
+            putText(zip, "manifest.json", jsonCodecs.write(manifest));
+            zip.finish();
+            out.flush();
+
+            spans.tag("images", String.valueOf(state.images));
+            log.info("Retrain dataset exported since {}: {} images, {} labels, {} images skipped, watermark {}",
+                    since, state.images, state.labels, state.skippedImages, watermark);
+            return null;
+        });
+    }
+
+    private static final class ExportState {
+        final Instant since;
+        int scanned;
+        int images;
+        int labels;
+        int skippedImages;
+        int skippedLabels;
+
+        ExportState(Instant since) {
+            this.since = since;
+        }
+    }
+
+    private void writeInspection(ZipOutputStream zip, Inspection inspection, ExportState state, StringBuilder images) throws IOException {
+        state.scanned++;
+        Instant corrected = lastCorrection(inspection.getAnomaliesLog());
+        if (corrected == null || (state.since != null && !corrected.isAfter(state.since))) {
+            return;
+        }
+        String imageUrl = inspection.getRefImage();
+        int[] size = imageUrl == null || imageUrl.isBlank() ? null : imageSize(imageUrl);
+        if (size == null) {
+            state.skippedImages++;
+            return;
+        }
+
+        StringBuilder labels = new StringBuilder();
+        List<Detection> anomalies = inspection.getAnomalies() != null ? inspection.getAnomalies() : List.of();
+        for (Detection anomaly : anomalies) {
+            String line = yoloLine(anomaly, size[0], size[1]);
+            if (line == null) {
+                state.skippedLabels++;
+                continue;
+            }
+            labels.append(line).append('\n');
+            state.labels++;
+        }
+
+        String file = inspection.getIid() + "_" + fileName(imageUrl);
+        int dot = file.lastIndexOf('.');
+        String stem = dot > 0 ? file.substring(0, dot) : file;
+        // An empty label file is still a sample: every AI box on the image was rejected
+        putText(zip, "labels/" + stem + ".txt", labels.toString());
+        images.append(file).append(',').append(imageUrl).append(',')
+                .append(size[0]).append(',').append(size[1]).append(',').append(inspection.getIid()).append('\n');
+        state.images++;
+    }
+
+    /**
+     * Whether a log entry records a human correction: a User entry, or an edit/delete of an AI box.
+     * Compaction folds the head into checkpoint entries, which keep madeBy, and a segment entry that
+     * is marked User when the archived part held corrections; both carry the time of the cut, which
+     * is no earlier than the corrections they stand for.
+     */
+    static boolean isCorrection(AnomalyLogEntry entry) {
+        return "User".equals(entry.getMadeBy()) || "edit".equals(entry.getAction()) || "delete".equals(entry.getAction());
+    }
+
+    // Latest human correction in the log; AI adds are not corrections
+    static Instant lastCorrection(List<AnomalyLogEntry> anomaliesLog) {
+        if (anomaliesLog == null) {
+            return null;
+        }
+        Instant latest = null;
+        for (AnomalyLogEntry entry : anomaliesLog) {
+            if (entry.getTimestamp() == null || !isCorrection(entry)) {
+                continue;
+            }
+            try {
+                Instant at = Instant.parse(entry.getTimestamp());
+                if (latest == null || at.isAfter(latest)) {
+                    latest = at;
+                }
+            } catch (DateTimeParseException e) {
+                log.debug("Skipping log entry {} with unparseable timestamp {}", entry.getId(), entry.getTimestamp());
+            }
+        }
+        return latest;
+    }
+
+    // Boxes are stored as pixel [x_center, y_center, width, height]; YOLO wants them normalized
+    static String yoloLine(Detection anomaly, int width, int height) {
+        Integer classIndex = anomaly.getClassName() != null ? CLASS_INDEX.get(classKey(anomaly.getClassName())) : null;
+        List<Double> box = anomaly.getBox();
+        if (classIndex == null || box == null || box.size() != 4 || box.stream().anyMatch(Objects::isNull)) {
+            return null;
+        }
+        return String.format(Locale.ROOT, "%d %.6f %.6f %.6f %.6f", classIndex,
+                clamp(box.get(0) / width), clamp(box.get(1) / height),
+                clamp(box.get(2) / width), clamp(box.get(3) / height));
+    }
+
+    private static String classKey(String className) {
+        return className.replaceAll("\\s+", "").toLowerCase(Locale.ROOT);
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0.0, Math.min(1.0, value));
+    }
+
+    private List<Inspection> fetchPage(Long afterIid) throws IOException {
+        UriComponentsBuilder builder = UriComponentsBuilder.fromUriString(supabaseUrl)
+                .path("/rest/v1/inspections")
+                .queryParam("select", "iid,refImage,anomalies,anomaliesLog")
+                .queryParam("order", "iid.asc")
+                .queryParam("limit", pageSize);
+        if (afterIid != null) {
+            builder.queryParam("iid", "gt." + afterIid);
+        }
+        String url = builder.toUriString();
+        HttpEntity<String> entity = new HttpEntity<>(getHeaders());
+
+        ResponseEntity<String> response = upstreamMetrics.record("list-inspections-for-dataset",
+                () -> restTemplate.exchange(url, HttpMethod.GET, entity, String.class));
+        return jsonCodecs.readInspections(response.getBody());
+    }
+
+    // Reads width and height from the image header; only the first 64 KB is requested
+    private int[] imageSize(String imageUrl) {
+        int[] cached = imageSizes.get(imageUrl);
+        if (cached != null) {
+            return cached;
+        }
+        int[] size;
+        try {
+            size = upstreamMetrics.record("probe-image-size", () -> ResponseEntity.ok(restTemplate.execute(imageUrl, HttpMethod.GET,
+                    request -> request.getHeaders().set(HttpHeaders.RANGE, HEADER_RANGE),
+                    response -> readSize(response.getBody())))).getBody();
+            if (size == null) {
+                // The header did not fit in the range (e.g. a large EXIF block), read the whole file
+                size = upstreamMetrics.record("probe-image-size", () -> ResponseEntity.ok(restTemplate.execute(imageUrl, HttpMethod.GET,
+                        null, response -> readSize(response.getBody())))).getBody();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not read the size of {}: {}", imageUrl, e.getMessage());
+            return null;
+        }
+        if (size != null) {
+            imageSizes.put(imageUrl, size);
+        }
+        return size;
+    }
+
+    private static int[] readSize(InputStream body) {
+        try (ImageInputStream in = ImageIO.createImageInputStream(body)) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return new int[]{reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void saveWatermark(Instant watermark) throws IOException {
+        Path path = Paths.get(watermarkFile);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(tmp, watermark.toString(), StandardCharsets.UTF_8);
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String dataYaml() {
+        StringBuilder yaml = new StringBuilder("nc: ").append(CLASS_NAMES.size()).append("\nnames:\n");
+        for (int i = 0; i < CLASS_NAMES.size(); i++) {
+            yaml.append("  ").append(i).append(": '").append(CLASS_NAMES.get(i)).append("'\n");
+        }
+        return yaml.toString();
+    }
+
+    private static String fileName(String url) {
+        String path = url;
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        return path.substring(path.lastIndexOf('/') + 1).replaceAll("[^a-zA-Z0-9.\\-_]", "_");
+    }
+
+    private static void putText(ZipOutputStream zip, String name, String text) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(text.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    private HttpHeaders getHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("apikey", supabaseApiKey);
+        headers.set("Authorization", "Bearer " + supabaseApiKey);
+        return headers;
+    }
+}
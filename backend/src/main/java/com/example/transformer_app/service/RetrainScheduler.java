@@ -0,0 +1,211 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.dto.RetrainJob;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.tracing.Spans;
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.*;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-flight retraining. The first trigger creates a pending job that starts after the
+ * coalescing window; every trigger that arrives while that job is pending joins it instead of
+ * starting another training run. A trigger that arrives while a job is already running creates one
+ * follow-up job, since the running one may have read its data before the change that triggered;
+ * later triggers join that follow-up. Jobs run one at a time on a single worker thread and the
+ * trigger call is bounded by retrain.timeout. The last history-size jobs are kept for
+ * GET /api/retrain/{jobId} and /api/retrain/latest.
+ */
+@Service
+public class RetrainScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(RetrainScheduler.class);
+
+    @Value("${retrain.url:https://8k5a01sha6.execute-api.ap-southeast-1.amazonaws.com/prod/trigger-training}")
+    private String retrainUrl;
+
+    @Value("${retrain.coalesce-window:PT30S}")
+    private Duration coalesceWindow;
+
+    @Value("${retrain.history-size:50}")
+    private int historySize;
+
+    private final RestTemplate retrainRestTemplate;
+    private final JsonCodecs jsonCodecs;
+    private final UpstreamMetrics upstreamMetrics;
+    private final Spans spans;
+
+    // Only ever holds the one pending job, so the queue cannot grow
+    private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "retrain-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by this: the job waiting for its window, the one calling the training endpoint, and
+    // finished jobs newest first
+    private RetrainJob pending;
+    private RetrainJob running;
+    private final Deque<RetrainJob> history = new ArrayDeque<>();
+
+    // Called whenever a new job is created (not when a trigger is coalesced into one), outside the
+    // scheduler's lock
+    private final List<Runnable> newJobListeners = new CopyOnWriteArrayList<>();
+
+    public RetrainScheduler(RestTemplateBuilder restTemplateBuilder, JsonCodecs jsonCodecs, UpstreamMetrics upstreamMetrics,
+                            Spans spans, @Value("${retrain.timeout:PT60S}") Duration timeout) {
+        // Own client so a hung training endpoint cannot hold the worker forever
+        this.retrainRestTemplate = restTemplateBuilder
+                .connectTimeout(timeout)
+                .readTimeout(timeout)
+                .additionalInterceptors(upstreamMetrics)
+                .build();
+        this.jsonCodecs = jsonCodecs;
+        this.upstreamMetrics = upstreamMetrics;
+        this.spans = spans;
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Requests a retraining run. Returns the job the trigger ended up in: a new pending job, or
+     * the pending one it was coalesced into (triggers > 1).
+     */
+    public RetrainJob trigger(String source) {
+        RetrainJob created;
+        synchronized (this) {
+            if (pending != null) {
+                pending.setTriggers(pending.getTriggers() + 1);
+                log.info("Retrain trigger from {} coalesced into job {}", source, pending.getId());
+                return new RetrainJob(pending);
+            }
+            RetrainJob job = new RetrainJob();
+            job.setId(UUID.randomUUID().toString());
+            job.setStatus(RetrainJob.PENDING);
+            job.setSource(source);
+            job.setTriggers(1);
+            job.setRequestedAt(Instant.now().toString());
+            pending = job;
+            // With a job running, the single worker starts this one once it is done
+            executor.schedule(() -> run(job), coalesceWindow.toMillis(), TimeUnit.MILLISECONDS);
+            if (running != null) {
+                log.info("Retrain job {} scheduled by {} to follow running job {}", job.getId(), source, running.getId());
+            } else {
+                log.info("Retrain job {} scheduled by {} to start in {}", job.getId(), source, coalesceWindow);
+            }
+            created = new RetrainJob(job);
+        }
+        newJobListeners.forEach(Runnable::run);
+        return created;
+    }
+
+    public void onNewJob(Runnable listener) {
+        newJobListeners.add(listener);
+    }
+
+    public synchronized RetrainJob job(String jobId) {
+        for (RetrainJob job : new RetrainJob[]{pending, running}) {
+            if (job != null && job.getId().equals(jobId)) {
+                return new RetrainJob(job);
+            }
+        }
+        for (RetrainJob job : history) {
+            if (job.getId().equals(jobId)) {
+                return new RetrainJob(job);
+            }
+        }
+        throw new RuntimeException("Retrain job " + jobId + " not found");
+    }
+
+    public synchronized boolean isActive(String jobId) {
+        return (pending != null && pending.getId().equals(jobId)) || (running != null && running.getId().equals(jobId));
+    }
+
+    // The pending job if there is one, then the running one, otherwise the most recently finished;
+    // null before the first trigger
+    public synchronized RetrainJob latest() {
+        RetrainJob job = pending != null ? pending : running != null ? running : history.peekFirst();
+        return job != null ? new RetrainJob(job) : null;
+    }
+
+    private void run(RetrainJob job) {
+        synchronized (this) {
+            job.setStatus(RetrainJob.RUNNING);
+            job.setStartedAt(Instant.now().toString());
+            pending = null;
+            running = job;
+        }
+        Integer upstreamStatus = null;
+        String upstreamJobId = null;
+        String error = null;
+        try {
+            ResponseEntity<String> response = spans.inSpan("retrain-job", () -> {
+                spans.tag("retrain.job", job.getId());
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.APPLICATION_JSON);
+                HttpEntity<String> request = new HttpEntity<>("{\"jobId\":\"" + job.getId() + "\"}", headers);
+                return upstreamMetrics.record("retrain-trigger", () -> retrainRestTemplate.postForEntity(retrainUrl, request, String.class));
+            });
+            upstreamStatus = response.getStatusCode().value();
+            upstreamJobId = upstreamJobId(response.getBody());
+        } catch (HttpStatusCodeException e) {
+            upstreamStatus = e.getStatusCode().value();
+            error = e.getResponseBodyAsString();
+        } catch (Exception e) {
+            error = e.getMessage();
+        }
+
+        synchronized (this) {
+            job.setFinishedAt(Instant.now().toString());
+            job.setUpstreamStatus(upstreamStatus);
+            job.setUpstreamJobId(upstreamJobId);
+            job.setError(error);
+            job.setStatus(error == null ? RetrainJob.SUCCEEDED : RetrainJob.FAILED);
+            running = null;
+            history.addFirst(job);
+            while (history.size() > historySize) {
+                history.removeLast();
+            }
+        }
+        if (error == null) {
+            log.info("Retrain job {} started training job {} ({} triggers)", job.getId(), upstreamJobId, job.getTriggers());
+        } else {
+            log.error("Retrain job {} failed (status {}): {}", job.getId(), upstreamStatus, error);
+        }
+    }
+
+    // The training endpoint answers {"message": ..., "jobId": ...}; jobId is null when activation is off
+    private String upstreamJobId(String body) {
+        if (body == null || body.isBlank()) {
+            return null;
+        }
+        try {
+            JsonNode jobId = jsonCodecs.readTree(body).path("jobId");
+            return jobId.isTextual() ? jobId.asText() : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,367 @@
+package com.example.transformer_app.service;
+
+import java.util.*;
+
+/**
+ * Inverted index over the searchable text of transformers, inspections and maintenance records.
+ * Terms live in one sorted map, so an exact lookup is a get and a prefix lookup is a subMap scan.
+ * A term's postings are two parallel int arrays (document slot, bitmask of the fields it occurs in),
+ * and queries score and count facets in arrays indexed by slot, so a broad prefix matching tens of
+ * thousands of documents allocates no per-document objects. Code-like fields (pole and record
+ * numbers) are also indexed with separators stripped, so "EN-12" finds "EN-122-A".
+ * Not thread-safe; SearchService guards it.
+ */
+final class SearchIndex {
+
+    // Field -> ranking weight; the iteration order gives each field its bit in the posting masks
+    static final Map<String, Double> FIELD_WEIGHTS;
+
+    static {
+        Map<String, Double> weights = new LinkedHashMap<>();
+        weights.put("transformerNumber", 5.0);
+        weights.put("inspectionNumber", 5.0);
+        weights.put("maintenanceNumber", 5.0);
+        weights.put("poleNumber", 4.0);
+        weights.put("region", 2.0);
+        weights.put("type", 2.0);
+        weights.put("locationDetails", 2.0);
+        weights.put("inspector", 2.0);
+        weights.put("inspectorName", 2.0);
+        weights.put("recommendedActions", 1.0);
+        weights.put("additionalRemarks", 1.0);
+        FIELD_WEIGHTS = Collections.unmodifiableMap(weights);
+    }
+
+    static final String[] FACETS = {"kind", "region", "type", "status"};
+
+    private static final Set<String> CODE_FIELDS = Set.of("transformerNumber", "inspectionNumber", "maintenanceNumber", "poleNumber");
+    private static final String[] FIELD_NAMES = FIELD_WEIGHTS.keySet().toArray(new String[0]);
+    // A term matching several fields of a document counts with its best field
+    private static final double[] MASK_WEIGHTS = new double[1 << FIELD_NAMES.length];
+
+    static {
+        double[] weights = FIELD_WEIGHTS.values().stream().mapToDouble(Double::doubleValue).toArray();
+        for (int mask = 1; mask < MASK_WEIGHTS.length; mask++) {
+            for (int f = 0; f < weights.length; f++) {
+                if ((mask & (1 << f)) != 0) {
+                    MASK_WEIGHTS[mask] = Math.max(MASK_WEIGHTS[mask], weights[f]);
+                }
+            }
+        }
+    }
+
+    record Document(String kind, String key, String title, String subtitle, String region, String type, String status,
+                    Map<String, String> fields) {
+    }
+
+    record Hit(Document document, double score) {
+    }
+
+    record Result(List<Hit> hits, int total, Map<String, Map<String, Integer>> facets) {
+    }
+
+    private static final class Postings {
+        int[] documents = new int[2];
+        int[] masks = new int[2];
+        int size;
+
+        void add(int document, int mask) {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+                masks = Arrays.copyOf(masks, size * 2);
+            }
+            documents[size] = document;
+            masks[size] = mask;
+            size++;
+        }
+
+        // Order doesn't matter, so the last posting fills the gap
+        void remove(int document) {
+            for (int i = 0; i < size; i++) {
+                if (documents[i] == document) {
+                    size--;
+                    documents[i] = documents[size];
+                    masks[i] = masks[size];
+                    return;
+                }
+            }
+        }
+    }
+
+    // A removed document's slot goes on the free list and the next put takes it, so updates don't grow
+    // the slot arrays
+    private final List<Document> documents = new ArrayList<>();
+    private final List<String[]> documentTerms = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final TreeMap<String, Postings> postings = new TreeMap<>();
+    private int live;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+
+    // Facet values as small ints per slot; ordinal 0 means no value
+    private int[][] facetOrdinals = new int[FACETS.length][16];
+    private final List<Map<String, Integer>> facetIds = new ArrayList<>();
+    private final List<List<String>> facetValues = new ArrayList<>();
+
+    // Per-slot query scratch, reused across searches and reset only where a query wrote
+    private double[] scores = new double[0];
+    private double[] best = new double[0];
+    private int[] matchedTokens = new int[0];
+
+    SearchIndex() {
+        for (int f = 0; f < FACETS.length; f++) {
+            facetIds.add(new HashMap<>());
+            List<String> values = new ArrayList<>();
+            values.add(null);
+            facetValues.add(values);
+        }
+    }
+
+    int size() {
+        return live;
+    }
+
+    int terms() {
+        return postings.size();
+    }
+
+    // Live and free slots; what the per-slot arrays are sized for
+    int slots() {
+        return documents.size();
+    }
+
+    void put(Document document) {
+        remove(document.kind(), document.key());
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : documents.size();
+        Map<String, Integer> masks = new HashMap<>();
+        for (int f = 0; f < FIELD_NAMES.length; f++) {
+            String text = document.fields().get(FIELD_NAMES[f]);
+            if (text == null || text.isBlank()) {
+                continue;
+            }
+            int bit = 1 << f;
+            for (String token : tokenize(text)) {
+                masks.merge(token, bit, (a, b) -> a | b);
+            }
+            if (CODE_FIELDS.contains(FIELD_NAMES[f])) {
+                String compact = String.join("", tokenize(text));
+                if (!compact.isEmpty()) {
+                    masks.merge(compact, bit, (a, b) -> a | b);
+                }
+            }
+        }
+        masks.forEach((term, mask) -> postings.computeIfAbsent(term, t -> new Postings()).add(slot, mask));
+        if (slot == documents.size()) {
+            documents.add(document);
+            documentTerms.add(masks.keySet().toArray(new String[0]));
+        } else {
+            documents.set(slot, document);
+            documentTerms.set(slot, masks.keySet().toArray(new String[0]));
+        }
+        ids.put(document.kind() + ":" + document.key(), slot);
+        if (slot == facetOrdinals[0].length) {
+            for (int f = 0; f < FACETS.length; f++) {
+                facetOrdinals[f] = Arrays.copyOf(facetOrdinals[f], slot * 2);
+            }
+        }
+        String[] facets = {document.kind(), document.region(), document.type(), document.status()};
+        for (int f = 0; f < FACETS.length; f++) {
+            facetOrdinals[f][slot] = ordinalFor(f, facets[f]);
+        }
+        live++;
+    }
+
+    boolean remove(String kind, String key) {
+        Integer slot = ids.remove(kind + ":" + key);
+        if (slot == null) {
+            return false;
+        }
+        for (String term : documentTerms.get(slot)) {
+            Postings posting = postings.get(term);
+            if (posting != null) {
+                posting.remove(slot);
+                if (posting.size == 0) {
+                    postings.remove(term);
+                }
+            }
+        }
+        documents.set(slot, null);
+        documentTerms.set(slot, null);
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+        live--;
+        return true;
+    }
+
+    private int ordinalFor(int facet, String value) {
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        return facetIds.get(facet).computeIfAbsent(value, v -> {
+            facetValues.get(facet).add(v);
+            return facetValues.get(facet).size() - 1;
+        });
+    }
+
+    /**
+     * Documents matching every token, each token as a word prefix, ranked by the weight of the best
+     * field each token matched in (exact words score full, completions less the longer they run on).
+     * At most maxPrefixTerms index terms are expanded per token. kind/region/type, when given, must
+     * equal the document's; facets count all matches that pass them, not just the returned page.
+     */
+    Result search(List<String> tokens, String kind, String region, String type, int limit, int maxPrefixTerms) {
+        String[] filterValues = {kind, region, type};
+        int[] filters = new int[filterValues.length];
+        for (int f = 0; f < filterValues.length; f++) {
+            if (filterValues[f] == null || filterValues[f].isBlank()) {
+                filters[f] = -1;
+            } else {
+                Integer ordinal = facetIds.get(f).get(filterValues[f]);
+                if (ordinal == null) {
+                    return new Result(List.of(), 0, countsToFacets(new int[FACETS.length][0]));
+                }
+                filters[f] = ordinal;
+            }
+        }
+
+        int slots = documents.size();
+        if (scores.length < slots) {
+            scores = new double[slots + slots / 4];
+            best = new double[scores.length];
+            matchedTokens = new int[scores.length];
+        }
+        int[] firstTouched = null;
+        int firstTouchedCount = 0;
+        int[] touched = new int[0];
+        int touchedCount = 0;
+        for (int t = 0; t < tokens.size(); t++) {
+            String token = tokens.get(t);
+            touched = new int[Math.min(slots, 64)];
+            touchedCount = 0;
+            int expanded = 0;
+            for (Map.Entry<String, Postings> entry : postings.subMap(token, true, token + Character.MAX_VALUE, false).entrySet()) {
+                if (expanded++ == maxPrefixTerms) {
+                    break;
+                }
+                double factor = entry.getKey().length() == token.length()
+                        ? 1.0
+                        : 0.5 + 0.5 * token.length() / entry.getKey().length();
+                Postings posting = entry.getValue();
+                for (int i = 0; i < posting.size; i++) {
+                    int slot = posting.documents[i];
+                    if (matchedTokens[slot] != t) {
+                        continue;
+                    }
+                    double score = MASK_WEIGHTS[posting.masks[i]] * factor;
+                    if (best[slot] == 0) {
+                        if (touchedCount == touched.length) {
+                            touched = Arrays.copyOf(touched, Math.min(slots, touchedCount * 2));
+                        }
+                        touched[touchedCount++] = slot;
+                    }
+                    if (score > best[slot]) {
+                        best[slot] = score;
+                    }
+                }
+            }
+            for (int i = 0; i < touchedCount; i++) {
+                int slot = touched[i];
+                scores[slot] += best[slot];
+                best[slot] = 0;
+                matchedTokens[slot] = t + 1;
+            }
+            if (t == 0) {
+                // Every slot a later token can touch was touched by the first one
+                firstTouched = touched;
+                firstTouchedCount = touchedCount;
+            }
+            if (touchedCount == 0) {
+                break;
+            }
+        }
+
+        int[][] counts = new int[FACETS.length][];
+        for (int f = 0; f < FACETS.length; f++) {
+            counts[f] = new int[facetValues.get(f).size()];
+        }
+        // Min-heap of slots: lowest score on top, and among equal scores the later title
+        double[] scores = this.scores;
+        PriorityQueue<Integer> top = new PriorityQueue<>(Math.max(1, limit + 1), (a, b) -> {
+            int byScore = Double.compare(scores[a], scores[b]);
+            return byScore != 0 ? byScore : documents.get(b).title().compareTo(documents.get(a).title());
+        });
+        int total = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            int slot = touched[i];
+            if (documents.get(slot) == null || !passes(slot, filters)) {
+                continue;
+            }
+            total++;
+            for (int f = 0; f < FACETS.length; f++) {
+                counts[f][facetOrdinals[f][slot]]++;
+            }
+            if (top.size() < limit) {
+                top.add(slot);
+            } else if (top.comparator().compare(slot, top.peek()) > 0) {
+                top.poll();
+                top.add(slot);
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            int slot = top.poll();
+            hits.add(new Hit(documents.get(slot), scores[slot]));
+        }
+        Collections.reverse(hits);
+        for (int i = 0; i < firstTouchedCount; i++) {
+            scores[firstTouched[i]] = 0;
+            matchedTokens[firstTouched[i]] = 0;
+        }
+        return new Result(hits, total, countsToFacets(counts));
+    }
+
+    private boolean passes(int slot, int[] filters) {
+        for (int f = 0; f < filters.length; f++) {
+            if (filters[f] >= 0 && facetOrdinals[f][slot] != filters[f]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Map<String, Map<String, Integer>> countsToFacets(int[][] counts) {
+        Map<String, Map<String, Integer>> facets = new LinkedHashMap<>();
+        for (int f = 0; f < FACETS.length; f++) {
+            Map<String, Integer> facet = new TreeMap<>();
+            for (int ordinal = 1; ordinal < counts[f].length; ordinal++) {
+                if (counts[f][ordinal] > 0) {
+                    facet.put(facetValues.get(f).get(ordinal), counts[f][ordinal]);
+                }
+            }
+            facets.put(FACETS[f], facet);
+        }
+        return facets;
+    }
+
+    // Lower-cased runs of letters and digits
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (!token.isEmpty()) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (!token.isEmpty()) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.event.InspectionAnalyzed;
+import com.example.transformer_app.event.MaintenanceDeleted;
+import com.example.transformer_app.event.MaintenanceSaved;
+import com.example.transformer_app.event.TransformerSaved;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.model.Inspection;
+import com.example.transformer_app.model.Maintenance;
+import com.example.transformer_app.model.Transformer;
+import com.example.transformer_app.tracing.Spans;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.*;
+
+/**
+ * Typeahead search over transformers (number, pole number, region, type, location), inspections
+ * (number, inspector) and maintenance records (number, inspector, recommended actions, remarks),
+ * served from an in-process {@link SearchIndex}. Write events update the index directly; a rebuild
+ * reads the three tables.
+ */
+@Service
+public class SearchService extends RebuildableIndex {
+
+    public static final String TRANSFORMER = "transformer";
+    public static final String INSPECTION = "inspection";
+    public static final String MAINTENANCE = "maintenance";
+
+    @Value("${search.rebuild.on-startup:true}")
+    private boolean rebuildOnStartup;
+
+    // Bounds the work of one-letter queries
+    @Value("${search.max-prefix-terms:500}")
+    private int maxPrefixTerms;
+
+    @Value("${search.max-limit:100}")
+    private int maxLimit;
+
+    // Guarded by this
+    private SearchIndex index = new SearchIndex();
+
+    public SearchService(RestTemplate restTemplate, JsonCodecs jsonCodecs, UpstreamMetrics upstreamMetrics, Spans spans) {
+        super("search index", restTemplate, jsonCodecs, upstreamMetrics, spans);
+    }
+
+    // ---- writes; each one puts or removes a whole document, so replaying it is harmless ----
+
+    @EventListener
+    public void onTransformer(TransformerSaved event) {
+        SearchIndex.Document document = documentOf(event.transformer());
+        if (document != null) {
+            apply(() -> index.put(document));
+        }
+    }
+
+    @EventListener
+    public void onInspection(InspectionAnalyzed event) {
+        SearchIndex.Document document = documentOf(event.inspection());
+        if (document != null) {
+            apply(() -> index.put(document));
+        }
+    }
+
+    @EventListener
+    public void onMaintenance(MaintenanceSaved event) {
+        SearchIndex.Document document = documentOf(event.maintenance());
+        if (document != null) {
+            apply(() -> index.put(document));
+        }
+    }
+
+    @EventListener
+    public void onMaintenanceDeleted(MaintenanceDeleted event) {
+        if (event.mid() != null) {
+            apply(() -> index.remove(MAINTENANCE, String.valueOf(event.mid())));
+        }
+    }
+
+    // ---- queries ----
+
+    /**
+     * Every word of q must prefix a word of the document (or, for codes, the code without
+     * separators). kind, region and type narrow the matches; facets are counted after narrowing.
+     */
+    public Map<String, Object> search(String q, String kind, String region, String type, int limit) {
+        if (limit < 1 || limit > maxLimit) {
+            throw new IllegalArgumentException("limit must be between 1 and " + maxLimit);
+        }
+        List<String> tokens = q != null ? SearchIndex.tokenize(q) : List.of();
+        if (tokens.isEmpty()) {
+            throw new IllegalArgumentException("q must contain at least one letter or digit");
+        }
+        long started = System.nanoTime();
+        SearchIndex.Result result;
+        synchronized (this) {
+            result = index.search(tokens, kind, region, type, limit, maxPrefixTerms);
+        }
+        long micros = (System.nanoTime() - started) / 1_000;
+
+        List<Map<String, Object>> hits = new ArrayList<>(result.hits().size());
+        for (SearchIndex.Hit hit : result.hits()) {
+            SearchIndex.Document document = hit.document();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("kind", document.kind());
+            item.put("key", document.key());
+            item.put("title", document.title());
+            item.put("subtitle", document.subtitle());
+            item.put("score", Math.round(hit.score() * 100.0) / 100.0);
+            item.put("fields", document.fields());
+            hits.add(item);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("query", q);
+        response.put("total", result.total());
+        response.put("hits", hits);
+        response.put("facets", result.facets());
+        response.put("tookMicros", micros);
+        return response;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("documents", index.size());
+        stats.put("terms", index.terms());
+        stats.put("builtAt", builtAt());
+        stats.put("rebuilding", isRebuilding());
+        return stats;
+    }
+
+    // ---- documents ----
+
+    private static SearchIndex.Document documentOf(Transformer transformer) {
+        if (transformer == null || transformer.getTransformerNumber() == null) {
+            return null;
+        }
+        Map<String, String> fields = new LinkedHashMap<>();
+        putField(fields, "transformerNumber", transformer.getTransformerNumber());
+        putField(fields, "poleNumber", transformer.getPoleNumber());
+        putField(fields, "region", transformer.getRegion());
+        putField(fields, "type", transformer.getType());
+        putField(fields, "locationDetails", transformer.getLocationDetails());
+        return new SearchIndex.Document(TRANSFORMER, transformer.getTransformerNumber(), transformer.getTransformerNumber(),
+                joinNonBlank(transformer.getPoleNumber(), transformer.getLocationDetails()),
+                transformer.getRegion(), transformer.getType(), null, fields);
+    }
+
+    private static SearchIndex.Document documentOf(Inspection inspection) {
+        if (inspection == null || inspection.getIid() == null) {
+            return null;
+        }
+        Map<String, String> fields = new LinkedHashMap<>();
+        putField(fields, "inspectionNumber", inspection.getInspectionNumber());
+        putField(fields, "transformerNumber", inspection.getTransformerNumber());
+        putField(fields, "inspector", inspection.getInspector());
+        String key = String.valueOf(inspection.getIid());
+        return new SearchIndex.Document(INSPECTION, key,
+                inspection.getInspectionNumber() != null ? inspection.getInspectionNumber() : key,
+                joinNonBlank(inspection.getTransformerNumber(), inspection.getInspector()),
+                null, null, inspection.getStatus(), fields);
+    }
+
+    private static SearchIndex.Document documentOf(Maintenance maintenance) {
+        if (maintenance == null || maintenance.getMid() == null) {
+            return null;
+        }
+        Map<String, String> fields = new LinkedHashMap<>();
+        putField(fields, "maintenanceNumber", maintenance.getMaintenanceNumber());
+        putField(fields, "inspectionNumber", maintenance.getInspectionNumber());
+        putField(fields, "inspectorName", maintenance.getInspectorName());
+        putField(fields, "recommendedActions", maintenance.getRecommendedActions());
+        putField(fields, "additionalRemarks", maintenance.getAdditionalRemarks());
+        String key = String.valueOf(maintenance.getMid());
+        return new SearchIndex.Document(MAINTENANCE, key,
+                maintenance.getMaintenanceNumber() != null ? maintenance.getMaintenanceNumber() : key,
+                joinNonBlank(maintenance.getInspectionNumber(), maintenance.getInspectorName()),
+                null, null, maintenance.getStatus(), fields);
+    }
+
+    private static void putField(Map<String, String> fields, String name, String value) {
+        if (value != null && !value.isBlank()) {
+            fields.put(name, value);
+        }
+    }
+
+    private static String joinNonBlank(String first, String second) {
+        boolean hasFirst = first != null && !first.isBlank();
+        boolean hasSecond = second != null && !second.isBlank();
+        if (hasFirst && hasSecond) {
+            return first + " · " + second;
+        }
+        return hasFirst ? first : hasSecond ? second : null;
+    }
+
+    // ---- rebuild ----
+
+    @Override
+    Map<Table, List<String>> columns() {
+        return Map.of(
+                Table.TRANSFORMERS, List.of("transformerNumber", "poleNumber", "region", "type", "locationDetails"),
+                Table.INSPECTIONS, List.of("inspectionNumber", "transformerNumber", "inspector", "status"),
+                Table.MAINTENANCE, List.of("maintenanceNumber", "inspectionNumber", "inspectorName", "status",
+                        "recommendedActions", "additionalRemarks"));
+    }
+
+    @Override
+    boolean buildOnStartup() {
+        return rebuildOnStartup;
+    }
+
+    @Override
+    Build newBuild(Map<Table, List<String>> read) {
+        SearchIndex fresh = new SearchIndex();
+        return new Build() {
+            @Override
+            public void transformers(List<Transformer> page) {
+                page.forEach(transformer -> put(documentOf(transformer)));
+            }
+
+            @Override
+            public void inspections(List<Inspection> page) {
+                page.forEach(inspection -> put(documentOf(inspection)));
+            }
+
+            @Override
+            public void maintenance(List<Maintenance> page) {
+                page.forEach(maintenance -> put(documentOf(maintenance)));
+            }
+
+            private void put(SearchIndex.Document document) {
+                if (document != null) {
+                    fresh.put(document);
+                }
+            }
+
+            @Override
+            public void install() {
+                index = fresh;
+            }
+        };
+    }
+
+    @Override
+    Map<String, Object> summary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("documents", index.size());
+        summary.put("terms", index.terms());
+        return summary;
+    }
+}
@@ -0,0 +1,765 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.cache.EtagCache;
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.event.BaselineImageChanged;
+import com.example.transformer_app.event.RefImageChanged;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.model.Inspection;
+import com.example.transformer_app.model.Transformer;
+import com.example.transformer_app.tracing.Spans;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.*;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Compares an inspection's refImage with its transformer's baselineImage pixel by pixel, so review can
+ * start with the inspections whose hardware got hotter. Both images are scaled to work-size and reduced
+ * to intensity (the luminance of the false-colour palette; the uploads carry no radiometric data). The
+ * ref is aligned to the baseline by a coarse-to-fine translation search on normalised cross-correlation,
+ * and its brightness is matched to the baseline with a gain/offset fit that leaves the hot pixels out,
+ * since the camera rescales its palette per shot. The delta map and its connected hot regions are worked
+ * out tile by tile on a shared pool and joined across the tile edges afterwards.
+ * <p>
+ * Results are cached per (baseline, ref) pair and PATCHed onto the inspection as "thermalDelta"
+ * (db/006_thermal_delta.sql), which reviewQueue() orders by. New ref uploads are diffed in the background,
+ * as is every inspection of a transformer whose baseline is replaced, after its old diffs are cleared.
+ */
+@Service
+public class ThermalDiffService {
+
+    private static final Logger log = LoggerFactory.getLogger(ThermalDiffService.class);
+
+    // Shifts that leave less than this share of the frame overlapping aren't considered
+    private static final double MIN_OVERLAP = 0.5;
+    // The alignment search starts on a pyramid level no smaller than this
+    private static final int MIN_LEVEL_SIDE = 32;
+
+    @Value("${supabase.url}")
+    private String supabaseUrl;
+
+    @Value("${supabase.apikey}")
+    private String supabaseApiKey;
+
+    @Value("${supabase.bucket.name}")
+    private String bucketName;
+
+    // Longer side, in pixels, both images are compared at
+    @Value("${thermal-diff.work-size:512}")
+    private int workSize;
+
+    // Largest misalignment searched for, as a share of the longer side
+    @Value("${thermal-diff.max-shift:0.15}")
+    private double maxShift;
+
+    // Intensity rise (0..1) above the matched baseline for a pixel to count as hot
+    @Value("${thermal-diff.delta-threshold:0.12}")
+    private double deltaThreshold;
+
+    // Hot regions smaller than this, in work-size pixels, are treated as noise
+    @Value("${thermal-diff.min-region-pixels:12}")
+    private int minRegionPixels;
+
+    @Value("${thermal-diff.max-regions:20}")
+    private int maxRegions;
+
+    @Value("${thermal-diff.tile-size:64}")
+    private int tileSize;
+
+    @Value("${thermal-diff.cache-size:128}")
+    private int cacheSize;
+
+    @Value("${thermal-diff.on-upload:true}")
+    private boolean onUpload;
+
+    @Value("${thermal-diff.review-queue.max-limit:200}")
+    private int reviewQueueMaxLimit;
+
+    // Inspections read per page when a replaced baseline has every inspection of the transformer re-diffed
+    @Value("${thermal-diff.page-size:200}")
+    private int pageSize;
+
+    private final RestTemplate restTemplate;
+    private final JsonCodecs jsonCodecs;
+    private final EtagCache etagCache;
+    private final UpstreamMetrics upstreamMetrics;
+    private final Spans spans;
+    private final ImageCache imageCache;
+    private final ForkJoinPool pool;
+    private final ThreadPoolExecutor executor;
+
+    private record Cached(Map<String, Object> result, byte[] map) {
+    }
+
+    // Guarded by itself; access-ordered, so the least recently read pair is dropped first
+    private final Map<String, Cached> cache = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return size() > cacheSize;
+        }
+    };
+
+    private final LongAdder computed = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public ThermalDiffService(RestTemplate restTemplate, JsonCodecs jsonCodecs, EtagCache etagCache, UpstreamMetrics upstreamMetrics,
+                              Spans spans, ImageCache imageCache, @Value("${thermal-diff.parallelism:0}") int parallelism,
+                              @Value("${thermal-diff.workers:1}") int workers,
+                              @Value("${thermal-diff.queue-capacity:100}") int queueCapacity) {
+        this.restTemplate = restTemplate;
+        this.jsonCodecs = jsonCodecs;
+        this.etagCache = etagCache;
+        this.upstreamMetrics = upstreamMetrics;
+        this.spans = spans;
+        this.imageCache = imageCache;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "thermal-diff");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    @EventListener
+    public void onRefImage(RefImageChanged event) {
+        Long iid = event.iid();
+        String transformerNumber = event.transformerNumber();
+        String imageUrl = event.imageUrl();
+        if (!onUpload || iid == null || transformerNumber == null || imageUrl == null || imageUrl.isBlank()) {
+            return;
+        }
+        submit("inspection " + iid, () -> {
+            String baselineUrl = fetchBaselineImage(transformerNumber);
+            if (baselineUrl != null) {
+                diff(iid, baselineUrl, imageUrl, true);
+            }
+        });
+    }
+
+    /**
+     * Every diff against the old baseline is out of date: they are cleared from the transformer's
+     * inspections in one PATCH, so the review queue doesn't rank by them, and the inspections are then
+     * paged by iid and re-diffed one by one in this job rather than queued all at once. A newer
+     * baseline stops the job; its own job takes over.
+     */
+    @EventListener
+    public void onBaselineImage(BaselineImageChanged event) {
+        String transformerNumber = event.transformerNumber();
+        String imageUrl = event.imageUrl();
+        if (!onUpload || transformerNumber == null || imageUrl == null || imageUrl.isBlank()) {
+            return;
+        }
+        submit("transformer " + transformerNumber, () -> {
+            clearDiffs(transformerNumber);
+            long after = 0;
+            while (imageUrl.equals(fetchBaselineImage(transformerNumber))) {
+                String url = UriComponentsBuilder.fromUriString(supabaseUrl)
+                        .path("/rest/v1/inspections")
+                        .queryParam("select", "iid,refImage")
+                        .queryParam("transformerNumber", "eq." + transformerNumber)
+                        .queryParam("refImage", "neq.")
+                        .queryParam("iid", "gt." + after)
+                        .queryParam("order", "iid.asc")
+                        .queryParam("limit", pageSize)
+                        .toUriString();
+                ResponseEntity<String> response = upstreamMetrics.record("list-inspections-for-thermal-diff",
+                        () -> restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(getHeaders()), String.class));
+                List<Inspection> page = jsonCodecs.readInspections(response.getBody());
+                for (Inspection inspection : page) {
+                    try {
+                        diff(inspection.getIid(), imageUrl, inspection.getRefImage(), true);
+                    } catch (IOException | RuntimeException e) {
+                        failed.increment();
+                        log.warn("Thermal diff of inspection {} failed: {}", inspection.getIid(), e.getMessage());
+                    }
+                }
+                if (page.size() < pageSize) {
+                    return;
+                }
+                after = page.get(page.size() - 1).getIid();
+            }
+        });
+    }
+
+    private void clearDiffs(String transformerNumber) {
+        HttpHeaders headers = getHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        String url = UriComponentsBuilder.fromUriString(supabaseUrl)
+                .path("/rest/v1/inspections")
+                .queryParam("transformerNumber", "eq." + transformerNumber)
+                .queryParam("thermalDelta", "not.is.null")
+                .toUriString();
+        Map<String, Object> cleared = new HashMap<>();
+        cleared.put("thermalDelta", null);
+        upstreamMetrics.record("clear-thermal-deltas",
+                () -> restTemplate.exchange(url, HttpMethod.PATCH, new HttpEntity<>(cleared, headers), String.class));
+        etagCache.evictPrefix("inspection:");
+    }
+
+    private interface Job {
+        void run() throws IOException;
+    }
+
+    private void submit(String what, Job job) {
+        try {
+            executor.execute(() -> {
+                try {
+                    job.run();
+                } catch (IOException | RuntimeException e) {
+                    failed.increment();
+                    log.warn("Thermal diff of {} failed: {}", what, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+            log.warn("Thermal diff queue is full; {} is diffed on its next read", what);
+        }
+    }
+
+    /**
+     * The diff of inspection iid's refImage against its transformer's current baselineImage, computed on
+     * the first request for that pair and attached to the inspection.
+     *
+     * @throws IllegalArgumentException if either image is missing
+     * @throws RuntimeException         ("... not found") if the inspection doesn't exist
+     */
+    public Map<String, Object> diff(Long iid) throws IOException {
+        Map<String, Object> result = new LinkedHashMap<>(resolve(iid).result());
+        result.put("iid", iid);
+        return result;
+    }
+
+    // The delta map as a PNG in the ref's frame at work-size: hotter is redder and more opaque
+    public byte[] deltaMap(Long iid) throws IOException {
+        return resolve(iid).map();
+    }
+
+    private Cached resolve(Long iid) throws IOException {
+        String url = supabaseUrl + "/rest/v1/inspections?iid=eq." + iid + "&select=iid,transformerNumber,refImage&limit=1";
+        ResponseEntity<String> response = upstreamMetrics.record("fetch-inspection-for-thermal-diff",
+                () -> restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(getHeaders()), String.class));
+        List<Inspection> found = jsonCodecs.readInspections(response.getBody());
+        if (found.isEmpty()) {
+            throw new RuntimeException("Inspection with IID " + iid + " not found");
+        }
+        Inspection inspection = found.get(0);
+        if (inspection.getRefImage() == null || inspection.getRefImage().isBlank()) {
+            throw new IllegalArgumentException("Inspection " + iid + " has no refImage");
+        }
+        String baselineUrl = fetchBaselineImage(inspection.getTransformerNumber());
+        if (baselineUrl == null) {
+            throw new IllegalArgumentException("Transformer " + inspection.getTransformerNumber() + " has no baselineImage");
+        }
+        return diff(iid, baselineUrl, inspection.getRefImage(), false);
+    }
+
+    /**
+     * A pair is cached only once its diff is attached, so a failed attach is retried by the next request.
+     * The background jobs attach a cached diff again: the inspection's diff may have been cleared since,
+     * e.g. by a baseline change that was then reverted.
+     */
+    private Cached diff(Long iid, String baselineUrl, String refUrl, boolean attachOnHit) throws IOException {
+        String key = baselineUrl + "\n" + refUrl;
+        Cached cached;
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+        if (cached != null) {
+            cacheHits.increment();
+            if (attachOnHit) {
+                attach(iid, refUrl, cached.result());
+            }
+            return cached;
+        }
+        Cached fresh = spans.inSpan("thermal-diff", () -> compute(baselineUrl, refUrl));
+        computed.increment();
+        if (attach(iid, refUrl, fresh.result())) {
+            synchronized (cache) {
+                cache.put(key, fresh);
+            }
+        }
+        return fresh;
+    }
+
+    /**
+     * Inspections with a diff attached, the largest temperature rise first, optionally of one transformer.
+     * Inspections without hot regions (maxDelta 0) come last.
+     */
+    public ResponseEntity<String> reviewQueue(String transformerNumber, int limit) {
+        UriComponentsBuilder builder = UriComponentsBuilder.fromUriString(supabaseUrl)
+                .path("/rest/v1/inspections")
+                .queryParam("select", "iid,transformerNumber,inspectionNumber,inspectionDate,status,refImage,thermalDelta")
+                .queryParam("thermalDelta", "not.is.null")
+                .queryParam("order", "thermalDelta->maxDelta.desc.nullslast,iid.desc")
+                .queryParam("limit", Math.max(1, Math.min(limit, reviewQueueMaxLimit)));
+        if (transformerNumber != null && !transformerNumber.isBlank()) {
+            builder.queryParam("transformerNumber", "eq." + transformerNumber);
+        }
+        String url = builder.toUriString();
+        return upstreamMetrics.record("list-thermal-review-queue",
+                () -> restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(getHeaders()), String.class));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (cache) {
+            stats.put("cached", cache.size());
+        }
+        stats.put("computed", computed.sum());
+        stats.put("cacheHits", cacheHits.sum());
+        stats.put("failed", failed.sum());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("running", executor.getActiveCount());
+        stats.put("dropped", dropped.sum());
+        return stats;
+    }
+
+    private Cached compute(String baselineUrl, String refUrl) throws IOException {
+        long started = System.nanoTime();
+        BufferedImage baselineOriginal = load(baselineUrl);
+        BufferedImage refOriginal = load(refUrl);
+        BufferedImage baseline = ImageVariantService.scaleToFit(baselineOriginal, workSize);
+        int w = baseline.getWidth();
+        int h = baseline.getHeight();
+        // Same camera, so the ref is brought onto the baseline's grid; any leftover offset is the alignment's job
+        BufferedImage ref = ImageVariantService.scaleToFit(refOriginal, workSize);
+        if (ref.getWidth() != w || ref.getHeight() != h) {
+            ref = ImageVariantService.resize(ref, w, h);
+        }
+        float[] b = intensity(baseline);
+        float[] r = intensity(ref);
+
+        Alignment alignment = align(b, r, w, h);
+        int dx = alignment.dx;
+        int dy = alignment.dy;
+        int x0 = Math.max(0, -dx), x1 = Math.min(w, w - dx);
+        int y0 = Math.max(0, -dy), y1 = Math.min(h, h - dy);
+        double[] fit = fitBrightness(b, r, w, dx, dy, x0, x1, y0, y1);
+        float gain = (float) fit[0];
+        float offset = (float) fit[1];
+        float threshold = (float) deltaThreshold;
+
+        // delta is on the baseline's grid, NaN where the shifted ref doesn't cover it; parent links hot pixels
+        float[] delta = new float[w * h];
+        Arrays.fill(delta, Float.NaN);
+        int[] parent = new int[w * h];
+        Arrays.fill(parent, -1);
+        int tilesX = (w + tileSize - 1) / tileSize;
+        int tilesY = (h + tileSize - 1) / tileSize;
+        inPool(() -> {
+            IntStream.range(0, tilesX * tilesY).parallel().forEach(tile -> {
+                int tx0 = (tile % tilesX) * tileSize, tx1 = Math.min(w, tx0 + tileSize);
+                int ty0 = (tile / tilesX) * tileSize, ty1 = Math.min(h, ty0 + tileSize);
+                for (int y = Math.max(ty0, y0); y < Math.min(ty1, y1); y++) {
+                    for (int x = Math.max(tx0, x0); x < Math.min(tx1, x1); x++) {
+                        int i = y * w + x;
+                        float d = r[(y + dy) * w + x + dx] - (gain * b[i] + offset);
+                        delta[i] = d;
+                        if (d < threshold) {
+                            continue;
+                        }
+                        parent[i] = i;
+                        // Earlier 8-neighbours inside this tile; neighbours across the tile edge are joined below
+                        if (x > tx0) {
+                            union(parent, i, i - 1);
+                        }
+                        if (y > ty0) {
+                            union(parent, i, i - w);
+                            if (x > tx0) {
+                                union(parent, i, i - w - 1);
+                            }
+                            if (x + 1 < tx1) {
+                                union(parent, i, i - w + 1);
+                            }
+                        }
+                    }
+                }
+            });
+            return null;
+        });
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                int i = y * w + x;
+                if (parent[i] < 0 || (x % tileSize != 0 && y % tileSize != 0 && (x + 1) % tileSize != 0)) {
+                    continue;
+                }
+                if (x > 0) {
+                    union(parent, i, i - 1);
+                }
+                if (y > 0) {
+                    union(parent, i, i - w);
+                    if (x > 0) {
+                        union(parent, i, i - w - 1);
+                    }
+                    if (x + 1 < w) {
+                        union(parent, i, i - w + 1);
+                    }
+                }
+            }
+        }
+
+        Map<Integer, Region> byRoot = new HashMap<>();
+        int overlapPixels = (x1 - x0) * (y1 - y0);
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                int i = y * w + x;
+                if (parent[i] >= 0) {
+                    byRoot.computeIfAbsent(find(parent, i), root -> new Region()).add(x, y, delta[i]);
+                }
+            }
+        }
+        List<Region> regions = new ArrayList<>();
+        for (Region region : byRoot.values()) {
+            if (region.pixels >= minRegionPixels) {
+                regions.add(region);
+            }
+        }
+        // Largest total rise first: a wide warm patch and a small very hot joint both rank high
+        regions.sort(Comparator.comparingDouble((Region region) -> region.sum).reversed());
+
+        // Region boxes are reported on the original ref, like the detector's [x_center, y_center, width, height]
+        double sx = (double) refOriginal.getWidth() / w;
+        double sy = (double) refOriginal.getHeight() / h;
+        List<Map<String, Object>> reported = new ArrayList<>();
+        double maxDelta = 0;
+        long hotPixels = 0;
+        for (Region region : regions) {
+            maxDelta = Math.max(maxDelta, region.peak);
+            hotPixels += region.pixels;
+            if (reported.size() == maxRegions) {
+                continue;
+            }
+            double left = (region.minX + dx) * sx, right = (region.maxX + 1 + dx) * sx;
+            double top = (region.minY + dy) * sy, bottom = (region.maxY + 1 + dy) * sy;
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("box", List.of(round((left + right) / 2, 1), round((top + bottom) / 2, 1),
+                    round(right - left, 1), round(bottom - top, 1)));
+            entry.put("pixels", region.pixels);
+            entry.put("meanDelta", round(region.sum / region.pixels, 3));
+            entry.put("peakDelta", round(region.peak, 3));
+            reported.add(entry);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("baselineImage", baselineUrl);
+        result.put("refImage", refUrl);
+        result.put("maxDelta", round(maxDelta, 3));
+        result.put("hotFraction", round(overlapPixels > 0 ? (double) hotPixels / overlapPixels : 0, 4));
+        result.put("regionCount", regions.size());
+        result.put("regions", reported);
+        Map<String, Object> align = new LinkedHashMap<>();
+        align.put("dx", round(dx * sx, 1));
+        align.put("dy", round(dy * sy, 1));
+        align.put("correlation", round(alignment.score, 3));
+        align.put("overlap", round((double) overlapPixels / (w * h), 3));
+        align.put("gain", round(gain, 3));
+        align.put("offset", round(offset, 3));
+        result.put("alignment", align);
+        result.put("deltaThreshold", deltaThreshold);
+        result.put("computedAt", Instant.now().toString());
+        result.put("millis", (System.nanoTime() - started) / 1_000_000);
+        log.debug("Thermal diff of {} against {}: {}", refUrl, baselineUrl, result);
+        return new Cached(result, renderMap(delta, w, h, dx, dy, threshold));
+    }
+
+    private record Alignment(int dx, int dy, double score) {
+    }
+
+    /**
+     * The shift (dx, dy) for which ref(x + dx, y + dy) best matches baseline(x, y). Every shift up to
+     * max-shift is scored on the coarsest pyramid level, then the winner is refined by one pixel either
+     * way on each finer level. Correlation is insensitive to the palette's gain and offset.
+     */
+    private Alignment align(float[] b, float[] r, int w, int h) {
+        List<float[]> bs = new ArrayList<>(List.of(b));
+        List<float[]> rs = new ArrayList<>(List.of(r));
+        List<int[]> sizes = new ArrayList<>(List.of(new int[]{w, h}));
+        while (sizes.size() < 4 && sizes.get(sizes.size() - 1)[0] / 2 >= MIN_LEVEL_SIDE && sizes.get(sizes.size() - 1)[1] / 2 >= MIN_LEVEL_SIDE) {
+            int[] size = sizes.get(sizes.size() - 1);
+            bs.add(halve(bs.get(bs.size() - 1), size[0], size[1]));
+            rs.add(halve(rs.get(rs.size() - 1), size[0], size[1]));
+            sizes.add(new int[]{size[0] / 2, size[1] / 2});
+        }
+        int top = sizes.size() - 1;
+        int radius = (int) Math.ceil(maxShift * Math.max(w, h) / (1 << top));
+        Alignment best = search(bs.get(top), rs.get(top), sizes.get(top)[0], sizes.get(top)[1], 0, 0, radius);
+        for (int level = top - 1; level >= 0; level--) {
+            best = search(bs.get(level), rs.get(level), sizes.get(level)[0], sizes.get(level)[1], best.dx * 2, best.dy * 2, 1);
+        }
+        return best.score == Double.NEGATIVE_INFINITY ? new Alignment(0, 0, 0) : best;
+    }
+
+    private Alignment search(float[] b, float[] r, int w, int h, int cx, int cy, int radius) {
+        int side = 2 * radius + 1;
+        return inPool(() -> IntStream.range(0, side * side).parallel()
+                .mapToObj(c -> {
+                    int dx = cx + c % side - radius;
+                    int dy = cy + c / side - radius;
+                    return new Alignment(dx, dy, correlation(b, r, w, h, dx, dy));
+                })
+                // Ties go to the smaller shift, so a featureless frame stays where it is
+                .max(Comparator.comparingDouble(Alignment::score)
+                        .thenComparing(a -> -(Math.abs(a.dx) + Math.abs(a.dy))))
+                .orElseThrow());
+    }
+
+    private static double correlation(float[] b, float[] r, int w, int h, int dx, int dy) {
+        int x0 = Math.max(0, -dx), x1 = Math.min(w, w - dx);
+        int y0 = Math.max(0, -dy), y1 = Math.min(h, h - dy);
+        long n = (long) Math.max(0, x1 - x0) * Math.max(0, y1 - y0);
+        if (n < MIN_OVERLAP * w * h) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        double sb = 0, sr = 0, sbb = 0, srr = 0, sbr = 0;
+        for (int y = y0; y < y1; y++) {
+            int bi = y * w + x0;
+            int ri = (y + dy) * w + x0 + dx;
+            for (int x = x0; x < x1; x++, bi++, ri++) {
+                double vb = b[bi], vr = r[ri];
+                sb += vb;
+                sr += vr;
+                sbb += vb * vb;
+                srr += vr * vr;
+                sbr += vb * vr;
+            }
+        }
+        double varB = n * sbb - sb * sb;
+        double varR = n * srr - sr * sr;
+        if (varB <= 1e-9 || varR <= 1e-9) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return (n * sbr - sb * sr) / Math.sqrt(varB * varR);
+    }
+
+    /**
+     * Least-squares gain and offset mapping baseline intensity onto the aligned ref. The second pass
+     * drops the pixels the first one found hot, so a large hotspot doesn't pull the fit up and hide itself.
+     */
+    private double[] fitBrightness(float[] b, float[] r, int w, int dx, int dy, int x0, int x1, int y0, int y1) {
+        double gain = 1;
+        double offset = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            double n = 0, sb = 0, sr = 0, sbb = 0, sbr = 0;
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    double vb = b[y * w + x], vr = r[(y + dy) * w + x + dx];
+                    if (pass > 0 && vr - (gain * vb + offset) >= deltaThreshold) {
+                        continue;
+                    }
+                    n++;
+                    sb += vb;
+                    sr += vr;
+                    sbb += vb * vb;
+                    sbr += vb * vr;
+                }
+            }
+            if (n == 0) {
+                break;
+            }
+            double variance = n * sbb - sb * sb;
+            // A flat baseline only says how much brighter the ref is overall
+            gain = variance > 1e-9 ? Math.max(0.25, Math.min(4, (n * sbr - sb * sr) / variance)) : 1;
+            offset = (sr - gain * sb) / n;
+        }
+        return new double[]{gain, offset};
+    }
+
+    private byte[] renderMap(float[] delta, int w, int h, int dx, int dy, float threshold) throws IOException {
+        BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int bx = x - dx, by = y - dy;
+                if (bx < 0 || by < 0 || bx >= w || by >= h) {
+                    continue;
+                }
+                float d = delta[by * w + bx];
+                if (!(d > 0)) {
+                    continue;
+                }
+                // Transparent at no change, fully opaque at twice the threshold; yellow marks hot pixels
+                int alpha = (int) (255 * Math.min(1f, d / (2 * threshold)));
+                int green = d >= threshold ? 200 : 0;
+                image.setRGB(x, y, alpha << 24 | 0xff << 16 | green << 8);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    // Whether the diff is now on the inspection (or there is none to put it on)
+    private boolean attach(Long iid, String refUrl, Map<String, Object> result) {
+        if (iid == null) {
+            return true;
+        }
+        HttpHeaders headers = getHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        // Only while the inspection still holds this ref, so a late diff can't label a newer upload
+        String url = UriComponentsBuilder.fromUriString(supabaseUrl)
+                .path("/rest/v1/inspections")
+                .queryParam("iid", "eq." + iid)
+                .queryParam("refImage", "eq." + refUrl)
+                .toUriString();
+        try {
+            upstreamMetrics.record("patch-thermal-delta",
+                    () -> restTemplate.exchange(url, HttpMethod.PATCH, new HttpEntity<>(Map.of("thermalDelta", result), headers), String.class));
+            etagCache.evictInspection(iid);
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("Could not attach thermal diff to inspection {}: {}", iid, e.getMessage());
+            return false;
+        }
+    }
+
+    private String fetchBaselineImage(String transformerNumber) throws IOException {
+        if (transformerNumber == null) {
+            return null;
+        }
+        String url = UriComponentsBuilder.fromUriString(supabaseUrl)
+                .path("/rest/v1/transformers")
+                .queryParam("transformerNumber", "eq." + transformerNumber)
+                .queryParam("select", "transformerNumber,baselineImage")
+                .queryParam("limit", "1")
+                .toUriString();
+        ResponseEntity<String> response = upstreamMetrics.record("fetch-transformer-baseline",
+                () -> restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(getHeaders()), String.class));
+        for (Transformer transformer : jsonCodecs.readTransformers(response.getBody())) {
+            String baselineUrl = transformer.getBaselineImage();
+            if (baselineUrl != null && !baselineUrl.isBlank()) {
+                return baselineUrl;
+            }
+        }
+        return null;
+    }
+
+    // Our bucket's images come through the disk cache, so diffing against a baseline doesn't re-download it
+    private BufferedImage load(String imageUrl) throws IOException {
+        String publicPrefix = supabaseUrl + "/storage/v1/object/public/" + bucketName + "/";
+        BufferedImage image;
+        if (imageUrl.startsWith(publicPrefix)) {
+            // Read through the open lease: eviction may drop the file from the cache directory meanwhile
+            try (ImageCache.Lease lease = imageCache.open(imageUrl.substring(publicPrefix.length()))) {
+                image = ImageIO.read(Channels.newInputStream(lease.channel()));
+            }
+        } else {
+            image = upstreamMetrics.record("fetch-image-for-thermal-diff", () -> ResponseEntity.ok(restTemplate.execute(imageUrl, HttpMethod.GET,
+                    null, response -> ImageIO.read(response.getBody())))).getBody();
+        }
+        if (image == null) {
+            throw new IOException("Could not decode " + imageUrl);
+        }
+        return image;
+    }
+
+    private <T> T inPool(Callable<T> task) {
+        try {
+            // A parallel stream started from inside the pool runs its tasks in that pool
+            return pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while diffing images", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException runtime ? runtime : new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static final class Region {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX, maxY;
+        int pixels;
+        double sum;
+        double peak;
+
+        void add(int x, int y, float delta) {
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+            pixels++;
+            sum += delta;
+            peak = Math.max(peak, delta);
+        }
+    }
+
+    // Union-find over pixel indices; the smaller root wins, so a tile's links stay inside the tile
+    private static void union(int[] parent, int a, int b) {
+        if (parent[b] < 0) {
+            return;
+        }
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        if (ra != rb) {
+            parent[Math.max(ra, rb)] = Math.min(ra, rb);
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static float[] intensity(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int[] rgb = image.getRGB(0, 0, w, h, null, 0, w);
+        float[] out = new float[w * h];
+        for (int i = 0; i < rgb.length; i++) {
+            int p = rgb[i];
+            out[i] = (0.299f * (p >> 16 & 0xff) + 0.587f * (p >> 8 & 0xff) + 0.114f * (p & 0xff)) / 255f;
+        }
+        return out;
+    }
+
+    // 2x2 box average; an odd last row or column is dropped
+    private static float[] halve(float[] source, int w, int h) {
+        int hw = w / 2, hh = h / 2;
+        float[] out = new float[hw * hh];
+        for (int y = 0; y < hh; y++) {
+            for (int x = 0; x < hw; x++) {
+                int i = 2 * y * w + 2 * x;
+                out[y * hw + x] = (source[i] + source[i + 1] + source[i + w] + source[i + w + 1]) / 4;
+            }
+        }
+        return out;
+    }
+
+    private static double round(double value, int places) {
+        double scale = Math.pow(10, places);
+        return Math.round(value * scale) / scale;
+    }
+
+    private HttpHeaders getHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("apikey", supabaseApiKey);
+        headers.set("Authorization", "Bearer " + supabaseApiKey);
+        return headers;
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.dto.TransformerImportReport;
+import com.example.transformer_app.dto.TransformerImportReport.RowResult;
+import com.example.transformer_app.event.TransformerSaved;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.model.Transformer;
+import com.example.transformer_app.tracing.Spans;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.*;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Bulk transformer import from CSV or NDJSON. The body is read one record at a time, valid rows
+ * are given numbers from the allocator's blocks and written with one PostgREST insert per batch.
+ */
+@Service
+public class TransformerImportService {
+
+    private static final Logger log = LoggerFactory.getLogger(TransformerImportService.class);
+
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    private static final List<String> CSV_COLUMNS =
+            List.of("transformerNumber", "poleNumber", "region", "type", "locationDetails", "capacity");
+
+    @Value("${supabase.url}")
+    private String supabaseUrl;
+
+    @Value("${supabase.apikey}")
+    private String supabaseApiKey;
+
+    @Value("${transformers.import.batch-size:500}")
+    private int defaultBatchSize;
+
+    private final RestTemplate restTemplate;
+    private final JsonCodecs jsonCodecs;
+    private final UpstreamMetrics upstreamMetrics;
+    private final NumberAllocator numberAllocator;
+    private final Spans spans;
+    private final ApplicationEventPublisher events;
+
+    public TransformerImportService(RestTemplate restTemplate, JsonCodecs jsonCodecs, UpstreamMetrics upstreamMetrics,
+                                    NumberAllocator numberAllocator, Spans spans, ApplicationEventPublisher events) {
+        this.restTemplate = restTemplate;
+        this.jsonCodecs = jsonCodecs;
+        this.upstreamMetrics = upstreamMetrics;
+        this.numberAllocator = numberAllocator;
+        this.spans = spans;
+        this.events = events;
+    }
+
+    // One parsed row waiting for its batch to be written
+    private record PendingRow(long row, Transformer transformer) {
+    }
+
+    /**
+     * Imports every row after resumeAfter. Stops at the first batch that fails to insert, leaving
+     * lastCommittedRow at the row before it so the same file can be resent with ?resumeAfter=.
+     *
+     * @throws IllegalArgumentException if the CSV header lacks the required columns
+     */
+    public TransformerImportReport importTransformers(InputStream body, boolean csv, Integer batchSize, long resumeAfter) throws IOException {
+        int size = batchSize != null ? Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE)) : defaultBatchSize;
+        return spans.inSpan("import-transformers", () -> {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+            skipByteOrderMark(reader);
+            TransformerImportReport report = csv
+                    ? importCsv(new CsvRecordReader(reader), size, resumeAfter)
+                    : importNdjson(reader, size, resumeAfter);
+            // Invalid rows are reported as they are read, batched rows when their batch is written
+            report.getRows().sort(Comparator.comparingLong(RowResult::getRow));
+            spans.tag("rows.inserted", String.valueOf(report.getInserted()));
+            log.info("Transformer import finished: {} inserted, {} invalid, {} failed, {} skipped, complete={}",
+                    report.getInserted(), report.getInvalid(), report.getFailed(), report.getSkipped(), report.isComplete());
+            return report;
+        });
+    }
+
+    // Excel and Notepad save UTF-8 with a leading BOM, which would otherwise end up in the first
+    // header name (or in front of the first NDJSON object)
+    private static void skipByteOrderMark(BufferedReader reader) throws IOException {
+        reader.mark(1);
+        if (reader.read() != '\uFEFF') {
+            reader.reset();
+        }
+    }
+
+    private TransformerImportReport importCsv(CsvRecordReader reader, int batchSize, long resumeAfter) throws IOException {
+        TransformerImportReport report = new TransformerImportReport();
+        List<String> header = reader.next();
+        if (header == null) {
+            report.setComplete(true);
+            return report;
+        }
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            for (String column : CSV_COLUMNS) {
+                if (column.equalsIgnoreCase(header.get(i))) {
+                    columns.put(column, i);
+                }
+            }
+        }
+        for (String required : List.of("poleNumber", "region", "type")) {
+            if (!columns.containsKey(required)) {
+                throw new IllegalArgumentException("CSV header is missing the required column " + required);
+            }
+        }
+
+        List<PendingRow> pending = new ArrayList<>(batchSize);
+        long row = 0;
+        List<String> record;
+        while ((record = reader.next()) != null) {
+            row++;
+            if (row <= resumeAfter) {
+                report.addSkipped();
+                continue;
+            }
+            Transformer transformer = new Transformer();
+            transformer.setTransformerNumber(field(record, columns, "transformerNumber"));
+            transformer.setPoleNumber(field(record, columns, "poleNumber"));
+            transformer.setRegion(field(record, columns, "region"));
+            transformer.setType(field(record, columns, "type"));
+            transformer.setLocationDetails(field(record, columns, "locationDetails"));
+            String capacity = field(record, columns, "capacity");
+            if (capacity != null) {
+                try {
+                    // Same truncation as the single-create path (the column is bigint)
+                    transformer.setCapacity((int) Double.parseDouble(capacity));
+                } catch (NumberFormatException e) {
+                    report.add(new RowResult(row, TransformerImportReport.INVALID, null, "capacity is not a number: " + capacity));
+                    continue;
+                }
+            }
+            if (!accept(row, transformer, pending, report)) {
+                if (report.getFailed() > 0) {
+                    return report;
+                }
+                continue;
+            }
+            if (pending.size() == batchSize && !flush(pending, report)) {
+                return report;
+            }
+        }
+        return finish(pending, report, row);
+    }
+
+    private TransformerImportReport importNdjson(BufferedReader reader, int batchSize, long resumeAfter) throws IOException {
+        TransformerImportReport report = new TransformerImportReport();
+        List<PendingRow> pending = new ArrayList<>(batchSize);
+        long row = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            row++;
+            if (row <= resumeAfter) {
+                report.addSkipped();
+                continue;
+            }
+            Transformer transformer;
+            try {
+                transformer = jsonCodecs.readTransformer(line);
+            } catch (IOException e) {
+                report.add(new RowResult(row, TransformerImportReport.INVALID, null, "malformed JSON: " + e.getMessage()));
+                continue;
+            }
+            if (!accept(row, transformer, pending, report)) {
+                if (report.getFailed() > 0) {
+                    return report;
+                }
+                continue;
+            }
+            if (pending.size() == batchSize && !flush(pending, report)) {
+                return report;
+            }
+        }
+        return finish(pending, report, row);
+    }
+
+    // Validates a row and queues it for the next batch. Returns false if the row was rejected, or if no
+    // number could be allocated, in which case the queued rows are failed too and the import stops.
+    private boolean accept(long row, Transformer transformer, List<PendingRow> pending, TransformerImportReport report) throws IOException {
+        List<String> missing = new ArrayList<>();
+        if (isBlank(transformer.getPoleNumber())) missing.add("poleNumber");
+        if (isBlank(transformer.getRegion())) missing.add("region");
+        if (isBlank(transformer.getType())) missing.add("type");
+        if (!missing.isEmpty()) {
+            report.add(new RowResult(row, TransformerImportReport.INVALID, null, "Missing required fields: " + String.join(", ", missing)));
+            return false;
+        }
+        if (isBlank(transformer.getTransformerNumber())) {
+            try {
+                transformer.setTransformerNumber(numberAllocator.next(NumberAllocator.Kind.TRANSFORMER));
+            } catch (RuntimeException e) {
+                pending.add(new PendingRow(row, transformer));
+                fail(pending, report, e.getMessage());
+                return false;
+            }
+        }
+        transformer.setId(null);
+        transformer.setCreatedAt(null);
+        if (transformer.getBaselineImage() == null) {
+            transformer.setBaselineImage("");
+        }
+        pending.add(new PendingRow(row, transformer));
+        return true;
+    }
+
+    private TransformerImportReport finish(List<PendingRow> pending, TransformerImportReport report, long lastRow) throws IOException {
+        if (!pending.isEmpty() && !flush(pending, report)) {
+            return report;
+        }
+        report.setLastCommittedRow(lastRow);
+        report.setComplete(true);
+        return report;
+    }
+
+    // Writes one batch with a single INSERT; PostgREST runs it in one transaction, so it lands whole or not at all
+    private boolean flush(List<PendingRow> pending, TransformerImportReport report) throws IOException {
+        List<Transformer> batch = new ArrayList<>(pending.size());
+        for (PendingRow p : pending) {
+            batch.add(p.transformer());
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("apikey", supabaseApiKey);
+        headers.set("Authorization", "Bearer " + supabaseApiKey);
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("Prefer", "return=minimal");
+        HttpEntity<String> entity = new HttpEntity<>(jsonCodecs.write(batch), headers);
+        String url = supabaseUrl + "/rest/v1/transformers";
+
+        String error = null;
+        try {
+            upstreamMetrics.record("bulk-insert-transformers", () -> restTemplate.exchange(url, HttpMethod.POST, entity, String.class));
+        } catch (HttpStatusCodeException e) {
+            error = e.getStatusCode().value() + " " + e.getResponseBodyAsString();
+        } catch (RuntimeException e) {
+            error = e.getMessage();
+        }
+
+        if (error != null) {
+            fail(pending, report, error);
+            return false;
+        }
+        for (PendingRow p : pending) {
+            report.add(new RowResult(p.row(), TransformerImportReport.INSERTED, p.transformer().getTransformerNumber(), null));
+            events.publishEvent(new TransformerSaved(p.transformer()));
+        }
+        report.setLastCommittedRow(pending.get(pending.size() - 1).row());
+        pending.clear();
+        return true;
+    }
+
+    private void fail(List<PendingRow> pending, TransformerImportReport report, String error) {
+        log.warn("Transformer import stopped at rows {}-{}: {}", pending.get(0).row(), pending.get(pending.size() - 1).row(), error);
+        for (PendingRow p : pending) {
+            report.add(new RowResult(p.row(), TransformerImportReport.FAILED, p.transformer().getTransformerNumber(), error));
+        }
+        report.setLastCommittedRow(pending.get(0).row() - 1);
+        pending.clear();
+    }
+
+    private static String field(List<String> record, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        if (index == null || index >= record.size() || record.get(index).isEmpty()) {
+            return null;
+        }
+        return record.get(index);
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
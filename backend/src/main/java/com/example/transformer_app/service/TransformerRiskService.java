@@ -0,0 +1,638 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.dto.Detection;
+import com.example.transformer_app.dto.PhaseReadings;
+import com.example.transformer_app.dto.TransformerRisk;
+import com.example.transformer_app.dto.VoltageCurrentReadings;
+import com.example.transformer_app.event.AnomaliesChanged;
+import com.example.transformer_app.event.InspectionAnalyzed;
+import com.example.transformer_app.event.MaintenanceDeleted;
+import com.example.transformer_app.event.MaintenanceSaved;
+import com.example.transformer_app.event.TransformerSaved;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.model.Inspection;
+import com.example.transformer_app.model.Maintenance;
+import com.example.transformer_app.model.Transformer;
+import com.example.transformer_app.tracing.Spans;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Per-transformer risk score (0-100) from three components, each in [0, 1]:
+ * <ul>
+ *   <li>anomalies of the latest inspection: each box's severity is class weight x certainty (AI
+ *   confidence, 1 for user boxes) x size factor, and the boxes combine as 1 - prod(1 - severity),
+ *   so more or worse boxes always raise the score without exceeding 1;</li>
+ *   <li>phase imbalance of the latest maintenance readings (second inspection readings, else the
+ *   first), current and voltage each against their own limit;</li>
+ *   <li>loading: currentMonthKVA over capacity, or the next month projected from lastMonthKVA if
+ *   that is higher, scaled between loading.low and loading.high.</li>
+ * </ul>
+ * Inputs are kept per transformer and a change to one of them rescores only that transformer.
+ * Scores are indexed in a sorted set per region and one for the fleet, so the top N is the first
+ * N entries. A rebuild reloads all inputs from the transformers, inspections and maintenance tables
+ * and scores the fleet on all cores.
+ */
+@Service
+public class TransformerRiskService extends RebuildableIndex {
+
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+(?:\\.\\d+)?");
+    private static final int ANOMALY_FETCH_BATCH = 100;
+
+    @Value("${risk.weight.anomalies:0.5}")
+    private double anomalyWeight;
+
+    @Value("${risk.weight.imbalance:0.25}")
+    private double imbalanceWeight;
+
+    @Value("${risk.weight.loading:0.25}")
+    private double loadingWeight;
+
+    // Class weight of the "... - Potential" classes; faulty classes weigh 1 and "normal" 0
+    @Value("${risk.class-weight.potential:0.5}")
+    private double potentialClassWeight;
+
+    // Boxes of at least this many square pixels count fully, smaller ones down to half
+    @Value("${risk.reference-box-area:10000}")
+    private double referenceBoxArea;
+
+    @Value("${risk.imbalance.current-limit:0.2}")
+    private double currentImbalanceLimit;
+
+    @Value("${risk.imbalance.voltage-limit:0.05}")
+    private double voltageImbalanceLimit;
+
+    @Value("${risk.loading.low:0.7}")
+    private double loadingLow;
+
+    @Value("${risk.loading.high:1.2}")
+    private double loadingHigh;
+
+    // 0 uses every available core
+    @Value("${risk.recompute.parallelism:0}")
+    private int parallelism;
+
+    @Value("${risk.recompute.on-startup:true}")
+    private boolean recomputeOnStartup;
+
+    private static final class Inputs {
+        final String transformerNumber;
+        String region = UNKNOWN;
+        Integer capacity;
+        Long iid;
+        final Map<String, Detection> anomalies = new LinkedHashMap<>();
+        Long mid;
+        VoltageCurrentReadings readings;
+        Double lastMonthKVA;
+        Double currentMonthKVA;
+
+        Inputs(String transformerNumber) {
+            this.transformerNumber = transformerNumber;
+        }
+    }
+
+    private record MaintenanceReadings(long mid, VoltageCurrentReadings readings, Double lastMonthKVA, Double currentMonthKVA) {
+    }
+
+    private record Ranked(double score, String transformerNumber) {
+    }
+
+    private static final Comparator<Ranked> RISKIEST_FIRST =
+            Comparator.comparingDouble(Ranked::score).reversed().thenComparing(Ranked::transformerNumber);
+
+    // Everything below is guarded by this
+    private Map<String, Inputs> inputs = new HashMap<>();
+    private Map<Long, String> latestIids = new HashMap<>();                // latest iid -> transformerNumber
+    private Map<String, String> inspectionTransformers = new HashMap<>();  // inspectionNumber -> transformerNumber
+    private Map<String, TransformerRisk> risks = new HashMap<>();
+    private TreeSet<Ranked> fleet = new TreeSet<>(RISKIEST_FIRST);
+    private Map<String, TreeSet<Ranked>> byRegion = new HashMap<>();
+
+    public TransformerRiskService(RestTemplate restTemplate, JsonCodecs jsonCodecs, UpstreamMetrics upstreamMetrics, Spans spans) {
+        super("transformer risk", restTemplate, jsonCodecs, upstreamMetrics, spans);
+    }
+
+    // ---- incremental updates; each one is a final-state write, so replaying it is harmless ----
+
+    @EventListener
+    public void onTransformer(TransformerSaved event) {
+        onTransformer(event.transformer());
+    }
+
+    private void onTransformer(Transformer transformer) {
+        if (transformer == null || transformer.getTransformerNumber() == null) {
+            return;
+        }
+        String region = orUnknown(transformer.getRegion());
+        Integer capacity = transformer.getCapacity();
+        apply(() -> {
+            Inputs in = inputs.computeIfAbsent(transformer.getTransformerNumber(), Inputs::new);
+            in.region = region;
+            in.capacity = capacity;
+            rescore(in);
+        });
+    }
+
+    /**
+     * A new analysis replaced all anomalies of an inspection (or created it). Only the latest
+     * inspection of a transformer counts, so results for an older one are ignored.
+     */
+    @EventListener
+    public void onInspection(InspectionAnalyzed event) {
+        Long iid = event.inspection().getIid();
+        String transformerNumber = event.inspection().getTransformerNumber();
+        String inspectionNumber = event.inspection().getInspectionNumber();
+        if (iid == null || transformerNumber == null) {
+            return;
+        }
+        ensureTransformerKnown(transformerNumber);
+        apply(() -> {
+            if (inspectionNumber != null) {
+                inspectionTransformers.put(inspectionNumber, transformerNumber);
+            }
+            Inputs in = inputs.computeIfAbsent(transformerNumber, Inputs::new);
+            if (in.iid != null && in.iid > iid) {
+                return;
+            }
+            if (in.iid != null) {
+                latestIids.remove(in.iid);
+            }
+            in.iid = iid;
+            latestIids.put(iid, transformerNumber);
+            in.anomalies.clear();
+            event.anomalies().forEach(anomaly -> putAnomaly(in, anomaly));
+            rescore(in);
+        });
+    }
+
+    // Anomaly-ops delta: the final state of the changed anomalies and the removed ids
+    @EventListener
+    public void onAnomaliesChanged(AnomaliesChanged event) {
+        apply(() -> {
+            String transformerNumber = latestIids.get(event.iid());
+            Inputs in = transformerNumber != null ? inputs.get(transformerNumber) : null;
+            if (in == null) {
+                return;
+            }
+            event.removed().forEach(in.anomalies::remove);
+            event.changed().forEach(anomaly -> putAnomaly(in, anomaly));
+            rescore(in);
+        });
+    }
+
+    // A maintenance record was written; its readings replace older ones of the same transformer
+    @EventListener
+    public void onMaintenance(MaintenanceSaved event) {
+        Maintenance maintenance = event.maintenance();
+        MaintenanceReadings readings = readingsOf(maintenance);
+        if (readings == null || maintenance.getInspectionNumber() == null) {
+            return;
+        }
+        String transformerNumber;
+        synchronized (this) {
+            transformerNumber = inspectionTransformers.get(maintenance.getInspectionNumber());
+        }
+        if (transformerNumber == null) {
+            transformerNumber = lookUpTransformerOfInspection(maintenance.getInspectionNumber());
+            if (transformerNumber == null) {
+                return;
+            }
+        }
+        ensureTransformerKnown(transformerNumber);
+        String owner = transformerNumber;
+        apply(() -> {
+            inspectionTransformers.put(maintenance.getInspectionNumber(), owner);
+            Inputs in = inputs.computeIfAbsent(owner, Inputs::new);
+            if (applyReadings(in, readings)) {
+                rescore(in);
+            }
+        });
+    }
+
+    // Older readings of the transformer come back with the next rebuild
+    @EventListener
+    public void onMaintenanceDeleted(MaintenanceDeleted event) {
+        Long mid = event.mid();
+        if (mid == null) {
+            return;
+        }
+        apply(() -> {
+            for (Inputs in : inputs.values()) {
+                if (mid.equals(in.mid)) {
+                    in.mid = null;
+                    in.readings = null;
+                    in.lastMonthKVA = null;
+                    in.currentMonthKVA = null;
+                    rescore(in);
+                }
+            }
+        });
+    }
+
+    private static void putAnomaly(Inputs in, Detection anomaly) {
+        if (anomaly != null && anomaly.getId() != null) {
+            in.anomalies.put(anomaly.getId(), anomaly);
+        }
+    }
+
+    private static boolean applyReadings(Inputs in, MaintenanceReadings readings) {
+        if (in.mid != null && in.mid > readings.mid()) {
+            return false;
+        }
+        in.mid = readings.mid();
+        in.readings = readings.readings();
+        in.lastMonthKVA = readings.lastMonthKVA();
+        in.currentMonthKVA = readings.currentMonthKVA();
+        return true;
+    }
+
+    private void rescore(Inputs in) {
+        TransformerRisk risk = score(in, Instant.now().toString());
+        TransformerRisk old = risks.put(in.transformerNumber, risk);
+        if (old != null) {
+            unrank(old);
+        }
+        rank(risk);
+    }
+
+    private void rank(TransformerRisk risk) {
+        Ranked ranked = new Ranked(risk.getScore(), risk.getTransformerNumber());
+        fleet.add(ranked);
+        byRegion.computeIfAbsent(risk.getRegion(), r -> new TreeSet<>(RISKIEST_FIRST)).add(ranked);
+    }
+
+    private void unrank(TransformerRisk risk) {
+        Ranked ranked = new Ranked(risk.getScore(), risk.getTransformerNumber());
+        fleet.remove(ranked);
+        TreeSet<Ranked> region = byRegion.get(risk.getRegion());
+        if (region != null) {
+            region.remove(ranked);
+            if (region.isEmpty()) {
+                byRegion.remove(risk.getRegion());
+            }
+        }
+    }
+
+    // ---- queries ----
+
+    // The limit riskiest transformers, of one region or (region null) of the fleet; O(limit)
+    public synchronized List<TransformerRisk> top(String region, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1");
+        }
+        TreeSet<Ranked> ranking = region == null || region.isBlank() ? fleet : byRegion.get(region);
+        if (ranking == null) {
+            return List.of();
+        }
+        List<TransformerRisk> top = new ArrayList<>(Math.min(limit, ranking.size()));
+        for (Ranked ranked : ranking) {
+            if (top.size() == limit) {
+                break;
+            }
+            top.add(risks.get(ranked.transformerNumber()));
+        }
+        return top;
+    }
+
+    public synchronized TransformerRisk risk(String transformerNumber) {
+        TransformerRisk risk = risks.get(transformerNumber);
+        if (risk == null) {
+            throw new RuntimeException("Risk score for transformer " + transformerNumber + " not found");
+        }
+        return risk;
+    }
+
+    // ---- scoring ----
+
+    private TransformerRisk score(Inputs in, String computedAt) {
+        TransformerRisk risk = new TransformerRisk();
+        risk.setTransformerNumber(in.transformerNumber);
+        risk.setRegion(in.region);
+        risk.setComputedAt(computedAt);
+
+        double clear = 1.0;
+        for (Detection anomaly : in.anomalies.values()) {
+            clear *= 1.0 - severity(anomaly);
+        }
+        double anomalyComponent = 1.0 - clear;
+        risk.setInspectionIid(in.iid);
+        risk.setAnomalies(in.anomalies.size());
+
+        double imbalanceComponent = 0.0;
+        if (in.readings != null) {
+            Double current = imbalance(in.readings.getCurrent());
+            Double voltage = imbalance(in.readings.getVoltage());
+            if (current != null) {
+                imbalanceComponent = Math.max(imbalanceComponent, clamp(current / currentImbalanceLimit));
+            }
+            if (voltage != null) {
+                imbalanceComponent = Math.max(imbalanceComponent, clamp(voltage / voltageImbalanceLimit));
+            }
+            risk.setCurrentImbalance(current);
+            risk.setVoltageImbalance(voltage);
+        }
+        risk.setMaintenanceMid(in.mid);
+
+        double loadingComponent = 0.0;
+        if (in.capacity != null && in.capacity > 0 && in.currentMonthKVA != null) {
+            double loading = in.currentMonthKVA / in.capacity;
+            double projected = in.lastMonthKVA != null ? (2 * in.currentMonthKVA - in.lastMonthKVA) / in.capacity : loading;
+            loadingComponent = clamp((Math.max(loading, projected) - loadingLow) / (loadingHigh - loadingLow));
+            risk.setLoading(loading);
+            risk.setProjectedLoading(projected);
+        }
+
+        risk.setAnomalyComponent(anomalyComponent);
+        risk.setImbalanceComponent(imbalanceComponent);
+        risk.setLoadingComponent(loadingComponent);
+        double weights = anomalyWeight + imbalanceWeight + loadingWeight;
+        double score = weights > 0
+                ? 100.0 * (anomalyWeight * anomalyComponent + imbalanceWeight * imbalanceComponent + loadingWeight * loadingComponent) / weights
+                : 0.0;
+        risk.setScore(Math.round(score * 10.0) / 10.0);
+        return risk;
+    }
+
+    private double severity(Detection anomaly) {
+        double certainty = "AI".equals(anomaly.getMadeBy()) && anomaly.getConfidence() != null ? anomaly.getConfidence() : 1.0;
+        double size = 1.0;
+        List<Double> box = anomaly.getBox();
+        // Boxes are pixel [x_center, y_center, width, height]
+        if (box != null && box.size() >= 4 && box.get(2) != null && box.get(3) != null && referenceBoxArea > 0) {
+            size = 0.5 + 0.5 * clamp(Math.abs(box.get(2) * box.get(3)) / referenceBoxArea);
+        }
+        return clamp(classWeight(anomaly.getClassName()) * clamp(certainty) * size);
+    }
+
+    private double classWeight(String className) {
+        if (className == null) {
+            return potentialClassWeight;
+        }
+        if (className.equalsIgnoreCase("normal")) {
+            return 0.0;
+        }
+        return className.contains("Potential") ? potentialClassWeight : 1.0;
+    }
+
+    // Largest deviation of a phase from the three-phase average, relative to that average
+    private static Double imbalance(PhaseReadings phases) {
+        if (phases == null || phases.getR() == null || phases.getY() == null || phases.getB() == null) {
+            return null;
+        }
+        double average = (phases.getR() + phases.getY() + phases.getB()) / 3.0;
+        if (average <= 0) {
+            return null;
+        }
+        double deviation = Math.max(Math.abs(phases.getR() - average),
+                Math.max(Math.abs(phases.getY() - average), Math.abs(phases.getB() - average)));
+        return deviation / average;
+    }
+
+    private static double clamp(double value) {
+        return Double.isNaN(value) ? 0.0 : Math.max(0.0, Math.min(1.0, value));
+    }
+
+    private MaintenanceReadings readingsOf(Maintenance maintenance) {
+        if (maintenance == null || maintenance.getMid() == null || maintenance.getDetails() == null || maintenance.getDetails().isEmpty()) {
+            return null;
+        }
+        Map<String, Object> details = maintenance.getDetails();
+        VoltageCurrentReadings readings = null;
+        try {
+            readings = jsonCodecs.readReadings(details.get("secondInspectionReadings"));
+            if (!hasReadings(readings)) {
+                readings = jsonCodecs.readReadings(details.get("firstInspectionReadings"));
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Unreadable readings in maintenance {}: {}", maintenance.getMid(), e.getMessage());
+        }
+        return new MaintenanceReadings(maintenance.getMid(), hasReadings(readings) ? readings : null,
+                parseKva(details.get("lastMonthKVA")), parseKva(details.get("currentMonthKVA")));
+    }
+
+    private static boolean hasReadings(VoltageCurrentReadings readings) {
+        return readings != null && (imbalance(readings.getCurrent()) != null || imbalance(readings.getVoltage()) != null);
+    }
+
+    // The form stores kVA as free text ("250", "250 kVA"); the first number wins
+    private static Double parseKva(Object value) {
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        if (value == null) {
+            return null;
+        }
+        Matcher matcher = NUMBER.matcher(value.toString());
+        return matcher.find() ? Double.valueOf(matcher.group()) : null;
+    }
+
+    // ---- rebuild ----
+
+    @Override
+    Map<Table, List<String>> columns() {
+        return Map.of(
+                Table.TRANSFORMERS, List.of("transformerNumber", "region", "capacity"),
+                Table.INSPECTIONS, List.of("transformerNumber", "inspectionNumber"),
+                Table.MAINTENANCE, List.of("inspectionNumber", "details"));
+    }
+
+    @Override
+    boolean buildOnStartup() {
+        return recomputeOnStartup;
+    }
+
+    /**
+     * Keeps the latest inspection per transformer and per inspection the readings of its last
+     * maintenance record. A rebuild of this index alone doesn't read the anomalies column, so the
+     * anomalies of the latest inspections are then read by iid afterwards; a shared rebuild that
+     * reads them anyway hands them over directly. The fleet is scored on risk.recompute.parallelism
+     * threads (all cores by default) before the swap.
+     */
+    @Override
+    Build newBuild(Map<Table, List<String>> read) {
+        boolean anomaliesRead = read.getOrDefault(Table.INSPECTIONS, List.of()).contains("anomalies");
+        Map<String, Inputs> fresh = new HashMap<>();
+        Map<String, Inspection> latest = new HashMap<>();
+        Map<String, String> freshInspectionTransformers = new HashMap<>();
+        Map<String, MaintenanceReadings> readings = new HashMap<>();
+        Map<Long, String> freshLatest = new HashMap<>();
+        List<TransformerRisk> scored = new ArrayList<>();
+        return new Build() {
+            @Override
+            public void transformers(List<Transformer> page) {
+                for (Transformer transformer : page) {
+                    if (transformer.getTransformerNumber() != null) {
+                        Inputs in = fresh.computeIfAbsent(transformer.getTransformerNumber(), Inputs::new);
+                        in.region = orUnknown(transformer.getRegion());
+                        in.capacity = transformer.getCapacity();
+                    }
+                }
+            }
+
+            @Override
+            public void inspections(List<Inspection> page) {
+                for (Inspection inspection : page) {
+                    if (inspection.getTransformerNumber() == null) {
+                        continue;
+                    }
+                    if (inspection.getInspectionNumber() != null) {
+                        freshInspectionTransformers.put(inspection.getInspectionNumber(), inspection.getTransformerNumber());
+                    }
+                    latest.merge(inspection.getTransformerNumber(), inspection, (a, b) -> a.getIid() > b.getIid() ? a : b);
+                }
+            }
+
+            // In mid order, so per inspection the last record with readings wins
+            @Override
+            public void maintenance(List<Maintenance> page) {
+                for (Maintenance maintenance : page) {
+                    MaintenanceReadings record = readingsOf(maintenance);
+                    if (maintenance.getInspectionNumber() != null && record != null) {
+                        readings.put(maintenance.getInspectionNumber(), record);
+                    }
+                }
+            }
+
+            @Override
+            public void complete() throws IOException {
+                int threads = threads();
+                Map<Long, List<Detection>> anomalies = new HashMap<>();
+                if (anomaliesRead) {
+                    latest.values().forEach(inspection -> anomalies.put(inspection.getIid(),
+                            inspection.getAnomalies() != null ? inspection.getAnomalies() : List.of()));
+                } else {
+                    anomalies.putAll(fetchAnomalies(latest.values().stream().map(Inspection::getIid).toList(), threads));
+                }
+                latest.forEach((transformerNumber, inspection) -> {
+                    Inputs in = fresh.computeIfAbsent(transformerNumber, Inputs::new);
+                    in.iid = inspection.getIid();
+                    anomalies.getOrDefault(in.iid, List.of()).forEach(anomaly -> putAnomaly(in, anomaly));
+                    freshLatest.put(in.iid, transformerNumber);
+                });
+                readings.forEach((inspectionNumber, record) -> {
+                    String transformerNumber = freshInspectionTransformers.get(inspectionNumber);
+                    if (transformerNumber != null) {
+                        applyReadings(fresh.computeIfAbsent(transformerNumber, Inputs::new), record);
+                    }
+                });
+                scored.addAll(scoreAll(fresh.values(), Instant.now().toString(), threads));
+            }
+
+            @Override
+            public void install() {
+                inputs = fresh;
+                latestIids = freshLatest;
+                inspectionTransformers = freshInspectionTransformers;
+                risks = new HashMap<>();
+                fleet = new TreeSet<>(RISKIEST_FIRST);
+                byRegion = new HashMap<>();
+                for (TransformerRisk risk : scored) {
+                    risks.put(risk.getTransformerNumber(), risk);
+                    rank(risk);
+                }
+            }
+        };
+    }
+
+    @Override
+    Map<String, Object> summary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("transformers", risks.size());
+        summary.put("regions", byRegion.size());
+        summary.put("threads", threads());
+        return summary;
+    }
+
+    private int threads() {
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    private List<TransformerRisk> scoreAll(Collection<Inputs> all, String computedAt, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            // A parallel stream started from inside the pool runs its tasks in that pool
+            return pool.submit(() -> all.parallelStream().map(in -> score(in, computedAt)).collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scoring transformers", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException runtime ? runtime : new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Anomalies of the given inspections, read in batches that run concurrently
+    private Map<Long, List<Detection>> fetchAnomalies(List<Long> iids, int threads) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "transformer-risk-anomalies");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<CompletableFuture<List<Inspection>>> batches = new ArrayList<>();
+            for (int from = 0; from < iids.size(); from += ANOMALY_FETCH_BATCH) {
+                String ids = iids.subList(from, Math.min(iids.size(), from + ANOMALY_FETCH_BATCH)).stream()
+                        .map(String::valueOf)
+                        .collect(Collectors.joining(","));
+                String url = supabaseUrl + "/rest/v1/inspections?select=iid,anomalies&iid=in.(" + ids + ")";
+                batches.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return jsonCodecs.readInspections(upstreamMetrics.record("list-latest-anomalies-for-risk",
+                                () -> restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers()), String.class)).getBody());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, pool));
+            }
+            Map<Long, List<Detection>> anomalies = new HashMap<>();
+            for (CompletableFuture<List<Inspection>> batch : batches) {
+                for (Inspection inspection : batch.join()) {
+                    if (inspection.getAnomalies() != null) {
+                        anomalies.put(inspection.getIid(), inspection.getAnomalies());
+                    }
+                }
+            }
+            return anomalies;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e.getCause() instanceof RuntimeException runtime ? runtime : e;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // A transformer created since the last rebuild: look it up once for its region and capacity
+    private void ensureTransformerKnown(String transformerNumber) {
+        synchronized (this) {
+            if (inputs.containsKey(transformerNumber)) {
+                return;
+            }
+        }
+        Transformer transformer = lookUpTransformer(transformerNumber, "transformerNumber,region,capacity");
+        if (transformer != null) {
+            onTransformer(transformer);
+        }
+    }
+}
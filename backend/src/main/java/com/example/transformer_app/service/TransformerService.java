@@ -1,9 +1,15 @@
 // src/main/java/com/example/transformer_app/service/TransformerService.java
 package com.example.transformer_app.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.transformer_app.cache.EtagCache;
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.event.BaselineImageChanged;
+import com.example.transformer_app.event.TransformerSaved;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.model.Transformer;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpClientErrorException;
@@ -29,8 +35,23 @@ public class TransformerService {
     @Value("${supabase.bucket.name}")
     private String bucketName;
 
-    private final RestTemplate restTemplate = new RestTemplate();
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final RestTemplate restTemplate;
+    private final JsonCodecs jsonCodecs;
+    private final EtagCache etagCache;
+    private final UpstreamMetrics upstreamMetrics;
+    private final NumberAllocator numberAllocator;
+    private final ApplicationEventPublisher events;
+
+    @Autowired
+    public TransformerService(RestTemplate restTemplate, JsonCodecs jsonCodecs, EtagCache etagCache, UpstreamMetrics upstreamMetrics, NumberAllocator numberAllocator,
+                              ApplicationEventPublisher events) {
+        this.restTemplate = restTemplate;
+        this.jsonCodecs = jsonCodecs;
+        this.etagCache = etagCache;
+        this.upstreamMetrics = upstreamMetrics;
+        this.numberAllocator = numberAllocator;
+        this.events = events;
+    }
 
     /**
      * Creates a transformer. The image can be null or empty.
@@ -46,7 +67,7 @@ public class TransformerService {
     ) throws IOException {
         // If the caller didn't provide a transformer number, generate one server-side
         if (transformerNumber == null || transformerNumber.trim().isEmpty()) {
-            transformerNumber = generateUniqueTransformerNumber();
+            transformerNumber = numberAllocator.next(NumberAllocator.Kind.TRANSFORMER);
         }
 
         String imageUrl = "";
@@ -59,35 +80,34 @@ public class TransformerService {
         dbHeaders.setContentType(MediaType.APPLICATION_JSON);
         dbHeaders.set("Prefer", "return=representation");
 
-        Map<String, Object> body = new HashMap<>();
-        body.put("transformerNumber", transformerNumber);
-        body.put("poleNumber", poleNumber);
-        body.put("region", region);
-        body.put("type", type);
-        body.put("locationDetails", locationDetails);
+        Transformer body = new Transformer();
+        body.setTransformerNumber(transformerNumber);
+        body.setPoleNumber(poleNumber);
+        body.setRegion(region);
+        body.setType(type);
+        body.setLocationDetails(locationDetails);
 
         // Convert capacity to integer if not null (database expects bigint, not decimal)
-        if (capacity != null) {
-            body.put("capacity", capacity.intValue());
-        } else {
-            body.put("capacity", null);
-        }
+        body.setCapacity(capacity != null ? capacity.intValue() : null);
 
-        body.put("baselineImage", imageUrl);
+        body.setBaselineImage(imageUrl);
 
         String dbUrl = supabaseUrl + "/rest/v1/transformers";
-        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(body, dbHeaders);
+        HttpEntity<Transformer> requestEntity = new HttpEntity<>(body, dbHeaders);
 
-        return restTemplate.exchange(dbUrl, HttpMethod.POST, requestEntity, String.class);
+        ResponseEntity<String> response = upstreamMetrics.record("insert-transformer", () -> restTemplate.exchange(dbUrl, HttpMethod.POST, requestEntity, String.class));
+        events.publishEvent(new TransformerSaved(body));
+        events.publishEvent(new BaselineImageChanged(transformerNumber, imageUrl));
+        return response;
     }
 
     /**
      * Updates the baseline image for an existing transformer by its ID
-     * by replacing the entire record (using PUT).
+     * (using PATCH on just the baselineImage column).
      */
     public ResponseEntity<String> updateTransformerBaselineImage(Long id, MultipartFile baselineImage) throws IOException {
-        // First, get the existing transformer record
-        Map<String, Object> existingTransformer = getTransformerById(id);
+        // First, make sure the transformer record exists
+        Transformer existingTransformer = getTransformerById(id);
         if (existingTransformer == null) {
             throw new RuntimeException("Transformer with ID " + id + " not found");
         }
@@ -98,39 +118,44 @@ public class TransformerService {
             imageUrl = uploadImage(baselineImage);
         }
 
-        // Prepare the updated record with all existing fields plus new image
         HttpHeaders dbHeaders = getHeaders();
         dbHeaders.setContentType(MediaType.APPLICATION_JSON);
         dbHeaders.set("Prefer", "return=representation");
 
-        Map<String, Object> updatedBody = new HashMap<>(existingTransformer);
-        updatedBody.put("baselineImage", imageUrl);
+        // PATCH only the columns we're changing instead of round-tripping the whole row
+        Map<String, Object> updateFields = new HashMap<>();
+        updateFields.put("baselineImage", imageUrl);
+        // Variants of the old baseline go with it; listings use the original until new ones are written
+        updateFields.put("baselineImageThumb", null);
+        updateFields.put("baselineImageMedium", null);
 
-        // Use PUT to update the entire record
         String dbUrl = supabaseUrl + "/rest/v1/transformers?id=eq." + id;
-        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(updatedBody, dbHeaders);
+        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(updateFields, dbHeaders);
 
-        return restTemplate.exchange(dbUrl, HttpMethod.PUT, requestEntity, String.class);
+        ResponseEntity<String> response = upstreamMetrics.record("patch-transformer-image", () -> restTemplate.exchange(dbUrl, HttpMethod.PATCH, requestEntity, String.class));
+        // Inspection detail responses embed the baseline image URL
+        etagCache.evictPrefix("inspection:");
+        events.publishEvent(new BaselineImageChanged(existingTransformer.getTransformerNumber(), imageUrl));
+        return response;
     }
 
     /**
      * Fetches a single transformer by its ID.
-     * @return A map representing the transformer, or null if not found.
+     * @return The transformer, or null if not found.
      */
-    private Map<String, Object> getTransformerById(Long id) throws IOException {
+    private Transformer getTransformerById(Long id) throws IOException {
         String url = supabaseUrl + "/rest/v1/transformers?id=eq." + id + "&select=*&limit=1";
         HttpHeaders headers = getHeaders();
         HttpEntity<String> entity = new HttpEntity<>(headers);
         try {
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
-            List<Map<String, Object>> transformerList = objectMapper.readValue(response.getBody(), new TypeReference<List<Map<String, Object>>>() {});
+            ResponseEntity<String> response = upstreamMetrics.record("fetch-transformer", () -> restTemplate.exchange(url, HttpMethod.GET, entity, String.class));
+            List<Transformer> transformerList = jsonCodecs.readTransformers(response.getBody());
             return transformerList.isEmpty() ? null : transformerList.get(0);
         } catch (HttpClientErrorException.NotFound e) {
             return null;
         }
     }
 
-
     /**
      * Uploads a file to a Supabase Storage bucket.
      * @return The public URL of the uploaded file.
@@ -150,7 +175,7 @@ public class TransformerService {
                 .pathSegment(bucketName, "baselineImages", fileName)
                 .toUriString();
 
-        restTemplate.exchange(storageUrl, HttpMethod.POST, storageRequestEntity, String.class);
+        upstreamMetrics.record("upload", () -> restTemplate.exchange(storageUrl, HttpMethod.POST, storageRequestEntity, String.class));
 
         return supabaseUrl + "/storage/v1/object/public/" + bucketName + "/baselineImages/" + fileName;
     }
@@ -165,38 +190,4 @@ public class TransformerService {
         return headers;
     }
 
-    /**
-     * Check whether a transformerNumber already exists in the Supabase table.
-     */
-    private boolean existsTransformerNumber(String transformerNumber) throws IOException {
-        String url = supabaseUrl + "/rest/v1/transformers?transformerNumber=eq." + transformerNumber + "&select=transformerNumber&limit=1";
-        HttpHeaders headers = getHeaders();
-        HttpEntity<String> entity = new HttpEntity<>(headers);
-        try {
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
-            List<Map<String, Object>> list = objectMapper.readValue(response.getBody(), new TypeReference<List<Map<String, Object>>>() {});
-            return !list.isEmpty();
-        } catch (HttpClientErrorException.NotFound e) {
-            return false;
-        }
-    }
-
-    /**
-     * Generate a unique transformer number in the format T-XXXXXX (6 digits). It will check the DB and retry
-     * until a unique value is found or a safety limit is exceeded.
-     */
-    private String generateUniqueTransformerNumber() throws IOException {
-        String candidate;
-        int attempts = 0;
-        do {
-            int randomNumber = (int) (Math.random() * 1_000_000); // 0 .. 999999
-            candidate = String.format("T-%06d", randomNumber);
-            attempts++;
-            if (attempts > 10000) {
-                throw new RuntimeException("Unable to generate a unique transformer number after " + attempts + " attempts");
-            }
-        } while (existsTransformerNumber(candidate));
-
-        return candidate;
-    }
 }
\ No newline at end of file
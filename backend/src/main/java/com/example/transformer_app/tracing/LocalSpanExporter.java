@@ -0,0 +1,181 @@
+package com.example.transformer_app.tracing;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Local OpenTelemetry exporter: appends every finished span as one JSON line to a file
+ * (viewable offline, e.g. with jq) and keeps the most recent spans in memory so a single
+ * trace can be fetched from /api/traces/{traceId}. Called from the SDK's batch processor thread.
+ * Once the file passes maxFileBytes it is rolled to file.1 (file.1 to file.2, ...) and at most
+ * maxFiles rolled files are kept, so the disk use stays bounded at full sampling.
+ */
+public class LocalSpanExporter implements SpanExporter {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalSpanExporter.class);
+
+    private final Path file;
+    private final int memoryCapacity;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final ObjectMapper objectMapper;
+    private final ArrayDeque<RecordedSpan> recent = new ArrayDeque<>();
+    private OutputStream writer;
+    private long fileBytes;
+
+    public LocalSpanExporter(Path file, int memoryCapacity, long maxFileBytes, int maxFiles, ObjectMapper objectMapper) {
+        this.file = file;
+        this.memoryCapacity = memoryCapacity;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public synchronized CompletableResultCode export(Collection<SpanData> spans) {
+        try {
+            OutputStream out = writer();
+            for (SpanData span : spans) {
+                RecordedSpan recorded = toRecorded(span);
+                remember(recorded);
+                if (out != null) {
+                    byte[] line = objectMapper.writeValueAsBytes(recorded);
+                    out.write(line);
+                    out.write('\n');
+                    fileBytes += line.length + 1;
+                }
+            }
+            if (out != null) {
+                out.flush();
+                if (maxFileBytes > 0 && fileBytes >= maxFileBytes) {
+                    rotate();
+                }
+            }
+            return CompletableResultCode.ofSuccess();
+        } catch (IOException e) {
+            log.warn("Could not write spans to {}: {}", file, e.getMessage());
+            return CompletableResultCode.ofFailure();
+        }
+    }
+
+    // Spans of one trace, oldest first
+    public synchronized List<RecordedSpan> trace(String traceId) {
+        List<RecordedSpan> result = new ArrayList<>();
+        for (RecordedSpan span : recent) {
+            if (span.traceId().equals(traceId)) {
+                result.add(span);
+            }
+        }
+        result.sort(Comparator.comparingLong(RecordedSpan::startEpochMicros));
+        return result;
+    }
+
+    // Root spans (one per trace) of the most recent traces, newest first
+    public synchronized List<RecordedSpan> recentRoots(int limit) {
+        List<RecordedSpan> roots = new ArrayList<>();
+        Iterator<RecordedSpan> it = recent.descendingIterator();
+        while (it.hasNext() && roots.size() < limit) {
+            RecordedSpan span = it.next();
+            if (span.parentSpanId() == null) {
+                roots.add(span);
+            }
+        }
+        return roots;
+    }
+
+    @Override
+    public synchronized CompletableResultCode flush() {
+        try {
+            if (writer != null) {
+                writer.flush();
+            }
+            return CompletableResultCode.ofSuccess();
+        } catch (IOException e) {
+            return CompletableResultCode.ofFailure();
+        }
+    }
+
+    @Override
+    public synchronized CompletableResultCode shutdown() {
+        try {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+            return CompletableResultCode.ofSuccess();
+        } catch (IOException e) {
+            return CompletableResultCode.ofFailure();
+        }
+    }
+
+    private OutputStream writer() throws IOException {
+        if (writer == null && file != null) {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            writer = new BufferedOutputStream(Files.newOutputStream(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+            fileBytes = Files.size(file);
+        }
+        return writer;
+    }
+
+    // Shift file.N-1 to file.N down to file to file.1, dropping the oldest; the next export reopens file
+    private void rotate() throws IOException {
+        writer.close();
+        writer = null;
+        if (maxFiles < 1) {
+            Files.deleteIfExists(file);
+            return;
+        }
+        Files.deleteIfExists(rolled(maxFiles));
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path from = rolled(i);
+            if (Files.exists(from)) {
+                Files.move(from, rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(file, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path rolled(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    private void remember(RecordedSpan span) {
+        if (recent.size() >= memoryCapacity) {
+            recent.removeFirst();
+        }
+        recent.addLast(span);
+    }
+
+    private static RecordedSpan toRecorded(SpanData span) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        span.getAttributes().forEach((key, value) -> attributes.put(key.getKey(), String.valueOf(value)));
+        String parent = span.getParentSpanContext().isValid() ? span.getParentSpanId() : null;
+        return new RecordedSpan(
+                span.getTraceId(),
+                span.getSpanId(),
+                parent,
+                span.getName(),
+                span.getKind().name(),
+                span.getStartEpochNanos() / 1_000,
+                (span.getEndEpochNanos() - span.getStartEpochNanos()) / 1_000,
+                span.getStatus().getStatusCode().name(),
+                attributes
+        );
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.transformer_app.tracing;
+
+import java.util.Map;
+
+// One finished span as written to the local trace file and kept in memory
+public record RecordedSpan(
+        String traceId,
+        String spanId,
+        String parentSpanId,
+        String name,
+        String kind,
+        long startEpochMicros,
+        long durationMicros,
+        String status,
+        Map<String, String> attributes
+) {
+}
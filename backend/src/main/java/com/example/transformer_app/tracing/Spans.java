@@ -0,0 +1,44 @@
+package com.example.transformer_app.tracing;
+
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.Tracer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs a block of work inside a named child span of the current trace. Outbound RestTemplate
+ * calls made inside the block become children of it and carry its context in traceparent.
+ */
+@Component
+public class Spans {
+
+    private final Tracer tracer;
+
+    public Spans(ObjectProvider<Tracer> tracer) {
+        this.tracer = tracer.getIfAvailable(() -> Tracer.NOOP);
+    }
+
+    @FunctionalInterface
+    public interface SpanCall<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    public <T, E extends Exception> T inSpan(String name, SpanCall<T, E> call) throws E {
+        Span span = tracer.nextSpan().name(name).start();
+        try (Tracer.SpanInScope ignored = tracer.withSpan(span)) {
+            return call.call();
+        } catch (Exception e) {
+            span.error(e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    public void tag(String key, String value) {
+        Span current = tracer.currentSpan();
+        if (current != null) {
+            current.tag(key, value);
+        }
+    }
+}
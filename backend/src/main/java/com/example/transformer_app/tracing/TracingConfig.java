@@ -0,0 +1,24 @@
+package com.example.transformer_app.tracing;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+
+@Configuration
+public class TracingConfig {
+
+    // Spring Boot's OpenTelemetry auto-configuration feeds every SpanExporter bean through a
+    // batch span processor, so this is the only wiring needed for local export
+    @Bean
+    public LocalSpanExporter localSpanExporter(
+            @Value("${tracing.export.file:traces/spans.jsonl}") String file,
+            @Value("${tracing.export.memory-spans:10000}") int memorySpans,
+            @Value("${tracing.export.max-file-bytes:104857600}") long maxFileBytes,
+            @Value("${tracing.export.max-files:5}") int maxFiles,
+            ObjectMapper objectMapper) {
+        return new LocalSpanExporter(file.isBlank() ? null : Path.of(file), memorySpans, maxFileBytes, maxFiles, objectMapper);
+    }
+}
@@ -0,0 +1,41 @@
+-- Hi/lo allocation of T-/I-/M-XXXXXX numbers.
+-- Each call to reserve_number_block hands out one block of 100 numbers from a per-kind sequence;
+-- the backend keeps the block in memory and creates records without touching the database again
+-- until it runs out. Sequences are shared by all backend instances, so blocks never overlap.
+-- Numbers already taken by older, randomly generated rows are left out of the returned block.
+
+CREATE SEQUENCE IF NOT EXISTS transformer_number_block_seq MINVALUE 0 START 0 MAXVALUE 9999;
+CREATE SEQUENCE IF NOT EXISTS inspection_number_block_seq MINVALUE 0 START 0 MAXVALUE 9999;
+CREATE SEQUENCE IF NOT EXISTS maintenance_number_block_seq MINVALUE 0 START 0 MAXVALUE 9999;
+
+CREATE OR REPLACE FUNCTION reserve_number_block(kind text)
+RETURNS SETOF text
+LANGUAGE plpgsql
+AS $$
+DECLARE
+    block_size CONSTANT int := 100;
+    hi bigint;
+    prefix text;
+    tbl text;
+    col text;
+BEGIN
+    CASE kind
+        WHEN 'transformer' THEN
+            hi := nextval('transformer_number_block_seq'); prefix := 'T-'; tbl := 'transformers'; col := 'transformerNumber';
+        WHEN 'inspection' THEN
+            hi := nextval('inspection_number_block_seq'); prefix := 'I-'; tbl := 'inspections'; col := 'inspectionNumber';
+        WHEN 'maintenance' THEN
+            hi := nextval('maintenance_number_block_seq'); prefix := 'M-'; tbl := 'maintenance'; col := 'maintenanceNumber';
+        ELSE
+            RAISE EXCEPTION 'unknown number kind %', kind;
+    END CASE;
+
+    RETURN QUERY EXECUTE format(
+        'SELECT c FROM (SELECT %L || lpad(n::text, 6, ''0'') AS c
+                          FROM generate_series($1, $2) AS n) candidates
+          WHERE NOT EXISTS (SELECT 1 FROM %I t WHERE t.%I = candidates.c)
+          ORDER BY c',
+        prefix, tbl, col)
+    USING hi * block_size, hi * block_size + block_size - 1;
+END;
+$$;
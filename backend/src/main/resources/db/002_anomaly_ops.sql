@@ -0,0 +1,107 @@
+-- Delta updates of inspections.anomalies and "anomaliesLog", keyed by anomaly id.
+-- The backend sends only the operations ({op, id, anomaly | fields}); the function locks the row,
+-- applies them in order, appends one log entry per operation and returns only the final state of the
+-- touched elements: {"changed": [<anomaly>, ...], "removed": ["<id>", ...]}
+-- Unknown inspection or anomaly ids raise PT404, which PostgREST turns into HTTP 404, and
+-- nothing is written. Operations:
+--   add    {anomaly}        append (id and madeBy are filled in by the backend)
+--   edit   {id, anomaly}    replace the element, keeping its id and madeBy
+--   merge  {id, fields}     overwrite only the given fields (box, class, confidence)
+--   delete {id}             remove the element
+-- Columns holding a JSON string instead of an array (older rows) are normalised on first write.
+
+CREATE OR REPLACE FUNCTION normalize_json_array(v jsonb)
+RETURNS jsonb
+LANGUAGE sql
+IMMUTABLE
+AS $$
+    SELECT CASE jsonb_typeof(v)
+               WHEN 'array' THEN v
+               WHEN 'string' THEN (v #>> '{}')::jsonb
+               ELSE '[]'::jsonb
+           END;
+$$;
+
+CREATE OR REPLACE FUNCTION apply_anomaly_ops(p_iid bigint, p_ops jsonb)
+RETURNS jsonb
+LANGUAGE plpgsql
+AS $$
+DECLARE
+    cur jsonb;
+    entries jsonb;
+    op jsonb;
+    idx int;
+    existing jsonb;
+    item jsonb;
+    made_by text;
+    touched text[] := '{}';
+    changed jsonb;
+    removed jsonb;
+    now_text text := to_char(clock_timestamp() AT TIME ZONE 'UTC', 'YYYY-MM-DD"T"HH24:MI:SS.US"Z"');
+BEGIN
+    SELECT anomalies, "anomaliesLog" INTO cur, entries FROM inspections WHERE iid = p_iid FOR UPDATE;
+    IF NOT FOUND THEN
+        RAISE SQLSTATE 'PT404' USING MESSAGE = format('Inspection with IID %s not found', p_iid);
+    END IF;
+    cur := normalize_json_array(cur);
+    entries := normalize_json_array(entries);
+
+    FOR op IN SELECT value FROM jsonb_array_elements(p_ops) LOOP
+        IF op->>'op' = 'add' THEN
+            item := op->'anomaly';
+            made_by := 'User';
+            cur := cur || jsonb_build_array(item);
+        ELSE
+            idx := NULL;
+            SELECT (e.ord - 1)::int, e.value INTO idx, existing
+              FROM jsonb_array_elements(cur) WITH ORDINALITY AS e(value, ord)
+             WHERE e.value->>'id' = op->>'id'
+             LIMIT 1;
+            IF idx IS NULL THEN
+                RAISE SQLSTATE 'PT404' USING MESSAGE = format('Anomaly with ID %s not found in inspection %s', op->>'id', p_iid);
+            END IF;
+
+            IF op->>'op' = 'delete' THEN
+                item := existing;
+                made_by := existing->>'madeBy';
+                cur := cur - idx;
+            ELSE
+                IF op->>'op' = 'merge' THEN
+                    item := existing || (op->'fields');
+                ELSE
+                    item := op->'anomaly';
+                END IF;
+                item := item || jsonb_build_object('id', op->>'id');
+                -- madeBy can't be changed by an edit
+                made_by := 'User';
+                IF jsonb_typeof(existing->'madeBy') = 'string' THEN
+                    made_by := existing->>'madeBy';
+                    item := item || jsonb_build_object('madeBy', made_by);
+                END IF;
+                cur := jsonb_set(cur, ARRAY[idx::text], item);
+            END IF;
+        END IF;
+
+        touched := touched || (item->>'id');
+        entries := entries || jsonb_build_array(jsonb_build_object(
+            'id', COALESCE(item->>'id', ''),
+            'box', COALESCE(NULLIF(item->'box', 'null'::jsonb), '[]'::jsonb),
+            'confidence', COALESCE(NULLIF(item->'confidence', 'null'::jsonb), '0.0'::jsonb),
+            'class', COALESCE(item->>'class', ''),
+            'timestamp', now_text,
+            'madeBy', COALESCE(made_by, ''),
+            'action', CASE op->>'op' WHEN 'merge' THEN 'edit' ELSE op->>'op' END
+        ));
+    END LOOP;
+
+    UPDATE inspections SET anomalies = cur, "anomaliesLog" = entries WHERE iid = p_iid;
+
+    SELECT COALESCE(jsonb_agg(e.value), '[]'::jsonb) INTO changed
+      FROM jsonb_array_elements(cur) AS e(value)
+     WHERE e.value->>'id' = ANY (touched);
+    SELECT COALESCE(jsonb_agg(DISTINCT t.id), '[]'::jsonb) INTO removed
+      FROM unnest(touched) AS t(id)
+     WHERE NOT EXISTS (SELECT 1 FROM jsonb_array_elements(cur) AS e(value) WHERE e.value->>'id' = t.id);
+    RETURN jsonb_build_object('changed', changed, 'removed', removed);
+END;
+$$;
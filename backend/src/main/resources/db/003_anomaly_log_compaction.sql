@@ -0,0 +1,48 @@
+-- Compaction of inspections."anomaliesLog".
+-- The backend archives the head of a long log as a gzipped segment in Storage
+-- (anomalyLogArchive/{iid}/...), then calls compact_anomaly_log to swap that head for a small
+-- checkpoint (the state of each still-relevant anomaly at the cut). Entries appended after the
+-- backend read the log are kept, because the function only drops the first p_archived entries
+-- and does it under the row lock. If the head changed in the meantime, it raises PT409 (HTTP 409)
+-- and the backend discards the segment it uploaded.
+
+CREATE OR REPLACE FUNCTION inspections_with_long_anomaly_log(p_max_entries int)
+RETURNS SETOF bigint
+LANGUAGE sql
+STABLE
+AS $$
+    SELECT iid
+      FROM inspections
+     WHERE jsonb_array_length(normalize_json_array("anomaliesLog")) > p_max_entries
+     ORDER BY iid;
+$$;
+
+CREATE OR REPLACE FUNCTION compact_anomaly_log(p_iid bigint, p_archived int, p_last_archived jsonb, p_checkpoint jsonb)
+RETURNS int
+LANGUAGE plpgsql
+AS $$
+DECLARE
+    entries jsonb;
+    last_entry jsonb;
+BEGIN
+    SELECT normalize_json_array("anomaliesLog") INTO entries FROM inspections WHERE iid = p_iid FOR UPDATE;
+    IF NOT FOUND THEN
+        RAISE SQLSTATE 'PT404' USING MESSAGE = format('Inspection with IID %s not found', p_iid);
+    END IF;
+
+    last_entry := entries->(p_archived - 1);
+    IF last_entry IS NULL
+       OR last_entry->>'id' IS DISTINCT FROM p_last_archived->>'id'
+       OR last_entry->>'timestamp' IS DISTINCT FROM p_last_archived->>'timestamp'
+       OR last_entry->>'action' IS DISTINCT FROM p_last_archived->>'action' THEN
+        RAISE SQLSTATE 'PT409' USING MESSAGE = format('Anomaly log of inspection %s changed during compaction', p_iid);
+    END IF;
+
+    SELECT p_checkpoint || COALESCE(jsonb_agg(e.value ORDER BY e.ord), '[]'::jsonb) INTO entries
+      FROM jsonb_array_elements(entries) WITH ORDINALITY AS e(value, ord)
+     WHERE e.ord > p_archived;
+
+    UPDATE inspections SET "anomaliesLog" = entries WHERE iid = p_iid;
+    RETURN jsonb_array_length(entries);
+END;
+$$;
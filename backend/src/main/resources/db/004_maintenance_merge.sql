@@ -0,0 +1,32 @@
+-- One-statement maintenance edits.
+-- merge_maintenance sets the given top-level fields and shallow-merges p_details into the existing
+-- details object (details || p_details) in a single UPDATE, so concurrent edits of different detail
+-- keys no longer overwrite each other and the backend needs no read before the write. It returns
+-- the updated row like a PATCH with return=representation; an unknown mid updates no row and
+-- raises PT404, which PostgREST turns into HTTP 404.
+--   p_fields   {inspectorName?, status?, recommendedActions?, additionalRemarks?}; absent keys are kept
+--   p_details  object merged into details; NULL or {} leaves details untouched
+
+CREATE OR REPLACE FUNCTION merge_maintenance(p_mid bigint, p_fields jsonb, p_details jsonb DEFAULT NULL)
+RETURNS SETOF maintenance
+LANGUAGE plpgsql
+AS $$
+BEGIN
+    RETURN QUERY
+    UPDATE maintenance SET
+        "inspectorName" = CASE WHEN p_fields ? 'inspectorName' THEN p_fields->>'inspectorName' ELSE "inspectorName" END,
+        status = CASE WHEN p_fields ? 'status' THEN p_fields->>'status' ELSE status END,
+        "recommendedActions" = CASE WHEN p_fields ? 'recommendedActions' THEN p_fields->>'recommendedActions' ELSE "recommendedActions" END,
+        "additionalRemarks" = CASE WHEN p_fields ? 'additionalRemarks' THEN p_fields->>'additionalRemarks' ELSE "additionalRemarks" END,
+        details = CASE
+                      WHEN p_details IS NULL OR p_details = '{}'::jsonb THEN details
+                      WHEN jsonb_typeof(details) = 'object' THEN details || p_details
+                      ELSE p_details
+                  END
+     WHERE mid = p_mid
+    RETURNING *;
+    IF NOT FOUND THEN
+        RAISE SQLSTATE 'PT404' USING MESSAGE = format('Maintenance record with MID %s not found', p_mid);
+    END IF;
+END;
+$$;
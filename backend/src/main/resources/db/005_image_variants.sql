@@ -0,0 +1,11 @@
+-- Downscaled copies of uploaded images for listing pages.
+-- The backend stores a thumbnail and a medium-size JPEG next to each original in Storage
+-- (<original>.thumb.jpg, <original>.medium.jpg) and records their public URLs here once both are
+-- uploaded. NULL means the variants are not there yet; clients fall back to the original then.
+-- Rows written before this migration are filled in by POST /api/images/variants/backfill.
+
+ALTER TABLE inspections ADD COLUMN IF NOT EXISTS "refImageThumb" text;
+ALTER TABLE inspections ADD COLUMN IF NOT EXISTS "refImageMedium" text;
+
+ALTER TABLE transformers ADD COLUMN IF NOT EXISTS "baselineImageThumb" text;
+ALTER TABLE transformers ADD COLUMN IF NOT EXISTS "baselineImageMedium" text;
@@ -0,0 +1,13 @@
+-- Baseline-vs-reference thermal diff attached to each inspection.
+-- ThermalDiffService aligns the inspection's refImage with its transformer's baselineImage, and stores
+-- the regions that got hotter here: {baselineImage, refImage, maxDelta, hotFraction, regionCount,
+-- regions:[{box, pixels, meanDelta, peakDelta}], alignment, deltaThreshold, computedAt, millis}.
+-- Boxes are [x_center, y_center, width, height] on the ref image, like the detector's anomalies.
+-- NULL means no diff yet (no baseline, or not computed); GET /api/inspections/{iid}/thermal-diff fills it in.
+
+ALTER TABLE inspections ADD COLUMN IF NOT EXISTS "thermalDelta" jsonb;
+
+-- GET /api/thermal-diff/review-queue orders by the largest rise
+CREATE INDEX IF NOT EXISTS inspections_thermal_max_delta_idx
+    ON inspections ((("thermalDelta"->'maxDelta')) DESC NULLS LAST)
+    WHERE "thermalDelta" IS NOT NULL;
@@ -0,0 +1,92 @@
+-- apply_anomaly_ops (db/002_anomaly_ops.sql) also returns the log entries it appended, so the backend
+-- can count corrections (CorrectionTracker) without reading the log back:
+--   {"changed": [<anomaly>, ...], "removed": ["<id>", ...], "logged": [<log entry>, ...]}
+-- The backend drops "logged" before answering the client. Behaviour is otherwise unchanged.
+
+CREATE OR REPLACE FUNCTION apply_anomaly_ops(p_iid bigint, p_ops jsonb)
+RETURNS jsonb
+LANGUAGE plpgsql
+AS $$
+DECLARE
+    cur jsonb;
+    entries jsonb;
+    op jsonb;
+    idx int;
+    existing jsonb;
+    item jsonb;
+    made_by text;
+    touched text[] := '{}';
+    changed jsonb;
+    removed jsonb;
+    logged jsonb := '[]'::jsonb;
+    entry jsonb;
+    now_text text := to_char(clock_timestamp() AT TIME ZONE 'UTC', 'YYYY-MM-DD"T"HH24:MI:SS.US"Z"');
+BEGIN
+    SELECT anomalies, "anomaliesLog" INTO cur, entries FROM inspections WHERE iid = p_iid FOR UPDATE;
+    IF NOT FOUND THEN
+        RAISE SQLSTATE 'PT404' USING MESSAGE = format('Inspection with IID %s not found', p_iid);
+    END IF;
+    cur := normalize_json_array(cur);
+    entries := normalize_json_array(entries);
+
+    FOR op IN SELECT value FROM jsonb_array_elements(p_ops) LOOP
+        IF op->>'op' = 'add' THEN
+            item := op->'anomaly';
+            made_by := 'User';
+            cur := cur || jsonb_build_array(item);
+        ELSE
+            idx := NULL;
+            SELECT (e.ord - 1)::int, e.value INTO idx, existing
+              FROM jsonb_array_elements(cur) WITH ORDINALITY AS e(value, ord)
+             WHERE e.value->>'id' = op->>'id'
+             LIMIT 1;
+            IF idx IS NULL THEN
+                RAISE SQLSTATE 'PT404' USING MESSAGE = format('Anomaly with ID %s not found in inspection %s', op->>'id', p_iid);
+            END IF;
+
+            IF op->>'op' = 'delete' THEN
+                item := existing;
+                made_by := existing->>'madeBy';
+                cur := cur - idx;
+            ELSE
+                IF op->>'op' = 'merge' THEN
+                    item := existing || (op->'fields');
+                ELSE
+                    item := op->'anomaly';
+                END IF;
+                item := item || jsonb_build_object('id', op->>'id');
+                -- madeBy can't be changed by an edit
+                made_by := 'User';
+                IF jsonb_typeof(existing->'madeBy') = 'string' THEN
+                    made_by := existing->>'madeBy';
+                    item := item || jsonb_build_object('madeBy', made_by);
+                END IF;
+                cur := jsonb_set(cur, ARRAY[idx::text], item);
+            END IF;
+        END IF;
+
+        touched := touched || (item->>'id');
+        entry := jsonb_build_object(
+            'id', COALESCE(item->>'id', ''),
+            'box', COALESCE(NULLIF(item->'box', 'null'::jsonb), '[]'::jsonb),
+            'confidence', COALESCE(NULLIF(item->'confidence', 'null'::jsonb), '0.0'::jsonb),
+            'class', COALESCE(item->>'class', ''),
+            'timestamp', now_text,
+            'madeBy', COALESCE(made_by, ''),
+            'action', CASE op->>'op' WHEN 'merge' THEN 'edit' ELSE op->>'op' END
+        );
+        entries := entries || jsonb_build_array(entry);
+        logged := logged || jsonb_build_array(entry);
+    END LOOP;
+
+    UPDATE inspections SET anomalies = cur, "anomaliesLog" = entries WHERE iid = p_iid;
+
+    SELECT COALESCE(jsonb_agg(e.value), '[]'::jsonb) INTO changed
+      FROM jsonb_array_elements(cur) AS e(value)
+     WHERE e.value->>'id' = ANY (touched);
+    SELECT COALESCE(jsonb_agg(DISTINCT t.id), '[]'::jsonb) INTO removed
+      FROM unnest(touched) AS t(id)
+     WHERE NOT EXISTS (SELECT 1 FROM jsonb_array_elements(cur) AS e(value) WHERE e.value->>'id' = t.id);
+    RETURN jsonb_build_object('changed', changed, 'removed', removed, 'logged', logged);
+END;
+$$;
@@ -0,0 +1,29 @@
+package com.example.transformer_app;
+
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.metrics.UpstreamMetrics;
+import com.example.transformer_app.tracing.Spans;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.tracing.Tracer;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+// Real, context-free instances of the infrastructure beans the services are built from
+public final class TestSupport {
+
+    private TestSupport() {
+    }
+
+    public static JsonCodecs jsonCodecs() {
+        return new JsonCodecs(new ObjectMapper(), new SimpleMeterRegistry());
+    }
+
+    // No Tracer bean, so spans are no-ops
+    public static Spans spans() {
+        return new Spans(new StaticListableBeanFactory().getBeanProvider(Tracer.class));
+    }
+
+    public static UpstreamMetrics upstreamMetrics() {
+        return new UpstreamMetrics(new SimpleMeterRegistry(), spans());
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.transformer_app.config;
+
+import com.example.transformer_app.dto.AnomalyLogEntry;
+import com.example.transformer_app.dto.Detection;
+import com.example.transformer_app.model.Inspection;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Throughput of the inspection list round trip (read 50 rows from PostgREST JSON, write each one
+ * back out) with a new ObjectMapper per call, as the services used to do, against the shared
+ * JsonCodecs readers/writers with Blackbird. Not a unit test, so Surefire skips it; run with
+ *
+ *   mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=com.example.transformer_app.config.JsonCodecsBenchmark
+ */
+public class JsonCodecsBenchmark {
+
+    private static final int ROWS = 50;
+    private static final int WARMUP_SECONDS = 5;
+    private static final int MEASURE_SECONDS = 10;
+
+    @FunctionalInterface
+    interface RoundTrip {
+        int run(String json) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        ObjectMapper shared = new ObjectMapper().registerModule(new BlackbirdModule());
+        JsonCodecs codecs = new JsonCodecs(shared, new SimpleMeterRegistry());
+        codecs.warmUp();
+        String json = codecs.write(sampleInspections());
+        System.out.printf("payload: %d inspections, %d KB%n", ROWS, json.length() / 1024);
+
+        RoundTrip perCall = body -> {
+            List<Inspection> inspections = new ObjectMapper().readValue(body, new TypeReference<List<Inspection>>() {});
+            int written = 0;
+            for (Inspection inspection : inspections) {
+                written += new ObjectMapper().writeValueAsString(inspection).length();
+            }
+            return written;
+        };
+        RoundTrip sharedCodecs = body -> {
+            int written = 0;
+            for (Inspection inspection : codecs.readInspections(body)) {
+                written += codecs.writeInspection(inspection).length();
+            }
+            return written;
+        };
+
+        report("new ObjectMapper per call", perCall, json);
+        report("shared JsonCodecs", sharedCodecs, json);
+    }
+
+    private static void report(String label, RoundTrip roundTrip, String json) throws IOException {
+        measure(roundTrip, json, WARMUP_SECONDS);
+        double opsPerSecond = measure(roundTrip, json, MEASURE_SECONDS);
+        System.out.printf("%-28s %8.1f ops/s%n", label, opsPerSecond);
+    }
+
+    private static double measure(RoundTrip roundTrip, String json, int seconds) throws IOException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long started = System.nanoTime();
+        long ops = 0;
+        long sink = 0;
+        while (System.nanoTime() < deadline) {
+            sink += roundTrip.run(json);
+            ops++;
+        }
+        if (sink == 0) {
+            throw new IllegalStateException("Nothing was written");
+        }
+        return ops / ((System.nanoTime() - started) / 1e9);
+    }
+
+    private static List<Inspection> sampleInspections() {
+        List<Inspection> inspections = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            Inspection inspection = new Inspection();
+            inspection.setIid((long) i);
+            inspection.setTransformerNumber("AZ-" + (1000 + i % 20));
+            inspection.setInspectionNumber("INS-" + i);
+            inspection.setInspectionDate("2025-06-01T10:00:00Z");
+            inspection.setStatus("Completed");
+            inspection.setInspector("inspector-" + i % 5);
+            inspection.setRefImage("https://example.supabase.co/storage/v1/object/public/images/ref-" + i + ".jpg");
+            List<Detection> anomalies = new ArrayList<>();
+            List<AnomalyLogEntry> log = new ArrayList<>();
+            for (int d = 0; d < 12; d++) {
+                Detection detection = new Detection();
+                detection.setId(i + "-" + d);
+                detection.setBox(List.of(100.0 + d, 200.0 + d, 40.0, 30.0));
+                detection.setClassName(d % 2 == 0 ? "Faulty" : "Potentially Faulty");
+                detection.setConfidence(0.5 + d / 100.0);
+                detection.setMadeBy("AI");
+                anomalies.add(detection);
+                log.add(new AnomalyLogEntry(detection.getId(), detection.getBox(), detection.getConfidence(),
+                        detection.getClassName(), "2025-06-01T10:00:00Z", "AI", "add"));
+            }
+            inspection.setAnomalies(anomalies);
+            inspection.setAnomaliesLog(log);
+            inspections.add(inspection);
+        }
+        return inspections;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.transformer_app.inference;
+
+import ai.onnxruntime.OrtSession;
+import com.example.transformer_app.TestSupport;
+import com.example.transformer_app.dto.Detection;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class OnnxInferenceBackendTest {
+
+    private static final double DELTA = 1e-6;
+
+    private OnnxInferenceBackend backend;
+
+    @BeforeEach
+    void setUp() {
+        backend = new OnnxInferenceBackend(TestSupport.spans(), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(backend, "inputSize", 100);
+        ReflectionTestUtils.setField(backend, "classes", List.of("Faulty", "Potential"));
+        ReflectionTestUtils.setField(backend, "sessionCount", 1);
+        ReflectionTestUtils.setField(backend, "timeout", Duration.ofSeconds(10));
+    }
+
+    @Test
+    void postprocessKeepsTheBestClassPerAnchorAndSuppressesOverlapsAcrossClasses() {
+        float[] output = output(
+                anchor(50, 50, 20, 20, 0.9f, 0.1f),   // Faulty
+                anchor(52, 50, 20, 20, 0.2f, 0.8f),   // Potential, but mostly over the first box
+                anchor(10, 10, 10, 10, 0.05f, 0.6f),  // Potential, on its own
+                anchor(80, 80, 10, 10, 0.05f, 0.08f)); // below the threshold
+
+        // A 200x100 image: x is scaled by 2, y by 1
+        List<Detection> detections = backend.postprocess(output, 6, 4, 200, 100, 0.1, 0.5);
+
+        assertEquals(2, detections.size());
+        Detection first = detections.get(0);
+        assertEquals("Faulty", first.getClassName());
+        assertEquals(0.9, first.getConfidence(), DELTA);
+        assertBox(List.of(80.0, 40.0, 120.0, 60.0), first.getBox());
+        Detection second = detections.get(1);
+        assertEquals("Potential", second.getClassName());
+        assertEquals(0.6, second.getConfidence(), DELTA);
+        assertBox(List.of(10.0, 5.0, 30.0, 15.0), second.getBox());
+    }
+
+    @Test
+    void aLooserIouThresholdKeepsOverlappingBoxes() {
+        float[] output = output(
+                anchor(50, 50, 20, 20, 0.9f, 0.1f),
+                anchor(52, 50, 20, 20, 0.2f, 0.8f));
+
+        List<Detection> detections = backend.postprocess(output, 6, 2, 100, 100, 0.1, 0.9);
+
+        assertEquals(List.of("Faulty", "Potential"), detections.stream().map(Detection::getClassName).toList());
+    }
+
+    @Test
+    void aFailedLoadIsNotRetried(@TempDir Path directory) throws Exception {
+        Path model = Files.write(directory.resolve("broken.onnx"), new byte[]{1, 2, 3});
+        ReflectionTestUtils.setField(backend, "modelPath", model.toString());
+
+        IllegalStateException first = assertThrows(IllegalStateException.class, () -> backend.detect(new byte[0], 0.1, 0.5));
+        IllegalStateException second = assertThrows(IllegalStateException.class, () -> backend.detect(new byte[0], 0.1, 0.5));
+
+        assertSame(first, second);
+        assertEquals(false, backend.stats().get("loaded"));
+        assertEquals(first.getMessage(), backend.stats().get("loadFailure"));
+    }
+
+    @Test
+    void theDispatcherOutlivesARejectedBatch() throws Exception {
+        ExecutorService runners = Executors.newSingleThreadExecutor();
+        runners.shutdown();
+        ReflectionTestUtils.setField(backend, "runners", runners);
+        ReflectionTestUtils.setField(backend, "idle", new ArrayBlockingQueue<>(1, false, List.of(mock(OrtSession.class))));
+        ReflectionTestUtils.setField(backend, "maxBatch", 1);
+        ReflectionTestUtils.setField(backend, "batchWindow", Duration.ZERO);
+        ReflectionTestUtils.setField(backend, "loaded", true);
+        Thread dispatcher = new Thread(() -> ReflectionTestUtils.invokeMethod(backend, "dispatch"));
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        try {
+            byte[] image = png();
+            assertThrows(RejectedExecutionException.class, () -> backend.detect(image, 0.1, 0.5));
+            // The session went back and the dispatcher is still taking batches
+            assertThrows(RejectedExecutionException.class, () -> backend.detect(image, 0.1, 0.5));
+            assertTrue(dispatcher.isAlive());
+        } finally {
+            dispatcher.interrupt();
+        }
+    }
+
+    @Test
+    void shutdownFailsTheQueuedImages() throws Exception {
+        // Loaded, but with no dispatcher to take the image off the queue
+        ReflectionTestUtils.setField(backend, "loaded", true);
+        byte[] image = png();
+        CompletableFuture<List<Detection>> caller = CompletableFuture.supplyAsync(() -> {
+            try {
+                return backend.detect(image, 0.1, 0.5);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        BlockingQueue<?> pending = (BlockingQueue<?>) ReflectionTestUtils.getField(backend, "pending");
+        while (pending.isEmpty()) {
+            Thread.sleep(5);
+        }
+
+        backend.shutdown();
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> caller.get(5, TimeUnit.SECONDS));
+        assertEquals("The local detector is shutting down", failure.getCause().getMessage());
+        assertTrue(pending.isEmpty());
+    }
+
+    private static byte[] png() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB), "png", bytes);
+        return bytes.toByteArray();
+    }
+
+    // Each anchor is cx, cy, w, h and one score per class
+    private static float[] anchor(float cx, float cy, float w, float h, float... scores) {
+        float[] values = new float[4 + scores.length];
+        values[0] = cx;
+        values[1] = cy;
+        values[2] = w;
+        values[3] = h;
+        System.arraycopy(scores, 0, values, 4, scores.length);
+        return values;
+    }
+
+    // Lays the anchors out as the model does: [channels][anchors]
+    private static float[] output(float[]... anchors) {
+        int channels = anchors[0].length;
+        float[] output = new float[channels * anchors.length];
+        for (int a = 0; a < anchors.length; a++) {
+            for (int c = 0; c < channels; c++) {
+                output[c * anchors.length + a] = anchors[a][c];
+            }
+        }
+        return output;
+    }
+
+    private static void assertBox(List<Double> expected, List<Double> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), actual.get(i), DELTA);
+        }
+    }
+}
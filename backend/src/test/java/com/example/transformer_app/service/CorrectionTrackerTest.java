@@ -0,0 +1,67 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.TestSupport;
+import com.example.transformer_app.dto.AnomalyLogEntry;
+import com.example.transformer_app.dto.RetrainJob;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+class CorrectionTrackerTest {
+
+    private RetrainScheduler scheduler;
+    private CorrectionTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = mock(RetrainScheduler.class);
+        tracker = new CorrectionTracker(scheduler, TestSupport.jsonCodecs());
+        ReflectionTestUtils.setField(tracker, "enabled", true);
+        ReflectionTestUtils.setField(tracker, "correctedBoxesThreshold", 0L);
+        ReflectionTestUtils.setField(tracker, "disagreementPercent", 0.0);
+        ReflectionTestUtils.setField(tracker, "minAiBoxes", 1L);
+    }
+
+    @Test
+    void repeatedEditsOfOneBoxCountOnce() {
+        tracker.record(List.of(entry("a", "AI", "add"), entry("b", "AI", "add"), entry("u", "User", "add")));
+        tracker.record(List.of(entry("a", "AI", "edit"), entry("a", "AI", "edit")));
+        tracker.record(List.of(entry("a", "AI", "delete"), entry("u", "User", "edit"), entry("u", "User", "delete")));
+
+        Map<String, Object> counters = tracker.snapshot();
+        assertEquals(2L, counters.get("aiBoxes"));
+        assertEquals(1L, counters.get("aiCorrected"));
+        assertEquals(1L, counters.get("userAdded"));
+        assertEquals(1L, counters.get("userChanged"));
+        assertEquals(50.0, counters.get("disagreementPercent"));
+    }
+
+    @Test
+    void triggersOnceWhileItsJobIsActive() {
+        ReflectionTestUtils.setField(tracker, "correctedBoxesThreshold", 2L);
+        RetrainJob job = new RetrainJob();
+        job.setId("job-1");
+        // Joining an already pending job: the counters are not reset
+        when(scheduler.trigger("auto")).thenReturn(job);
+        when(scheduler.isActive("job-1")).thenReturn(true);
+
+        tracker.record(List.of(entry("u1", "User", "add"), entry("u2", "User", "add")));
+        tracker.record(List.of(entry("u3", "User", "add")));
+        tracker.record(List.of(entry("u4", "User", "add")));
+        verify(scheduler, times(1)).trigger("auto");
+
+        when(scheduler.isActive("job-1")).thenReturn(false);
+        tracker.record(List.of(entry("u5", "User", "add")));
+        verify(scheduler, times(2)).trigger("auto");
+    }
+
+    private static AnomalyLogEntry entry(String id, String madeBy, String action) {
+        return new AnomalyLogEntry(id, List.of(), 0.5, "Faulty", "2025-06-01T10:00:00Z", madeBy, action);
+    }
+}
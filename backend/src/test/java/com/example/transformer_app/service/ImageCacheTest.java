@@ -0,0 +1,82 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.TestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class ImageCacheTest {
+
+    private static final String SUPABASE = "http://supabase.test";
+    private static final String FIRST = "refImages/00000000-0000-0000-0000-000000000001_a.png";
+    private static final String SECOND = "refImages/00000000-0000-0000-0000-000000000002_b.png";
+
+    @TempDir
+    Path directory;
+
+    private MockRestServiceServer server;
+    private ImageCache cache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        cache = new ImageCache(restTemplate, TestSupport.upstreamMetrics());
+        ReflectionTestUtils.setField(cache, "supabaseUrl", SUPABASE);
+        ReflectionTestUtils.setField(cache, "bucketName", "images");
+        ReflectionTestUtils.setField(cache, "directory", directory.toString());
+        ReflectionTestUtils.setField(cache, "maxBytes", 4L);
+        ReflectionTestUtils.setField(cache, "mutableTtl", Duration.ofHours(1));
+        cache.load();
+    }
+
+    @Test
+    void aLeasedFileOutlivesItsEvictionUntilTheLeaseCloses() throws Exception {
+        expect(FIRST, "abcd");
+        expect(SECOND, "efgh");
+
+        Path first;
+        try (ImageCache.Lease lease = cache.open(FIRST)) {
+            first = lease.image().file();
+            // Only one file fits, so this evicts the leased one
+            cache.get(SECOND);
+            assertTrue(Files.exists(first));
+            assertEquals(1, cache.stats().get("files"));
+
+            ByteBuffer bytes = ByteBuffer.allocate(4);
+            lease.channel().read(bytes, 0);
+            assertEquals("abcd", new String(bytes.array()));
+        }
+        assertFalse(Files.exists(first));
+        assertEquals(0, cache.stats().get("leased"));
+        server.verify();
+    }
+
+    @Test
+    void anUnleasedFileIsDeletedOnEviction() throws Exception {
+        expect(FIRST, "abcd");
+        expect(SECOND, "efgh");
+
+        Path first = cache.get(FIRST).file();
+        cache.get(SECOND);
+        assertFalse(Files.exists(first));
+    }
+
+    private void expect(String path, String body) {
+        server.expect(requestTo(SUPABASE + "/storage/v1/object/public/images/" + path))
+                .andRespond(withSuccess(body, MediaType.IMAGE_PNG));
+    }
+}
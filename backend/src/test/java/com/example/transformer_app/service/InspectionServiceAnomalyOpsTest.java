@@ -0,0 +1,176 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.TestSupport;
+import com.example.transformer_app.cache.EtagCache;
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.dto.AnomalyLogEntry;
+import com.example.transformer_app.dto.AnomalyOperation;
+import com.example.transformer_app.dto.Detection;
+import com.example.transformer_app.inference.InferenceBackends;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class InspectionServiceAnomalyOpsTest {
+
+    private static final String SUPABASE = "http://supabase.test";
+    private static final String RPC_URL = SUPABASE + "/rest/v1/rpc/apply_anomaly_ops";
+    private static final String STORED_ROW = "[{\"iid\":7,\"transformerNumber\":\"T-1\",\"anomalies\":"
+            + "[{\"id\":\"a\",\"box\":[1.0,2.0,3.0,4.0],\"class\":\"Faulty\",\"confidence\":0.9,\"madeBy\":\"AI\"}],"
+            + "\"anomaliesLog\":[]}]";
+
+    private final JsonCodecs jsonCodecs = TestSupport.jsonCodecs();
+    private MockRestServiceServer server;
+    private InspectionService service;
+
+    @BeforeEach
+    void setUp() {
+        RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        service = new InspectionService(restTemplate, jsonCodecs, mock(EtagCache.class), TestSupport.upstreamMetrics(),
+                mock(NumberAllocator.class), TestSupport.spans(), mock(InferenceBackends.class), mock(ApplicationEventPublisher.class));
+        ReflectionTestUtils.setField(service, "supabaseUrl", SUPABASE);
+        ReflectionTestUtils.setField(service, "supabaseApiKey", "key");
+        ReflectionTestUtils.setField(service, "anomalyOpsRpcRecheck", Duration.ofMinutes(5));
+    }
+
+    @Test
+    void mergeRejectsFieldsOutsideTheWhitelist() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> InspectionService.validateOperations(List.of(merge(Map.of("madeBy", "User")))));
+        assertTrue(e.getMessage().contains("madeBy"), e.getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> InspectionService.validateOperations(List.of(merge(Map.of("box", List.of(1, 2, 3))))));
+        assertThrows(IllegalArgumentException.class,
+                () -> InspectionService.validateOperations(List.of(merge(Map.of("confidence", "high")))));
+        assertThrows(IllegalArgumentException.class,
+                () -> InspectionService.validateOperations(List.of(merge(Map.of()))));
+    }
+
+    @Test
+    void mergeFieldsAreSentUnderTheirStoredNames() {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("className", "Normal");
+        fields.put("box", List.of(1, 2, 3, 4));
+        fields.put("confidence", null);
+        AnomalyOperation operation = merge(fields);
+
+        InspectionService.validateOperations(List.of(operation));
+
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("class", "Normal");
+        expected.put("box", List.of(1.0, 2.0, 3.0, 4.0));
+        expected.put("confidence", null);
+        assertEquals(expected, operation.getFields());
+    }
+
+    @Test
+    void rpcPathSendsTheCanonicalMergeAndAnswersWithTheRow() throws Exception {
+        AtomicReference<String> sent = new AtomicReference<>();
+        server.expect(requestTo(RPC_URL)).andExpect(method(HttpMethod.POST))
+                .andExpect(request -> sent.set(((MockClientHttpRequest) request).getBodyAsString()))
+                .andRespond(withSuccess("{\"changed\":[{\"id\":\"a\",\"box\":[1.0,2.0,3.0,4.0],\"class\":\"Normal\",\"madeBy\":\"AI\"}],"
+                        + "\"removed\":[],\"logged\":[]}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(SUPABASE + "/rest/v1/inspections?iid=eq.7&select=*")).andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess("[{\"iid\":7}]", MediaType.APPLICATION_JSON));
+
+        ResponseEntity<String> response = service.applyAnomalyOperations(7L, List.of(merge(Map.of("className", "Normal"))));
+
+        server.verify();
+        JsonNode ops = jsonCodecs.readTree(sent.get()).get("p_ops");
+        assertEquals(jsonCodecs.readTree("[{\"op\":\"merge\",\"id\":\"a\",\"fields\":{\"class\":\"Normal\"}}]"), ops);
+        // Same full-row body as the PATCH with return=representation used to give
+        assertEquals("[{\"iid\":7}]", response.getBody());
+    }
+
+    @Test
+    void fallbackPathStoresTheElementTheRpcWould() throws Exception {
+        AtomicReference<String> patched = new AtomicReference<>();
+        server.expect(requestTo(RPC_URL))
+                .andRespond(withStatus(HttpStatus.NOT_FOUND).contentType(MediaType.APPLICATION_JSON)
+                        .body("{\"code\":\"PGRST202\",\"message\":\"Could not find the function\"}"));
+        server.expect(requestTo(SUPABASE + "/rest/v1/inspections?iid=eq.7&select=*&limit=1"))
+                .andRespond(withSuccess(STORED_ROW, MediaType.APPLICATION_JSON));
+        server.expect(requestTo(SUPABASE + "/rest/v1/inspections?iid=eq.7")).andExpect(method(HttpMethod.PATCH))
+                .andExpect(request -> patched.set(((MockClientHttpRequest) request).getBodyAsString()))
+                .andRespond(withSuccess("[{\"iid\":7,\"patched\":true}]", MediaType.APPLICATION_JSON));
+
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("className", "Normal");
+        fields.put("confidence", null);
+        ResponseEntity<String> response = service.applyAnomalyOperations(7L, List.of(merge(fields)));
+
+        server.verify();
+        // db/008: existing || {"class":"Normal","confidence":null}, with the null confidence removed
+        JsonNode expected = jsonCodecs.readTree("[{\"id\":\"a\",\"box\":[1.0,2.0,3.0,4.0],\"class\":\"Normal\",\"madeBy\":\"AI\"}]");
+        assertEquals(expected, jsonCodecs.readTree(patched.get()).get("anomalies"));
+        assertEquals("[{\"iid\":7,\"patched\":true}]", response.getBody());
+    }
+
+    @Test
+    void missingRpcIsProbedAgainAfterTheRecheckInterval() throws Exception {
+        ReflectionTestUtils.setField(service, "anomalyOpsRpcRecheck", Duration.ZERO);
+        server.expect(requestTo(RPC_URL))
+                .andRespond(withStatus(HttpStatus.NOT_FOUND).contentType(MediaType.APPLICATION_JSON)
+                        .body("{\"code\":\"PGRST202\"}"));
+        server.expect(requestTo(SUPABASE + "/rest/v1/inspections?iid=eq.7&select=*&limit=1"))
+                .andRespond(withSuccess(STORED_ROW, MediaType.APPLICATION_JSON));
+        server.expect(requestTo(SUPABASE + "/rest/v1/inspections?iid=eq.7")).andExpect(method(HttpMethod.PATCH))
+                .andRespond(withSuccess("[]", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(RPC_URL))
+                .andRespond(withSuccess("{\"changed\":[],\"removed\":[\"a\"]}", MediaType.APPLICATION_JSON));
+
+        service.applyAnomalyPatch(7L, jsonCodecs.readTree("[{\"op\":\"replace\",\"path\":\"/a/class\",\"value\":\"Normal\"}]"));
+        ResponseEntity<String> second = service.applyAnomalyPatch(7L, jsonCodecs.readTree("[{\"op\":\"remove\",\"path\":\"/a\"}]"));
+
+        server.verify();
+        assertEquals(jsonCodecs.readTree("{\"changed\":[],\"removed\":[\"a\"]}"), jsonCodecs.readTree(second.getBody()));
+    }
+
+    @Test
+    void localOperationsMergeOnlyTheGivenFields() throws Exception {
+        List<Detection> anomalies = new ArrayList<>(
+                jsonCodecs.readInspections(STORED_ROW).get(0).getAnomalies());
+        List<AnomalyLogEntry> log = new ArrayList<>();
+        List<AnomalyOperation> operations = List.of(merge(Map.of("box", List.of(5, 6, 7, 8))));
+        InspectionService.validateOperations(operations);
+
+        service.applyOperationsTo(7L, anomalies, log, operations);
+
+        assertEquals(List.of(5.0, 6.0, 7.0, 8.0), anomalies.get(0).getBox());
+        assertEquals("Faulty", anomalies.get(0).getClassName());
+        assertEquals(0.9, anomalies.get(0).getConfidence());
+        assertEquals("AI", anomalies.get(0).getMadeBy());
+        assertEquals(1, log.size());
+        assertEquals("edit", log.get(0).getAction());
+    }
+
+    private static AnomalyOperation merge(Map<String, Object> fields) {
+        AnomalyOperation operation = new AnomalyOperation(AnomalyOperation.MERGE, "a", null);
+        operation.setFields(new LinkedHashMap<>(fields));
+        return operation;
+    }
+}
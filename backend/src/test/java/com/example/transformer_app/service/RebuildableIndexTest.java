@@ -0,0 +1,95 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.TestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class RebuildableIndexTest {
+
+    private static final String SUPABASE = "http://supabase.test";
+
+    private MockRestServiceServer server;
+    private FleetAggregateService aggregates;
+    private AnomalyQueryIndex anomalyIndex;
+    private TransformerRiskService risk;
+
+    @BeforeEach
+    void setUp() {
+        RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).ignoreExpectOrder(true).build();
+        aggregates = configure(new FleetAggregateService(restTemplate, TestSupport.jsonCodecs(), TestSupport.upstreamMetrics(), TestSupport.spans()));
+        anomalyIndex = configure(new AnomalyQueryIndex(restTemplate, TestSupport.jsonCodecs(), TestSupport.upstreamMetrics(), TestSupport.spans()));
+        ReflectionTestUtils.setField(anomalyIndex, "confidenceBuckets", 10);
+        ReflectionTestUtils.setField(anomalyIndex, "maxLimit", 100);
+        risk = configure(new TransformerRiskService(restTemplate, TestSupport.jsonCodecs(), TestSupport.upstreamMetrics(), TestSupport.spans()));
+        ReflectionTestUtils.setField(risk, "potentialClassWeight", 0.5);
+        ReflectionTestUtils.setField(risk, "referenceBoxArea", 10000.0);
+        ReflectionTestUtils.setField(risk, "loadingLow", 0.7);
+        ReflectionTestUtils.setField(risk, "loadingHigh", 1.2);
+    }
+
+    @Test
+    void sharedRebuildReadsEachTableOnceWithTheUnionOfColumns() throws Exception {
+        expect("/rest/v1/inspections?select=iid&order=iid.desc&limit=1", "[{\"iid\":4}]");
+        expect("/rest/v1/transformers?select=id,transformerNumber,region,type,capacity&id=gt.0&order=id.asc&limit=10",
+                "[{\"id\":1,\"transformerNumber\":\"T-1\",\"region\":\"North\",\"type\":\"Bulk\",\"capacity\":100},"
+                        + "{\"id\":2,\"transformerNumber\":\"T-2\",\"region\":\"South\"}]");
+        expect("/rest/v1/inspections?select=iid,transformerNumber,anomalies,inspectionNumber&and=(iid.gt.0,iid.lte.2)&order=iid.asc&limit=10",
+                "[{\"iid\":1,\"transformerNumber\":\"T-1\",\"inspectionNumber\":\"INS-1\",\"anomalies\":[{\"id\":\"a\",\"box\":[0,0,100,100],"
+                        + "\"class\":\"Point Overload - Faulty\",\"confidence\":0.8,\"madeBy\":\"AI\"}]},"
+                        + "{\"iid\":2,\"transformerNumber\":\"T-2\",\"inspectionNumber\":\"INS-2\",\"anomalies\":[]}]");
+        expect("/rest/v1/inspections?select=iid,transformerNumber,anomalies,inspectionNumber&and=(iid.gt.2,iid.lte.4)&order=iid.asc&limit=10",
+                "[{\"iid\":4,\"transformerNumber\":\"T-1\",\"inspectionNumber\":\"INS-4\",\"anomalies\":[{\"id\":\"b\",\"box\":[0,0,100,100],"
+                        + "\"class\":\"Loose Joint - Potential\",\"madeBy\":\"User\"}]}]");
+        expect("/rest/v1/maintenance?select=mid,inspectionNumber,details&mid=gt.0&order=mid.asc&limit=10",
+                "[{\"mid\":1,\"inspectionNumber\":\"INS-4\",\"details\":{\"currentMonthKVA\":\"100\"}}]");
+
+        List<Map<String, Object>> results = RebuildableIndex.rebuildTogether(List.of(aggregates, anomalyIndex, risk));
+
+        // No second read of the latest anomalies: the shared inspections read already carried them
+        server.verify();
+        assertEquals(3, results.size());
+        assertEquals(3, results.get(0).get("inspections"));
+        assertNotNull(aggregates.builtAt());
+
+        Map<String, Object> snapshot = aggregates.snapshot();
+        assertEquals(2L, snapshot.get("anomalies"));
+        assertEquals(Map.of("North", 2L), snapshot.get("byRegion"));
+        assertEquals(1L, anomalyIndex.query("Point Overload - Faulty", null, null, "North", null, false, null, 10).get("total"));
+        assertEquals(4L, risk.risk("T-1").getInspectionIid());
+        assertEquals(0.5, risk.risk("T-1").getAnomalyComponent(), 1e-9);
+        assertEquals(0.6, risk.risk("T-1").getLoadingComponent(), 1e-9);
+    }
+
+    @Test
+    void aSecondRebuildOfTheSameIndexIsRefused() {
+        ((AtomicBoolean) ReflectionTestUtils.getField(aggregates, "rebuilding")).set(true);
+        assertThrows(RebuildRunningException.class, () -> RebuildableIndex.rebuildTogether(List.of(anomalyIndex, aggregates)));
+        // The index that was claimed first is released again
+        assertFalse(anomalyIndex.isRebuilding());
+    }
+
+    private <T extends RebuildableIndex> T configure(T index) {
+        ReflectionTestUtils.setField(index, "supabaseUrl", SUPABASE);
+        ReflectionTestUtils.setField(index, "supabaseApiKey", "key");
+        ReflectionTestUtils.setField(index, "pageSize", 10);
+        ReflectionTestUtils.setField(index, "inspectionSlices", 2);
+        return index;
+    }
+
+    private void expect(String path, String body) {
+        server.expect(requestTo(SUPABASE + path)).andRespond(withSuccess(body, MediaType.APPLICATION_JSON));
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.TestSupport;
+import com.example.transformer_app.config.JsonCodecs;
+import com.example.transformer_app.dto.AnomalyLogEntry;
+import com.example.transformer_app.dto.Detection;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class RetrainDatasetServiceTest {
+
+    private static final String SUPABASE = "http://supabase.test";
+    private static final String IMAGE_URL = SUPABASE + "/storage/v1/object/public/images/ref.png";
+
+    private final JsonCodecs jsonCodecs = TestSupport.jsonCodecs();
+    private MockRestServiceServer server;
+    private RetrainDatasetService service;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void setUp() {
+        RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        service = new RetrainDatasetService(restTemplate, jsonCodecs, TestSupport.upstreamMetrics(), TestSupport.spans());
+        ReflectionTestUtils.setField(service, "supabaseUrl", SUPABASE);
+        ReflectionTestUtils.setField(service, "supabaseApiKey", "key");
+        ReflectionTestUtils.setField(service, "pageSize", 100);
+        ReflectionTestUtils.setField(service, "watermarkFile", dir.resolve("watermark.txt").toString());
+        ReflectionTestUtils.setField(service, "watermarkSkew", Duration.ofMinutes(5));
+    }
+
+    @Test
+    void classNamesAreMatchedIgnoringCaseAndSpacing() {
+        assertEquals("4 0.500000 0.500000 0.100000 0.200000", RetrainDatasetService.yoloLine(detection("Normal"), 100, 50));
+        assertEquals("4 0.500000 0.500000 0.100000 0.200000", RetrainDatasetService.yoloLine(detection("normal"), 100, 50));
+        assertTrue(RetrainDatasetService.yoloLine(detection("Loose Joint -Faulty"), 100, 50).startsWith("1 "));
+        assertNull(RetrainDatasetService.yoloLine(detection("Unknown"), 100, 50));
+        assertNull(RetrainDatasetService.yoloLine(detection(null), 100, 50));
+    }
+
+    @Test
+    void checkpointsOfUserBoxesCountAsCorrections() {
+        Instant cut = Instant.parse("2025-06-02T00:00:00Z");
+        List<AnomalyLogEntry> log = List.of(
+                entry("a", "AI", AnomalyLogEntry.CHECKPOINT, "2025-06-03T00:00:00Z"),
+                entry("b", "User", AnomalyLogEntry.CHECKPOINT, cut.toString()),
+                entry("c", "AI", "add", "2025-06-04T00:00:00Z"));
+        assertEquals(cut, RetrainDatasetService.lastCorrection(log));
+
+        // A compacted head whose only corrections were edits/deletes of AI boxes
+        Instant segmentCut = Instant.parse("2025-06-05T00:00:00Z");
+        List<AnomalyLogEntry> compacted = List.of(
+                entry("anomalyLogArchive/7/000001749081600000.json.gz", "User", AnomalyLogEntry.SEGMENT, segmentCut.toString()),
+                entry("a", "AI", AnomalyLogEntry.CHECKPOINT, segmentCut.toString()));
+        assertEquals(segmentCut, RetrainDatasetService.lastCorrection(compacted));
+
+        assertNull(RetrainDatasetService.lastCorrection(List.of(entry("a", "AI", "add", "2025-06-04T00:00:00Z"))));
+    }
+
+    @Test
+    void watermarkIsTheStartTimeMinusSkewAndOnlyStoredOnAck() throws Exception {
+        server.expect(requestTo(SUPABASE + "/rest/v1/inspections?select=iid,refImage,anomalies,anomaliesLog&order=iid.asc&limit=100"))
+                .andRespond(withSuccess("[{\"iid\":7,\"refImage\":\"" + IMAGE_URL + "\","
+                        + "\"anomalies\":[{\"id\":\"a\",\"box\":[50.0,25.0,10.0,10.0],\"class\":\"Normal\",\"madeBy\":\"AI\"}],"
+                        + "\"anomaliesLog\":[{\"id\":\"a\",\"class\":\"Normal\",\"timestamp\":\"2025-06-01T10:00:00Z\","
+                        + "\"madeBy\":\"AI\",\"action\":\"edit\"}]}]", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(IMAGE_URL)).andRespond(withSuccess(png(100, 50), MediaType.IMAGE_PNG));
+
+        Instant before = Instant.now();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.export(null, out);
+        Instant after = Instant.now();
+        server.verify();
+
+        Map<String, String> zip = unzip(out.toByteArray());
+        assertEquals("4 0.500000 0.500000 0.100000 0.200000\n", zip.get("labels/7_ref.txt"));
+        JsonNode manifest = jsonCodecs.readTree(zip.get("manifest.json"));
+        Instant watermark = Instant.parse(manifest.get("watermark").asText());
+        assertFalse(watermark.isBefore(before.minus(Duration.ofMinutes(5))));
+        assertFalse(watermark.isAfter(after.minus(Duration.ofMinutes(5))));
+
+        // Exporting does not move the stored watermark; acknowledging does, and only forward
+        assertNull(service.resolveSince("last"));
+        assertEquals(watermark, service.acknowledge(watermark));
+        assertEquals(watermark, service.resolveSince("last"));
+        assertEquals(watermark, service.acknowledge(watermark.minusSeconds(60)));
+        assertEquals(watermark.toString(), Files.readString(dir.resolve("watermark.txt"), StandardCharsets.UTF_8));
+    }
+
+    private static Detection detection(String className) {
+        Detection detection = new Detection();
+        detection.setId("a");
+        detection.setBox(List.of(50.0, 25.0, 10.0, 10.0));
+        detection.setClassName(className);
+        return detection;
+    }
+
+    private static AnomalyLogEntry entry(String id, String madeBy, String action, String timestamp) {
+        return new AnomalyLogEntry(id, List.of(), 0.0, "", timestamp, madeBy, action);
+    }
+
+    private static byte[] png(int width, int height) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", bytes);
+        return bytes.toByteArray();
+    }
+
+    private static Map<String, String> unzip(byte[] bytes) throws Exception {
+        Map<String, String> entries = new HashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(bytes))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                entries.put(entry.getName(), new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.TestSupport;
+import com.example.transformer_app.dto.RetrainJob;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class RetrainSchedulerTest {
+
+    private static final String RETRAIN_URL = "http://trainer.test/trigger-training";
+
+    private RetrainScheduler scheduler;
+    private MockRestServiceServer server;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new RetrainScheduler(new RestTemplateBuilder(), TestSupport.jsonCodecs(), TestSupport.upstreamMetrics(),
+                TestSupport.spans(), Duration.ofSeconds(5));
+        server = MockRestServiceServer.bindTo((RestTemplate) ReflectionTestUtils.getField(scheduler, "retrainRestTemplate")).build();
+        ReflectionTestUtils.setField(scheduler, "retrainUrl", RETRAIN_URL);
+        ReflectionTestUtils.setField(scheduler, "historySize", 50);
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void triggersWithinTheWindowJoinThePendingJob() throws Exception {
+        ReflectionTestUtils.setField(scheduler, "coalesceWindow", Duration.ofHours(1));
+        AtomicInteger created = new AtomicInteger();
+        // A listener that needs the scheduler from another thread would deadlock if it ran under the lock
+        scheduler.onNewJob(() -> {
+            created.incrementAndGet();
+            CompletableFuture.supplyAsync(scheduler::latest).orTimeout(5, TimeUnit.SECONDS).join();
+        });
+
+        RetrainJob first = scheduler.trigger("manual");
+        RetrainJob second = scheduler.trigger("auto");
+
+        assertEquals(first.getId(), second.getId());
+        assertEquals(RetrainJob.PENDING, second.getStatus());
+        assertEquals(2, second.getTriggers());
+        assertEquals(1, created.get());
+        assertEquals(2, scheduler.latest().getTriggers());
+    }
+
+    @Test
+    void triggerDuringARunSchedulesOneFollowUp() throws Exception {
+        ReflectionTestUtils.setField(scheduler, "coalesceWindow", Duration.ZERO);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> bodies = new CopyOnWriteArrayList<>();
+        server.expect(ExpectedCount.twice(), requestTo(RETRAIN_URL)).andRespond(request -> {
+            bodies.add(((MockClientHttpRequest) request).getBodyAsString());
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return withSuccess("{\"message\":\"ok\",\"jobId\":\"train-" + bodies.size() + "\"}", MediaType.APPLICATION_JSON)
+                    .createResponse(request);
+        });
+
+        RetrainJob first = scheduler.trigger("manual");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(RetrainJob.RUNNING, scheduler.job(first.getId()).getStatus());
+
+        RetrainJob followUp = scheduler.trigger("auto");
+        RetrainJob joined = scheduler.trigger("auto");
+        assertNotEquals(first.getId(), followUp.getId());
+        assertEquals(followUp.getId(), joined.getId());
+        assertEquals(2, joined.getTriggers());
+        assertEquals(1, scheduler.job(first.getId()).getTriggers());
+
+        release.countDown();
+        RetrainJob done = awaitFinished(followUp.getId());
+        server.verify();
+
+        assertEquals(RetrainJob.SUCCEEDED, scheduler.job(first.getId()).getStatus());
+        assertEquals(RetrainJob.SUCCEEDED, done.getStatus());
+        assertEquals("train-2", done.getUpstreamJobId());
+        assertEquals(List.of("{\"jobId\":\"" + first.getId() + "\"}", "{\"jobId\":\"" + followUp.getId() + "\"}"), bodies);
+    }
+
+    private RetrainJob awaitFinished(String jobId) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            RetrainJob job = scheduler.job(jobId);
+            if (job.getFinishedAt() != null) {
+                return job;
+            }
+            Thread.sleep(10);
+        }
+        fail("Retrain job " + jobId + " did not finish");
+        return null;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.transformer_app.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchIndexTest {
+
+    @Test
+    void prefixesMatchEveryTokenAndRankByField() {
+        SearchIndex index = new SearchIndex();
+        index.put(transformer("EN-122-A", "Kandy", "Loose joint near the north pole"));
+        index.put(transformer("EN-200", "Colombo", "Close to Kandy road"));
+        index.put(transformer("AZ-7", "Kandy", "Substation yard"));
+
+        SearchIndex.Result kandy = index.search(List.of("kandy"), null, null, null, 10, 100);
+        assertEquals(3, kandy.total());
+        assertEquals(Map.of("Kandy", 2, "Colombo", 1), kandy.facets().get("region"));
+
+        // Code fields are also indexed with separators stripped
+        assertEquals(List.of("EN-122-A"), keys(index.search(List.of("en12"), null, null, null, 10, 100)));
+        // Every token has to match, each as a word prefix
+        assertEquals(List.of("EN-122-A"), keys(index.search(List.of("loose", "nor"), null, null, null, 10, 100)));
+        assertEquals(0, index.search(List.of("loose", "south"), null, null, null, 10, 100).total());
+
+        // An exact word in the pole number (weight 4) beats a completion in the location (weight 2)
+        Map<String, String> pole = new HashMap<>(Map.of("transformerNumber", "AZ-9", "poleNumber", "KAN-1"));
+        index.put(new SearchIndex.Document("transformer", "AZ-9", "AZ-9", null, "Galle", null, null, pole));
+        SearchIndex.Result kan = index.search(List.of("kan"), null, null, null, 1, 100);
+        assertEquals(4, kan.total());
+        assertEquals(List.of("AZ-9"), keys(kan));
+        assertEquals(4.0, kan.hits().get(0).score());
+    }
+
+    @Test
+    void filtersApplyToHitsAndFacets() {
+        SearchIndex index = new SearchIndex();
+        index.put(transformer("EN-1", "Kandy", "yard"));
+        index.put(transformer("EN-2", "Colombo", "yard"));
+
+        SearchIndex.Result result = index.search(List.of("yard"), null, "Kandy", null, 10, 100);
+        assertEquals(List.of("EN-1"), keys(result));
+        assertEquals(Map.of("Kandy", 1), result.facets().get("region"));
+        assertEquals(0, index.search(List.of("yard"), null, "Galle", null, 10, 100).total());
+    }
+
+    @Test
+    void updatesReuseSlotsAndDropStaleTerms() {
+        SearchIndex index = new SearchIndex();
+        index.put(transformer("EN-1", "Kandy", "yard"));
+        index.put(transformer("EN-2", "Kandy", "yard"));
+        for (int i = 0; i < 1000; i++) {
+            index.put(transformer("EN-1", "Kandy", "revision " + i));
+        }
+
+        assertEquals(2, index.size());
+        assertEquals(2, index.slots());
+        assertEquals(List.of("EN-1"), keys(index.search(List.of("revision", "999"), null, null, null, 10, 100)));
+        assertEquals(0, index.search(List.of("revision", "998"), null, null, null, 10, 100).total());
+        assertEquals(List.of("EN-2"), keys(index.search(List.of("yard"), null, null, null, 10, 100)));
+
+        assertTrue(index.remove("transformer", "EN-2"));
+        assertFalse(index.remove("transformer", "EN-2"));
+        index.put(transformer("EN-3", "Galle", "yard"));
+        assertEquals(2, index.slots());
+        SearchIndex.Result yard = index.search(List.of("yard"), null, null, null, 10, 100);
+        assertEquals(List.of("EN-3"), keys(yard));
+        assertEquals(Map.of("Galle", 1), yard.facets().get("region"));
+    }
+
+    private static SearchIndex.Document transformer(String number, String region, String location) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("transformerNumber", number);
+        fields.put("region", region);
+        fields.put("locationDetails", location);
+        return new SearchIndex.Document("transformer", number, number, location, region, null, null, fields);
+    }
+
+    private static List<String> keys(SearchIndex.Result result) {
+        return result.hits().stream().map(hit -> hit.document().key()).toList();
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.transformer_app.service;
+
+import com.example.transformer_app.TestSupport;
+import com.example.transformer_app.dto.Detection;
+import com.example.transformer_app.dto.TransformerRisk;
+import com.example.transformer_app.event.AnomaliesChanged;
+import com.example.transformer_app.event.InspectionAnalyzed;
+import com.example.transformer_app.event.MaintenanceSaved;
+import com.example.transformer_app.event.TransformerSaved;
+import com.example.transformer_app.model.Inspection;
+import com.example.transformer_app.model.Maintenance;
+import com.example.transformer_app.model.Transformer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class TransformerRiskServiceTest {
+
+    private static final String SUPABASE = "http://supabase.test";
+    private static final double DELTA = 1e-9;
+
+    private MockRestServiceServer server;
+    private TransformerRiskService service;
+
+    @BeforeEach
+    void setUp() {
+        RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).ignoreExpectOrder(true).build();
+        service = new TransformerRiskService(restTemplate, TestSupport.jsonCodecs(), TestSupport.upstreamMetrics(), TestSupport.spans());
+        ReflectionTestUtils.setField(service, "supabaseUrl", SUPABASE);
+        ReflectionTestUtils.setField(service, "supabaseApiKey", "key");
+        ReflectionTestUtils.setField(service, "anomalyWeight", 0.5);
+        ReflectionTestUtils.setField(service, "imbalanceWeight", 0.25);
+        ReflectionTestUtils.setField(service, "loadingWeight", 0.25);
+        ReflectionTestUtils.setField(service, "potentialClassWeight", 0.5);
+        ReflectionTestUtils.setField(service, "referenceBoxArea", 10000.0);
+        ReflectionTestUtils.setField(service, "currentImbalanceLimit", 0.2);
+        ReflectionTestUtils.setField(service, "voltageImbalanceLimit", 0.05);
+        ReflectionTestUtils.setField(service, "loadingLow", 0.7);
+        ReflectionTestUtils.setField(service, "loadingHigh", 1.2);
+        ReflectionTestUtils.setField(service, "parallelism", 2);
+        ReflectionTestUtils.setField(service, "pageSize", 2);
+        ReflectionTestUtils.setField(service, "inspectionSlices", 1);
+    }
+
+    @Test
+    void anomalyBoxesCombineByClassCertaintyAndSize() {
+        service.onTransformer(new TransformerSaved(transformer("T-1", "North", null)));
+        service.onInspection(analyzed(1L, "T-1", "INS-1", List.of(
+                detection("a", "Point Overload - Faulty", "AI", 0.8, 100, 100),   // 1 x 0.8 x 1
+                detection("b", "Loose Joint - Potential", "User", null, 50, 100), // 0.5 x 1 x 0.75
+                detection("c", "Normal", "AI", 0.99, 100, 100))));                // 0
+
+        TransformerRisk risk = service.risk("T-1");
+        double anomalies = 1 - (1 - 0.8) * (1 - 0.375);
+        assertEquals(anomalies, risk.getAnomalyComponent(), DELTA);
+        assertEquals(3, risk.getAnomalies());
+        assertEquals(Math.round(100 * 0.5 * anomalies * 10) / 10.0, risk.getScore(), DELTA);
+
+        service.onAnomaliesChanged(new AnomaliesChanged(1L, List.of(), List.of("a")));
+        assertEquals(0.375, service.risk("T-1").getAnomalyComponent(), DELTA);
+
+        // Results for an older inspection of the transformer don't replace the latest one
+        service.onInspection(analyzed(0L, "T-1", "INS-0", List.of(detection("x", "Point Overload - Faulty", "User", null, 100, 100))));
+        assertEquals(1L, service.risk("T-1").getInspectionIid());
+    }
+
+    @Test
+    void readingsAddImbalanceAndLoading() {
+        service.onTransformer(new TransformerSaved(transformer("T-1", "North", 100)));
+        service.onInspection(analyzed(1L, "T-1", "INS-1", List.of()));
+        service.onMaintenance(new MaintenanceSaved(maintenance(5L, "INS-1", Map.of(
+                "secondInspectionReadings", Map.of(
+                        "current", Map.of("r", 100.0, "y", 100.0, "b", 130.0),
+                        "voltage", Map.of("r", 230.0, "y", 230.0, "b", 230.0)),
+                "lastMonthKVA", "80 kVA",
+                "currentMonthKVA", 90))));
+
+        TransformerRisk risk = service.risk("T-1");
+        double current = 20.0 / 110.0;
+        assertEquals(current, risk.getCurrentImbalance(), DELTA);
+        assertEquals(0.0, risk.getVoltageImbalance(), DELTA);
+        assertEquals(current / 0.2, risk.getImbalanceComponent(), DELTA);
+        assertEquals(0.9, risk.getLoading(), DELTA);
+        assertEquals(1.0, risk.getProjectedLoading(), DELTA);
+        assertEquals((1.0 - 0.7) / 0.5, risk.getLoadingComponent(), DELTA);
+        assertEquals(Math.round(100 * (0.25 * current / 0.2 + 0.25 * 0.6) * 10) / 10.0, risk.getScore(), DELTA);
+
+        // An older maintenance record does not replace the newer readings
+        service.onMaintenance(new MaintenanceSaved(maintenance(4L, "INS-1", Map.of("currentMonthKVA", 200))));
+        assertEquals(5L, service.risk("T-1").getMaintenanceMid());
+    }
+
+    @Test
+    void topIsOrderedPerRegionAndFollowsRegionChanges() {
+        service.onTransformer(new TransformerSaved(transformer("T-1", "North", null)));
+        service.onTransformer(new TransformerSaved(transformer("T-2", "North", null)));
+        service.onTransformer(new TransformerSaved(transformer("T-3", "South", null)));
+        service.onInspection(analyzed(1L, "T-1", null, List.of(detection("a", "Loose Joint - Potential", "User", null, 100, 100))));
+        service.onInspection(analyzed(2L, "T-2", null, List.of(detection("b", "Point Overload - Faulty", "User", null, 100, 100))));
+        service.onInspection(analyzed(3L, "T-3", null, List.of(detection("c", "Point Overload - Faulty", "AI", 0.6, 100, 100))));
+
+        assertEquals(List.of("T-2", "T-3", "T-1"), numbers(service.top(null, 10)));
+        assertEquals(List.of("T-2"), numbers(service.top("North", 1)));
+
+        service.onTransformer(new TransformerSaved(transformer("T-2", "South", null)));
+        assertEquals(List.of("T-1"), numbers(service.top("North", 10)));
+        assertEquals(List.of("T-2", "T-3"), numbers(service.top("South", 10)));
+        assertThrows(IllegalArgumentException.class, () -> service.top(null, 0));
+    }
+
+    @Test
+    void rebuildPagesEveryListingAndReadsOnlyTheLatestAnomalies() throws Exception {
+        expect("/rest/v1/transformers?select=id,transformerNumber,region,capacity&id=gt.0&order=id.asc&limit=2",
+                "[{\"id\":1,\"transformerNumber\":\"T-1\",\"region\":\"North\"},{\"id\":2,\"transformerNumber\":\"T-2\"}]");
+        expect("/rest/v1/transformers?select=id,transformerNumber,region,capacity&id=gt.2&order=id.asc&limit=2",
+                "[{\"id\":3,\"transformerNumber\":\"T-3\",\"region\":\"South\",\"capacity\":100}]");
+        expect("/rest/v1/inspections?select=iid,transformerNumber,inspectionNumber&iid=gt.0&order=iid.asc&limit=2",
+                "[{\"iid\":1,\"transformerNumber\":\"T-1\",\"inspectionNumber\":\"INS-1\"},"
+                        + "{\"iid\":2,\"transformerNumber\":\"T-1\",\"inspectionNumber\":\"INS-2\"}]");
+        expect("/rest/v1/inspections?select=iid,transformerNumber,inspectionNumber&iid=gt.2&order=iid.asc&limit=2",
+                "[{\"iid\":3,\"transformerNumber\":\"T-3\",\"inspectionNumber\":\"INS-3\"}]");
+        expect("/rest/v1/maintenance?select=mid,inspectionNumber,details&mid=gt.0&order=mid.asc&limit=2",
+                "[{\"mid\":1,\"inspectionNumber\":\"INS-3\",\"details\":{\"currentMonthKVA\":\"100\"}}]");
+        server.expect(request -> assertTrue(request.getURI().toString().startsWith(SUPABASE + "/rest/v1/inspections?select=iid,anomalies&iid=in.(")))
+                .andRespond(withSuccess("[{\"iid\":2,\"anomalies\":[{\"id\":\"a\",\"box\":[0,0,100,100],"
+                        + "\"class\":\"Point Overload - Faulty\",\"madeBy\":\"User\"}]},{\"iid\":3,\"anomalies\":[]}]", MediaType.APPLICATION_JSON));
+
+        Map<String, Object> result = service.rebuild();
+
+        server.verify();
+        assertEquals(3, result.get("transformers"));
+        assertEquals(2L, service.risk("T-1").getInspectionIid());
+        assertEquals(50.0, service.risk("T-1").getScore(), DELTA);
+        assertEquals(TransformerRiskService.UNKNOWN, service.risk("T-2").getRegion());
+        // loading 1.0 -> (1.0 - 0.7) / 0.5
+        assertEquals(0.6, service.risk("T-3").getLoadingComponent(), DELTA);
+        assertEquals(List.of("T-1", "T-3", "T-2"), numbers(service.top(null, 10)));
+    }
+
+    private void expect(String path, String body) {
+        server.expect(requestTo(SUPABASE + path)).andRespond(withSuccess(body, MediaType.APPLICATION_JSON));
+    }
+
+    private static List<String> numbers(List<TransformerRisk> risks) {
+        return risks.stream().map(TransformerRisk::getTransformerNumber).toList();
+    }
+
+    private static InspectionAnalyzed analyzed(Long iid, String transformerNumber, String inspectionNumber, List<Detection> anomalies) {
+        Inspection inspection = new Inspection();
+        inspection.setIid(iid);
+        inspection.setTransformerNumber(transformerNumber);
+        inspection.setInspectionNumber(inspectionNumber);
+        return new InspectionAnalyzed(inspection, anomalies);
+    }
+
+    private static Transformer transformer(String number, String region, Integer capacity) {
+        Transformer transformer = new Transformer();
+        transformer.setTransformerNumber(number);
+        transformer.setRegion(region);
+        transformer.setCapacity(capacity);
+        return transformer;
+    }
+
+    private static Detection detection(String id, String className, String madeBy, Double confidence, double width, double height) {
+        Detection detection = new Detection();
+        detection.setId(id);
+        detection.setClassName(className);
+        detection.setMadeBy(madeBy);
+        detection.setConfidence(confidence);
+        detection.setBox(List.of(200.0, 200.0, width, height));
+        return detection;
+    }
+
+    private static Maintenance maintenance(Long mid, String inspectionNumber, Map<String, Object> details) {
+        Maintenance maintenance = new Maintenance();
+        maintenance.setMid(mid);
+        maintenance.setInspectionNumber(inspectionNumber);
+        maintenance.setDetails(details);
+        return maintenance;
+    }
+}